@@ -0,0 +1,355 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+
+import org.ow2.proactive.scheduler.common.SchedulerConstants;
+import org.ow2.proactive.scheduler.task.SchedulerVars;
+
+import benchmark.utils.BenchmarkInputs;
+import jsr223.docker.compose.DockerComposeScriptEngine;
+import jsr223.docker.compose.utils.DockerComposePropertyLoader;
+import jsr223.docker.file.DockerFilePropertyLoader;
+import jsr223.docker.file.DockerFileScriptEngine;
+
+
+/**
+ * Measures the time an eval spends outside of docker, by pointing the engines at a simulated docker client
+ * (benchmark/fake-docker.sh) with a fixed latency. No docker daemon is needed.
+ * <p>
+ * Parameters are given as system properties:
+ * <ul>
+ * <li>benchmark.engine: dockerfile or docker-compose (default dockerfile)</li>
+ * <li>benchmark.concurrency: number of concurrent evals (default 4)</li>
+ * <li>benchmark.evals: number of measured evals (default 200), preceded by benchmark.warmup evals (default 20)</li>
+ * <li>benchmark.latency.ms: latency of every docker invocation (default 10)</li>
+ * <li>benchmark.output.bytes: output written by every docker invocation (default 4096)</li>
+ * <li>benchmark.exit.code / benchmark.failing.command: exit code of the given sub command (e.g. run)</li>
+ * <li>benchmark.variables: number of script variables (default 500)</li>
+ * </ul>
+ * Engine properties (e.g. docker.compose.use.stdin) can be set the same way.
+ */
+public class EvalOverheadBenchmark {
+
+    private static final String FAKE_DOCKER_RESOURCE = "benchmark/fake-docker.sh";
+
+    private static final String DOCKER_FILE = "FROM ubuntu:18.04\nRUN echo $PA_JOB_ID\n";
+
+    private static final String COMPOSE_FILE = "version: '2'\nservices:\n  helloworld:\n    image: ubuntu:18.04\n" +
+                                               "    command: echo $PA_TASK_NAME\n";
+
+    private final String engineName = System.getProperty("benchmark.engine", "dockerfile");
+
+    private final int concurrency = Integer.getInteger("benchmark.concurrency", 4);
+
+    private final int evals = Integer.getInteger("benchmark.evals", 200);
+
+    private final int warmupEvals = Integer.getInteger("benchmark.warmup", 20);
+
+    private final long latencyMillis = Long.getLong("benchmark.latency.ms", 10);
+
+    private final long outputBytes = Long.getLong("benchmark.output.bytes", 4096);
+
+    private final int exitCode = Integer.getInteger("benchmark.exit.code", 1);
+
+    private final String failingCommand = System.getProperty("benchmark.failing.command", "none");
+
+    private final int variableCount = Integer.getInteger("benchmark.variables", 500);
+
+    private final AtomicLong bytesPiped = new AtomicLong();
+
+    private final AtomicLong evalCounter = new AtomicLong();
+
+    private final AtomicLong failedEvals = new AtomicLong();
+
+    private Path workDirectory;
+
+    private Path invocationLog;
+
+    public static void main(String[] args) throws Exception {
+        new EvalOverheadBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        workDirectory = Files.createTempDirectory("jsr223-docker-eval-benchmark");
+        invocationLog = workDirectory.resolve("invocations.log");
+        Files.createFile(invocationLog);
+        String fakeDocker = installFakeDocker().toString();
+        System.setProperty(DockerFilePropertyLoader.DOCKER_FILE_COMMAND, fakeDocker);
+        System.setProperty(DockerComposePropertyLoader.DOCKER_COMPOSE_COMMAND, fakeDocker);
+        System.setProperty(DockerComposePropertyLoader.DOCKER_COMPOSE_COMMAND_WINDOWS, fakeDocker);
+        DockerFilePropertyLoader.getInstance().reload();
+        DockerComposePropertyLoader.getInstance().reload();
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            runEvals(executor, warmupEvals);
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long startedThreadsBefore = threads.getTotalStartedThreadCount();
+            long invocationsBefore = countInvocations();
+            long openFileDescriptorsBefore = getOpenFileDescriptorCount();
+            bytesPiped.set(0);
+            failedEvals.set(0);
+
+            FileDescriptorSampler sampler = new FileDescriptorSampler();
+            sampler.start();
+            long start = System.nanoTime();
+            long[] evalNanos = runEvals(executor, evals);
+            long wallNanos = System.nanoTime() - start;
+            sampler.interrupt();
+            sampler.join();
+            // Piping threads may still be flushing the last outputs
+            Thread.sleep(200);
+
+            long startedThreads = threads.getTotalStartedThreadCount() - startedThreadsBefore - 1;
+            double invocationsPerEval = (double) (countInvocations() - invocationsBefore) / evals;
+            report(evalNanos,
+                   wallNanos,
+                   invocationsPerEval,
+                   startedThreads,
+                   openFileDescriptorsBefore,
+                   sampler.peak,
+                   getOpenFileDescriptorCount());
+        } finally {
+            executor.shutdownNow();
+            deleteRecursively(workDirectory.toFile());
+        }
+    }
+
+    private long[] runEvals(ExecutorService executor, int count) throws Exception {
+        List<Future<Long>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return evalOnce(evalCounter.incrementAndGet());
+                }
+            }));
+        }
+        long[] evalNanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            evalNanos[i] = futures.get(i).get();
+        }
+        return evalNanos;
+    }
+
+    private long evalOnce(long evalId) throws IOException {
+        boolean compose = "docker-compose".equals(engineName);
+        ScriptEngine engine = compose ? new DockerComposeScriptEngine() : new DockerFileScriptEngine();
+        ScriptContext context = new SimpleScriptContext();
+        context.setBindings(createBindings(evalId), ScriptContext.ENGINE_SCOPE);
+        context.setWriter(new CountingWriter());
+        context.setErrorWriter(new CountingWriter());
+        context.setReader(new StringReader(""));
+
+        long start = System.nanoTime();
+        try {
+            engine.eval(compose ? COMPOSE_FILE : DOCKER_FILE, context);
+        } catch (ScriptException e) {
+            failedEvals.incrementAndGet();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private Bindings createBindings(long evalId) {
+        Map<String, String> variables = BenchmarkInputs.createVariables(variableCount);
+        variables.put(SchedulerVars.PA_JOB_ID.name(), Long.toString(evalId));
+        variables.put(SchedulerVars.PA_TASK_ID.name(), "0");
+        Bindings bindings = new SimpleBindings();
+        bindings.putAll(variables);
+        bindings.put(SchedulerConstants.VARIABLES_BINDING_NAME, new HashMap<>(variables));
+        bindings.put(SchedulerConstants.GENERIC_INFO_BINDING_NAME, new HashMap<String, String>());
+        return bindings;
+    }
+
+    private void report(long[] evalNanos, long wallNanos, double invocationsPerEval, long startedThreads,
+            long openFileDescriptorsBefore, long openFileDescriptorsPeak, long openFileDescriptorsAfter) {
+        long dockerNanos = (long) (invocationsPerEval * TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        long[] overheadNanos = new long[evalNanos.length];
+        for (int i = 0; i < evalNanos.length; i++) {
+            overheadNanos[i] = evalNanos[i] - dockerNanos;
+        }
+        Arrays.sort(evalNanos);
+        Arrays.sort(overheadNanos);
+
+        System.out.println("engine                       " + engineName);
+        System.out.println("evals / concurrency          " + evals + " / " + concurrency);
+        System.out.println("failed evals                 " + failedEvals.get());
+        System.out.println("throughput                   " +
+                           String.format("%.1f evals/s", evals / (wallNanos / 1e9)));
+        System.out.println("docker invocations per eval  " + String.format("%.2f", invocationsPerEval) + " x " +
+                           latencyMillis + " ms");
+        System.out.println("eval time p50 / p99          " + toMillis(percentile(evalNanos, 50)) + " / " +
+                           toMillis(percentile(evalNanos, 99)) + " ms");
+        System.out.println("eval overhead p50 / p99      " + toMillis(percentile(overheadNanos, 50)) + " / " +
+                           toMillis(percentile(overheadNanos, 99)) + " ms");
+        System.out.println("threads started per eval     " + String.format("%.2f", (double) startedThreads / evals));
+        System.out.println("bytes piped per eval         " + bytesPiped.get() / evals);
+        if (openFileDescriptorsBefore >= 0) {
+            System.out.println("open fds before / peak / after " + openFileDescriptorsBefore + " / " +
+                               openFileDescriptorsPeak + " / " + openFileDescriptorsAfter);
+            System.out.println("fds held per running eval    " +
+                               String.format("%.1f",
+                                             (double) (openFileDescriptorsPeak - openFileDescriptorsBefore) /
+                                                   concurrency));
+        }
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))];
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    private long countInvocations() throws IOException {
+        return Files.readAllLines(invocationLog, StandardCharsets.UTF_8).size();
+    }
+
+    private static long getOpenFileDescriptorCount() {
+        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystem instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) operatingSystem).getOpenFileDescriptorCount();
+        }
+        return -1;
+    }
+
+    private Path installFakeDocker() throws IOException {
+        String script;
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(FAKE_DOCKER_RESOURCE)) {
+            if (inputStream == null) {
+                throw new IOException("Resource " + FAKE_DOCKER_RESOURCE + " not found.");
+            }
+            byte[] content = new byte[8192];
+            int length = 0;
+            int read;
+            while ((read = inputStream.read(content, length, content.length - length)) > 0) {
+                length += read;
+                if (length == content.length) {
+                    content = Arrays.copyOf(content, content.length * 2);
+                }
+            }
+            script = new String(content, 0, length, StandardCharsets.UTF_8);
+        }
+        script = script.replace("@LATENCY_SECONDS@", String.format(Locale.ROOT, "%.3f", latencyMillis / 1000.0))
+                       .replace("@OUTPUT_BYTES@", Long.toString(outputBytes))
+                       .replace("@EXIT_CODE@", Integer.toString(exitCode))
+                       .replace("@FAILING_COMMAND@", failingCommand)
+                       .replace("@INVOCATION_LOG@", invocationLog.toString());
+        Path fakeDocker = workDirectory.resolve("fake-docker.sh");
+        Files.write(fakeDocker, script.getBytes(StandardCharsets.UTF_8));
+        if (!fakeDocker.toFile().setExecutable(true)) {
+            throw new IOException("Could not make " + fakeDocker + " executable.");
+        }
+        return fakeDocker;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Counts the characters the engines pipe from the docker processes to the script context.
+     */
+    private class CountingWriter extends Writer {
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            bytesPiped.addAndGet(length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Samples the number of open file descriptors to find its peak.
+     */
+    private static class FileDescriptorSampler extends Thread {
+
+        private volatile long peak = getOpenFileDescriptorCount();
+
+        FileDescriptorSampler() {
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, getOpenFileDescriptorCount());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package benchmark.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import org.ow2.proactive.scheduler.common.SchedulerConstants;
+
+
+/**
+ * Inputs shaped like the ones a ProActive task hands to the engines.
+ */
+public class BenchmarkInputs {
+
+    public static final int VARIABLE_COUNT = 500;
+
+    private static final String SERVICE_TEMPLATE = "  service%d:\n" + "    image: \"ubuntu:18.04\"\n" +
+                                                   "    command: \"/bin/sh -c 'echo $variable%d'\"\n" +
+                                                   "    environment:\n" + "      - JOB_ID=$PA_JOB_ID\n" +
+                                                   "      - TASK=$PA_TASK_NAME\n";
+
+    /**
+     * @return Variables named variable0 .. variable(count - 1) plus the usual PA_* variables.
+     */
+    public static Map<String, String> createVariables(int count) {
+        Map<String, String> variables = new LinkedHashMap<>();
+        variables.put("PA_JOB_ID", "4242");
+        variables.put("PA_TASK_NAME", "docker-compose-task");
+        for (int i = 0; i < count; i++) {
+            variables.put("variable" + i, "value-of-variable-" + i);
+        }
+        return variables;
+    }
+
+    /**
+     * @return Bindings holding the variables as strings, the variables map and the generic information.
+     */
+    public static Bindings createBindings(int variableCount, Map<String, String> genericInformation) {
+        Map<String, String> variables = createVariables(variableCount);
+        Bindings bindings = new SimpleBindings();
+        bindings.putAll(variables);
+        bindings.put(SchedulerConstants.VARIABLES_BINDING_NAME, new HashMap<>(variables));
+        bindings.put(SchedulerConstants.GENERIC_INFO_BINDING_NAME, new HashMap<>(genericInformation));
+        return bindings;
+    }
+
+    public static Bindings createBindings(int variableCount) {
+        return createBindings(variableCount, Collections.<String, String> emptyMap());
+    }
+
+    /**
+     * @return A compose yaml of at least sizeInBytes bytes, referencing variables out of variableCount.
+     */
+    public static String createComposeFile(int sizeInBytes, int variableCount) {
+        StringBuilder composeFile = new StringBuilder(sizeInBytes + 256);
+        composeFile.append("version: '2'\nservices:\n");
+        for (int i = 0; composeFile.length() < sizeInBytes; i++) {
+            composeFile.append(String.format(SERVICE_TEMPLATE, i, i % variableCount));
+        }
+        return composeFile.toString();
+    }
+
+    /**
+     * @return ASCII content of exactly sizeInBytes bytes.
+     */
+    public static String createContent(int sizeInBytes) {
+        StringBuilder content = new StringBuilder(sizeInBytes);
+        for (int i = 0; content.length() < sizeInBytes; i++) {
+            content.append((char) ('a' + i % 26));
+            if (i % 80 == 79) {
+                content.append('\n');
+            }
+        }
+        content.setLength(sizeInBytes);
+        return content.toString();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.file.write;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import benchmark.utils.BenchmarkInputs;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigurationFileWriterBenchmark {
+
+    @Param({ "102400", "1048576", "10485760" })
+    public int composeFileSize;
+
+    @Param({ "false", "true" })
+    public boolean syncToDisk;
+
+    private ConfigurationFileWriter configurationFileWriter;
+
+    private File directory;
+
+    private String composeFile;
+
+    private String[] alternatingContent;
+
+    private int writeCount;
+
+    @Setup
+    public void setUp() throws IOException {
+        configurationFileWriter = new ConfigurationFileWriter(syncToDisk);
+        directory = Files.createTempDirectory("jsr223-docker-benchmark").toFile();
+        composeFile = new File(directory, "docker-compose.yml").getAbsolutePath();
+        String content = BenchmarkInputs.createComposeFile(composeFileSize, BenchmarkInputs.VARIABLE_COUNT);
+        alternatingContent = new String[] { content, content + "\n" };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(composeFile).delete();
+        directory.delete();
+    }
+
+    /**
+     * Every invocation changes the content, so the file is replaced each time.
+     */
+    @Benchmark
+    public File forceChangedFileToDisk() throws IOException {
+        return configurationFileWriter.forceFileToDisk(alternatingContent[writeCount++ & 1], composeFile);
+    }
+
+    /**
+     * Every invocation writes the same content, so only the comparison with the existing file is measured.
+     */
+    @Benchmark
+    public File forceUnchangedFileToDisk() throws IOException {
+        return configurationFileWriter.forceFileToDisk(alternatingContent[0], composeFile);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Bindings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import benchmark.utils.BenchmarkInputs;
+import jsr223.docker.compose.utils.CommandlineOptionsFromBindingsExtractor.OptionType;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandlineOptionsFromBindingsExtractorBenchmark {
+
+    @Param({ "500" })
+    public int variableCount;
+
+    private final CommandlineOptionsFromBindingsExtractor extractor = new CommandlineOptionsFromBindingsExtractor();
+
+    private Bindings bindings;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> genericInformation = new HashMap<>();
+        genericInformation.put(CommandlineOptionsFromBindingsExtractor.DOCKER_COMPOSE_UP_COMMANDLINE_OPTIONS_KEY,
+                               "--exit-code-from helloworld --abort-on-container-exit --timeout 30");
+        genericInformation.put(CommandlineOptionsFromBindingsExtractor.DOCKER_COMPOSE_COMMANDLINE_OPTIONS_KEY,
+                               "--project-name benchmark --verbose");
+        bindings = BenchmarkInputs.createBindings(variableCount, genericInformation);
+    }
+
+    @Benchmark
+    public Map<OptionType, List<String>> getDockerComposeCommandOptions() {
+        return extractor.getDockerComposeCommandOptions(bindings);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Bindings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import benchmark.utils.BenchmarkInputs;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DockerFileCommandCreatorBenchmark {
+
+    private static final String IMAGE = "image_4242t0";
+
+    private static final String CONTAINER = "container_4242t0";
+
+    @Param({ "500" })
+    public int variableCount;
+
+    private final DockerFileCommandCreator dockerFileCommandCreator = new DockerFileCommandCreator();
+
+    private final File environmentFile = new File("/tmp/jsr223-docker-benchmark/variables.env");
+
+    private Bindings bindings;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> genericInformation = new HashMap<>();
+        genericInformation.put(DockerFileCommandCreator.DOCKER_BUILD_COMMANDLINE_OPTIONS_KEY, "--pull --no-cache");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_RUN_COMMANDLINE_OPTIONS_KEY, "-d --cpus 2 -m 1g");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_EXEC_COMMAND_KEY, "/bin/sh,-c,echo $PA_JOB_ID");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_FILE_COMMANDLINE_OPTIONS_SPLIT_REGEX_KEY, ",");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_STOP_COMMANDLINE_OPTIONS_KEY, "-t,10");
+        bindings = BenchmarkInputs.createBindings(variableCount, genericInformation);
+    }
+
+    @Benchmark
+    public String[] createDockerBuildExecutionCommand() {
+        return dockerFileCommandCreator.createDockerBuildExecutionCommand(IMAGE, bindings);
+    }
+
+    @Benchmark
+    public String[] createDockerRunExecutionCommand() {
+        return dockerFileCommandCreator.createDockerRunExecutionCommand(CONTAINER, IMAGE, bindings, environmentFile);
+    }
+
+    @Benchmark
+    public String[] createDockerExecExecutionCommand() {
+        return dockerFileCommandCreator.createDockerExecExecutionCommand(CONTAINER, bindings, environmentFile);
+    }
+
+    @Benchmark
+    public String[] createDockerStopExecutionCommand() {
+        return dockerFileCommandCreator.createDockerStopExecutionCommand(CONTAINER, bindings);
+    }
+
+    @Benchmark
+    public String[] createDockerRemoveExecutionCommand() {
+        return dockerFileCommandCreator.createDockerRemoveExecutionCommand(CONTAINER, bindings);
+    }
+
+    @Benchmark
+    public String[] createDockerRemoveImage() {
+        return dockerFileCommandCreator.createDockerRemoveImage(IMAGE, bindings);
+    }
+}
@@ -0,0 +1,57 @@
+#!/bin/sh
+# Simulated docker / docker-compose client used by the eval overhead benchmark.
+# The @...@ placeholders are replaced by EvalOverheadBenchmark.
+
+LATENCY_SECONDS=@LATENCY_SECONDS@
+OUTPUT_BYTES=@OUTPUT_BYTES@
+EXIT_CODE=@EXIT_CODE@
+FAILING_COMMAND="@FAILING_COMMAND@"
+INVOCATION_LOG="@INVOCATION_LOG@"
+
+# Find the sub command (build, run, up, down, ...) and whether the configuration is read from stdin
+SUB_COMMAND=""
+READ_STDIN=false
+IMAGE_ID_FILE=""
+PREVIOUS=""
+for ARGUMENT in "$@"; do
+    case "$PREVIOUS" in
+        -f|--file|--env-file|-p|--project-name|-H|--host|--iidfile)
+            if [ "$PREVIOUS" = "-f" ] && [ "$ARGUMENT" = "-" ]; then
+                READ_STDIN=true
+            fi
+            if [ "$PREVIOUS" = "--iidfile" ]; then
+                IMAGE_ID_FILE="$ARGUMENT"
+            fi
+            PREVIOUS=""
+            continue
+            ;;
+    esac
+    case "$ARGUMENT" in
+        -*) ;;
+        *) if [ -z "$SUB_COMMAND" ]; then SUB_COMMAND="$ARGUMENT"; fi ;;
+    esac
+    PREVIOUS="$ARGUMENT"
+done
+
+echo "$SUB_COMMAND" >> "$INVOCATION_LOG"
+
+if [ "$READ_STDIN" = true ]; then
+    cat > /dev/null
+fi
+
+if [ "$LATENCY_SECONDS" != "0" ]; then
+    sleep "$LATENCY_SECONDS"
+fi
+
+if [ "$OUTPUT_BYTES" -gt 0 ]; then
+    yes "fake docker output of $SUB_COMMAND" | head -c "$OUTPUT_BYTES"
+fi
+
+if [ -n "$IMAGE_ID_FILE" ]; then
+    printf 'sha256:%064d' 0 > "$IMAGE_ID_FILE"
+fi
+
+if [ "$SUB_COMMAND" = "$FAILING_COMMAND" ]; then
+    exit "$EXIT_CODE"
+fi
+exit 0
@@ -25,9 +25,14 @@
  */
 package jsr223.docker.compose;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jsr223.docker.compose.utils.CommandlineOptionsFromBindingsExtractor.OptionType;
 import jsr223.docker.compose.utils.DockerComposePropertyLoader;
@@ -42,28 +47,194 @@ public class DockerComposeCommandCreator {
 
     public static final String FILENAME_ARGUMENT = "-f";
 
+    public static final String STDIN_FILENAME = "-";
+
     public static final String START_CONTAINER_ARGUMENT = "up";
 
     public static final String STOP_AND_REMOVE_CONTAINER_ARGUMENT = "down";
 
     public static final String VOLUMES_ARGUMENT = "--volumes";
 
+    public static final String KILL_ARGUMENT = "kill";
+
+    public static final String DETACH_OPTION = "-d";
+
+    public static final String PS_ARGUMENT = "ps";
+
+    public static final String QUIET_OPTION = "-q";
+
+    public static final String ALL_OPTION = "-a";
+
+    public static final String TIMEOUT_OPTION = "--timeout";
+
+    public static final String EXIT_CODE_FROM_OPTION = "--exit-code-from";
+
+    public static final String ABORT_ON_CONTAINER_EXIT_OPTION = "--abort-on-container-exit";
+
+    public static final String FORMAT_OPTION = "--format";
+
     public static final String NO_ANSI_OPTION = "--no-ansi";
 
+    public static final String ENV_FILE_OPTION = "--env-file";
+
+    public static final String PROJECT_NAME_OPTION = "--project-name";
+
+    public static final String PROJECT_NAME_SHORT_OPTION = "-p";
+
+    public static final String PROJECT_NAME_ENVIRONMENT_VARIABLE = "COMPOSE_PROJECT_NAME";
+
+    // Constants of the docker commands prefetching the images
+    public static final String IMAGE_ARGUMENT = "image";
+
+    public static final String INSPECT_ARGUMENT = "inspect";
+
+    public static final String PULL_ARGUMENT = "pull";
+
+    public static final String PULL_POLICY_KEY = "docker-pull-policy";
+
+    public static final String DETACHED_KEY = "docker-compose-detached";
+
+    // In seconds
+    public static final String READY_TIMEOUT_KEY = "docker-compose-ready-timeout";
+
+    // Service whose exit code is the exit code of up, all containers are stopped when one exits
+    public static final String EXIT_CODE_FROM_KEY = "docker-compose-exit-code-from";
+
+    public static final String ABORT_ON_EXIT_KEY = "docker-compose-abort-on-exit";
+
+    // Seconds down waits before killing the containers, the same key as the dockerfile engine
+    public static final String STOP_TIMEOUT_KEY = "docker-stop-timeout";
+
+    // Up options which prevent pulls, supported from docker compose 2
+    public static final List<String> PULL_NEVER_OPTIONS = Collections.unmodifiableList(Arrays.asList("--pull",
+                                                                                                     "never"));
+
+    private static final Pattern VERSION = Pattern.compile("version v?(\\d+)\\.", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Returns the project name docker compose uses, which prefixes the names of the containers,
+     * networks and volumes it creates.
+     *
+     * @param generalOptions   Options placed before the up command, they may contain --project-name.
+     * @param environment      Environment of docker compose, it may contain COMPOSE_PROJECT_NAME.
+     * @param workingDirectory Working directory of docker compose, its name is the default project name.
+     * @return The project name, normalized like docker compose does.
+     */
+    public String getProjectName(List<String> generalOptions, Map<String, String> environment,
+            File workingDirectory) {
+        String projectName = null;
+        for (int i = 0; i < generalOptions.size(); i++) {
+            String option = generalOptions.get(i);
+            if ((PROJECT_NAME_OPTION.equals(option) || PROJECT_NAME_SHORT_OPTION.equals(option)) &&
+                i + 1 < generalOptions.size()) {
+                projectName = generalOptions.get(i + 1);
+            } else if (option.startsWith(PROJECT_NAME_OPTION + "=")) {
+                projectName = option.substring(PROJECT_NAME_OPTION.length() + 1);
+            }
+        }
+        if (projectName == null && environment != null) {
+            projectName = environment.get(PROJECT_NAME_ENVIRONMENT_VARIABLE);
+        }
+        if (projectName == null || projectName.isEmpty()) {
+            projectName = workingDirectory.getAbsoluteFile().getName();
+        }
+        return projectName.toLowerCase().replaceAll("[^-_a-z0-9]", "");
+    }
+
     /**
      * Construct docker compose down command.
      *
      * @return String array representing a command.
      */
     public String[] createDockerComposeDownCommand() {
+        return createDockerComposeDownCommand(Collections.<String> emptyList(), false);
+    }
+
+    /**
+     * Construct docker compose down command.
+     *
+     * @param generalOptions    Options placed before the down command, the same as used for up.
+     * @param readFileFromStdin If true, docker compose reads the yaml file from its standard input.
+     * @return String array representing a command.
+     */
+    public String[] createDockerComposeDownCommand(List<String> generalOptions, boolean readFileFromStdin) {
+        return createDockerComposeDownCommand(generalOptions, readFileFromStdin, -1);
+    }
+
+    /**
+     * Construct docker compose down command.
+     *
+     * @param generalOptions    Options placed before the down command, the same as used for up.
+     * @param readFileFromStdin If true, docker compose reads the yaml file from its standard input.
+     * @param stopTimeout       Seconds the containers have to stop before they are killed, negative for the
+     *                          docker compose default.
+     * @return String array representing a command.
+     */
+    public String[] createDockerComposeDownCommand(List<String> generalOptions, boolean readFileFromStdin,
+            int stopTimeout) {
         List<String> command = new ArrayList<>();
         addSudoAndDockerComposeCommand(command);
 
+        command.addAll(generalOptions);
         command.add(NO_ANSI_OPTION);
+        if (readFileFromStdin) {
+            command.add(FILENAME_ARGUMENT);
+            command.add(STDIN_FILENAME);
+        }
         // Stop and remove containers
         command.add(STOP_AND_REMOVE_CONTAINER_ARGUMENT);
         // Remove volumes with containers
         command.add(VOLUMES_ARGUMENT);
+        if (stopTimeout >= 0) {
+            command.add(TIMEOUT_OPTION);
+            command.add(Integer.toString(stopTimeout));
+        }
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * Construct docker compose kill command, which kills the containers of the project without removing them.
+     *
+     * @param generalOptions    Options placed before the kill command, the same as used for up.
+     * @param readFileFromStdin If true, docker compose reads the yaml file from its standard input.
+     * @return String array representing a command.
+     */
+    public String[] createDockerComposeKillCommand(List<String> generalOptions, boolean readFileFromStdin) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerComposeCommand(command);
+
+        command.addAll(generalOptions);
+        command.add(NO_ANSI_OPTION);
+        if (readFileFromStdin) {
+            command.add(FILENAME_ARGUMENT);
+            command.add(STDIN_FILENAME);
+        }
+        command.add(KILL_ARGUMENT);
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * Construct docker compose ps command, which prints the ids of the containers of the project.
+     *
+     * @param generalOptions    Options placed before the ps command, the same as used for up.
+     * @param readFileFromStdin If true, docker compose reads the yaml file from its standard input.
+     * @param all               If true, stopped containers are listed too.
+     * @return String array representing a command.
+     */
+    public String[] createDockerComposePsCommand(List<String> generalOptions, boolean readFileFromStdin,
+            boolean all) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerComposeCommand(command);
+
+        command.addAll(generalOptions);
+        command.add(NO_ANSI_OPTION);
+        command.add(FILENAME_ARGUMENT);
+        command.add(readFileFromStdin ? STDIN_FILENAME : YAML_FILE_NAME);
+        command.add(PS_ARGUMENT);
+        if (all) {
+            command.add(ALL_OPTION);
+        }
+        command.add(QUIET_OPTION);
         return command.toArray(new String[command.size()]);
     }
 
@@ -74,6 +245,19 @@ public class DockerComposeCommandCreator {
      * argument as a separate String.
      */
     public String[] createDockerComposeExecutionCommand(Map<OptionType, List<String>> commandOptions) {
+        return createDockerComposeExecutionCommand(commandOptions, false);
+    }
+
+    /**
+     * This method creates a bash command which starts docker-compose with a yaml file.
+     *
+     * @param readFileFromStdin If true, docker compose reads the yaml file from its standard input
+     *                          instead of {@link #YAML_FILE_NAME}.
+     * @return A String array which contains the command as a separate @String and each
+     * argument as a separate String.
+     */
+    public String[] createDockerComposeExecutionCommand(Map<OptionType, List<String>> commandOptions,
+            boolean readFileFromStdin) {
         List<String> command = new ArrayList<>();
         List<String> generalOptions = new ArrayList<>(commandOptions.get(OptionType.GENERAL_OPTION));
         List<String> upOptions = new ArrayList<>(commandOptions.get(OptionType.UP_OPTION));
@@ -87,7 +271,7 @@ public class DockerComposeCommandCreator {
         command.add(FILENAME_ARGUMENT);
 
         // Add filename
-        command.add(YAML_FILE_NAME);
+        command.add(readFileFromStdin ? STDIN_FILENAME : YAML_FILE_NAME);
 
         // Start container with argument
         command.add(START_CONTAINER_ARGUMENT);
@@ -97,6 +281,82 @@ public class DockerComposeCommandCreator {
         return command.toArray(new String[command.size()]);
     }
 
+    /**
+     * @return A docker command which exits with 0 if the image is present.
+     */
+    public String[] createDockerImageInspectCommand(String image) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerCommand(command);
+        command.add(IMAGE_ARGUMENT);
+        command.add(INSPECT_ARGUMENT);
+        command.add(image);
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * @param format     Go template applied to each container.
+     * @param containers Ids or names of the containers.
+     * @return A docker command which prints the state of the containers.
+     */
+    public String[] createDockerInspectCommand(String format, List<String> containers) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerCommand(command);
+        command.add(INSPECT_ARGUMENT);
+        command.add(FORMAT_OPTION);
+        command.add(format);
+        command.addAll(containers);
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * @return A docker command which pulls the image.
+     */
+    public String[] createDockerPullCommand(String image) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerCommand(command);
+        command.add(PULL_ARGUMENT);
+        command.add(image);
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * @param exitCodeFromService Service whose exit code is returned by up, null for none.
+     * @param abortOnExit         Whether all containers are stopped when one exits, implied by a service.
+     * @return The options of up ending it when a container exits.
+     */
+    public static List<String> createExitOptions(String exitCodeFromService, boolean abortOnExit) {
+        if (exitCodeFromService != null) {
+            return Arrays.asList(EXIT_CODE_FROM_OPTION, exitCodeFromService);
+        }
+        return abortOnExit ? Collections.singletonList(ABORT_ON_CONTAINER_EXIT_OPTION)
+                           : Collections.<String> emptyList();
+    }
+
+    /**
+     * @param version Output of docker compose --version.
+     * @return Whether docker compose up supports --pull, false if the version is unknown.
+     */
+    public static boolean supportsPullOption(String version) {
+        Matcher matcher = VERSION.matcher(version);
+        return matcher.find() && Integer.parseInt(matcher.group(1)) >= 2;
+    }
+
+    /**
+     * @return The docker client, with sudo if it is configured.
+     */
+    public List<String> getDockerCommand() {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerCommand(command);
+        return command;
+    }
+
+    private void addSudoAndDockerCommand(List<String> command) {
+        if (DockerComposePropertyLoader.getInstance().isUseSudo()) {
+            command.add(DockerComposePropertyLoader.getInstance().getSudoCommand());
+        }
+        command.add(DockerComposePropertyLoader.getInstance().getDockerCommand());
+    }
+
     /**
      * Adds sudo and docker compose command to the given list. Sudo is only added when
      * it is configured to do that.
@@ -27,10 +27,23 @@ package jsr223.docker.compose;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.script.*;
 
@@ -40,20 +53,42 @@ import org.apache.log4j.SimpleLayout;
 import org.apache.log4j.WriterAppender;
 import org.ow2.proactive.scheduler.common.SchedulerConstants;
 
-import com.google.common.io.Files;
-
+import jsr223.docker.compose.bindings.EnvironmentAssembler;
+import jsr223.docker.compose.bindings.EnvironmentAssembler.Environment;
 import jsr223.docker.compose.bindings.MapBindingsAdder;
 import jsr223.docker.compose.bindings.StringBindingsAdder;
+import jsr223.docker.compose.cleanup.CleanupPropertyLoader;
+import jsr223.docker.compose.cleanup.DeferredCleanupQueue;
+import jsr223.docker.compose.cleanup.OrphanReaper;
+import jsr223.docker.compose.cleanup.ResourceRegistry;
+import jsr223.docker.compose.cleanup.ResourceRegistry.Registration;
 import jsr223.docker.compose.file.write.ConfigurationFileWriter;
+import jsr223.docker.compose.file.write.EnvironmentFileFormat;
+import jsr223.docker.compose.file.write.EnvironmentFileWriter;
+import jsr223.docker.compose.file.write.EnvironmentFileWriter.EnvironmentFile;
+import jsr223.docker.compose.images.ImagePrefetcher;
+import jsr223.docker.compose.images.ImagePrefetcher.ImagePull;
+import jsr223.docker.compose.images.LocalImageIndex;
+import jsr223.docker.compose.images.PullPolicy;
+import jsr223.docker.compose.metrics.Phase;
+import jsr223.docker.compose.metrics.PhaseExecution;
+import jsr223.docker.compose.readiness.ContainerState;
+import jsr223.docker.compose.readiness.ReadinessWaiter;
+import jsr223.docker.compose.result.DockerEvalResult;
 import jsr223.docker.compose.utils.CommandlineOptionsFromBindingsExtractor;
 import jsr223.docker.compose.utils.CommandlineOptionsFromBindingsExtractor.OptionType;
 import jsr223.docker.compose.utils.DockerComposePropertyLoader;
+import jsr223.docker.compose.utils.DockerComposeVersionGetter;
 import jsr223.docker.compose.utils.Log4jConfigurationLoader;
+import jsr223.docker.compose.utils.ScratchDirectoryManager;
+import jsr223.docker.compose.utils.ScratchDirectoryManager.ScratchDirectory;
 import jsr223.docker.compose.utils.ScriptContextBindingsExtractor;
+import jsr223.docker.compose.yaml.ComposeServiceExtractor;
 import jsr223.docker.compose.yaml.VariablesReplacer;
 import lombok.extern.log4j.Log4j;
 import processbuilder.SingletonProcessBuilderFactory;
 import processbuilder.utils.ProcessBuilderUtilities;
+import processbuilder.utils.ProcessTreeKiller;
 
 
 @Log4j
@@ -61,33 +96,72 @@ public class DockerComposeScriptEngine extends AbstractScriptEngine {
 
     private static final String DOCKER_HOST_PROPERTY_NAME = "DOCKER_HOST";
 
+    // Time eval waits for the output of the services before the teardown is deferred
+    private static final long OUTPUT_DRAIN_TIMEOUT_MILLIS = 10000;
+
     private ProcessBuilderUtilities processBuilderUtilities = new ProcessBuilderUtilities();
 
     private VariablesReplacer variablesReplacer = new VariablesReplacer();
 
-    private ConfigurationFileWriter configurationFileWriter = new ConfigurationFileWriter();
+    private ConfigurationFileWriter configurationFileWriter = new ConfigurationFileWriter(DockerComposePropertyLoader.getInstance()
+                                                                                                                     .isSyncDockerFile());
+
+    private EnvironmentFileWriter environmentFileWriter = new EnvironmentFileWriter(configurationFileWriter);
 
     private StringBindingsAdder stringBindingsAdder = new StringBindingsAdder(new MapBindingsAdder());
 
+    private EnvironmentAssembler environmentAssembler = new EnvironmentAssembler(stringBindingsAdder);
+
     private DockerComposeCommandCreator dockerComposeCommandCreator = new DockerComposeCommandCreator();
 
+    private ComposeServiceExtractor composeServiceExtractor = new ComposeServiceExtractor();
+
     private CommandlineOptionsFromBindingsExtractor commandlineOptionsFromBindingsExtractor = new CommandlineOptionsFromBindingsExtractor();
 
     private ScriptContextBindingsExtractor scriptContextBindingsExtractor = new ScriptContextBindingsExtractor();
 
     private Log4jConfigurationLoader log4jConfigurationLoader = new Log4jConfigurationLoader();
 
+    private ScratchDirectoryManager scratchDirectoryManager = new ScratchDirectoryManager(DockerComposePropertyLoader.getInstance()
+                                                                                                                  .getScratchRoot());
+
     private static long loggerId = 0;
 
+    // Whether the installed docker compose supports up --pull, determined once
+    private static Boolean pullOptionSupported;
+
     private Logger engineLogger;
 
     private Appender engineLoggerAppender;
 
     File composeDirectory;
 
+    // Environment shared by all docker compose processes of an evaluation
+    private Environment environment;
+
+    // Options placed before the up and down commands of an evaluation
+    private List<String> generalOptions;
+
+    // Seconds down waits before killing the containers, negative for the docker compose default
+    private int stopTimeout;
+
+    // Set when the evaluation is interrupted or the JVM shuts down, containers are then killed
+    private volatile boolean cancelled;
+
+    // Measures the time from the cancellation until the containers are killed, null if not cancelled
+    private volatile PhaseExecution cancelExecution;
+
+    // Docker compose up, while it runs
+    private volatile Process upProcess;
+
+    // Result of the current evaluation, published in the bindings when it ends
+    private DockerEvalResult evalResult;
+
     public DockerComposeScriptEngine() {
         // This is the entry-point of the script engine
         log4jConfigurationLoader.loadLog4jConfiguration();
+        scratchDirectoryManager.sweepStaleDirectoriesOnce();
+        OrphanReaper.reapOnce();
     }
 
     private void initLogger(ScriptContext context) {
@@ -108,31 +182,61 @@ public class DockerComposeScriptEngine extends AbstractScriptEngine {
     @Override
     public Object eval(String script, final ScriptContext context) throws ScriptException {
         initLogger(context);
+        // New evaluations wait while the deferred cleanups fall behind
+        long cleanupWait = DeferredCleanupQueue.getInstance().awaitCapacity();
+        if (cleanupWait > 0) {
+            engineLogger.info("Waited " + cleanupWait + " ms for the deferred cleanups.");
+        }
+        evalResult = new DockerEvalResult(DockerComposeScriptEngineFactory.NAME,
+                                          context.getBindings(ScriptContext.ENGINE_SCOPE));
         Bindings bindings = scriptContextBindingsExtractor.extractFrom(context);
         Map<OptionType, List<String>> options = commandlineOptionsFromBindingsExtractor.getDockerComposeCommandOptions(bindings);
 
-        // Create docker compose command
-        String[] dockerComposeCommand = dockerComposeCommandCreator.createDockerComposeExecutionCommand(options);
+        // When enabled, the yaml file is streamed to docker compose and never written to disk
+        final boolean composeFileFromStdin = DockerComposePropertyLoader.getInstance().isUseStdin();
 
-        // Create a process builder
-        ProcessBuilder processBuilder = SingletonProcessBuilderFactory.getInstance()
-                                                                      .getProcessBuilder(dockerComposeCommand);
+        // When enabled, bindings are handed to docker compose in an environment file
+        EnvironmentFileFormat environmentFileFormat = null;
+        if (DockerComposePropertyLoader.getInstance().isUseEnvironmentFile()) {
+            environmentFileFormat = EnvironmentFileFormat.COMPOSE;
+        }
 
-        // Use process builder environment and fill it with environment variables
-        Map<String, String> variablesMap = processBuilder.environment();
+        // Add string bindings and the DOCKER_HOST variable to the execution environment
+        environment = environmentAssembler.assemble(context.getBindings(ScriptContext.ENGINE_SCOPE),
+                                                    Collections.singletonMap(DOCKER_HOST_PROPERTY_NAME,
+                                                                             DockerComposePropertyLoader.getInstance()
+                                                                                                        .getDockerHost()),
+                                                    environmentFileFormat);
 
-        // Add string bindings as environment variables
-        stringBindingsAdder.addBindingToStringMap(context.getBindings(ScriptContext.ENGINE_SCOPE), variablesMap);
+        // Replace variables in configuration file
+        String scriptReplacedVariables = variablesReplacer.replaceVariables(script, environment.getVariables());
 
-        // Add DOCKER_HOST variable to execution environment
-        variablesMap.put(DOCKER_HOST_PROPERTY_NAME, DockerComposePropertyLoader.getInstance().getDockerHost());
+        // A detached up returns once the containers are created, readiness is waited for afterwards
+        final boolean detached = isDetached(bindings);
+        stopTimeout = getStopTimeout(bindings);
+        cancelled = false;
+        cancelExecution = null;
 
-        // Replace variables in configuration file
-        String scriptReplacedVariables = variablesReplacer.replaceVariables(script, variablesMap);
+        // Options ending up when a container exits
+        List<String> exitOptions;
+        try {
+            exitOptions = getExitOptions(bindings, scriptReplacedVariables, detached);
+        } catch (ScriptException e) {
+            cleanLogger();
+            throw e;
+        }
+
+        // Images of the services are prefetched while the working directory and files are prepared
+        PullPolicy pullPolicy = getPullPolicy(bindings);
+        Map<String, CompletableFuture<ImagePull>> imagePulls = prefetchImages(scriptReplacedVariables, pullPolicy);
+
+        // Content which must be streamed again to docker compose down, null when the file is on disk
+        final String composeContentFromStdin = composeFileFromStdin ? scriptReplacedVariables : null;
 
         File composeYamlFile = null;
 
-        Thread shutdownHook = null;
+        // Resources cleaned up by the resource registry if the JVM exits during the evaluation
+        List<Registration> registrations = new ArrayList<>();
 
         String localSpace = null;
         if (context.getBindings(ScriptContext.ENGINE_SCOPE).containsKey(SchedulerConstants.DS_SCRATCH_BINDING_NAME)) {
@@ -140,99 +244,737 @@ public class DockerComposeScriptEngine extends AbstractScriptEngine {
                                          .get(SchedulerConstants.DS_SCRATCH_BINDING_NAME);
         }
 
+        // Private directory removed after execution, only used when there is no scratch space
+        ScratchDirectory scratchDirectory = null;
         if (localSpace != null) {
             composeDirectory = new File(localSpace);
         } else {
-            composeDirectory = Files.createTempDir();
+            try {
+                scratchDirectory = scratchDirectoryManager.createDirectory();
+            } catch (IOException e) {
+                cleanLogger();
+                ScriptException exception = new ScriptException("Failed to create a working directory in " +
+                                                                scratchDirectoryManager.getRoot());
+                exception.initCause(e);
+                throw exception;
+            }
+            composeDirectory = scratchDirectory.getDirectory();
         }
-        processBuilder.directory(composeDirectory);
 
-        try {
-            composeYamlFile = configurationFileWriter.forceFileToDisk(scriptReplacedVariables,
-                                                                      new File(composeDirectory,
-                                                                               dockerComposeCommandCreator.YAML_FILE_NAME).getAbsolutePath());
+        // Options placed before up and down
+        generalOptions = new ArrayList<>(options.get(OptionType.GENERAL_OPTION));
 
-            engineLogger.info("Docker compose file " + composeYamlFile + " created.");
-            engineLogger.info("Running command: " + processBuilder.command());
-            // Start process
-            Process process = processBuilder.start();
+        EnvironmentFile environmentFile = null;
+        if (!environment.getFileVariables().isEmpty()) {
+            try {
+                environmentFile = environmentFileWriter.write(environment.getFileVariables(),
+                                                              EnvironmentFileFormat.COMPOSE,
+                                                              scratchDirectoryManager);
+            } catch (IOException e) {
+                if (scratchDirectory != null) {
+                    scratchDirectory.close();
+                }
+                cleanLogger();
+                ScriptException exception = new ScriptException("Failed to write the environment file.");
+                exception.initCause(e);
+                throw exception;
+            }
+            engineLogger.info("Environment file " + environmentFile.getFile() + " created: " +
+                              environmentFile.getVariableCount() + " variables, " + environmentFile.getSizeInBytes() +
+                              " bytes, written in " +
+                              TimeUnit.NANOSECONDS.toMillis(environmentFile.getWriteTimeNanos()) + " ms.");
+            generalOptions.add(DockerComposeCommandCreator.ENV_FILE_OPTION);
+            generalOptions.add(environmentFile.getFile().getAbsolutePath());
+        }
+        options.put(OptionType.GENERAL_OPTION, generalOptions);
+        evalResult.setComposeProjectName(dockerComposeCommandCreator.getProjectName(generalOptions,
+                                                                                    environment.getVariables(),
+                                                                                    composeDirectory));
+
+        // Docker compose 2 is told not to pull, older versions only pull missing images
+        if ((pullPolicy == PullPolicy.NEVER || pullPolicy == PullPolicy.OFFLINE) && isPullOptionSupported()) {
+            List<String> upOptions = new ArrayList<>(options.get(OptionType.UP_OPTION));
+            upOptions.addAll(DockerComposeCommandCreator.PULL_NEVER_OPTIONS);
+            options.put(OptionType.UP_OPTION, upOptions);
+        }
 
-            // Attach streams
-            processBuilderUtilities.attachStreamsToProcess(process,
-                                                           context.getWriter(),
-                                                           context.getErrorWriter(),
-                                                           context.getReader());
+        if (detached || !exitOptions.isEmpty()) {
+            List<String> upOptions = new ArrayList<>(options.get(OptionType.UP_OPTION));
+            if (detached) {
+                upOptions.add(DockerComposeCommandCreator.DETACH_OPTION);
+            }
+            upOptions.addAll(exitOptions);
+            options.put(OptionType.UP_OPTION, upOptions);
+        }
 
-            // Set shutdown hook
-            final Process shutdownHookProcessReference = process;
-            shutdownHook = new Thread() {
-                @Override
-                public void run() {
-                    // unfortunately shutdown hooks are not run on windows when the process is terminated using
-                    // process.destroy(). At the moment, this issue cannot be solved and docker compose tasks cannot
-                    // be killed properly on windows in ProActive Scheduler task fork mode (which uses process.destroy()).
-                    // see https://bugs.openjdk.java.net/browse/JDK-8056139
-                    try {
-                        stopAndRemoveContainers(context).waitFor();
-                    } catch (IOException e) {
-                        //TODO improve message here
-                    } catch (InterruptedException e) {
-                        engineLogger.info("Container execution interrupted. " + e.getMessage());
-                    }
-                    cleanLogger();
+        // Create docker compose command
+        String[] dockerComposeCommand = dockerComposeCommandCreator.createDockerComposeExecutionCommand(options,
+                                                                                                        composeFileFromStdin);
+
+        // Create a process builder
+        ProcessBuilder processBuilder = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                          .getProcessBuilder(dockerComposeCommand));
+        processBuilder.directory(composeDirectory);
+
+        // Set once detached services are ready, they are then left running
+        boolean leaveServicesRunning = false;
+
+        try {
+            registerResources(registrations, context, composeContentFromStdin, scratchDirectory, environmentFile);
+            if (!composeFileFromStdin) {
+                PhaseExecution writeExecution = evalResult.startAction(Phase.WRITE_FILE);
+                try {
+                    composeYamlFile = configurationFileWriter.forceFileToDisk(scriptReplacedVariables,
+                                                                              new File(composeDirectory,
+                                                                                       dockerComposeCommandCreator.YAML_FILE_NAME).getAbsolutePath());
+                    writeExecution.finish(0);
+                } finally {
+                    writeExecution.finish(null);
                 }
-            };
 
-            Runtime.getRuntime().addShutdownHook(shutdownHook);
+                engineLogger.info("Docker compose file " + composeYamlFile + " created.");
+            }
+            for (Map.Entry<String, CompletableFuture<ImagePull>> imagePull : imagePulls.entrySet()) {
+                awaitImagePull(imagePull.getKey(), imagePull.getValue());
+            }
+            if (pullPolicy == PullPolicy.OFFLINE) {
+                checkImagesPresent(composeServiceExtractor.getImages(scriptReplacedVariables));
+            }
+            engineLogger.info("Running command: " + processBuilder.command());
+            PhaseExecution upExecution = evalResult.startAction(Phase.UP, processBuilder.command());
+            try {
+                // Start process
+                Process process = processBuilder.start();
+                upProcess = process;
+
+                // Attach streams
+                if (composeFileFromStdin) {
+                    processBuilderUtilities.attachStreamsToProcessWithInputContent(process,
+                                                                                   upExecution.countOutput(context.getWriter()),
+                                                                                   upExecution.countOutput(context.getErrorWriter()),
+                                                                                   scriptReplacedVariables);
+                } else {
+                    processBuilderUtilities.attachStreamsToProcess(process,
+                                                                   upExecution.countOutput(context.getWriter()),
+                                                                   upExecution.countOutput(context.getErrorWriter()),
+                                                                   context.getReader());
+                }
 
-            // Wait for process to exit
-            int exitValue = process.waitFor();
+                // Wait for process to exit
+                int exitValue = process.waitFor();
+                upExecution.finish(exitValue);
 
-            if (exitValue != 0) {
-                throw new ScriptException("Docker Compose failed with exit code " + exitValue);
+                if (!detached) {
+                    recordServiceExitCodes(composeContentFromStdin);
+                }
+                if (exitValue != 0) {
+                    throw new ScriptException("Docker Compose failed with exit code " + exitValue +
+                                              (evalResult.getServiceExitCodes().isEmpty() ? ""
+                                                                                          : ", service exit codes: " +
+                                                                                            evalResult.getServiceExitCodes()));
+                }
+                if (detached) {
+                    waitUntilReady(scriptReplacedVariables, composeContentFromStdin, getReadyTimeout(bindings));
+                    leaveServicesRunning = true;
+                }
+                evalResult.setExitCode(exitValue);
+                return exitValue;
+            } finally {
+                // Only taken into account if the process did not complete
+                upExecution.finish(null);
             }
-            return exitValue;
         } catch (IOException e) {
             engineLogger.warn("Failed to execute Docker Compose.", e);
         } catch (InterruptedException e) {
+            cancel();
             engineLogger.info("Container execution interrupted. " + e.getMessage());
         } finally {
+            PhaseExecution teardownExecution = evalResult.startAction(Phase.TEARDOWN);
+            // The files are deleted by the deferred teardown, after docker compose down
+            boolean deferred = false;
             try {
-                // Reset thread's interrupt flag
+                // Reset thread's interrupt flag, the teardown waits for docker commands. A cancelled evaluation
+                // only waits for docker compose kill, the removal is deferred.
                 Thread.interrupted();
-                stopAndRemoveContainers(context).waitFor();
+                if (leaveServicesRunning) {
+                    engineLogger.info("Services of project " + evalResult.getComposeProjectName() +
+                                      " left running, stop them with docker compose -p " +
+                                      evalResult.getComposeProjectName() + " down from " +
+                                      composeDirectory.getAbsolutePath());
+                } else if (cancelled) {
+                    // The containers are killed at once, docker compose down removes them later
+                    killContainers(context, composeContentFromStdin);
+                    finishCancellation();
+                    deferTeardown(context, composeContentFromStdin, composeYamlFile, environmentFile, scratchDirectory);
+                    deferred = true;
+                } else if (CleanupPropertyLoader.getInstance().isDeferred()) {
+                    deferTeardown(context, composeContentFromStdin, composeYamlFile, environmentFile, scratchDirectory);
+                    deferred = true;
+                } else {
+                    waitForStopAndRemoveContainers(context, composeContentFromStdin);
+                    finishCancellation();
+                }
             } catch (Exception e) {
                 engineLogger.error("Container removal was interrupted: " + e.getMessage());
+            } finally {
+                upProcess = null;
             }
-            // Delete configuration file
-            if (composeYamlFile != null && !DockerComposePropertyLoader.getInstance().isKeepDockerFile()) {
-                boolean deleted = composeYamlFile.delete();
-                if (!deleted) {
-                    engineLogger.warn("File: " + composeYamlFile.getAbsolutePath() + " was not deleted.");
-                }
+            if (leaveServicesRunning) {
+                // The running services still use the files, e.g. relative bind mount sources
+                keepFiles(environmentFile, scratchDirectory);
+            } else if (!deferred && !deleteFiles(composeYamlFile, environmentFile, scratchDirectory)) {
+                engineLogger.warn("File: " + composeYamlFile.getAbsolutePath() + " was not deleted.");
             }
-            if (shutdownHook != null) {
-                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            for (Registration registration : registrations) {
+                registration.close();
             }
+            teardownExecution.finish(0);
+            engineLogger.info("Teardown completed in " +
+                              TimeUnit.NANOSECONDS.toMillis(teardownExecution.getDurationNanos()) + " ms.");
+            evalResult.publishTo(context.getBindings(ScriptContext.ENGINE_SCOPE));
             cleanLogger();
         }
         return null;
     }
 
-    private Process stopAndRemoveContainers(ScriptContext context) throws IOException {
+    /**
+     * Registers the evaluation, its compose project and its files.
+     */
+    private void registerResources(List<Registration> registrations, final ScriptContext context,
+            final String composeContentFromStdin, final ScratchDirectory scratchDirectory,
+            final EnvironmentFile environmentFile) {
+        // unfortunately shutdown hooks are not run on windows when the process is terminated using
+        // process.destroy(). At the moment, this issue cannot be solved and docker compose tasks cannot
+        // be killed properly on windows in ProActive Scheduler task fork mode (which uses process.destroy()).
+        // see https://bugs.openjdk.java.net/browse/JDK-8056139
+        ResourceRegistry registry = ResourceRegistry.getInstance();
+        String name = evalResult.getComposeProjectName();
+        registrations.add(registry.register(ResourceRegistry.Kind.EVALUATION, name, this::cancel));
+        registrations.add(registry.registerComposeProject(dockerComposeCommandCreator.getDockerCommand(),
+                                                          DockerComposePropertyLoader.getInstance().getDockerHost(),
+                                                          name,
+                                                          () -> {
+                                                              waitForStopAndRemoveContainers(context,
+                                                                                             composeContentFromStdin);
+                                                              finishCancellation();
+                                                          }));
+        final File composeYamlFile = composeContentFromStdin == null ? new File(composeDirectory,
+                                                                                dockerComposeCommandCreator.YAML_FILE_NAME)
+                                                                     : null;
+        registrations.add(registry.register(ResourceRegistry.Kind.FILE,
+                                            name,
+                                            () -> deleteFiles(composeYamlFile, environmentFile, scratchDirectory)));
+    }
+
+    /**
+     * Deletes the files of an evaluation, the yaml file is kept if configured, with the working directory
+     * holding it.
+     *
+     * @return False if the yaml file could not be deleted.
+     */
+    private static boolean deleteFiles(File composeYamlFile, EnvironmentFile environmentFile,
+            ScratchDirectory scratchDirectory) {
+        boolean keep = DockerComposePropertyLoader.getInstance().isKeepDockerFile();
+        boolean deleted = composeYamlFile == null || keep || composeYamlFile.delete();
+        if (environmentFile != null) {
+            environmentFile.close();
+        }
+        if (scratchDirectory != null) {
+            if (keep) {
+                scratchDirectory.keep();
+            } else {
+                scratchDirectory.close();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Keeps the working directory and the environment file of services left running, for good.
+     */
+    private void keepFiles(EnvironmentFile environmentFile, ScratchDirectory scratchDirectory) {
+        if (environmentFile != null) {
+            environmentFile.keep();
+            engineLogger.info("Environment file " + environmentFile.getFile() + " kept.");
+        }
+        if (scratchDirectory != null) {
+            scratchDirectory.keep();
+            engineLogger.info("Working directory " + scratchDirectory.getDirectory() + " kept.");
+        }
+    }
 
-        ProcessBuilder builder = SingletonProcessBuilderFactory.getInstance()
-                                                               .getProcessBuilder(dockerComposeCommandCreator.createDockerComposeDownCommand());
+    /**
+     * Hands docker compose down and the deletion of the files over to the deferred cleanup queue. The output
+     * of the services is drained first, unless the evaluation is cancelled. The project and the files are
+     * registered again, with cleanups which do not depend on this engine anymore.
+     */
+    private void deferTeardown(ScriptContext context, String composeContent, final File composeYamlFile,
+            final EnvironmentFile environmentFile, final ScratchDirectory scratchDirectory)
+            throws InterruptedException {
+        if (!cancelled && !processBuilderUtilities.awaitOutputDrained(OUTPUT_DRAIN_TIMEOUT_MILLIS)) {
+            engineLogger.warn("Services output not drained after " + OUTPUT_DRAIN_TIMEOUT_MILLIS + " ms.");
+        }
+        flushSilently(context.getWriter());
+        flushSilently(context.getErrorWriter());
+        String name = evalResult.getComposeProjectName();
+        ProcessBuilder downProcessBuilder = createDownProcessBuilder(composeContent, cancelled ? 0 : stopTimeout);
+        ResourceRegistry.Cleanup down = DeferredCleanupQueue.dockerCommand(Phase.DOWN,
+                                                                           downProcessBuilder,
+                                                                           composeContent,
+                                                                           evalResult.getJobId(),
+                                                                           evalResult.getTaskId());
+        ResourceRegistry.Cleanup deleteFiles = () -> {
+            if (!deleteFiles(composeYamlFile, environmentFile, scratchDirectory)) {
+                log.warn("File: " + composeYamlFile.getAbsolutePath() + " was not deleted.");
+            }
+        };
+        ResourceRegistry registry = ResourceRegistry.getInstance();
+        Registration project = registry.registerComposeProject(dockerComposeCommandCreator.getDockerCommand(),
+                                                               DockerComposePropertyLoader.getInstance()
+                                                                                          .getDockerHost(),
+                                                               name,
+                                                               down);
+        List<Registration> registrations = Arrays.asList(project,
+                                                         registry.register(ResourceRegistry.Kind.FILE,
+                                                                           name,
+                                                                           deleteFiles));
+        boolean queued = DeferredCleanupQueue.getInstance().submit(name,
+                                                                   Arrays.asList(down, deleteFiles),
+                                                                   registrations);
+        engineLogger.info(queued ? "Deferred docker compose down."
+                                 : "Executed docker compose down, the deferred cleanup queue is full.");
+    }
+
+    /**
+     * Starts to prefetch the images of the services, when the configuration and the pull policy allow it.
+     *
+     * @return The pulls by image, in file order.
+     */
+    private Map<String, CompletableFuture<ImagePull>> prefetchImages(String composeContent, PullPolicy pullPolicy) {
+        Map<String, CompletableFuture<ImagePull>> imagePulls = new LinkedHashMap<>();
+        if (!DockerComposePropertyLoader.getInstance().isPrefetchImages() || pullPolicy == PullPolicy.NEVER ||
+            pullPolicy == PullPolicy.OFFLINE) {
+            return imagePulls;
+        }
+        String dockerHost = DockerComposePropertyLoader.getInstance().getDockerHost();
+        for (String image : composeServiceExtractor.getImages(composeContent)) {
+            String[] inspectCommand = dockerComposeCommandCreator.createDockerImageInspectCommand(image);
+            String[] pullCommand = dockerComposeCommandCreator.createDockerPullCommand(image);
+            imagePulls.put(image,
+                           ImagePrefetcher.getInstance()
+                                          .prefetch(dockerHost,
+                                                    image,
+                                                    pullPolicy,
+                                                    environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                                      .getProcessBuilder(inspectCommand)),
+                                                    environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                                      .getProcessBuilder(pullCommand))));
+        }
+        return imagePulls;
+    }
+
+    /**
+     * @return The value of a generic information of the task, null if it is not set.
+     */
+    private String getGenericInformation(Bindings bindings, String key) {
+        Object genericInfo = bindings.get(SchedulerConstants.GENERIC_INFO_BINDING_NAME);
+        if (genericInfo instanceof Map && ((Map<?, ?>) genericInfo).get(key) != null) {
+            return ((Map<?, ?>) genericInfo).get(key).toString();
+        }
+        return null;
+    }
+
+    private PullPolicy getPullPolicy(Bindings bindings) {
+        String name = getGenericInformation(bindings, DockerComposeCommandCreator.PULL_POLICY_KEY);
+        if (name == null) {
+            name = DockerComposePropertyLoader.getInstance().getPullPolicy();
+        }
+        try {
+            return PullPolicy.fromName(name);
+        } catch (IllegalArgumentException e) {
+            engineLogger.warn("Invalid pull policy: " + name);
+            return PullPolicy.MISSING;
+        }
+    }
+
+    /**
+     * Fails if images of the services are not present, before docker compose tries to pull them. If the
+     * image index cannot be loaded, docker compose is started anyway.
+     */
+    private void checkImagesPresent(List<String> images) throws ScriptException, InterruptedException {
+        List<String> missingImages;
+        try {
+            missingImages = LocalImageIndex.getInstance(dockerComposeCommandCreator.getDockerCommand(),
+                                                        DockerComposePropertyLoader.getInstance().getDockerHost())
+                                           .getMissingImages(images);
+        } catch (IOException e) {
+            engineLogger.warn("Failed to check the local images: " + e.getMessage());
+            return;
+        }
+        if (!missingImages.isEmpty()) {
+            throw new ScriptException("Images " + missingImages + " are not present on this node and the pull " +
+                                      "policy is " + PullPolicy.OFFLINE.name().toLowerCase());
+        }
+    }
+
+    /**
+     * @return The up options ending up when a container exits, empty if none is configured.
+     * @throws ScriptException If the options are used with detached services, or the service whose exit
+     *                         code is used is not defined in the file.
+     */
+    private List<String> getExitOptions(Bindings bindings, String composeContent, boolean detached)
+            throws ScriptException {
+        String exitCodeFromService = getGenericInformation(bindings, DockerComposeCommandCreator.EXIT_CODE_FROM_KEY);
+        if (exitCodeFromService != null) {
+            exitCodeFromService = exitCodeFromService.trim().isEmpty() ? null : exitCodeFromService.trim();
+        }
+        String abortOnExit = getGenericInformation(bindings, DockerComposeCommandCreator.ABORT_ON_EXIT_KEY);
+        boolean abort = abortOnExit != null && Boolean.parseBoolean(abortOnExit.trim());
+        List<String> exitOptions = DockerComposeCommandCreator.createExitOptions(exitCodeFromService, abort);
+        if (!exitOptions.isEmpty() && detached) {
+            throw new ScriptException(DockerComposeCommandCreator.EXIT_CODE_FROM_KEY + " and " +
+                                      DockerComposeCommandCreator.ABORT_ON_EXIT_KEY +
+                                      " cannot be used with detached services");
+        }
+        if (exitCodeFromService != null) {
+            List<String> services = composeServiceExtractor.getServiceNames(composeContent);
+            // An empty list means the services could not be extracted, docker compose then checks the name
+            if (!services.isEmpty() && !services.contains(exitCodeFromService)) {
+                throw new ScriptException("Service " + exitCodeFromService + " of " +
+                                          DockerComposeCommandCreator.EXIT_CODE_FROM_KEY +
+                                          " is not defined, the services are " + services);
+            }
+        }
+        return exitOptions;
+    }
+
+    /**
+     * @return Seconds down waits before killing the containers, negative for the docker compose default.
+     */
+    private int getStopTimeout(Bindings bindings) {
+        String stopTimeout = getGenericInformation(bindings, DockerComposeCommandCreator.STOP_TIMEOUT_KEY);
+        if (stopTimeout != null) {
+            try {
+                return Integer.parseInt(stopTimeout.trim());
+            } catch (NumberFormatException e) {
+                engineLogger.warn("Invalid stop timeout: " + stopTimeout);
+            }
+        }
+        return DockerComposePropertyLoader.getInstance().getStopTimeout();
+    }
+
+    private boolean isDetached(Bindings bindings) {
+        String detached = getGenericInformation(bindings, DockerComposeCommandCreator.DETACHED_KEY);
+        return detached == null ? DockerComposePropertyLoader.getInstance().isDetached()
+                                : Boolean.parseBoolean(detached.trim());
+    }
+
+    /**
+     * @return The maximum time detached services take to be ready, in milliseconds.
+     */
+    private long getReadyTimeout(Bindings bindings) {
+        long seconds = DockerComposePropertyLoader.getInstance().getReadyTimeout();
+        String timeout = getGenericInformation(bindings, DockerComposeCommandCreator.READY_TIMEOUT_KEY);
+        if (timeout != null) {
+            try {
+                seconds = Long.parseLong(timeout.trim());
+            } catch (NumberFormatException e) {
+                engineLogger.warn("Invalid ready timeout: " + timeout);
+            }
+        }
+        return TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+    /**
+     * Waits until the containers of the project are ready, see {@link ContainerState#getReadiness}.
+     *
+     * @param composeContent          Yaml content, used to find services without container.
+     * @param composeContentFromStdin Yaml content streamed to docker compose ps, null if the file is on disk.
+     * @throws ScriptException If a container failed or the services are not ready in time.
+     */
+    private void waitUntilReady(String composeContent, String composeContentFromStdin, long timeoutMillis)
+            throws ScriptException, IOException, InterruptedException {
+        PhaseExecution execution = evalResult.startAction(Phase.READY);
+        try {
+            final List<String> containers = listContainers(composeContentFromStdin, false, execution);
+            List<ContainerState> states = new ArrayList<>();
+            if (!containers.isEmpty()) {
+                ReadinessWaiter readinessWaiter = new ReadinessWaiter(ReadinessWaiter.DEFAULT_INITIAL_POLL_MILLIS,
+                                                                      ReadinessWaiter.DEFAULT_MAX_POLL_MILLIS,
+                                                                      ReadinessWaiter.socketProbe(DockerComposePropertyLoader.getInstance()
+                                                                                                                             .getDockerHost()));
+                states = readinessWaiter.waitUntilReady(new ReadinessWaiter.ContainerInspector() {
+                    @Override
+                    public List<ContainerState> inspect() throws IOException, InterruptedException {
+                        return inspectContainers(containers);
+                    }
+                }, timeoutMillis);
+            }
+            Set<String> startedServices = new HashSet<>();
+            for (ContainerState state : states) {
+                startedServices.add(state.getService());
+            }
+            for (String service : composeServiceExtractor.getServiceNames(composeContent)) {
+                if (!startedServices.contains(service)) {
+                    engineLogger.warn("No container found for service " + service);
+                }
+            }
+            execution.finish(0);
+            engineLogger.info(states.size() + " containers ready in " +
+                              TimeUnit.NANOSECONDS.toMillis(execution.getDurationNanos()) + " ms: " + states);
+        } finally {
+            execution.finish(null);
+        }
+    }
+
+    /**
+     * Records the exit codes of the stopped containers of the project in the result. A failure is only
+     * logged.
+     */
+    private void recordServiceExitCodes(String composeContentFromStdin) throws InterruptedException {
+        try {
+            List<String> containers = listContainers(composeContentFromStdin, true, null);
+            if (containers.isEmpty()) {
+                return;
+            }
+            for (ContainerState state : inspectContainers(containers)) {
+                if (state.isStopped()) {
+                    evalResult.addServiceExitCode(state.getService(), state.getExitCode());
+                }
+            }
+        } catch (IOException e) {
+            engineLogger.warn("Failed to get the exit codes of the services: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param all       Whether stopped containers are listed too.
+     * @param execution Execution the command is recorded in, null for none.
+     * @return The ids of the containers of the project, listed by docker compose ps.
+     */
+    private List<String> listContainers(String composeContentFromStdin, boolean all, PhaseExecution execution)
+            throws IOException, InterruptedException {
+        ProcessBuilder psBuilder = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                     .getProcessBuilder(dockerComposeCommandCreator.createDockerComposePsCommand(generalOptions,
+                                                                                                                                                 composeContentFromStdin != null,
+                                                                                                                                                 all)));
+        psBuilder.directory(composeDirectory);
+        if (execution != null) {
+            execution.setCommand(psBuilder.command());
+        }
+        List<String> containers = new ArrayList<>();
+        for (String line : runForOutput(psBuilder, composeContentFromStdin).split("\\r?\\n")) {
+            if (!line.trim().isEmpty()) {
+                containers.add(line.trim());
+            }
+        }
+        return containers;
+    }
+
+    /**
+     * @param containers Ids of the containers, not empty.
+     * @return The states of the containers which could be inspected.
+     */
+    private List<ContainerState> inspectContainers(List<String> containers) throws IOException, InterruptedException {
+        ProcessBuilder inspectBuilder = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                          .getProcessBuilder(dockerComposeCommandCreator.createDockerInspectCommand(ContainerState.INSPECT_FORMAT,
+                                                                                                                                                                    containers)));
+        List<ContainerState> states = new ArrayList<>();
+        for (String line : runForOutput(inspectBuilder, null).split("\\r?\\n")) {
+            ContainerState state = ContainerState.parse(line);
+            if (state != null) {
+                states.add(state);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Runs a command whose output is parsed instead of being written to the task output.
+     *
+     * @param inputContent Content written to the process input, null for none.
+     * @return The standard output of the command.
+     * @throws IOException If the command cannot be started or exits with an error.
+     */
+    private String runForOutput(ProcessBuilder processBuilder, String inputContent)
+            throws IOException, InterruptedException {
+        Process process = processBuilder.start();
+        StringWriter error = new StringWriter();
+        processBuilderUtilities.attachStreamsToProcess(process, null, error, null);
+        try (Writer input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+            if (inputContent != null) {
+                input.write(inputContent);
+            }
+        }
+        StringWriter output = new StringWriter();
+        ProcessBuilderUtilities.pipe(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8), output);
+        int exitValue = process.waitFor();
+        if (exitValue != 0) {
+            throw new IOException(processBuilder.command() + " failed with exit code " + exitValue + ": " + error);
+        }
+        return output.toString();
+    }
+
+    private static synchronized boolean isPullOptionSupported() {
+        if (pullOptionSupported == null) {
+            DockerComposeVersionGetter versionGetter = new DockerComposeVersionGetter(new ProcessBuilderUtilities());
+            String version = versionGetter.getDockerComposeVersion(SingletonProcessBuilderFactory.getInstance());
+            pullOptionSupported = DockerComposeCommandCreator.supportsPullOption(version);
+        }
+        return pullOptionSupported;
+    }
+
+    /**
+     * Waits for the prefetch of an image. A failure is only logged, docker compose then pulls the image
+     * itself.
+     */
+    private void awaitImagePull(String image, CompletableFuture<ImagePull> imagePull) throws InterruptedException {
+        PhaseExecution execution = evalResult.startAction(Phase.PULL,
+                                                          Arrays.asList(dockerComposeCommandCreator.createDockerPullCommand(image)));
+        try {
+            ImagePull result = imagePull.get();
+            execution.finish(result.getExitCode());
+            if (result.getOutcome() == ImagePull.Outcome.FAILED) {
+                engineLogger.warn("Docker pull of " + image + " failed with exit code " + result.getExitCode());
+            } else {
+                engineLogger.info("Image " + image + ": " + result.getOutcome());
+            }
+        } catch (ExecutionException e) {
+            engineLogger.warn("Failed to pull " + image + ": " + e.getMessage());
+        } finally {
+            // Only taken into account if the pull did not complete
+            execution.finish(null);
+        }
+    }
+
+    /**
+     * Marks the evaluation as cancelled and kills docker compose up with its descendants. The containers are
+     * then killed by down, without grace period.
+     */
+    private synchronized void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        cancelExecution = evalResult.startAction(Phase.CANCEL);
+        Process process = upProcess;
+        if (process != null) {
+            ProcessTreeKiller.destroyTree(process);
+        }
+    }
+
+    /**
+     * Ends the cancel phase once the containers are removed, if the evaluation was cancelled.
+     */
+    private void finishCancellation() {
+        PhaseExecution cancellation = cancelExecution;
+        if (cancellation != null) {
+            cancellation.finish(0);
+            engineLogger.info("Containers killed " + TimeUnit.NANOSECONDS.toMillis(cancellation.getDurationNanos()) +
+                              " ms after the cancellation.");
+        }
+    }
+
+    /**
+     * Kills the containers of a cancelled evaluation, without removing them. A failure is only logged, docker
+     * compose down still removes the containers.
+     */
+    private void killContainers(ScriptContext context, String composeContent) throws InterruptedException {
+        String[] killCommand = dockerComposeCommandCreator.createDockerComposeKillCommand(generalOptions,
+                                                                                         composeContent != null);
+        ProcessBuilder builder = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                   .getProcessBuilder(killCommand));
         builder.directory(composeDirectory);
         engineLogger.info("Running command: " + builder.command());
+        try {
+            Process process = builder.start();
+            if (composeContent != null) {
+                processBuilderUtilities.attachStreamsToProcessWithInputContent(process,
+                                                                               context.getWriter(),
+                                                                               context.getErrorWriter(),
+                                                                               composeContent);
+            } else {
+                processBuilderUtilities.attachStreamsToProcess(process,
+                                                               context.getWriter(),
+                                                               context.getErrorWriter(),
+                                                               context.getReader());
+            }
+            int exitValue = process.waitFor();
+            if (exitValue != 0) {
+                engineLogger.warn("Docker compose kill exited with code " + exitValue);
+            }
+        } catch (IOException e) {
+            engineLogger.warn("Failed to kill the containers: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs docker compose down and waits for it to exit.
+     */
+    private void waitForStopAndRemoveContainers(ScriptContext context, String composeContent)
+            throws IOException, InterruptedException {
+        PhaseExecution execution = evalResult.startAction(Phase.DOWN);
+        try {
+            execution.finish(stopAndRemoveContainers(context, composeContent, execution).waitFor());
+        } finally {
+            execution.finish(null);
+        }
+    }
+
+    /**
+     * Starts docker compose down.
+     *
+     * @param context        Script context, used for the process output.
+     * @param composeContent Yaml content streamed to docker compose when the file is read from the
+     *                       standard input, null if docker compose reads the file from disk.
+     * @param execution      Execution of the down phase, used to count the output.
+     * @return The started process.
+     */
+    private Process stopAndRemoveContainers(ScriptContext context, String composeContent, PhaseExecution execution)
+            throws IOException {
+
+        // A cancelled evaluation does not wait for the containers to stop
+        ProcessBuilder builder = createDownProcessBuilder(composeContent, cancelled ? 0 : stopTimeout);
+        execution.setCommand(builder.command());
+        engineLogger.info("Running command: " + builder.command());
         Process process = builder.start();
-        processBuilderUtilities.attachStreamsToProcess(process,
-                                                       context.getWriter(),
-                                                       context.getErrorWriter(),
-                                                       context.getReader());
+        if (composeContent != null) {
+            processBuilderUtilities.attachStreamsToProcessWithInputContent(process,
+                                                                           execution.countOutput(context.getWriter()),
+                                                                           execution.countOutput(context.getErrorWriter()),
+                                                                           composeContent);
+        } else {
+            processBuilderUtilities.attachStreamsToProcess(process,
+                                                           execution.countOutput(context.getWriter()),
+                                                           execution.countOutput(context.getErrorWriter()),
+                                                           context.getReader());
+        }
         return process;
     }
 
+    /**
+     * @param downTimeout Seconds the containers get to stop, negative for the docker default.
+     */
+    private ProcessBuilder createDownProcessBuilder(String composeContent, int downTimeout) {
+        String[] downCommand = dockerComposeCommandCreator.createDockerComposeDownCommand(generalOptions,
+                                                                                          composeContent != null,
+                                                                                          downTimeout);
+        ProcessBuilder builder = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                   .getProcessBuilder(downCommand));
+        builder.directory(composeDirectory);
+        return builder;
+    }
+
+    private static void flushSilently(Writer writer) {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // the task output is closed, nothing left to flush
+        }
+    }
+
     @Override
     public Object eval(Reader reader, ScriptContext context) throws ScriptException {
 
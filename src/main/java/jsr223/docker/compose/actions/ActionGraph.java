@@ -0,0 +1,237 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Actions of an evaluation and their dependencies. An action starts once all its dependencies
+ * succeeded, at most parallelism actions run at the same time and ready actions start in the order
+ * they were added. The actions depending on a failed action are skipped, the others still run.
+ * <p>
+ * An action which is the only one that can run is executed in the calling thread, so a graph executed
+ * with a parallelism of 1 runs all its actions one after another in the calling thread.
+ */
+@Log4j
+public class ActionGraph {
+
+    // Shared by all graphs of the JVM, threads are only created when actions overlap
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jsr223-docker-action-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    /**
+     * Adds an action. Its dependencies must have been added before, dependencies which are not in the graph
+     * are ignored so that optional actions can simply be left out.
+     *
+     * @throws IllegalArgumentException If an action with the same name was already added.
+     */
+    public ActionGraph add(String name, Action action, String... dependencies) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Action " + name + " is already in the graph");
+        }
+        List<Node> dependencyNodes = new ArrayList<>(dependencies.length);
+        for (String dependency : dependencies) {
+            if (nodes.containsKey(dependency)) {
+                dependencyNodes.add(nodes.get(dependency));
+            }
+        }
+        nodes.put(name, new Node(name, action, dependencyNodes));
+        return this;
+    }
+
+    public boolean contains(String name) {
+        return nodes.containsKey(name);
+    }
+
+    /**
+     * @return The state of an action, null if it is not in the graph.
+     */
+    public ActionState getState(String name) {
+        Node node = nodes.get(name);
+        return node == null ? null : node.state;
+    }
+
+    public List<String> getActionNames() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes.keySet()));
+    }
+
+    /**
+     * Executes all actions, and returns once no action can run anymore.
+     *
+     * @param parallelism Maximum number of actions running at the same time.
+     * @throws Exception The first failure of an action, once the other actions are finished.
+     * @throws InterruptedException If the calling thread or an action is interrupted, running actions are
+     *                              then interrupted and not waited for.
+     */
+    public void execute(int parallelism) throws Exception {
+        CompletionService<Node> completionService = new ExecutorCompletionService<>(EXECUTOR);
+        Map<Node, Future<Node>> running = new LinkedHashMap<>();
+        Throwable firstFailure = null;
+        try {
+            while (true) {
+                List<Node> ready = skipAndCollectReady();
+                if (ready.isEmpty() && running.isEmpty()) {
+                    break;
+                }
+                if (running.isEmpty() && (ready.size() == 1 || parallelism <= 1)) {
+                    Node node = ready.get(0);
+                    node.state = ActionState.RUNNING;
+                    firstFailure = completed(node.call(), firstFailure);
+                    continue;
+                }
+                for (Node node : ready) {
+                    if (running.size() >= Math.max(1, parallelism)) {
+                        break;
+                    }
+                    node.state = ActionState.RUNNING;
+                    running.put(node, completionService.submit(node));
+                }
+                Node done = completionService.take().get();
+                running.remove(done);
+                firstFailure = completed(done, firstFailure);
+            }
+        } catch (InterruptedException e) {
+            for (Future<Node> future : running.values()) {
+                future.cancel(true);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            // Nodes catch all failures of their action
+            throw new IllegalStateException(e);
+        }
+        if (firstFailure instanceof Error) {
+            throw (Error) firstFailure;
+        } else if (firstFailure != null) {
+            throw (Exception) firstFailure;
+        }
+    }
+
+    private Throwable completed(Node node, Throwable firstFailure) throws InterruptedException {
+        if (node.failure == null) {
+            node.state = ActionState.SUCCEEDED;
+            return firstFailure;
+        }
+        node.state = ActionState.FAILED;
+        if (node.failure instanceof InterruptedException) {
+            throw (InterruptedException) node.failure;
+        }
+        log.debug("Action " + node.name + " failed", node.failure);
+        return firstFailure == null ? node.failure : firstFailure;
+    }
+
+    /**
+     * Marks the pending actions with an unsuccessful dependency as skipped, and returns the pending
+     * actions whose dependencies all succeeded. Dependencies are always added first, so one pass is enough.
+     */
+    private List<Node> skipAndCollectReady() {
+        List<Node> ready = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            if (node.state != ActionState.PENDING) {
+                continue;
+            }
+            boolean allSucceeded = true;
+            for (Node dependency : node.dependencies) {
+                if (dependency.state == ActionState.FAILED || dependency.state == ActionState.SKIPPED) {
+                    node.state = ActionState.SKIPPED;
+                    log.debug("Action " + node.name + " skipped, " + dependency.name + " did not succeed");
+                }
+                allSucceeded &= dependency.state == ActionState.SUCCEEDED;
+            }
+            if (node.state == ActionState.PENDING && allSucceeded) {
+                ready.add(node);
+            }
+        }
+        return ready;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder("ActionGraph[");
+        for (Node node : nodes.values()) {
+            if (description.length() > "ActionGraph[".length()) {
+                description.append(", ");
+            }
+            description.append(node.name).append('=').append(node.state);
+        }
+        return description.append(']').toString();
+    }
+
+    private static class Node implements Callable<Node> {
+
+        private final String name;
+
+        private final Action action;
+
+        private final List<Node> dependencies;
+
+        // Only updated by the thread executing the graph
+        private ActionState state = ActionState.PENDING;
+
+        private volatile Throwable failure;
+
+        private Node(String name, Action action, List<Node> dependencies) {
+            this.name = name;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public Node call() {
+            try {
+                action.execute();
+            } catch (Exception | Error e) {
+                failure = e;
+            }
+            return this;
+        }
+    }
+}
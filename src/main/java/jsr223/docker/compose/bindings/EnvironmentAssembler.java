@@ -0,0 +1,209 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.bindings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.script.Bindings;
+
+import jsr223.docker.compose.file.write.EnvironmentFileFormat;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+
+/**
+ * Assembles the environment of all docker processes started by one evaluation.
+ * <p>
+ * The JVM environment is snapshot once. Each evaluation only computes the variables which differ from
+ * that snapshot (bindings and engine variables) and applies this delta to every process it starts.
+ * <p>
+ * Optionally the bindings are moved to an environment file instead, see
+ * {@link #assemble(Bindings, Map, EnvironmentFileFormat)}.
+ */
+@AllArgsConstructor
+public class EnvironmentAssembler {
+
+    private static final Map<String, String> BASE_ENVIRONMENT;
+
+    static {
+        BASE_ENVIRONMENT = Collections.unmodifiableMap(new HashMap<>(System.getenv()));
+    }
+
+    @NonNull
+    private StringBindingsAdder stringBindingsAdder;
+
+    /**
+     * @return The immutable environment every process inherits from this JVM.
+     */
+    public static Map<String, String> getBaseEnvironment() {
+        return BASE_ENVIRONMENT;
+    }
+
+    /**
+     * Computes the environment of one evaluation.
+     *
+     * @param bindings        Bindings whose strings (and strings inside maps) are added to the environment.
+     * @param engineVariables Variables set by the engine, they override bindings with the same name.
+     * @return The environment of the evaluation.
+     */
+    public Environment assemble(Bindings bindings, Map<String, String> engineVariables) {
+        return assemble(bindings, engineVariables, null);
+    }
+
+    /**
+     * Computes the environment of one evaluation, moving the bindings to an environment file.
+     * <p>
+     * Bindings which cannot be written in the file format, or which shadow a variable of the JVM environment
+     * (the docker clients give the process environment precedence over files), stay in the process
+     * environment. Engine variables always stay in the process environment.
+     *
+     * @param bindings        Bindings whose strings (and strings inside maps) are added to the environment.
+     * @param engineVariables Variables set by the engine, they override bindings with the same name.
+     * @param fileFormat      Format of the environment file, null to keep all variables in the process
+     *                        environment.
+     * @return The environment of the evaluation.
+     */
+    public Environment assemble(Bindings bindings, Map<String, String> engineVariables,
+            EnvironmentFileFormat fileFormat) {
+        return assemble(bindings, engineVariables, fileFormat, Collections.<String> emptySet());
+    }
+
+    /**
+     * Same as {@link #assemble(Bindings, Map, EnvironmentFileFormat)}, but the given variables stay in the
+     * process environment, e.g. those the docker client reads for "--build-arg NAME" or "-e NAME".
+     *
+     * @param processVariableNames Names of the bindings which are not moved to the environment file.
+     */
+    public Environment assemble(Bindings bindings, Map<String, String> engineVariables,
+            EnvironmentFileFormat fileFormat, Set<String> processVariableNames) {
+        Map<String, String> variables = new LinkedHashMap<>();
+        stringBindingsAdder.addBindingToStringMap(bindings, variables);
+
+        Map<String, String> fileVariables = new LinkedHashMap<>();
+        if (fileFormat != null) {
+            for (Map.Entry<String, String> variable : variables.entrySet()) {
+                boolean isEngineVariable = engineVariables != null && engineVariables.containsKey(variable.getKey());
+                if (!isEngineVariable && !processVariableNames.contains(variable.getKey()) &&
+                    !BASE_ENVIRONMENT.containsKey(variable.getKey()) &&
+                    fileFormat.canRepresent(variable.getKey(), variable.getValue())) {
+                    fileVariables.put(variable.getKey(), variable.getValue());
+                }
+            }
+        }
+
+        if (engineVariables != null) {
+            variables.putAll(engineVariables);
+        }
+
+        // Every variable is substituted in the script, even when it is not passed to the processes
+        Map<String, String> substitutions = new LinkedHashMap<>();
+        Map<String, String> delta = new LinkedHashMap<>();
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            if (variable.getValue() == null) {
+                continue;
+            }
+            substitutions.put(variable.getKey(), variable.getValue());
+            if (fileVariables.containsKey(variable.getKey())) {
+                continue;
+            }
+            // An empty variable is kept: "-e NAME" or "--build-arg NAME" passes it as empty, not unset
+            if (!Objects.equals(BASE_ENVIRONMENT.get(variable.getKey()), variable.getValue())) {
+                delta.put(variable.getKey(), variable.getValue());
+            }
+        }
+        return new Environment(Collections.unmodifiableMap(delta),
+                               Collections.unmodifiableMap(fileVariables),
+                               Collections.unmodifiableMap(substitutions));
+    }
+
+    /**
+     * Environment of one evaluation: the base environment plus a delta.
+     */
+    public static class Environment {
+
+        private final Map<String, String> delta;
+
+        private final Map<String, String> fileVariables;
+
+        // Bindings and engine variables, including those left out of the delta and the file
+        private final Map<String, String> substitutions;
+
+        private Map<String, String> variables;
+
+        private Environment(Map<String, String> delta, Map<String, String> fileVariables,
+                Map<String, String> substitutions) {
+            this.delta = delta;
+            this.fileVariables = fileVariables;
+            this.substitutions = substitutions;
+        }
+
+        /**
+         * @return Variables of the process environment which differ from the base environment.
+         */
+        public Map<String, String> getDelta() {
+            return delta;
+        }
+
+        /**
+         * @return Variables which must be handed to docker through an environment file.
+         */
+        public Map<String, String> getFileVariables() {
+            return fileVariables;
+        }
+
+        /**
+         * @return All variables of the evaluation, including the file variables and the empty ones, as
+         * substituted in the script. Computed once per evaluation.
+         */
+        public synchronized Map<String, String> getVariables() {
+            if (variables == null) {
+                Map<String, String> merged = new HashMap<>(BASE_ENVIRONMENT);
+                merged.putAll(substitutions);
+                variables = Collections.unmodifiableMap(merged);
+            }
+            return variables;
+        }
+
+        /**
+         * Applies the delta to a process builder. Without delta the process builder environment is not
+         * touched, so the process inherits the JVM environment without a copy.
+         *
+         * @param processBuilder Process builder which gets the environment.
+         * @return The given process builder.
+         */
+        public ProcessBuilder applyTo(ProcessBuilder processBuilder) {
+            if (!delta.isEmpty()) {
+                processBuilder.environment().putAll(delta);
+            }
+            return processBuilder;
+        }
+    }
+}
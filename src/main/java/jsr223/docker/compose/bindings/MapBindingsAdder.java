@@ -46,10 +46,9 @@ public class MapBindingsAdder {
 
         if (containsKeyAndValue(entry) && valueIsMapType(entry)) {
             addEntryToEnvironmentWhichIsAMapContainingStrings(environment, entry);
-        } else {
+        } else if (log.isDebugEnabled()) {
             log.debug("Ignored binding: " + entry.getKey() + "(" + getClassName(entry.getKey()) + "):" +
                       entry.getValue() + "(" + getClassName(entry.getValue()) + ")");
-
         }
     }
 
@@ -70,7 +69,9 @@ public class MapBindingsAdder {
         for (Map.Entry<?, ?> mapEntry : ((Map<?, ?>) entry.getValue()).entrySet()) {
             if (mapEntry.getValue() instanceof String && mapEntry.getKey() instanceof String) {
                 environment.put((String) mapEntry.getKey(), (String) mapEntry.getValue());
-                log.debug("Added binding: " + mapEntry.getKey() + ":" + mapEntry.getValue().toString());
+                if (log.isDebugEnabled()) {
+                    log.debug("Added binding: " + mapEntry.getKey() + ":" + mapEntry.getValue().toString());
+                }
             }
         }
     }
@@ -68,7 +68,9 @@ public class StringBindingsAdder {
             Map.Entry<String, Object> entry) {
         if (environmentAndEntryExist(environment, entry) && hasKeyAndValue(entry)) {
             environment.put(entry.getKey(), (String) entry.getValue());
-            log.debug("Added binding: " + entry.getKey() + ":" + entry.getValue().toString());
+            if (log.isDebugEnabled()) {
+                log.debug("Added binding: " + entry.getKey() + ":" + entry.getValue().toString());
+            }
         }
     }
 
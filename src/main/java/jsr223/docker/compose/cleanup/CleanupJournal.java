@@ -0,0 +1,402 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Write-ahead journal of the docker resources of this JVM, which lets the next JVM of the node remove the
+ * resources of a JVM killed without running its shutdown hook (e.g. SIGKILL).
+ * <p>
+ * The journal is a file named after the owner id of the JVM and locked while the JVM runs. A resource is
+ * recorded before it is created, with the docker client and host which remove it, and released once it is
+ * removed or left running on purpose. The resources created by the dockerfile engine also carry the owner
+ * id as label, see {@link #createLabels(String, String, String)}.
+ * <p>
+ * The journal stays small: it is emptied whenever all its resources are released, and rewritten with the
+ * pending resources only once it mostly holds released ones.
+ */
+@Log4j
+public class CleanupJournal {
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    public static final String OWNER_LABEL = "jsr223.docker.owner";
+
+    public static final String ENGINE_LABEL = "jsr223.docker.engine";
+
+    public static final String JOB_LABEL = "jsr223.docker.job";
+
+    public static final String TASK_LABEL = "jsr223.docker.task";
+
+    private static final String CREATED = "+";
+
+    private static final String RELEASED = "-";
+
+    private static final String SEPARATOR = "\t";
+
+    // Lines after which the journal is rewritten, if most of its resources are released
+    private static final int COMPACTION_LINES = 1000;
+
+    static final String COMPACTION_SUFFIX = ".compaction";
+
+    static final String CREATION_SUFFIX = ".creation";
+
+    @Getter
+    private final Path directory;
+
+    @Getter
+    private final String owner;
+
+    // Opened and locked on the first record
+    private FileChannel channel = null;
+
+    // Set when the journal cannot be written, the resources are then not recorded anymore
+    private boolean failed = false;
+
+    // Lines of the resources not released yet, by id
+    private final Map<String, String> pendingLines = new LinkedHashMap<>();
+
+    // Lines in the journal file
+    private int lines = 0;
+
+    // Cleared if the file system cannot replace the locked journal, e.g. on Windows
+    private boolean compactionSupported = true;
+
+    CleanupJournal(Path directory, String owner) {
+        this.directory = directory;
+        this.owner = owner;
+    }
+
+    /**
+     * @return The journal of this JVM, null if disabled by docker.cleanup.journal.enabled.
+     */
+    public static CleanupJournal getInstance() {
+        return CleanupJournalHolder.INSTANCE;
+    }
+
+    public Path getFile() {
+        return directory.resolve(owner + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * @return The labels of a resource created by an evaluation, job and task are omitted when unknown.
+     */
+    public Map<String, String> createLabels(String engine, String jobId, String taskId) {
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put(OWNER_LABEL, owner);
+        labels.put(ENGINE_LABEL, engine);
+        if (jobId != null) {
+            labels.put(JOB_LABEL, jobId);
+        }
+        if (taskId != null) {
+            labels.put(TASK_LABEL, taskId);
+        }
+        return labels;
+    }
+
+    /**
+     * Records a resource before it is created.
+     *
+     * @param id Id of the resource, unique in this JVM.
+     */
+    public synchronized void created(long id, Record record) {
+        List<String> fields = new ArrayList<>();
+        fields.add(CREATED);
+        fields.add(Long.toString(id));
+        fields.add(record.getKind().name());
+        fields.add(record.getDockerHost());
+        fields.add(record.getName());
+        fields.addAll(record.getDockerCommand());
+        String line = format(fields);
+        pendingLines.put(Long.toString(id), line);
+        append(line);
+    }
+
+    /**
+     * Records that a resource is removed, or does not need to be removed anymore.
+     */
+    public synchronized void released(long id) {
+        if (pendingLines.remove(Long.toString(id)) == null) {
+            return;
+        }
+        if (pendingLines.isEmpty()) {
+            truncate();
+            return;
+        }
+        append(format(Arrays.asList(RELEASED, Long.toString(id))));
+        if (lines >= COMPACTION_LINES && lines > 2 * pendingLines.size()) {
+            compact();
+        }
+    }
+
+    private static String format(List<String> fields) {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() > 0) {
+                line.append(SEPARATOR);
+            }
+            line.append(field);
+        }
+        return line.append('\n').toString();
+    }
+
+    private void append(String line) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (channel == null) {
+                Files.createDirectories(directory);
+                channel = createLocked();
+            }
+            // A single write, a JVM killed while writing leaves at most one truncated line
+            channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+            lines++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Creates the journal, locked under a temporary name before it is moved into place. The reaper of another
+     * JVM would otherwise find it unlocked and empty, and delete it as the journal of a killed JVM.
+     */
+    private FileChannel createLocked() throws IOException {
+        Path created = directory.resolve(owner + JOURNAL_SUFFIX + CREATION_SUFFIX);
+        FileChannel createdChannel = FileChannel.open(created,
+                                                      StandardOpenOption.CREATE,
+                                                      StandardOpenOption.WRITE,
+                                                      StandardOpenOption.APPEND);
+        try {
+            // Released when the JVM exits, other JVMs then know that the resources are orphaned
+            createdChannel.lock();
+            Files.move(created, getFile(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            closeSilently(createdChannel);
+            try {
+                Files.deleteIfExists(created);
+            } catch (IOException deleteFailure) {
+                log.debug("Failed to delete " + created, deleteFailure);
+            }
+            throw e;
+        }
+        return createdChannel;
+    }
+
+    /**
+     * Empties the journal once all its resources are released, nothing can be lost if the JVM is killed.
+     */
+    private void truncate() {
+        if (failed || channel == null) {
+            return;
+        }
+        try {
+            channel.truncate(0);
+            lines = 0;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Replaces the journal by a file holding only the pending resources. The new file is locked before it
+     * replaces the journal. A reaper which opened the old file before the move locks it once it is closed,
+     * and then finds that the journal is another file, see {@link OrphanReaper}.
+     */
+    private void compact() {
+        if (failed || channel == null || !compactionSupported) {
+            return;
+        }
+        Path compacted = directory.resolve(owner + JOURNAL_SUFFIX + COMPACTION_SUFFIX);
+        StringBuilder content = new StringBuilder();
+        for (String line : pendingLines.values()) {
+            content.append(line);
+        }
+        FileChannel compactedChannel = null;
+        try {
+            compactedChannel = FileChannel.open(compacted,
+                                                StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE,
+                                                StandardOpenOption.APPEND);
+            compactedChannel.lock();
+            // Left behind if a compaction was interrupted by a kill
+            compactedChannel.truncate(0);
+            compactedChannel.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8)));
+            Files.move(compacted, getFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.debug("Failed to compact the cleanup journal " + getFile() + ", it is only emptied from now on", e);
+            compactionSupported = false;
+            closeSilently(compactedChannel);
+            try {
+                Files.deleteIfExists(compacted);
+            } catch (IOException deleteFailure) {
+                log.debug("Failed to delete " + compacted, deleteFailure);
+            }
+            return;
+        }
+        closeSilently(channel);
+        channel = compactedChannel;
+        lines = pendingLines.size();
+    }
+
+    private static void closeSilently(FileChannel fileChannel) {
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                // Nothing to do, its lock is released anyway
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        log.warn("Failed to write the cleanup journal " + getFile() + ", resources are not recorded anymore", e);
+    }
+
+    /**
+     * Deletes the journal once all its resources are removed, e.g. by the shutdown cleanup.
+     */
+    public synchronized void delete() {
+        pendingLines.clear();
+        lines = 0;
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            Files.deleteIfExists(getFile());
+        } catch (IOException e) {
+            log.debug("Failed to delete the cleanup journal " + getFile(), e);
+        }
+    }
+
+    /**
+     * @return The journals of the directory, except the journal of this JVM.
+     */
+    public List<Path> listOtherJournals() throws IOException {
+        List<Path> journals = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return journals;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + JOURNAL_SUFFIX)) {
+            for (Path file : files) {
+                if (!file.equals(getFile())) {
+                    journals.add(file);
+                }
+            }
+        }
+        return journals;
+    }
+
+    /**
+     * @return The owner id of a journal file.
+     */
+    public static String getOwner(Path journal) {
+        String fileName = journal.getFileName().toString();
+        return fileName.substring(0, fileName.length() - JOURNAL_SUFFIX.length());
+    }
+
+    /**
+     * @return The resources recorded and not released in a journal, in creation order.
+     */
+    public static List<Record> readPending(Path journal) throws IOException {
+        Map<String, Record> pending = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length == 2 && RELEASED.equals(fields[0])) {
+                pending.remove(fields[1]);
+            } else if (fields.length > 5 && CREATED.equals(fields[0])) {
+                try {
+                    pending.put(fields[1],
+                                new Record(ResourceRegistry.Kind.valueOf(fields[2]),
+                                           fields[3],
+                                           fields[4],
+                                           Arrays.asList(Arrays.copyOfRange(fields, 5, fields.length))));
+                } catch (IllegalArgumentException e) {
+                    log.debug("Ignoring the journal line " + line);
+                }
+            }
+            // Other lines are truncated by a kill
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Resource recorded in a journal.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Record {
+
+        private final ResourceRegistry.Kind kind;
+
+        // Empty for the local daemon
+        private final String dockerHost;
+
+        private final String name;
+
+        // Docker client, with sudo if it is used
+        private final List<String> dockerCommand;
+    }
+
+    private static class CleanupJournalHolder {
+        private static final CleanupJournal INSTANCE = create();
+
+        private CleanupJournalHolder() {
+        }
+
+        private static CleanupJournal create() {
+            CleanupPropertyLoader properties = CleanupPropertyLoader.getInstance();
+            if (!properties.isJournalEnabled()) {
+                return null;
+            }
+            return new CleanupJournal(Paths.get(properties.getJournalDirectory()).toAbsolutePath(),
+                                      UUID.randomUUID().toString());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Configuration of the cleanup of the resources of both engines, see {@link ResourceRegistry}.
+ */
+@Log4j
+public class CleanupPropertyLoader {
+
+    private final static String CONFIGURATION_FILE = "config/scriptengines/docker-cleanup.properties";
+
+    public static final String DOCKER_CLEANUP_PARALLELISM = "docker.cleanup.parallelism";
+
+    public static final String DOCKER_CLEANUP_BATCH_SIZE = "docker.cleanup.batch.size";
+
+    public static final String DOCKER_CLEANUP_SHUTDOWN_TIMEOUT = "docker.cleanup.shutdown.timeout";
+
+    public static final String DOCKER_CLEANUP_JOURNAL_ENABLED = "docker.cleanup.journal.enabled";
+
+    public static final String DOCKER_CLEANUP_JOURNAL_DIR = "docker.cleanup.journal.dir";
+
+    public static final String DOCKER_CLEANUP_REAP_TIMEOUT = "docker.cleanup.reap.timeout";
+
+    public static final String DOCKER_CLEANUP_DEFERRED = "docker.cleanup.deferred";
+
+    public static final String DOCKER_CLEANUP_DEFERRED_WORKERS = "docker.cleanup.deferred.workers";
+
+    public static final String DOCKER_CLEANUP_DEFERRED_QUEUE_SIZE = "docker.cleanup.deferred.queue.size";
+
+    public static final String DOCKER_CLEANUP_DEFERRED_WAIT_TIMEOUT = "docker.cleanup.deferred.wait.timeout";
+
+    // Docker commands running at the same time
+    @Getter
+    @Setter
+    private int parallelism;
+
+    // Containers or images removed by one docker command
+    @Getter
+    @Setter
+    private int batchSize;
+
+    // Time the cleanup may delay the JVM shutdown, in milliseconds
+    @Getter
+    @Setter
+    private long shutdownTimeout;
+
+    // Resources are recorded in a journal, and those of killed JVMs are removed by the next JVM
+    @Getter
+    @Setter
+    private boolean journalEnabled;
+
+    @Getter
+    @Setter
+    private String journalDirectory;
+
+    // Time the removal of the resources of killed JVMs may take, in milliseconds
+    @Getter
+    @Setter
+    private long reapTimeout;
+
+    // Teardowns run after eval returned, see DeferredCleanupQueue
+    @Getter
+    @Setter
+    private boolean deferred;
+
+    @Getter
+    @Setter
+    private int deferredWorkers;
+
+    // Teardowns queued or running, before new evaluations wait
+    @Getter
+    @Setter
+    private int deferredQueueSize;
+
+    // Time a new evaluation waits for room in the queue, in milliseconds
+    @Getter
+    @Setter
+    private long deferredWaitTimeout;
+
+    private Properties properties;
+
+    private CleanupPropertyLoader() {
+        reload();
+    }
+
+    /**
+     * Reload properties from the configuration file or system properties
+     */
+    public void reload() {
+        properties = new Properties();
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(CONFIGURATION_FILE)) {
+            log.debug("Load properties from configuration file: " + CONFIGURATION_FILE);
+            properties.load(inputStream);
+        } catch (IOException | NullPointerException e) {
+            log.debug("Configuration file " + CONFIGURATION_FILE +
+                      " not found. Using system properties or standard values.", e);
+        }
+
+        this.parallelism = Integer.parseInt(getOverridenProperty(DOCKER_CLEANUP_PARALLELISM, "8"));
+        this.batchSize = Integer.parseInt(getOverridenProperty(DOCKER_CLEANUP_BATCH_SIZE, "50"));
+        this.shutdownTimeout = Long.parseLong(getOverridenProperty(DOCKER_CLEANUP_SHUTDOWN_TIMEOUT, "30000"));
+        this.journalEnabled = Boolean.parseBoolean(getOverridenProperty(DOCKER_CLEANUP_JOURNAL_ENABLED, "true"));
+        this.journalDirectory = getOverridenProperty(DOCKER_CLEANUP_JOURNAL_DIR,
+                                                     new File(System.getProperty("java.io.tmpdir"),
+                                                              "jsr223-docker-journal").getPath());
+        this.reapTimeout = Long.parseLong(getOverridenProperty(DOCKER_CLEANUP_REAP_TIMEOUT, "300000"));
+        this.deferred = Boolean.parseBoolean(getOverridenProperty(DOCKER_CLEANUP_DEFERRED, "false"));
+        this.deferredWorkers = Integer.parseInt(getOverridenProperty(DOCKER_CLEANUP_DEFERRED_WORKERS, "2"));
+        this.deferredQueueSize = Integer.parseInt(getOverridenProperty(DOCKER_CLEANUP_DEFERRED_QUEUE_SIZE, "32"));
+        this.deferredWaitTimeout = Long.parseLong(getOverridenProperty(DOCKER_CLEANUP_DEFERRED_WAIT_TIMEOUT,
+                                                                       "600000"));
+    }
+
+    private String getOverridenProperty(String key, String defaultValue) {
+        if (System.getProperty(key) != null) {
+            return System.getProperty(key);
+        } else {
+            return properties.getProperty(key, defaultValue);
+        }
+    }
+
+    public static CleanupPropertyLoader getInstance() {
+        return CleanupPropertyLoaderHolder.INSTANCE;
+    }
+
+    /**
+     * CleanupPropertyLoaderHolder is loaded on the first execution of CleanupPropertyLoader.getInstance().
+     **/
+    private static class CleanupPropertyLoaderHolder {
+        private static final CleanupPropertyLoader INSTANCE = new CleanupPropertyLoader();
+
+        private CleanupPropertyLoaderHolder() {
+        }
+    }
+}
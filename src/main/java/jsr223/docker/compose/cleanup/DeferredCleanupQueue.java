@@ -0,0 +1,229 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jsr223.docker.compose.cleanup.ResourceRegistry.Cleanup;
+import jsr223.docker.compose.cleanup.ResourceRegistry.Registration;
+import jsr223.docker.compose.metrics.Phase;
+import jsr223.docker.compose.metrics.PhaseExecution;
+import jsr223.docker.compose.metrics.PhaseMetrics;
+import lombok.extern.log4j.Log4j;
+import processbuilder.utils.ProcessBuilderUtilities;
+
+
+/**
+ * Executes the teardowns of the evaluations of the node (JVM) after the evaluations returned, on a few
+ * worker threads. The steps of a teardown are executed one after another, and are prepared by the
+ * evaluation so that they do not depend on the engine anymore.
+ * <p>
+ * The queue is bounded: a teardown which does not fit is executed by its evaluation, and new evaluations
+ * wait for room before they start, so that the cleanups do not fall further behind. A teardown keeps the
+ * registrations of its resources until it succeeded, so the resources are still removed by the shutdown
+ * cleanup, or by the {@link OrphanReaper} of the next JVM if this one is killed: the cleanup journal is the
+ * persistent backlog of the queue.
+ */
+@Log4j
+public class DeferredCleanupQueue {
+
+    private final ExecutorService executor;
+
+    // Teardowns queued or running
+    private final Semaphore capacity;
+
+    private final int size;
+
+    private final long waitTimeoutMillis;
+
+    DeferredCleanupQueue(int workers, int size, long waitTimeoutMillis) {
+        this.size = Math.max(1, size);
+        this.capacity = new Semaphore(this.size);
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, workers), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                                           "jsr223-docker-deferred-cleanup-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static DeferredCleanupQueue getInstance() {
+        return DeferredCleanupQueueHolder.INSTANCE;
+    }
+
+    /**
+     * @return The number of teardowns queued or running.
+     */
+    public int getPending() {
+        return size - capacity.availablePermits();
+    }
+
+    /**
+     * Waits until the queue has room for a teardown, at most docker.cleanup.deferred.wait.timeout. The
+     * interrupt flag is kept if the thread is interrupted.
+     *
+     * @return The time waited in milliseconds.
+     */
+    public long awaitCapacity() {
+        long start = System.nanoTime();
+        try {
+            if (capacity.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                capacity.release();
+            } else {
+                log.warn(getPending() + " deferred cleanups still pending after " + waitTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Executes a teardown in a worker, or in the calling thread if the queue is full.
+     *
+     * @param name          Name of the teardown, used in the log.
+     * @param steps         Steps executed one after another, all of them are executed even if some fail.
+     * @param registrations Registrations of the resources removed by the steps, closed once all steps
+     *                      succeeded.
+     * @return Whether the teardown was deferred.
+     */
+    public boolean submit(final String name, final List<Cleanup> steps, final List<Registration> registrations) {
+        if (!capacity.tryAcquire()) {
+            log.info("Deferred cleanup queue full, running the teardown of " + name + " now");
+            execute(name, steps, registrations);
+            return false;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    execute(name, steps, registrations);
+                } finally {
+                    capacity.release();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @return Whether all steps succeeded.
+     */
+    static boolean execute(String name, List<Cleanup> steps, List<Registration> registrations) {
+        boolean succeeded = true;
+        for (Cleanup step : steps) {
+            try {
+                step.cleanUp();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                log.warn("Deferred cleanup of " + name + " failed: " + e.getMessage());
+                succeeded = false;
+            }
+        }
+        if (succeeded) {
+            for (Registration registration : registrations) {
+                registration.close();
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * Creates a step executing a docker command. Its output goes to this class' log, and its duration to the
+     * phase statistics.
+     *
+     * @param input Content written to the command input, null if none.
+     */
+    public static Cleanup dockerCommand(final Phase phase, final ProcessBuilder processBuilder, final String input,
+            final String jobId, final String taskId) {
+        processBuilder.redirectErrorStream(true);
+        return new Cleanup() {
+            @Override
+            public void cleanUp() throws IOException, InterruptedException {
+                PhaseExecution execution = PhaseMetrics.getInstance().start(phase);
+                execution.setJobId(jobId);
+                execution.setTaskId(taskId);
+                execution.setCommand(new ArrayList<>(processBuilder.command()));
+                StringWriter output = new StringWriter();
+                try {
+                    Process process = processBuilder.start();
+                    try (OutputStream processInput = process.getOutputStream()) {
+                        if (input != null) {
+                            processInput.write(input.getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                    ProcessBuilderUtilities.pipe(new InputStreamReader(process.getInputStream(),
+                                                                       StandardCharsets.UTF_8),
+                                                 execution.countOutput(output));
+                    int exitValue = process.waitFor();
+                    execution.finish(exitValue);
+                    if (exitValue != 0) {
+                        throw new IOException(processBuilder.command() + " failed with exit code " + exitValue +
+                                              ": " + output);
+                    }
+                    log.debug(processBuilder.command() + ": " + output);
+                } finally {
+                    // Only taken into account if the command did not complete
+                    execution.finish(null);
+                }
+            }
+        };
+    }
+
+    private static class DeferredCleanupQueueHolder {
+        private static final DeferredCleanupQueue INSTANCE = createInstance();
+
+        private static DeferredCleanupQueue createInstance() {
+            CleanupPropertyLoader properties = CleanupPropertyLoader.getInstance();
+            return new DeferredCleanupQueue(properties.getDeferredWorkers(),
+                                            properties.getDeferredQueueSize(),
+                                            properties.getDeferredWaitTimeout());
+        }
+
+        private DeferredCleanupQueueHolder() {
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Removes the docker resources of the JVMs of the node which were killed without running their shutdown
+ * hook, as recorded in their {@link CleanupJournal}. A journal whose lock can be acquired belongs to a JVM
+ * which does not exist anymore.
+ * <p>
+ * Only the journaled images and containers of the dockerfile engine are removed, their owner label
+ * confirms that they still are the resources of the killed JVM. The containers, networks and volumes of
+ * compose projects are found by the label docker compose gives them. They are removed in
+ * batches by a {@link ResourceRegistry} of their own. A journal is deleted once all its resources are
+ * removed, otherwise the next JVM tries again. A journal which no longer is the locked file, replaced by a
+ * compaction of its owner, is left to the next reap.
+ */
+@Log4j
+public class OrphanReaper {
+
+    public static final String COMPOSE_PROJECT_LABEL = "com.docker.compose.project";
+
+    private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+
+    private final CleanupJournal journal;
+
+    private final int parallelism;
+
+    private final int batchSize;
+
+    private final long timeoutMillis;
+
+    OrphanReaper(CleanupJournal journal, int parallelism, int batchSize, long timeoutMillis) {
+        this.journal = journal;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Starts a background removal of the orphaned resources, once per JVM. Nothing is done when the journal
+     * is disabled.
+     */
+    public static void reapOnce() {
+        final CleanupJournal journal = CleanupJournal.getInstance();
+        if (journal == null || !STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        Thread reaper = new Thread("jsr223-docker-orphan-reaper") {
+            @Override
+            public void run() {
+                CleanupPropertyLoader properties = CleanupPropertyLoader.getInstance();
+                new OrphanReaper(journal,
+                                 properties.getParallelism(),
+                                 properties.getBatchSize(),
+                                 properties.getReapTimeout()).reap();
+            }
+        };
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Removes the resources of all journals whose owner is gone.
+     */
+    public Result reap() {
+        Result result = new Result(0, 0, 0, 0);
+        List<Path> journals;
+        try {
+            journals = journal.listOtherJournals();
+        } catch (IOException e) {
+            log.warn("Failed to list the cleanup journals of " + journal.getDirectory(), e);
+            return result;
+        }
+        for (Path file : journals) {
+            try {
+                reap(file, result);
+            } catch (NoSuchFileException e) {
+                // Reaped by another JVM
+            } catch (OverlappingFileLockException e) {
+                // Reaped by another thread of this JVM
+            } catch (IOException e) {
+                log.warn("Failed to reap the resources of the cleanup journal " + file, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (result.found > 0) {
+            log.info("Removed " + result.removed + " of " + result.found + " orphaned docker resources of " +
+                     result.journals + " killed JVMs, reclaiming up to " + result.bytes + " bytes");
+        }
+        return result;
+    }
+
+    /**
+     * Removes the resources of a journal if its owner is gone.
+     */
+    private void reap(Path file, Result result) throws IOException, InterruptedException {
+        // Read before the journal is opened, the opened file is the journal if the key is unchanged once locked
+        Object fileKey = getFileKey(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                // The owner is alive
+                return;
+            }
+            if (!isLockedJournal(file, fileKey)) {
+                // Replaced by a compaction of its owner, which only released the old file
+                return;
+            }
+            List<CleanupJournal.Record> pending = CleanupJournal.readPending(file);
+            if (reap(CleanupJournal.getOwner(file), pending, result)) {
+                Files.delete(file);
+                // Left behind if the owner was killed while compacting its journal
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + CleanupJournal.COMPACTION_SUFFIX));
+            }
+            result.journals++;
+        }
+    }
+
+    /**
+     * @param fileKey Key of the journal read before it was opened and locked.
+     * @return Whether the journal still is the file which was opened and locked. Always true if the file
+     * system has no file keys.
+     */
+    static boolean isLockedJournal(Path file, Object fileKey) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        return fileKey == null || fileKey.equals(getFileKey(file));
+    }
+
+    private static Object getFileKey(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * @return Whether all resources of the journal are removed.
+     */
+    private boolean reap(String owner, List<CleanupJournal.Record> pending, Result result)
+            throws InterruptedException {
+        ResourceRegistry registry = new ResourceRegistry(parallelism, batchSize, null);
+        boolean listed = true;
+        // Journaled containers and images by kind and docker client, listed together
+        Map<List<String>, List<String>> names = new LinkedHashMap<>();
+        for (CleanupJournal.Record record : pending) {
+            List<String> client = new ArrayList<>();
+            client.add(record.getDockerHost());
+            client.addAll(record.getDockerCommand());
+            if (record.getKind() == ResourceRegistry.Kind.COMPOSE_PROJECT) {
+                List<String> filters = Collections.singletonList("label=" + COMPOSE_PROJECT_LABEL + "=" +
+                                                                 record.getName());
+                try {
+                    result.bytes += register(registry, client, ResourceRegistry.Kind.CONTAINER, filters);
+                    register(registry, client, ResourceRegistry.Kind.NETWORK, filters);
+                    register(registry, client, ResourceRegistry.Kind.VOLUME, filters);
+                } catch (IOException e) {
+                    log.warn("Failed to list the orphaned docker resources of " + record.getName() + ": " +
+                             e.getMessage());
+                    listed = false;
+                }
+            } else if (record.getKind() == ResourceRegistry.Kind.CONTAINER ||
+                       record.getKind() == ResourceRegistry.Kind.IMAGE) {
+                List<String> key = new ArrayList<>(client);
+                key.add(0, record.getKind().name());
+                List<String> kindNames = names.get(key);
+                if (kindNames == null) {
+                    kindNames = new ArrayList<>();
+                    names.put(key, kindNames);
+                }
+                kindNames.add(record.getName());
+            } else {
+                registry.registerDockerResource(record.getKind(),
+                                                record.getDockerCommand(),
+                                                record.getDockerHost(),
+                                                record.getName());
+            }
+        }
+        for (Map.Entry<List<String>, List<String>> kindNames : names.entrySet()) {
+            ResourceRegistry.Kind kind = ResourceRegistry.Kind.valueOf(kindNames.getKey().get(0));
+            List<String> client = kindNames.getKey().subList(1, kindNames.getKey().size());
+            List<String> journaled = kindNames.getValue();
+            for (int start = 0; start < journaled.size(); start += batchSize) {
+                List<String> batch = journaled.subList(start, Math.min(journaled.size(), start + batchSize));
+                try {
+                    result.bytes += register(registry, client, kind, createOwnedFilters(kind, owner, batch));
+                } catch (IOException e) {
+                    log.warn("Failed to list the orphaned docker resources " + batch + ": " + e.getMessage());
+                    listed = false;
+                }
+            }
+        }
+        int found = registry.size();
+        int removed = registry.cleanUp(timeoutMillis);
+        result.found += found;
+        result.removed += removed;
+        return listed && removed == found;
+    }
+
+    /**
+     * @return Filters matching the journaled containers or images which carry the owner label. Resources of
+     * the owner which are not journaled were kept on purpose, e.g. an image built without rmi, and the same
+     * name may have been reused by a resource of another owner since.
+     */
+    static List<String> createOwnedFilters(ResourceRegistry.Kind kind, String owner, List<String> names) {
+        List<String> filters = new ArrayList<>();
+        filters.add("label=" + CleanupJournal.OWNER_LABEL + "=" + owner);
+        for (String name : names) {
+            if (kind == ResourceRegistry.Kind.CONTAINER) {
+                // Filters with the same key match any of their values, and name is a regular expression
+                filters.add("name=^/?" + name.replace(".", "\\.") + "$");
+            } else {
+                filters.add("reference=" + name);
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Registers the resources of a kind matching all filters.
+     *
+     * @param client  Docker host followed by the docker client.
+     * @param filters Values of the --filter options.
+     * @return The size of the registered containers or images in bytes, 0 for networks and volumes.
+     */
+    private long register(ResourceRegistry registry, List<String> client, ResourceRegistry.Kind kind,
+            List<String> filters) throws IOException, InterruptedException {
+        String dockerHost = client.get(0);
+        List<String> dockerCommand = client.subList(1, client.size());
+        List<String> listArguments;
+        switch (kind) {
+            case CONTAINER:
+                listArguments = Arrays.asList("ps", "-a", "-q", "--no-trunc");
+                break;
+            case IMAGE:
+                listArguments = Arrays.asList("images", "-q", "--no-trunc");
+                break;
+            case NETWORK:
+                listArguments = Arrays.asList("network", "ls", "-q", "--no-trunc");
+                break;
+            default:
+                listArguments = Arrays.asList("volume", "ls", "-q");
+        }
+        List<String> command = new ArrayList<>(dockerCommand);
+        command.addAll(listArguments);
+        for (String filter : filters) {
+            command.add("--filter");
+            command.add(filter);
+        }
+        // An image with several tags is listed once per tag
+        Set<String> ids = new LinkedHashSet<>(splitLines(ResourceRegistry.execute(command, dockerHost)));
+        for (String id : ids) {
+            registry.registerDockerResource(kind, dockerCommand, dockerHost, id);
+        }
+        if (ids.isEmpty() || (kind != ResourceRegistry.Kind.CONTAINER && kind != ResourceRegistry.Kind.IMAGE)) {
+            return 0;
+        }
+        return getSize(dockerCommand, dockerHost, kind, ids);
+    }
+
+    /**
+     * @return The writable layer size of containers, the size of images including shared layers.
+     */
+    private long getSize(List<String> dockerCommand, String dockerHost, ResourceRegistry.Kind kind,
+            Set<String> ids) throws InterruptedException {
+        List<String> command = new ArrayList<>(dockerCommand);
+        if (kind == ResourceRegistry.Kind.CONTAINER) {
+            command.addAll(Arrays.asList("container", "inspect", "--size", "--format", "{{.SizeRw}}"));
+        } else {
+            command.addAll(Arrays.asList("image", "inspect", "--format", "{{.Size}}"));
+        }
+        command.addAll(ids);
+        long bytes = 0;
+        try {
+            for (String size : splitLines(ResourceRegistry.execute(command, dockerHost))) {
+                bytes += Long.parseLong(size);
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Only reported
+            log.debug("Failed to get the size of " + ids, e);
+        }
+        return bytes;
+    }
+
+    private static List<String> splitLines(String output) {
+        List<String> lines = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Outcome of a reap.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class Result {
+
+        // Journals of killed JVMs
+        private int journals;
+
+        // Resources of the journals which still existed
+        private int found;
+
+        private int removed;
+
+        // Size of the found containers and images, layers shared with other images included
+        private long bytes;
+    }
+}
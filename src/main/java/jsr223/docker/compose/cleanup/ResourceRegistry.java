@@ -0,0 +1,457 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.log4j.Log4j;
+import processbuilder.utils.ProcessBuilderUtilities;
+
+
+/**
+ * Resources of the running evaluations of the node (JVM), cleaned up by a single shutdown hook if the JVM
+ * exits while they are in use. Engines register a resource when they create it and close the registration
+ * once they removed it, which only updates a concurrent map and appends to the {@link CleanupJournal}.
+ * <p>
+ * At shutdown, resources are cleaned up in stages: evaluations are cancelled first, then containers and
+ * compose projects are removed, then images, networks and volumes, then files. Docker resources of the same
+ * docker client are removed in batches by one docker command. The cleanups of a stage run in parallel, and
+ * the whole cleanup is bounded by a deadline.
+ */
+@Log4j
+public class ResourceRegistry {
+
+    private static final String DOCKER_HOST_VARIABLE = "DOCKER_HOST";
+
+    /**
+     * Kinds of resources, in cleanup order. Kinds of the same stage are cleaned up together.
+     */
+    public enum Kind {
+        // Running evaluation, its cleanup kills its processes
+        EVALUATION(0),
+        CONTAINER(1, "rm", "-f"),
+        COMPOSE_PROJECT(1),
+        IMAGE(2, "rmi"),
+        NETWORK(2, "network", "rm"),
+        VOLUME(2, "volume", "rm"),
+        FILE(3);
+
+        private final int stage;
+
+        // Docker arguments removing resources of this kind, empty if they are not removed by docker
+        private final List<String> removeArguments;
+
+        Kind(int stage, String... removeArguments) {
+            this.stage = stage;
+            this.removeArguments = Collections.unmodifiableList(Arrays.asList(removeArguments));
+        }
+
+        public int getStage() {
+            return stage;
+        }
+
+        public List<String> getRemoveArguments() {
+            return removeArguments;
+        }
+    }
+
+    /**
+     * Cleanup of a resource which cannot be batched.
+     */
+    public interface Cleanup {
+        void cleanUp() throws Exception;
+    }
+
+    private final ConcurrentMap<Long, Resource> resources = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final int parallelism;
+
+    private final int batchSize;
+
+    // Null if the resources are not journaled
+    private final CleanupJournal journal;
+
+    ResourceRegistry(int parallelism, int batchSize, CleanupJournal journal) {
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+        this.journal = journal;
+    }
+
+    public static ResourceRegistry getInstance() {
+        return ResourceRegistryHolder.INSTANCE;
+    }
+
+    /**
+     * Registers a resource cleaned up by its own action.
+     *
+     * @param name Name of the resource, used in the log.
+     */
+    public Registration register(Kind kind, String name, Cleanup cleanup) {
+        return add(new Resource(kind, name, cleanup, null, null));
+    }
+
+    /**
+     * Registers a compose project cleaned up by its own action. It is journaled with the docker client which
+     * removes its containers, networks and volumes if the JVM is killed.
+     */
+    public Registration registerComposeProject(List<String> dockerCommand, String dockerHost, String project,
+            Cleanup cleanup) {
+        return add(new Resource(Kind.COMPOSE_PROJECT, project, cleanup, dockerCommand, dockerHost));
+    }
+
+    /**
+     * Registers a container, removed with docker rm -f.
+     *
+     * @param dockerCommand Docker client, with sudo if it is used.
+     * @param dockerHost    Value of DOCKER_HOST, empty for the local daemon.
+     */
+    public Registration registerContainer(List<String> dockerCommand, String dockerHost, String container) {
+        return registerDockerResource(Kind.CONTAINER, dockerCommand, dockerHost, container);
+    }
+
+    /**
+     * Registers an image, removed with docker rmi.
+     */
+    public Registration registerImage(List<String> dockerCommand, String dockerHost, String image) {
+        return registerDockerResource(Kind.IMAGE, dockerCommand, dockerHost, image);
+    }
+
+    /**
+     * Registers a resource removed by docker with the remove arguments of its kind.
+     */
+    public Registration registerDockerResource(Kind kind, List<String> dockerCommand, String dockerHost,
+            String name) {
+        if (kind.getRemoveArguments().isEmpty()) {
+            throw new IllegalArgumentException(kind + " resources are not removed by docker");
+        }
+        return add(new Resource(kind, name, null, dockerCommand, dockerHost));
+    }
+
+    /**
+     * @return The number of registered resources.
+     */
+    public int size() {
+        return resources.size();
+    }
+
+    private Registration add(Resource resource) {
+        long id = nextId.incrementAndGet();
+        if (journal != null && resource.dockerCommand != null) {
+            journal.created(id,
+                            new CleanupJournal.Record(resource.kind,
+                                                      resource.dockerHost,
+                                                      resource.name,
+                                                      resource.dockerCommand));
+        }
+        resources.put(id, resource);
+        return new Registration(id);
+    }
+
+    /**
+     * Cleans up all registered resources, and deletes the journal if all of them were cleaned up.
+     */
+    void cleanUpAtShutdown(long timeoutMillis) {
+        int registered = size();
+        if (cleanUp(timeoutMillis) == registered && journal != null) {
+            journal.delete();
+        }
+    }
+
+    /**
+     * Cleans up and unregisters all registered resources.
+     *
+     * @param timeoutMillis Time after which the cleanups still running are abandoned.
+     * @return The number of resources cleaned up without error.
+     */
+    public int cleanUp(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Resource> registered = new ArrayList<>();
+        for (Iterator<Resource> iterator = resources.values().iterator(); iterator.hasNext();) {
+            registered.add(iterator.next());
+            iterator.remove();
+        }
+        if (registered.isEmpty()) {
+            return 0;
+        }
+        log.info("Cleaning up " + registered.size() + " docker resources");
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jsr223-docker-cleanup-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int cleaned = 0;
+        try {
+            for (int stage = 0; stage <= Kind.FILE.getStage(); stage++) {
+                List<Future<Integer>> cleanups = new ArrayList<>();
+                for (Callable<Integer> cleanup : createCleanups(registered, stage)) {
+                    cleanups.add(executor.submit(cleanup));
+                }
+                for (Future<Integer> cleanup : cleanups) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    try {
+                        cleaned += cleanup.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+                    } catch (ExecutionException e) {
+                        log.warn("Docker resource cleanup failed: " + e.getCause().getMessage());
+                    } catch (TimeoutException e) {
+                        log.warn("Docker resource cleanup not completed after " + timeoutMillis + " ms, " +
+                                 cleaned + " of " + registered.size() + " resources cleaned up");
+                        return cleaned;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info(cleaned + " of " + registered.size() + " docker resources cleaned up");
+        return cleaned;
+    }
+
+    /**
+     * @return The cleanups of the resources of a stage: one per batch of docker resources of the same kind
+     * and docker client, one per other resource. Each returns the number of resources it cleaned up.
+     */
+    private List<Callable<Integer>> createCleanups(List<Resource> registered, int stage) {
+        List<Callable<Integer>> cleanups = new ArrayList<>();
+        Map<List<String>, List<String>> batches = new LinkedHashMap<>();
+        for (final Resource resource : registered) {
+            if (resource.kind.getStage() != stage) {
+                continue;
+            }
+            if (resource.cleanup != null) {
+                cleanups.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        resource.cleanup.cleanUp();
+                        return 1;
+                    }
+                });
+                continue;
+            }
+            // Batched by docker host and command
+            List<String> key = new ArrayList<>();
+            key.add(resource.dockerHost);
+            key.addAll(resource.dockerCommand);
+            key.addAll(resource.kind.getRemoveArguments());
+            List<String> batch = batches.get(key);
+            if (batch == null || batch.size() == batchSize) {
+                batch = new ArrayList<>();
+                cleanups.add(createBatchCleanup(key, batch));
+                batches.put(key, batch);
+            }
+            batch.add(resource.name);
+        }
+        return cleanups;
+    }
+
+    private static Callable<Integer> createBatchCleanup(final List<String> key, final List<String> names) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException, InterruptedException {
+                List<String> command = new ArrayList<>(key.subList(1, key.size()));
+                command.addAll(names);
+                try {
+                    execute(command, key.get(0));
+                    return names.size();
+                } catch (IOException e) {
+                    if (names.size() == 1 && isAlreadyRemoved(e)) {
+                        return 1;
+                    } else if (names.size() == 1) {
+                        throw e;
+                    }
+                    // A single resource which is already removed, or was never created, fails the whole batch
+                    log.debug("Batch removal failed, removing the resources one by one: " + e.getMessage());
+                }
+                int removed = 0;
+                for (String name : names) {
+                    List<String> singleCommand = new ArrayList<>(key.subList(1, key.size()));
+                    singleCommand.add(name);
+                    try {
+                        execute(singleCommand, key.get(0));
+                        removed++;
+                    } catch (IOException e) {
+                        if (isAlreadyRemoved(e)) {
+                            removed++;
+                        } else {
+                            log.warn("Docker resource cleanup failed: " + e.getMessage());
+                        }
+                    }
+                }
+                return removed;
+            }
+        };
+    }
+
+    /**
+     * @return Whether the docker command failed because the resource does not exist, e.g. "No such image" or
+     * "network ... not found".
+     */
+    static boolean isAlreadyRemoved(IOException failure) {
+        if (!(failure instanceof CommandFailedException)) {
+            return false;
+        }
+        String output = ((CommandFailedException) failure).getOutput().toLowerCase(Locale.ROOT);
+        return output.contains("no such") || output.contains("not found");
+    }
+
+    /**
+     * Executes a docker command and waits for it.
+     *
+     * @param dockerHost Value of DOCKER_HOST, empty for the local daemon.
+     * @return The standard output of the command, merged with its error output.
+     * @throws IOException If the command failed.
+     */
+    static String execute(List<String> command, String dockerHost) throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true);
+        if (dockerHost != null && !dockerHost.isEmpty()) {
+            processBuilder.environment().put(DOCKER_HOST_VARIABLE, dockerHost);
+        }
+        Process process = processBuilder.start();
+        process.getOutputStream().close();
+        StringWriter output = new StringWriter();
+        ProcessBuilderUtilities.pipe(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8), output);
+        int exitValue = process.waitFor();
+        if (exitValue != 0) {
+            throw new CommandFailedException(command + " failed with exit code " + exitValue + ": " + output,
+                                             output.toString());
+        }
+        return output.toString();
+    }
+
+    /**
+     * Failure of a docker command which exited with a non-zero code.
+     */
+    static class CommandFailedException extends IOException {
+
+        private final String output;
+
+        CommandFailedException(String message, String output) {
+            super(message);
+            this.output = output;
+        }
+
+        String getOutput() {
+            return output;
+        }
+    }
+
+    private static class Resource {
+
+        private final Kind kind;
+
+        private final String name;
+
+        // Null if the resource is removed by a docker command
+        private final Cleanup cleanup;
+
+        // Null if the resource is not a docker resource
+        private final List<String> dockerCommand;
+
+        private final String dockerHost;
+
+        private Resource(Kind kind, String name, Cleanup cleanup, List<String> dockerCommand, String dockerHost) {
+            this.kind = kind;
+            this.name = name;
+            this.cleanup = cleanup;
+            this.dockerCommand = dockerCommand;
+            this.dockerHost = dockerHost == null ? "" : dockerHost;
+        }
+    }
+
+    /**
+     * Registration of a resource, closed once the engine removed the resource itself.
+     */
+    public class Registration implements AutoCloseable {
+
+        private final long id;
+
+        private Registration(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void close() {
+            Resource resource = resources.remove(id);
+            if (journal != null && resource != null && resource.dockerCommand != null) {
+                journal.released(id);
+            }
+        }
+    }
+
+    /**
+     * The shutdown hook is added with the registry, when the first evaluation registers its resources.
+     */
+    private static class ResourceRegistryHolder {
+        private static final CleanupPropertyLoader PROPERTIES = CleanupPropertyLoader.getInstance();
+
+        private static final ResourceRegistry INSTANCE = new ResourceRegistry(PROPERTIES.getParallelism(),
+                                                                              PROPERTIES.getBatchSize(),
+                                                                              CleanupJournal.getInstance());
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread("jsr223-docker-cleanup") {
+                @Override
+                public void run() {
+                    INSTANCE.cleanUpAtShutdown(PROPERTIES.getShutdownTimeout());
+                }
+            });
+        }
+
+        private ResourceRegistryHolder() {
+        }
+    }
+}
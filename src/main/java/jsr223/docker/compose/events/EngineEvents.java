@@ -0,0 +1,98 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.events;
+
+import java.util.List;
+
+import jsr223.docker.compose.metrics.Phase;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Emits Java Flight Recorder events for the phases of both engines. The events live in
+ * {@link FlightRecorderEvents}, which is only loaded when the JVM provides jdk.jfr (Java 8u262+ or 11+),
+ * so every method is a no-op on other JVMs. Events are opaque handles, null when nothing is recorded.
+ */
+@Log4j
+public class EngineEvents {
+
+    private static final boolean FLIGHT_RECORDER_AVAILABLE = isFlightRecorderAvailable();
+
+    private EngineEvents() {
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            FlightRecorderEvents.initialize();
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.debug("Java Flight Recorder is not available, engine events are disabled.");
+            return false;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return FLIGHT_RECORDER_AVAILABLE;
+    }
+
+    /**
+     * @return The event of the phase, or null if the phase has no event or it is not recorded.
+     */
+    public static Object beginPhase(Phase phase) {
+        return FLIGHT_RECORDER_AVAILABLE ? FlightRecorderEvents.beginPhase(phase) : null;
+    }
+
+    /**
+     * @param exitCode Exit code of the phase, null if it did not complete.
+     */
+    public static void commitPhase(Object event, String jobId, String taskId, List<String> command,
+            Integer exitCode, long outputCharacters) {
+        if (event != null) {
+            FlightRecorderEvents.commitPhase(event, jobId, taskId, command, exitCode, outputCharacters);
+        }
+    }
+
+    public static Object beginFileWrite() {
+        return FLIGHT_RECORDER_AVAILABLE ? FlightRecorderEvents.beginFileWrite() : null;
+    }
+
+    public static void commitFileWrite(Object event, String path, long bytes, boolean unchanged, boolean synced) {
+        if (event != null) {
+            FlightRecorderEvents.commitFileWrite(event, path, bytes, unchanged, synced);
+        }
+    }
+
+    public static Object beginPipeFlush() {
+        return FLIGHT_RECORDER_AVAILABLE ? FlightRecorderEvents.beginPipeFlush() : null;
+    }
+
+    public static void commitPipeFlush(Object event, int characters) {
+        if (event != null) {
+            FlightRecorderEvents.commitPipeFlush(event, characters);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.events;
+
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jsr223.docker.compose.metrics.Phase;
+
+
+/**
+ * Flight recorder event classes. Only used through {@link EngineEvents}, which makes sure jdk.jfr exists.
+ */
+class FlightRecorderEvents {
+
+    private static final String CATEGORY = "ProActive";
+
+    private static final String SUB_CATEGORY = "Docker Script Engines";
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Fails with a LinkageError if the event classes cannot be loaded.
+     */
+    static void initialize() {
+        new DockerBuild().isEnabled();
+    }
+
+    static Object beginPhase(Phase phase) {
+        PhaseEvent event = createPhaseEvent(phase);
+        if (event == null || !event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    private static PhaseEvent createPhaseEvent(Phase phase) {
+        switch (phase) {
+            case PULL:
+                return new DockerPull();
+            case BUILD:
+                return new DockerBuild();
+            case RUN:
+                return new DockerRun();
+            case EXEC:
+                return new DockerExec();
+            case STOP:
+                return new DockerStop();
+            case RM:
+                return new DockerRm();
+            case RMI:
+                return new DockerRmi();
+            case UP:
+                return new ComposeUp();
+            case READY:
+                return new ComposeReady();
+            case DOWN:
+                return new ComposeDown();
+            case TEARDOWN:
+                return new Teardown();
+            case CANCEL:
+                return new Cancel();
+            default:
+                // Files are recorded by FileWrite events
+                return null;
+        }
+    }
+
+    static void commitPhase(Object event, String jobId, String taskId, List<String> command, Integer exitCode,
+            long outputCharacters) {
+        PhaseEvent phaseEvent = (PhaseEvent) event;
+        phaseEvent.end();
+        if (phaseEvent.shouldCommit()) {
+            phaseEvent.jobId = jobId;
+            phaseEvent.taskId = taskId;
+            phaseEvent.command = command == null ? null : String.join(" ", command);
+            phaseEvent.completed = exitCode != null;
+            phaseEvent.exitCode = exitCode == null ? -1 : exitCode;
+            phaseEvent.outputCharacters = outputCharacters;
+            phaseEvent.commit();
+        }
+    }
+
+    static Object beginFileWrite() {
+        FileWrite event = new FileWrite();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitFileWrite(Object event, String path, long bytes, boolean unchanged, boolean synced) {
+        FileWrite fileWrite = (FileWrite) event;
+        fileWrite.end();
+        if (fileWrite.shouldCommit()) {
+            fileWrite.path = path;
+            fileWrite.bytes = bytes;
+            fileWrite.unchanged = unchanged;
+            fileWrite.synced = synced;
+            fileWrite.commit();
+        }
+    }
+
+    static Object beginPipeFlush() {
+        PipeFlush event = new PipeFlush();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitPipeFlush(Object event, int characters) {
+        PipeFlush pipeFlush = (PipeFlush) event;
+        pipeFlush.end();
+        if (pipeFlush.shouldCommit()) {
+            pipeFlush.characters = characters;
+            pipeFlush.commit();
+        }
+    }
+
+    @Category({ CATEGORY, SUB_CATEGORY })
+    @StackTrace(false)
+    abstract static class PhaseEvent extends Event {
+
+        @Label("Job Id")
+        String jobId;
+
+        @Label("Task Id")
+        String taskId;
+
+        @Label("Command")
+        String command;
+
+        @Label("Completed")
+        @Description("False if the process could not be started or was interrupted")
+        boolean completed;
+
+        @Label("Exit Code")
+        int exitCode;
+
+        @Label("Output Characters")
+        long outputCharacters;
+    }
+
+    @Name("jsr223.docker.DockerPull")
+    @Label("Docker Pull")
+    static class DockerPull extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.DockerBuild")
+    @Label("Docker Build")
+    static class DockerBuild extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.DockerRun")
+    @Label("Docker Run")
+    static class DockerRun extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.DockerExec")
+    @Label("Docker Exec")
+    static class DockerExec extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.DockerStop")
+    @Label("Docker Stop")
+    static class DockerStop extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.DockerRm")
+    @Label("Docker Rm")
+    static class DockerRm extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.DockerRmi")
+    @Label("Docker Rmi")
+    static class DockerRmi extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.ComposeUp")
+    @Label("Compose Up")
+    static class ComposeUp extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.ComposeReady")
+    @Label("Compose Ready")
+    static class ComposeReady extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.ComposeDown")
+    @Label("Compose Down")
+    static class ComposeDown extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.Teardown")
+    @Label("Teardown")
+    static class Teardown extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.Cancel")
+    @Label("Cancel")
+    static class Cancel extends PhaseEvent {
+    }
+
+    @Name("jsr223.docker.FileWrite")
+    @Label("Configuration File Write")
+    @Category({ CATEGORY, SUB_CATEGORY })
+    @StackTrace(false)
+    static class FileWrite extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Unchanged")
+        @Description("True if the file already had this content and was not rewritten")
+        boolean unchanged;
+
+        @Label("Synced")
+        boolean synced;
+    }
+
+    @Name("jsr223.docker.PipeFlush")
+    @Label("Process Output Flush")
+    @Description("A chunk of process output written and flushed to the script context")
+    @Category({ CATEGORY, SUB_CATEGORY })
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class PipeFlush extends Event {
+
+        @Label("Characters")
+        int characters;
+    }
+}
@@ -26,31 +26,139 @@
 package jsr223.docker.compose.file.write;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.file.FileAlreadyExistsException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
 
+import jsr223.docker.compose.events.EngineEvents;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
 
+
+@Log4j
 public class ConfigurationFileWriter {
 
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    /**
+     * When true, file content and the parent directory entry are flushed to the storage device
+     * before a write returns. Useful on shared filesystems where another host reads the file.
+     */
+    @Getter
+    private final boolean syncToDisk;
+
+    public ConfigurationFileWriter() {
+        this(false);
+    }
+
+    public ConfigurationFileWriter(boolean syncToDisk) {
+        this.syncToDisk = syncToDisk;
+    }
+
+    /**
+     * Writes the content (UTF-8) to the given file. The content is written to a temporary file inside
+     * the same directory which is then renamed over the destination, so readers never see a partially
+     * written file. If the destination already holds exactly the same content, nothing is written.
+     *
+     * @param fileContent     Content of the file.
+     * @param filenameAndPath Destination of the file.
+     * @return The written (or unchanged) file.
+     * @throws IOException If the file could not be written.
+     */
     public File forceFileToDisk(String fileContent, String filenameAndPath) throws IOException {
-        File dockerFile = new File(filenameAndPath);
-        // Create configuration file
-        if (!dockerFile.createNewFile()) {
-            dockerFile.delete();
-            if (!dockerFile.createNewFile()) {
-                throw new FileAlreadyExistsException("Configuration file was deleted but still exists: " +
-                                                     filenameAndPath);
+        Object event = EngineEvents.beginFileWrite();
+        Path destination = Paths.get(filenameAndPath).toAbsolutePath();
+        byte[] content = fileContent.getBytes(StandardCharsets.UTF_8);
+
+        if (hasSameContent(destination, content)) {
+            log.debug("Configuration file " + destination + " is unchanged, write skipped.");
+            EngineEvents.commitFileWrite(event, destination.toString(), content.length, true, false);
+            return destination.toFile();
+        }
+
+        Path directory = destination.getParent();
+        Path temporaryFile = directory.resolve("." + destination.getFileName() + "." + UUID.randomUUID() +
+                                              TEMPORARY_FILE_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile,
+                                                        StandardOpenOption.CREATE_NEW,
+                                                        StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (syncToDisk) {
+                    channel.force(true);
+                }
             }
+            moveIntoPlace(temporaryFile, destination);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        if (syncToDisk) {
+            syncDirectory(directory);
+        }
+        EngineEvents.commitFileWrite(event, destination.toString(), content.length, false, syncToDisk);
+        return destination.toFile();
+    }
+
+    private void moveIntoPlace(Path source, Path destination) throws IOException {
+        try {
+            Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.debug("Atomic move not supported for " + destination + ", falling back to a plain replace.", e);
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Flushes the directory entry of a renamed file. Not every platform allows opening a directory,
+     * in that case the rename is only as durable as the filesystem makes it.
+     */
+    private void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Directory " + directory + " could not be synced.", e);
         }
+    }
 
-        // Force configuration file to disk
-        try (Writer configFileWriter = new FileWriter(dockerFile)) {
-            configFileWriter.write(fileContent);
+    private boolean hasSameContent(Path destination, byte[] content) throws IOException {
+        if (!Files.isRegularFile(destination) || Files.size(destination) != content.length) {
+            return false;
+        }
+        MessageDigest existingDigest = newDigest();
+        try (InputStream inputStream = new DigestInputStream(Files.newInputStream(destination), existingDigest)) {
+            byte[] buffer = new byte[8192];
+            while (inputStream.read(buffer) != -1) {
+                // the digest input stream updates the digest while reading
+            }
         }
+        return MessageDigest.isEqual(existingDigest.digest(), newDigest().digest(content));
+    }
 
-        return dockerFile;
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
     }
 
 }
@@ -0,0 +1,95 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.file.write;
+
+import java.util.regex.Pattern;
+
+
+/**
+ * Syntax of the environment files read by the docker clients.
+ */
+public enum EnvironmentFileFormat {
+
+    /**
+     * Read by "docker run --env-file": each line is taken literally as VARIABLE=value.
+     */
+    DOCKER(Pattern.compile("[^#\\s=][^\\s=]*")) {
+        @Override
+        boolean isValueSupported(String value) {
+            return !containsLineBreak(value);
+        }
+
+        @Override
+        String formatValue(String value) {
+            return value;
+        }
+    },
+
+    /**
+     * Read by "docker-compose --env-file" (dotenv syntax): values are single quoted so they are
+     * taken literally, without escape sequences or variable expansion.
+     */
+    COMPOSE(Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*")) {
+        @Override
+        boolean isValueSupported(String value) {
+            return !containsLineBreak(value) && value.indexOf('\'') == -1;
+        }
+
+        @Override
+        String formatValue(String value) {
+            return "'" + value + "'";
+        }
+    };
+
+    private final Pattern variableNamePattern;
+
+    EnvironmentFileFormat(Pattern variableNamePattern) {
+        this.variableNamePattern = variableNamePattern;
+    }
+
+    abstract boolean isValueSupported(String value);
+
+    abstract String formatValue(String value);
+
+    /**
+     * @return True if the variable can be written to a file of this format without changing its value.
+     */
+    public boolean canRepresent(String name, String value) {
+        return name != null && value != null && variableNamePattern.matcher(name).matches() &&
+               isValueSupported(value);
+    }
+
+    /**
+     * @return The line, without line separator, which defines the variable.
+     */
+    public String formatLine(String name, String value) {
+        return name + "=" + formatValue(value);
+    }
+
+    private static boolean containsLineBreak(String value) {
+        return value.indexOf('\n') != -1 || value.indexOf('\r') != -1;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.file.write;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import jsr223.docker.compose.utils.ScratchDirectoryManager;
+import jsr223.docker.compose.utils.ScratchDirectoryManager.ScratchDirectory;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+
+/**
+ * Writes the variables of an evaluation to an environment file, so they are handed to docker through a
+ * file reference instead of the process environment.
+ */
+@AllArgsConstructor
+public class EnvironmentFileWriter {
+
+    public static final String FILENAME = "variables.env";
+
+    @NonNull
+    private ConfigurationFileWriter configurationFileWriter;
+
+    /**
+     * Writes the variables to a file inside a new private directory (only readable by the owner where the
+     * filesystem supports it). The directory is removed when the returned environment file is closed.
+     *
+     * @param variables               Variables to write, each must be representable in the format.
+     * @param format                  Syntax of the file.
+     * @param scratchDirectoryManager Manager which creates the directory.
+     * @return The written environment file.
+     * @throws IOException If the directory or the file could not be written.
+     */
+    public EnvironmentFile write(Map<String, String> variables, EnvironmentFileFormat format,
+            ScratchDirectoryManager scratchDirectoryManager) throws IOException {
+        long start = System.nanoTime();
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            content.append(format.formatLine(variable.getKey(), variable.getValue())).append('\n');
+        }
+
+        ScratchDirectory directory = scratchDirectoryManager.createOwnerOnlyDirectory();
+        try {
+            String fileContent = content.toString();
+            File file = configurationFileWriter.forceFileToDisk(fileContent,
+                                                                new File(directory.getDirectory(),
+                                                                         FILENAME).getAbsolutePath());
+            return new EnvironmentFile(file,
+                                       variables.size(),
+                                       fileContent.getBytes(StandardCharsets.UTF_8).length,
+                                       System.nanoTime() - start,
+                                       directory);
+        } catch (IOException | RuntimeException e) {
+            directory.close();
+            throw e;
+        }
+    }
+
+    /**
+     * An environment file written for one evaluation. Closing it removes the file, keeping it leaves it in
+     * place for good.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class EnvironmentFile implements Closeable {
+
+        private final File file;
+
+        private final int variableCount;
+
+        private final long sizeInBytes;
+
+        private final long writeTimeNanos;
+
+        private final ScratchDirectory directory;
+
+        @Override
+        public void close() {
+            directory.close();
+        }
+
+        public void keep() {
+            directory.keep();
+        }
+    }
+}
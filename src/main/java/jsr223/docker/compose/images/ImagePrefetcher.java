@@ -0,0 +1,197 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.images;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+import processbuilder.utils.ProcessBuilderUtilities;
+
+
+/**
+ * Pulls images in the background for all evaluations of the node (JVM). An image requested while it is
+ * already being checked or pulled for another evaluation joins that pull instead of starting a second one.
+ * <p>
+ * At most docker.images.pull.concurrency checks and pulls run at the same time, the others wait in a queue.
+ * A pull is shared, so its output goes to this class' log and its process is not destroyed when one of the
+ * evaluations waiting for it is killed.
+ */
+@Log4j
+public class ImagePrefetcher {
+
+    private final ExecutorService executor;
+
+    // Pulls in progress, by docker host and image
+    private final ConcurrentMap<String, CompletableFuture<ImagePull>> pulls = new ConcurrentHashMap<>();
+
+    private final ProcessBuilderUtilities processBuilderUtilities = new ProcessBuilderUtilities();
+
+    /**
+     * @param concurrency Image checks and pulls running at the same time, the others are queued.
+     */
+    ImagePrefetcher(int concurrency) {
+        int threads = Math.max(1, concurrency);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads,
+                                                         threads,
+                                                         60,
+                                                         TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         new PullThreadFactory());
+        // No idle threads between bursts of evaluations
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public static ImagePrefetcher getInstance() {
+        return ImagePrefetcherHolder.INSTANCE;
+    }
+
+    /**
+     * Starts to prefetch an image, or joins the prefetch of the same image in progress.
+     *
+     * @param dockerHost Docker host the image is pulled to, empty for the local daemon.
+     * @param image      Image to pull.
+     * @param policy     With {@link PullPolicy#MISSING} the image is only pulled if inspect fails, with
+     *                   {@link PullPolicy#NEVER} or {@link PullPolicy#OFFLINE} nothing is executed.
+     * @param inspect    Process which exits with 0 if the image is present.
+     * @param pull       Process which pulls the image.
+     * @return The pull, completed once the image is present or the pull failed. It never completes
+     * exceptionally.
+     */
+    public CompletableFuture<ImagePull> prefetch(String dockerHost, final String image, final PullPolicy policy,
+            final ProcessBuilder inspect, final ProcessBuilder pull) {
+        if (policy == PullPolicy.NEVER || policy == PullPolicy.OFFLINE) {
+            return CompletableFuture.completedFuture(new ImagePull(image, ImagePull.Outcome.SKIPPED, null));
+        }
+        final String key = dockerHost + "/" + image;
+        final CompletableFuture<ImagePull> imagePull = new CompletableFuture<>();
+        CompletableFuture<ImagePull> existingPull = pulls.putIfAbsent(key, imagePull);
+        if (existingPull != null) {
+            log.debug("Joining the pull of " + image + " in progress");
+            return existingPull;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    imagePull.complete(execute(image, policy, inspect, pull));
+                } catch (RuntimeException | Error e) {
+                    imagePull.complete(new ImagePull(image, ImagePull.Outcome.FAILED, null));
+                    throw e;
+                } finally {
+                    // Later requests check the image again
+                    pulls.remove(key, imagePull);
+                }
+            }
+        });
+        return imagePull;
+    }
+
+    private ImagePull execute(String image, PullPolicy policy, ProcessBuilder inspect, ProcessBuilder pull) {
+        try {
+            if (policy == PullPolicy.MISSING && run(inspect, new StringWriter()) == 0) {
+                return new ImagePull(image, ImagePull.Outcome.PRESENT, 0);
+            }
+            StringWriter output = new StringWriter();
+            log.info("Pulling " + image + ": " + pull.command());
+            int exitValue = run(pull, output);
+            if (exitValue != 0) {
+                log.warn("Docker pull of " + image + " failed with exit code " + exitValue + ": " + output);
+                return new ImagePull(image, ImagePull.Outcome.FAILED, exitValue);
+            }
+            log.debug("Docker pull of " + image + ": " + output);
+            return new ImagePull(image, ImagePull.Outcome.PULLED, exitValue);
+        } catch (IOException e) {
+            log.warn("Failed to pull " + image + ": " + e.getMessage());
+            return new ImagePull(image, ImagePull.Outcome.FAILED, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ImagePull(image, ImagePull.Outcome.FAILED, null);
+        }
+    }
+
+    private int run(ProcessBuilder processBuilder, StringWriter output) throws IOException, InterruptedException {
+        Process process = processBuilder.start();
+        processBuilderUtilities.attachStreamsToProcess(process, output, output, null);
+        return process.waitFor();
+    }
+
+    /**
+     * Result of a prefetch.
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class ImagePull {
+
+        public enum Outcome {
+            // The image was already present, nothing was pulled
+            PRESENT,
+            PULLED,
+            FAILED,
+            // The pull policy does not allow pulls
+            SKIPPED
+        }
+
+        private final String image;
+
+        private final Outcome outcome;
+
+        // Exit code of the last docker command, null if none completed
+        private final Integer exitCode;
+    }
+
+    private static class PullThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jsr223-docker-pull-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class ImagePrefetcherHolder {
+        private static final ImagePrefetcher INSTANCE = new ImagePrefetcher(ImagesPropertyLoader.getInstance()
+                                                                                                .getPullConcurrency());
+
+        private ImagePrefetcherHolder() {
+        }
+    }
+}
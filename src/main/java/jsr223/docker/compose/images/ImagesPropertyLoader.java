@@ -0,0 +1,95 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.images;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Configuration of the image prefetch shared by both engines, see {@link ImagePrefetcher}.
+ */
+@Log4j
+public class ImagesPropertyLoader {
+
+    private final static String CONFIGURATION_FILE = "config/scriptengines/docker-images.properties";
+
+    public static final String DOCKER_IMAGES_PULL_CONCURRENCY = "docker.images.pull.concurrency";
+
+    // Image checks and pulls running at the same time, the others wait in the queue
+    @Getter
+    @Setter
+    private int pullConcurrency;
+
+    private Properties properties;
+
+    private ImagesPropertyLoader() {
+        reload();
+    }
+
+    /**
+     * Reload properties from the configuration file or system properties
+     */
+    public void reload() {
+        properties = new Properties();
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(CONFIGURATION_FILE)) {
+            log.debug("Load properties from configuration file: " + CONFIGURATION_FILE);
+            properties.load(inputStream);
+        } catch (IOException | NullPointerException e) {
+            log.debug("Configuration file " + CONFIGURATION_FILE +
+                      " not found. Using system properties or standard values.", e);
+        }
+
+        this.pullConcurrency = Integer.parseInt(getOverridenProperty(DOCKER_IMAGES_PULL_CONCURRENCY, "4"));
+    }
+
+    private String getOverridenProperty(String key, String defaultValue) {
+        if (System.getProperty(key) != null) {
+            return System.getProperty(key);
+        } else {
+            return properties.getProperty(key, defaultValue);
+        }
+    }
+
+    public static ImagesPropertyLoader getInstance() {
+        return ImagesPropertyLoaderHolder.INSTANCE;
+    }
+
+    /**
+     * ImagesPropertyLoaderHolder is loaded on the first execution of ImagesPropertyLoader.getInstance().
+     **/
+    private static class ImagesPropertyLoaderHolder {
+        private static final ImagesPropertyLoader INSTANCE = new ImagesPropertyLoader();
+
+        private ImagesPropertyLoaderHolder() {
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.images;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import lombok.extern.log4j.Log4j;
+import processbuilder.SingletonProcessBuilderFactory;
+import processbuilder.utils.ProcessBuilderUtilities;
+
+
+/**
+ * Images present on a docker daemon, so that an evaluation which must not pull knows which images are
+ * missing without contacting a registry.
+ * <p>
+ * The index is loaded with docker images and kept fresh by a docker events process: pulled images are
+ * added, any other image event makes the index reload on its next use. An image which is not in the index
+ * is checked again with docker images before being reported missing.
+ */
+@Log4j
+public class LocalImageIndex {
+
+    public static final String IMAGES_ARGUMENT = "images";
+
+    public static final String EVENTS_ARGUMENT = "events";
+
+    public static final String PULL_EVENT = "pull";
+
+    private static final String NONE = "<none>";
+
+    private static final String DEFAULT_REGISTRY_PREFIX = "docker.io/";
+
+    private static final String OFFICIAL_IMAGES_PREFIX = "library/";
+
+    private static final String LATEST_TAG = ":latest";
+
+    // One index per docker command and docker host of the JVM
+    private static final ConcurrentMap<List<String>, LocalImageIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private final List<String> dockerCommand;
+
+    private final String dockerHost;
+
+    // Normalized names of the present images, null when the index must be loaded
+    private Set<String> images;
+
+    private volatile Process eventsProcess;
+
+    private Thread shutdownHook;
+
+    LocalImageIndex(List<String> dockerCommand, String dockerHost) {
+        this.dockerCommand = new ArrayList<>(dockerCommand);
+        this.dockerHost = dockerHost;
+    }
+
+    /**
+     * @param dockerCommand Docker client, with sudo if needed.
+     * @param dockerHost    Value of DOCKER_HOST, empty for the default daemon.
+     */
+    public static LocalImageIndex getInstance(List<String> dockerCommand, String dockerHost) {
+        List<String> key = new ArrayList<>(dockerCommand);
+        key.add(dockerHost);
+        LocalImageIndex index = INSTANCES.get(key);
+        if (index == null) {
+            LocalImageIndex newIndex = new LocalImageIndex(dockerCommand, dockerHost);
+            index = INSTANCES.putIfAbsent(key, newIndex);
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The images which are not present, in the given order.
+     * @throws IOException If docker images cannot be executed or fails.
+     */
+    public synchronized List<String> getMissingImages(Collection<String> requestedImages)
+            throws IOException, InterruptedException {
+        watchEvents();
+        boolean loaded = false;
+        if (images == null) {
+            images = loadImages();
+            loaded = true;
+        }
+        List<String> missingImages = findMissingImages(requestedImages);
+        if (!missingImages.isEmpty() && !loaded) {
+            // The image may have been added while the events were not watched
+            images = loadImages();
+            missingImages = findMissingImages(requestedImages);
+        }
+        return missingImages;
+    }
+
+    private List<String> findMissingImages(Collection<String> requestedImages) {
+        List<String> missingImages = new ArrayList<>();
+        for (String image : requestedImages) {
+            if (!images.contains(normalize(image))) {
+                missingImages.add(image);
+            }
+        }
+        return missingImages;
+    }
+
+    /**
+     * Handles one line of the docker events output: "action image".
+     */
+    synchronized void onEvent(String event) {
+        String[] fields = event.trim().split("\\s+", 2);
+        if (images != null && fields.length == 2 && fields[0].equals(PULL_EVENT)) {
+            images.add(normalize(fields[1]));
+        } else {
+            // Tags, removals, loads and builds are reloaded instead of being interpreted
+            invalidate();
+        }
+    }
+
+    private synchronized void invalidate() {
+        images = null;
+    }
+
+    private Set<String> loadImages() throws IOException, InterruptedException {
+        Process process = start(IMAGES_ARGUMENT,
+                                "--no-trunc",
+                                "--format",
+                                "{{.Repository}}:{{.Tag}} {{.Repository}}@{{.Digest}}");
+        // Read in this thread, the output must be complete once the process exited
+        StringWriter output = new StringWriter();
+        ProcessBuilderUtilities.pipe(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8), output);
+        int exitValue = process.waitFor();
+        if (exitValue != 0) {
+            throw new IOException("docker images failed with exit code " + exitValue);
+        }
+        return parseImages(output.toString());
+    }
+
+    /**
+     * @return The normalized names of the docker images output, with tags and digests.
+     */
+    static Set<String> parseImages(String output) {
+        Set<String> images = new HashSet<>();
+        for (String line : output.split("\\r?\\n")) {
+            for (String image : line.trim().split("\\s+")) {
+                if (!image.isEmpty() && !image.contains(NONE)) {
+                    images.add(normalize(image));
+                }
+            }
+        }
+        return images;
+    }
+
+    /**
+     * @return The name docker images shows for an image reference, e.g. nginx:latest for
+     * docker.io/library/nginx.
+     */
+    static String normalize(String image) {
+        String name = image.trim();
+        if (name.startsWith(DEFAULT_REGISTRY_PREFIX)) {
+            name = name.substring(DEFAULT_REGISTRY_PREFIX.length());
+        }
+        if (name.startsWith(OFFICIAL_IMAGES_PREFIX) && name.indexOf('/', OFFICIAL_IMAGES_PREFIX.length()) == -1) {
+            name = name.substring(OFFICIAL_IMAGES_PREFIX.length());
+        }
+        if (!name.contains("@") && name.lastIndexOf(':') <= name.lastIndexOf('/')) {
+            name = name + LATEST_TAG;
+        }
+        return name;
+    }
+
+    /**
+     * Starts the docker events process if it is not running. Events missed while it was not running make
+     * the index reload.
+     */
+    private void watchEvents() {
+        if (eventsProcess != null && eventsProcess.isAlive()) {
+            return;
+        }
+        images = null;
+        try {
+            final Process process = start(EVENTS_ARGUMENT,
+                                          "--filter",
+                                          "type=image",
+                                          "--format",
+                                          "{{.Action}} {{.ID}}");
+            eventsProcess = process;
+            Thread reader = new Thread("jsr223-docker-image-events") {
+                @Override
+                public void run() {
+                    try (BufferedReader events = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                                                                                          StandardCharsets.UTF_8))) {
+                        String event;
+                        while ((event = events.readLine()) != null) {
+                            onEvent(event);
+                        }
+                    } catch (IOException e) {
+                        log.debug("Docker image events stopped", e);
+                    }
+                    // Events are no longer received
+                    invalidate();
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+            if (shutdownHook == null) {
+                shutdownHook = new Thread() {
+                    @Override
+                    public void run() {
+                        Process process = eventsProcess;
+                        if (process != null) {
+                            process.destroy();
+                        }
+                    }
+                };
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to watch docker image events, the image index is reloaded on each use: " +
+                     e.getMessage());
+        }
+    }
+
+    private Process start(String... arguments) throws IOException {
+        List<String> command = new ArrayList<>(dockerCommand);
+        for (String argument : arguments) {
+            command.add(argument);
+        }
+        String[] commandArray = command.toArray(new String[command.size()]);
+        ProcessBuilder processBuilder = SingletonProcessBuilderFactory.getInstance().getProcessBuilder(commandArray);
+        if (dockerHost != null && !dockerHost.isEmpty()) {
+            processBuilder.environment().put("DOCKER_HOST", dockerHost);
+        }
+        return processBuilder.start();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.images;
+
+/**
+ * When images are pulled before a build or before docker compose up.
+ */
+public enum PullPolicy {
+
+    // Pull even if the image is present, e.g. to update a latest tag
+    ALWAYS,
+
+    // Only pull images which are not present on the node, works without network when they all are
+    MISSING,
+
+    // Never pull, the images must be present
+    NEVER,
+
+    // Never pull, and fail before docker contacts a registry if an image is not in the LocalImageIndex
+    OFFLINE;
+
+    /**
+     * @return The policy with the given name, ignoring case.
+     * @throws IllegalArgumentException If there is no such policy.
+     */
+    public static PullPolicy fromName(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
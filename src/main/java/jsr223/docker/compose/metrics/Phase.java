@@ -0,0 +1,58 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.metrics;
+
+import java.util.Locale;
+
+
+/**
+ * Steps of an evaluation whose duration is measured.
+ */
+public enum Phase {
+    WRITE_FILE,
+    PULL,
+    BUILD,
+    RUN,
+    EXEC,
+    STOP,
+    RM,
+    RMI,
+    UP,
+    // Wait for the services started by a detached up to be ready
+    READY,
+    DOWN,
+    // Whole cleanup of an evaluation, including the stop, rm, rmi and down phases
+    TEARDOWN,
+    // From the cancellation of an evaluation until its containers are killed
+    CANCEL;
+
+    /**
+     * @return The name used in the JMX object name, e.g. write-file.
+     */
+    public String getDisplayName() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.metrics;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jsr223.docker.compose.events.EngineEvents;
+import lombok.Getter;
+import lombok.Setter;
+
+
+/**
+ * One execution of a phase during an evaluation. Its duration and output are added to the
+ * statistics of the phase when it finishes.
+ */
+public class PhaseExecution {
+
+    @Getter
+    private final Phase phase;
+
+    private final PhaseStatistics phaseStatistics;
+
+    @Getter
+    private final long startTimeMillis = System.currentTimeMillis();
+
+    private final long startNanos = System.nanoTime();
+
+    @Getter
+    private volatile long endTimeMillis;
+
+    @Getter
+    private volatile long durationNanos;
+
+    @Getter
+    private volatile Integer exitCode;
+
+    @Getter
+    private volatile boolean finished = false;
+
+    private final AtomicLong outputCharacters = new AtomicLong();
+
+    @Getter
+    @Setter
+    private volatile String jobId;
+
+    @Getter
+    @Setter
+    private volatile String taskId;
+
+    @Getter
+    @Setter
+    private volatile List<String> command;
+
+    // Flight recorder event, null when not recorded
+    private final Object flightRecorderEvent;
+
+    PhaseExecution(Phase phase, PhaseStatistics phaseStatistics) {
+        this.phase = phase;
+        this.phaseStatistics = phaseStatistics;
+        this.flightRecorderEvent = EngineEvents.beginPhase(phase);
+    }
+
+    /**
+     * Finishes the execution, only the first call is taken into account.
+     *
+     * @param exitCode Exit code of the phase, null if it did not complete (e.g. the process could not be
+     *                 started or was interrupted). The phase succeeded if the exit code is 0.
+     */
+    public synchronized void finish(Integer exitCode) {
+        if (finished) {
+            return;
+        }
+        this.durationNanos = System.nanoTime() - startNanos;
+        this.endTimeMillis = System.currentTimeMillis();
+        this.exitCode = exitCode;
+        this.finished = true;
+        phaseStatistics.record(durationNanos, exitCode != null && exitCode == 0);
+        EngineEvents.commitPhase(flightRecorderEvent, jobId, taskId, command, exitCode, outputCharacters.get());
+    }
+
+    /**
+     * @return Characters written to the writers returned by {@link #countOutput(Writer)} so far.
+     */
+    public long getOutputCharacters() {
+        return outputCharacters.get();
+    }
+
+    /**
+     * @return A writer forwarding to output and counting the characters written as output of this
+     * execution and of its phase, or null if output is null.
+     */
+    public Writer countOutput(Writer output) {
+        if (output == null) {
+            return null;
+        }
+        return new OutputCountingWriter(output);
+    }
+
+    private void addOutputCharacters(long characters) {
+        outputCharacters.addAndGet(characters);
+        phaseStatistics.addOutputCharacters(characters);
+    }
+
+    private class OutputCountingWriter extends FilterWriter {
+
+        OutputCountingWriter(Writer output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            addOutputCharacters(1);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            super.write(buffer, offset, length);
+            addOutputCharacters(length);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            super.write(string, offset, length);
+            addOutputCharacters(length);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Per-phase statistics of both engines, shared by the whole JVM. Every phase is published as a
+ * {@link PhaseStatisticsMXBean} named jsr223.docker:type=PhaseStatistics,name=[phase].
+ */
+@Log4j
+public class PhaseMetrics {
+
+    public static final String OBJECT_NAME_PREFIX = "jsr223.docker:type=PhaseStatistics,name=";
+
+    private final Map<Phase, PhaseStatistics> statistics = new EnumMap<>(Phase.class);
+
+    PhaseMetrics() {
+        for (Phase phase : Phase.values()) {
+            statistics.put(phase, new PhaseStatistics());
+        }
+    }
+
+    public PhaseStatistics getStatistics(Phase phase) {
+        return statistics.get(phase);
+    }
+
+    /**
+     * Starts an execution of a phase, which is recorded when it is finished.
+     */
+    public PhaseExecution start(Phase phase) {
+        return new PhaseExecution(phase, statistics.get(phase));
+    }
+
+    private void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<Phase, PhaseStatistics> entry : statistics.entrySet()) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + entry.getKey().getDisplayName());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(entry.getValue(), name);
+                }
+            } catch (JMException e) {
+                log.warn("Could not register the statistics of phase " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public static PhaseMetrics getInstance() {
+        return PhaseMetricsHolder.INSTANCE;
+    }
+
+    /**
+     * PhaseMetricsHolder is loaded, and the MBeans registered, on the first execution of
+     * PhaseMetrics.getInstance().
+     */
+    private static class PhaseMetricsHolder {
+        private static final PhaseMetrics INSTANCE = createAndRegister();
+
+        private PhaseMetricsHolder() {
+        }
+
+        private static PhaseMetrics createAndRegister() {
+            PhaseMetrics phaseMetrics = new PhaseMetrics();
+            phaseMetrics.registerMBeans();
+            return phaseMetrics;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock-free latency histogram and counters of one phase. Durations are kept in log-linear buckets:
+ * every power of two is split into {@link #SUB_BUCKETS} buckets, so percentiles are exact to 1/8th.
+ * Readers get a consistent view only when no phase is being recorded concurrently.
+ */
+public class PhaseStatistics implements PhaseStatisticsMXBean {
+
+    static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder outputCharacters = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one execution of the phase.
+     *
+     * @param durationNanos Duration of the phase, negative values are counted as 0.
+     * @param succeeded     Whether the phase succeeded.
+     */
+    public void record(long durationNanos, boolean succeeded) {
+        long nanos = Math.max(0, durationNanos);
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        if (!succeeded) {
+            failures.increment();
+        }
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public void addOutputCharacters(long characters) {
+        outputCharacters.add(characters);
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100.
+     * @return The upper bound in nanoseconds of the bucket holding the percentile, 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getOutputCharacters() {
+        return outputCharacters.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return toMillis(totalNanos.sum());
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long executions = count.sum();
+        return executions == 0 ? 0 : toMillis(totalNanos.sum()) / executions;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    @Override
+    public double getP50Millis() {
+        return toMillis(getPercentileNanos(50));
+    }
+
+    @Override
+    public double getP90Millis() {
+        return toMillis(getPercentileNanos(90));
+    }
+
+    @Override
+    public double getP99Millis() {
+        return toMillis(getPercentileNanos(99));
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        failures.reset();
+        outputCharacters.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.readiness;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+
+/**
+ * State of a container, as printed by docker inspect with {@link #INSPECT_FORMAT}.
+ */
+@AllArgsConstructor
+@Getter
+public class ContainerState {
+
+    public static final String SERVICE_LABEL = "com.docker.compose.service";
+
+    // One line per container: name|service|status|exit code|health|host ports
+    public static final String INSPECT_FORMAT = "{{.Name}}|{{index .Config.Labels \"" + SERVICE_LABEL +
+                                                "\"}}|{{.State.Status}}|{{.State.ExitCode}}|" +
+                                                "{{if .State.Health}}{{.State.Health.Status}}{{end}}|" +
+                                                "{{range $port, $bindings := .NetworkSettings.Ports}}" +
+                                                "{{range $bindings}}{{.HostPort}},{{end}}{{end}}";
+
+    public enum Readiness {
+        READY,
+        STARTING,
+        // The container exited with an error or is unhealthy
+        FAILED
+    }
+
+    private final String name;
+
+    private final String service;
+
+    // created, running, restarting, exited, ...
+    private final String status;
+
+    private final int exitCode;
+
+    // Empty if the container has no health check
+    private final String health;
+
+    private final List<Integer> hostPorts;
+
+    /**
+     * @return The state of a line of docker inspect output, null if the line cannot be parsed.
+     */
+    public static ContainerState parse(String line) {
+        String[] fields = line.trim().split("\\|", -1);
+        if (fields.length != 6) {
+            return null;
+        }
+        List<Integer> hostPorts = new ArrayList<>();
+        for (String port : fields[5].split(",")) {
+            if (!port.trim().isEmpty()) {
+                try {
+                    hostPorts.add(Integer.parseInt(port.trim()));
+                } catch (NumberFormatException e) {
+                    // not published on the host
+                }
+            }
+        }
+        int exitCode;
+        try {
+            exitCode = Integer.parseInt(fields[3].trim());
+        } catch (NumberFormatException e) {
+            exitCode = 0;
+        }
+        String name = fields[0].startsWith("/") ? fields[0].substring(1) : fields[0];
+        return new ContainerState(name,
+                                  fields[1],
+                                  fields[2].trim(),
+                                  exitCode,
+                                  fields[4].trim(),
+                                  Collections.unmodifiableList(hostPorts));
+    }
+
+    /**
+     * @return Whether the container exited, its exit code is then meaningful.
+     */
+    public boolean isStopped() {
+        return "exited".equals(status) || "dead".equals(status);
+    }
+
+    /**
+     * A container is ready when its health check reports healthy. Without health check it is ready once it
+     * runs and its host ports accept connections, or once it exited with 0 (e.g. an initialization job).
+     *
+     * @param portProbe Checks whether a host port accepts connections.
+     */
+    public Readiness getReadiness(PortProbe portProbe) {
+        if (isStopped()) {
+            return exitCode == 0 && health.isEmpty() ? Readiness.READY : Readiness.FAILED;
+        }
+        if (!"running".equals(status)) {
+            return Readiness.STARTING;
+        }
+        if ("unhealthy".equals(health)) {
+            return Readiness.FAILED;
+        }
+        if (!health.isEmpty()) {
+            return "healthy".equals(health) ? Readiness.READY : Readiness.STARTING;
+        }
+        for (int hostPort : hostPorts) {
+            if (!portProbe.isOpen(hostPort)) {
+                return Readiness.STARTING;
+            }
+        }
+        return Readiness.READY;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[status=" + status + (health.isEmpty() ? "" : ", health=" + health) + "]";
+    }
+
+    /**
+     * Checks host ports of the docker host.
+     */
+    public interface PortProbe {
+        boolean isOpen(int port);
+    }
+}
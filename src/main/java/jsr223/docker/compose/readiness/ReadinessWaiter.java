@@ -0,0 +1,138 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.readiness;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptException;
+
+import jsr223.docker.compose.readiness.ContainerState.PortProbe;
+import jsr223.docker.compose.readiness.ContainerState.Readiness;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Polls the state of containers until all of them are ready. The polling interval starts short, since
+ * most services are ready quickly, and doubles up to a maximum for slow services.
+ */
+@Log4j
+public class ReadinessWaiter {
+
+    public static final long DEFAULT_INITIAL_POLL_MILLIS = 100;
+
+    public static final long DEFAULT_MAX_POLL_MILLIS = 2000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 200;
+
+    private final long initialPollMillis;
+
+    private final long maxPollMillis;
+
+    private final PortProbe portProbe;
+
+    public ReadinessWaiter(long initialPollMillis, long maxPollMillis, PortProbe portProbe) {
+        this.initialPollMillis = initialPollMillis;
+        this.maxPollMillis = maxPollMillis;
+        this.portProbe = portProbe;
+    }
+
+    /**
+     * Lists the containers to wait for and their states.
+     */
+    public interface ContainerInspector {
+        List<ContainerState> inspect() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Waits until all inspected containers are ready.
+     *
+     * @param inspector     Returns the current state of the containers.
+     * @param timeoutMillis Maximum time to wait.
+     * @return The states of the ready containers.
+     * @throws ScriptException If a container failed, or if the containers are not ready in time.
+     */
+    public List<ContainerState> waitUntilReady(ContainerInspector inspector, long timeoutMillis)
+            throws ScriptException, IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long pollMillis = initialPollMillis;
+        while (true) {
+            List<ContainerState> containers = inspector.inspect();
+            List<ContainerState> starting = new ArrayList<>();
+            for (ContainerState container : containers) {
+                Readiness readiness = container.getReadiness(portProbe);
+                if (readiness == Readiness.FAILED) {
+                    throw new ScriptException("Container " + container + " failed to start, exit code " +
+                                              container.getExitCode());
+                }
+                if (readiness == Readiness.STARTING) {
+                    starting.add(container);
+                }
+            }
+            if (starting.isEmpty()) {
+                return containers;
+            }
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new ScriptException("Containers " + starting + " not ready after " + timeoutMillis + " ms");
+            }
+            log.debug("Waiting for " + starting);
+            Thread.sleep(Math.min(pollMillis, remainingMillis));
+            pollMillis = Math.min(pollMillis * 2, maxPollMillis);
+        }
+    }
+
+    /**
+     * @param dockerHost Value of DOCKER_HOST, the host of a tcp address is probed, localhost otherwise.
+     * @return A probe connecting to the ports of the docker host.
+     */
+    public static PortProbe socketProbe(String dockerHost) {
+        String host = "localhost";
+        if (dockerHost != null && dockerHost.startsWith("tcp://")) {
+            String uriHost = URI.create(dockerHost).getHost();
+            if (uriHost != null) {
+                host = uriHost;
+            }
+        }
+        final String probedHost = host;
+        return new PortProbe() {
+            @Override
+            public boolean isOpen(int port) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(probedHost, port), CONNECT_TIMEOUT_MILLIS);
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+        };
+    }
+}
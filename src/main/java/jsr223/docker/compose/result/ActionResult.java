@@ -0,0 +1,75 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.result;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import jsr223.docker.compose.metrics.PhaseExecution;
+import lombok.Getter;
+
+
+/**
+ * Outcome of one action (build, run, up, ...) of an evaluation.
+ */
+@Getter
+public class ActionResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String action;
+
+    // Null if the action did not execute a command
+    private final List<String> command;
+
+    // Null if the action did not complete
+    private final Integer exitCode;
+
+    private final long startTimeMillis;
+
+    private final long endTimeMillis;
+
+    private final long durationNanos;
+
+    private final long outputCharacters;
+
+    public ActionResult(PhaseExecution phaseExecution) {
+        this.action = phaseExecution.getPhase().getDisplayName();
+        this.command = phaseExecution.getCommand() == null ? null : new ArrayList<>(phaseExecution.getCommand());
+        this.exitCode = phaseExecution.getExitCode();
+        this.startTimeMillis = phaseExecution.getStartTimeMillis();
+        this.endTimeMillis = phaseExecution.getEndTimeMillis();
+        this.durationNanos = phaseExecution.getDurationNanos();
+        this.outputCharacters = phaseExecution.getOutputCharacters();
+    }
+
+    @Override
+    public String toString() {
+        return action + "[exitCode=" + exitCode + ", durationNanos=" + durationNanos + ", outputCharacters=" +
+               outputCharacters + "]";
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.result;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.Bindings;
+
+import org.ow2.proactive.scheduler.common.SchedulerConstants;
+import org.ow2.proactive.scheduler.task.SchedulerVars;
+
+import jsr223.docker.compose.metrics.Phase;
+import jsr223.docker.compose.metrics.PhaseExecution;
+import jsr223.docker.compose.metrics.PhaseMetrics;
+import jsr223.docker.compose.tracing.Span;
+import jsr223.docker.compose.tracing.TraceExporter;
+import lombok.Getter;
+import lombok.Setter;
+
+
+/**
+ * Structured result of an evaluation, published in the script bindings as {@link #BINDING_NAME}.
+ * The main values are also published as string variables (see {@link #toVariables()}), so that
+ * downstream tasks can use them.
+ */
+public class DockerEvalResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String BINDING_NAME = "dockerEvalResult";
+
+    public static final String EXIT_CODE_VARIABLE = "DOCKER_EVAL_EXIT_CODE";
+
+    public static final String IMAGE_TAG_VARIABLE = "DOCKER_EVAL_IMAGE_TAG";
+
+    public static final String IMAGE_ID_VARIABLE = "DOCKER_EVAL_IMAGE_ID";
+
+    public static final String CONTAINER_NAMES_VARIABLE = "DOCKER_EVAL_CONTAINER_NAMES";
+
+    public static final String COMPOSE_PROJECT_NAME_VARIABLE = "DOCKER_EVAL_COMPOSE_PROJECT_NAME";
+
+    // service=exit code pairs separated by commas
+    public static final String SERVICE_EXIT_CODES_VARIABLE = "DOCKER_EVAL_SERVICE_EXIT_CODES";
+
+    @Getter
+    private final String engine;
+
+    @Getter
+    private final long startTimeMillis = System.currentTimeMillis();
+
+    // Trace of the evaluation in the exported spans
+    @Getter
+    private final String traceId = Span.newTraceId();
+
+    @Getter
+    @Setter
+    private String jobId;
+
+    @Getter
+    @Setter
+    private String taskId;
+
+    @Getter
+    private long endTimeMillis;
+
+    // Value returned by eval, null if the evaluation failed
+    @Getter
+    @Setter
+    private Integer exitCode;
+
+    @Getter
+    @Setter
+    private String imageTag;
+
+    @Getter
+    @Setter
+    private String imageId;
+
+    @Getter
+    @Setter
+    private String composeProjectName;
+
+    // Docker invocations avoided by fusing actions
+    @Getter
+    @Setter
+    private int savedInvocations;
+
+    // Steps of a BuildKit build, and the steps served from the layer cache
+    @Getter
+    @Setter
+    private int buildSteps;
+
+    @Getter
+    @Setter
+    private int buildCachedSteps;
+
+    private final List<String> containerNames = new ArrayList<>();
+
+    // Exit codes of the compose services, by service
+    private final Map<String, Integer> serviceExitCodes = new LinkedHashMap<>();
+
+    private final List<ActionResult> actions = new ArrayList<>();
+
+    private final transient List<PhaseExecution> phaseExecutions = new ArrayList<>();
+
+    public DockerEvalResult(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Creates the result of an evaluation of the task whose ids are in the variables binding.
+     */
+    public DockerEvalResult(String engine, Bindings bindings) {
+        this(engine);
+        Object variables = bindings == null ? null : bindings.get(SchedulerConstants.VARIABLES_BINDING_NAME);
+        if (variables instanceof Map) {
+            Object jobIdValue = ((Map<?, ?>) variables).get(SchedulerVars.PA_JOB_ID.name());
+            Object taskIdValue = ((Map<?, ?>) variables).get(SchedulerVars.PA_TASK_ID.name());
+            this.jobId = jobIdValue == null ? null : jobIdValue.toString();
+            this.taskId = taskIdValue == null ? null : taskIdValue.toString();
+        }
+    }
+
+    /**
+     * Starts an action of the evaluation, it is also recorded in the phase statistics of the JVM.
+     */
+    public PhaseExecution startAction(Phase phase) {
+        return startAction(phase, null);
+    }
+
+    /**
+     * @param command Command executed by the action, null if not relevant.
+     */
+    public synchronized PhaseExecution startAction(Phase phase, List<String> command) {
+        PhaseExecution phaseExecution = PhaseMetrics.getInstance().start(phase);
+        phaseExecution.setJobId(jobId);
+        phaseExecution.setTaskId(taskId);
+        phaseExecution.setCommand(command);
+        phaseExecutions.add(phaseExecution);
+        return phaseExecution;
+    }
+
+    public synchronized void addContainerName(String containerName) {
+        containerNames.add(containerName);
+    }
+
+    public synchronized List<String> getContainerNames() {
+        return Collections.unmodifiableList(new ArrayList<>(containerNames));
+    }
+
+    /**
+     * Records the exit code of a container of a service. A service with several containers keeps the first
+     * non zero exit code.
+     */
+    public synchronized void addServiceExitCode(String service, int exitCode) {
+        Integer previousExitCode = serviceExitCodes.get(service);
+        if (previousExitCode == null || previousExitCode == 0) {
+            serviceExitCodes.put(service, exitCode);
+        }
+    }
+
+    public synchronized Map<String, Integer> getServiceExitCodes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(serviceExitCodes));
+    }
+
+    /**
+     * @return The result of every finished action, in start order.
+     */
+    public synchronized List<ActionResult> getActions() {
+        return Collections.unmodifiableList(new ArrayList<>(actions));
+    }
+
+    /**
+     * @return Output of all actions, in characters.
+     */
+    public synchronized long getOutputCharacters() {
+        long outputCharacters = 0;
+        for (ActionResult action : actions) {
+            outputCharacters += action.getOutputCharacters();
+        }
+        return outputCharacters;
+    }
+
+    /**
+     * @return Ratio of the build steps served from the layer cache, 0 if the steps are unknown.
+     */
+    public synchronized double getBuildCacheHitRatio() {
+        return buildSteps == 0 ? 0 : (double) buildCachedSteps / buildSteps;
+    }
+
+    /**
+     * Ends the evaluation: actions still running are recorded as not completed.
+     */
+    public synchronized void complete() {
+        endTimeMillis = System.currentTimeMillis();
+        actions.clear();
+        for (PhaseExecution phaseExecution : phaseExecutions) {
+            phaseExecution.finish(null);
+            actions.add(new ActionResult(phaseExecution));
+        }
+    }
+
+    /**
+     * @return The values which are known, as variables.
+     */
+    public synchronized Map<String, String> toVariables() {
+        Map<String, String> variables = new LinkedHashMap<>();
+        putIfNotNull(variables, EXIT_CODE_VARIABLE, exitCode == null ? null : exitCode.toString());
+        putIfNotNull(variables, IMAGE_TAG_VARIABLE, imageTag);
+        putIfNotNull(variables, IMAGE_ID_VARIABLE, imageId);
+        putIfNotNull(variables, COMPOSE_PROJECT_NAME_VARIABLE, composeProjectName);
+        if (!containerNames.isEmpty()) {
+            variables.put(CONTAINER_NAMES_VARIABLE, String.join(",", containerNames));
+        }
+        if (!serviceExitCodes.isEmpty()) {
+            variables.put(SERVICE_EXIT_CODES_VARIABLE, String.join(",", formatServiceExitCodes()));
+        }
+        return variables;
+    }
+
+    /**
+     * Completes the evaluation and publishes it in the bindings, and its variables in the variables
+     * binding if there is one.
+     */
+    public void publishTo(Bindings bindings) {
+        complete();
+        TraceExporter traceExporter = TraceExporter.getInstance();
+        if (traceExporter != null) {
+            traceExporter.export(toSpans());
+        }
+        bindings.put(BINDING_NAME, this);
+        Object variables = bindings.get(SchedulerConstants.VARIABLES_BINDING_NAME);
+        if (variables instanceof Map) {
+            ((Map<String, Serializable>) variables).putAll(toVariables());
+        }
+    }
+
+    /**
+     * @return A root span for the evaluation, followed by a child span per action. Only meaningful
+     * once the evaluation is completed.
+     */
+    public synchronized List<Span> toSpans() {
+        List<Span> spans = new ArrayList<>(phaseExecutions.size() + 1);
+        Span root = new Span(traceId,
+                             null,
+                             "eval " + engine,
+                             Span.KIND_INTERNAL,
+                             startTimeMillis * 1000000L,
+                             endTimeMillis * 1000000L);
+        root.setAttribute("docker.engine", engine)
+            .setAttribute("proactive.job.id", jobId)
+            .setAttribute("proactive.task.id", taskId)
+            .setAttribute("docker.exit_code", exitCode)
+            .setAttribute("docker.image.tag", imageTag)
+            .setAttribute("docker.image.id", imageId)
+            .setAttribute("docker.compose.project", composeProjectName)
+            .setAttribute("docker.saved_invocations", savedInvocations);
+        if (buildSteps > 0) {
+            root.setAttribute("docker.build.steps", buildSteps)
+                .setAttribute("docker.build.cached_steps", buildCachedSteps);
+        }
+        if (!containerNames.isEmpty()) {
+            root.setAttribute("docker.container.names", new ArrayList<>(containerNames));
+        }
+        if (!serviceExitCodes.isEmpty()) {
+            root.setAttribute("docker.compose.service_exit_codes", formatServiceExitCodes());
+        }
+        root.setStatus(statusOf(exitCode));
+        spans.add(root);
+        for (PhaseExecution phaseExecution : phaseExecutions) {
+            long startEpochNanos = phaseExecution.getStartTimeMillis() * 1000000L;
+            List<String> command = phaseExecution.getCommand();
+            Span child = new Span(traceId,
+                                  root.getSpanId(),
+                                  phaseExecution.getPhase().getDisplayName(),
+                                  command == null ? Span.KIND_INTERNAL : Span.KIND_CLIENT,
+                                  startEpochNanos,
+                                  startEpochNanos + phaseExecution.getDurationNanos());
+            child.setAttribute("process.command_args", command)
+                 .setAttribute("process.exit_code", phaseExecution.getExitCode())
+                 .setAttribute("docker.output_characters", phaseExecution.getOutputCharacters());
+            child.setStatus(statusOf(phaseExecution.getExitCode()));
+            spans.add(child);
+        }
+        return spans;
+    }
+
+    private List<String> formatServiceExitCodes() {
+        List<String> formatted = new ArrayList<>(serviceExitCodes.size());
+        for (Map.Entry<String, Integer> serviceExitCode : serviceExitCodes.entrySet()) {
+            formatted.add(serviceExitCode.getKey() + "=" + serviceExitCode.getValue());
+        }
+        return formatted;
+    }
+
+    private static int statusOf(Integer exitCode) {
+        return exitCode != null && exitCode == 0 ? Span.STATUS_OK : Span.STATUS_ERROR;
+    }
+
+    private static void putIfNotNull(Map<String, String> variables, String key, String value) {
+        if (value != null) {
+            variables.put(key, value);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DockerEvalResult[engine=" + engine + ", exitCode=" + exitCode + ", imageTag=" + imageTag +
+               ", imageId=" + imageId + ", containerNames=" + containerNames + ", composeProjectName=" +
+               composeProjectName + ", serviceExitCodes=" + serviceExitCodes + ", savedInvocations=" +
+               savedInvocations + ", buildSteps=" + buildSteps + ", buildCachedSteps=" + buildCachedSteps +
+               ", actions=" + actions + "]";
+    }
+}
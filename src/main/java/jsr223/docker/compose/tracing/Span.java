@@ -0,0 +1,216 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.tracing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+import lombok.Setter;
+
+
+/**
+ * A finished span, written in the OTLP/JSON encoding by {@link #appendOtlpJson(StringBuilder)}.
+ * Attribute values can be strings, numbers, booleans or lists of strings.
+ */
+public class Span {
+
+    public static final int STATUS_UNSET = 0;
+
+    public static final int STATUS_OK = 1;
+
+    public static final int STATUS_ERROR = 2;
+
+    public static final int KIND_INTERNAL = 1;
+
+    public static final int KIND_CLIENT = 3;
+
+    @Getter
+    private final String traceId;
+
+    @Getter
+    private final String spanId = newSpanId();
+
+    // Null for a root span
+    @Getter
+    private final String parentSpanId;
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final int kind;
+
+    @Getter
+    private final long startEpochNanos;
+
+    @Getter
+    private final long endEpochNanos;
+
+    @Getter
+    @Setter
+    private int status = STATUS_UNSET;
+
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+    public Span(String traceId, String parentSpanId, String name, int kind, long startEpochNanos,
+            long endEpochNanos) {
+        this.traceId = traceId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.kind = kind;
+        this.startEpochNanos = startEpochNanos;
+        this.endEpochNanos = endEpochNanos;
+    }
+
+    /**
+     * Sets an attribute, null values are ignored.
+     */
+    public Span setAttribute(String key, Object value) {
+        if (value != null) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * @return A random trace id, as 32 hexadecimal characters.
+     */
+    public static String newTraceId() {
+        return toHex(ThreadLocalRandom.current().nextLong()) + toHex(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * @return A random span id, as 16 hexadecimal characters.
+     */
+    public static String newSpanId() {
+        return toHex(ThreadLocalRandom.current().nextLong());
+    }
+
+    private static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Appends the span as an OTLP/JSON Span object.
+     */
+    public void appendOtlpJson(StringBuilder json) {
+        json.append("{\"traceId\":\"").append(traceId).append("\",\"spanId\":\"").append(spanId).append('"');
+        if (parentSpanId != null) {
+            json.append(",\"parentSpanId\":\"").append(parentSpanId).append('"');
+        }
+        json.append(",\"name\":");
+        appendString(json, name);
+        json.append(",\"kind\":").append(kind);
+        // 64 bit integers are strings in OTLP/JSON
+        json.append(",\"startTimeUnixNano\":\"").append(startEpochNanos).append('"');
+        json.append(",\"endTimeUnixNano\":\"").append(endEpochNanos).append('"');
+        json.append(",\"attributes\":");
+        appendAttributes(json, attributes);
+        json.append(",\"status\":{\"code\":").append(status).append("}}");
+    }
+
+    static void appendAttributes(StringBuilder json, Map<String, Object> attributes) {
+        json.append('[');
+        boolean first = true;
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"key\":");
+            appendString(json, attribute.getKey());
+            json.append(",\"value\":");
+            appendValue(json, attribute.getValue());
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value instanceof Boolean) {
+            json.append("{\"boolValue\":").append(value).append('}');
+        } else if (value instanceof Integer || value instanceof Long) {
+            json.append("{\"intValue\":\"").append(value).append("\"}");
+        } else if (value instanceof Number) {
+            json.append("{\"doubleValue\":").append(value).append('}');
+        } else if (value instanceof List) {
+            json.append("{\"arrayValue\":{\"values\":[");
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendValue(json, element == null ? "" : element);
+            }
+            json.append("]}}");
+        } else {
+            json.append("{\"stringValue\":");
+            appendString(json, value.toString());
+            json.append('}');
+        }
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Writes spans to a local JSON-lines file, one OTLP/JSON ExportTraceServiceRequest per line, so that
+ * they can be replayed to any OTLP collector. Spans are queued in a bounded queue and written in
+ * batches by a daemon thread: spans which do not fit in the queue are dropped rather than slowing
+ * down the evaluations. The file is rotated when it reaches its maximum size.
+ */
+@Log4j
+public class TraceExporter {
+
+    public static final String SCOPE_NAME = "jsr223.docker";
+
+    public static final String SERVICE_NAME = "proactive-jsr223-docker";
+
+    private final File file;
+
+    private final long maxFileSize;
+
+    private final int maxFileCount;
+
+    private final int batchSize;
+
+    private final long flushIntervalMillis;
+
+    private final BlockingQueue<Span> queue;
+
+    private final AtomicLong droppedSpans = new AtomicLong();
+
+    private final AtomicLong exportedSpans = new AtomicLong();
+
+    private final String resourceJson;
+
+    TraceExporter(File file, long maxFileSize, int maxFileCount, int queueSize, int batchSize,
+            long flushIntervalMillis) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFileCount = Math.max(1, maxFileCount);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.resourceJson = createResourceJson();
+    }
+
+    /**
+     * Queues spans for export, without blocking.
+     *
+     * @return False if some spans were dropped because the queue is full.
+     */
+    public boolean export(Collection<Span> spans) {
+        boolean queued = true;
+        for (Span span : spans) {
+            if (!queue.offer(span)) {
+                droppedSpans.incrementAndGet();
+                queued = false;
+            }
+        }
+        return queued;
+    }
+
+    public long getDroppedSpans() {
+        return droppedSpans.get();
+    }
+
+    public long getExportedSpans() {
+        return exportedSpans.get();
+    }
+
+    /**
+     * Writes all queued spans.
+     */
+    public void flush() {
+        List<Span> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void start() {
+        final Thread exportThread = new Thread("jsr223-docker-trace-exporter") {
+            @Override
+            public void run() {
+                exportContinuously();
+            }
+        };
+        exportThread.setDaemon(true);
+        exportThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread("jsr223-docker-trace-flush") {
+            @Override
+            public void run() {
+                // The export thread writes the batch it is waiting on when interrupted
+                exportThread.interrupt();
+                try {
+                    exportThread.join(flushIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                flush();
+            }
+        });
+    }
+
+    private void exportContinuously() {
+        List<Span> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                // Wait for a full batch, at most for the flush interval
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Span span = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (span == null) {
+                        break;
+                    }
+                    batch.add(span);
+                }
+                write(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                write(batch);
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Could not export spans: " + e.getMessage(), e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Appends one line with the given spans, rotating the file first if it would exceed its maximum size.
+     */
+    synchronized void write(List<Span> spans) {
+        if (spans.isEmpty()) {
+            return;
+        }
+        StringBuilder json = new StringBuilder(256 * spans.size());
+        json.append("{\"resourceSpans\":[{\"resource\":").append(resourceJson);
+        json.append(",\"scopeSpans\":[{\"scope\":{\"name\":\"").append(SCOPE_NAME).append("\"},\"spans\":[");
+        for (int i = 0; i < spans.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            spans.get(i).appendOtlpJson(json);
+        }
+        json.append("]}]}]}\n");
+        byte[] line = json.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (file.length() > 0 && file.length() + line.length > maxFileSize) {
+                rotate();
+            }
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null && !directory.isDirectory()) {
+                Files.createDirectories(directory.toPath());
+            }
+            try (OutputStream output = Files.newOutputStream(file.toPath(),
+                                                             StandardOpenOption.CREATE,
+                                                             StandardOpenOption.APPEND)) {
+                output.write(line);
+            }
+            exportedSpans.addAndGet(spans.size());
+        } catch (IOException e) {
+            droppedSpans.addAndGet(spans.size());
+            log.warn("Could not write spans to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Renames file.[n] to file.[n+1], and the file to file.1, the oldest file is deleted.
+     */
+    private void rotate() throws IOException {
+        if (maxFileCount == 1) {
+            Files.delete(file.toPath());
+            return;
+        }
+        Files.deleteIfExists(rotatedFile(maxFileCount - 1).toPath());
+        for (int index = maxFileCount - 2; index >= 1; index--) {
+            File rotated = rotatedFile(index);
+            if (rotated.exists()) {
+                Files.move(rotated.toPath(), rotatedFile(index + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file.toPath(), rotatedFile(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    File rotatedFile(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    private static String createResourceJson() {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("service.name", SERVICE_NAME);
+        // The runtime name is [pid]@[host name]
+        String runtimeName = ManagementFactory.getRuntimeMXBean().getName();
+        int separator = runtimeName.indexOf('@');
+        if (separator > 0) {
+            try {
+                attributes.put("process.pid", Long.parseLong(runtimeName.substring(0, separator)));
+            } catch (NumberFormatException e) {
+                // not a pid, nothing to publish
+            }
+        }
+        try {
+            attributes.put("host.name", InetAddress.getLocalHost().getHostName());
+        } catch (IOException e) {
+            log.debug("Could not get the host name", e);
+        }
+        StringBuilder json = new StringBuilder("{\"attributes\":");
+        Span.appendAttributes(json, attributes);
+        return json.append('}').toString();
+    }
+
+    /**
+     * @return The exporter configured by {@link TracePropertyLoader}, null if tracing is disabled.
+     */
+    public static TraceExporter getInstance() {
+        return TraceExporterHolder.INSTANCE;
+    }
+
+    /**
+     * TraceExporterHolder is loaded, and the export thread started, on the first execution of
+     * TraceExporter.getInstance().
+     */
+    private static class TraceExporterHolder {
+        private static final TraceExporter INSTANCE = createAndStart();
+
+        private TraceExporterHolder() {
+        }
+
+        private static TraceExporter createAndStart() {
+            TracePropertyLoader properties = TracePropertyLoader.getInstance();
+            if (!properties.isEnabled()) {
+                return null;
+            }
+            TraceExporter exporter = new TraceExporter(new File(properties.getTraceFile()),
+                                                       properties.getMaxFileSize(),
+                                                       properties.getMaxFileCount(),
+                                                       properties.getQueueSize(),
+                                                       properties.getBatchSize(),
+                                                       properties.getFlushInterval());
+            exporter.start();
+            log.info("Exporting traces to " + properties.getTraceFile());
+            return exporter;
+        }
+    }
+}
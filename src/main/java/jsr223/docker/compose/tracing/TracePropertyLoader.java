@@ -0,0 +1,142 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Configuration of the trace export, shared by both engines.
+ */
+@Log4j
+public class TracePropertyLoader {
+
+    private final static String CONFIGURATION_FILE = "config/scriptengines/docker-trace.properties";
+
+    public static final String DOCKER_TRACE_ENABLED = "docker.trace.enabled";
+
+    public static final String DOCKER_TRACE_FILE = "docker.trace.file";
+
+    public static final String DOCKER_TRACE_FILE_MAX_SIZE = "docker.trace.file.max.size";
+
+    public static final String DOCKER_TRACE_FILE_MAX_COUNT = "docker.trace.file.max.count";
+
+    public static final String DOCKER_TRACE_QUEUE_SIZE = "docker.trace.queue.size";
+
+    public static final String DOCKER_TRACE_BATCH_SIZE = "docker.trace.batch.size";
+
+    public static final String DOCKER_TRACE_FLUSH_INTERVAL = "docker.trace.flush.interval";
+
+    @Getter
+    @Setter
+    private boolean enabled;
+
+    @Getter
+    @Setter
+    private String traceFile;
+
+    // In bytes
+    @Getter
+    @Setter
+    private long maxFileSize;
+
+    @Getter
+    @Setter
+    private int maxFileCount;
+
+    // In spans
+    @Getter
+    @Setter
+    private int queueSize;
+
+    @Getter
+    @Setter
+    private int batchSize;
+
+    // In milliseconds
+    @Getter
+    @Setter
+    private long flushInterval;
+
+    private Properties properties;
+
+    private TracePropertyLoader() {
+        reload();
+    }
+
+    /**
+     * Reload properties from the configuration file or system properties
+     */
+    public void reload() {
+        properties = new Properties();
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(CONFIGURATION_FILE)) {
+            log.debug("Load properties from configuration file: " + CONFIGURATION_FILE);
+            properties.load(inputStream);
+        } catch (IOException | NullPointerException e) {
+            log.debug("Configuration file " + CONFIGURATION_FILE +
+                      " not found. Using system properties or standard values.", e);
+        }
+
+        this.enabled = Boolean.parseBoolean(getOverridenProperty(DOCKER_TRACE_ENABLED, "false"));
+        this.traceFile = getOverridenProperty(DOCKER_TRACE_FILE,
+                                              new File(System.getProperty("java.io.tmpdir"),
+                                                       "jsr223-docker-traces.jsonl").getAbsolutePath());
+        this.maxFileSize = Long.parseLong(getOverridenProperty(DOCKER_TRACE_FILE_MAX_SIZE, "10485760"));
+        this.maxFileCount = Integer.parseInt(getOverridenProperty(DOCKER_TRACE_FILE_MAX_COUNT, "5"));
+        this.queueSize = Integer.parseInt(getOverridenProperty(DOCKER_TRACE_QUEUE_SIZE, "2048"));
+        this.batchSize = Integer.parseInt(getOverridenProperty(DOCKER_TRACE_BATCH_SIZE, "512"));
+        this.flushInterval = Long.parseLong(getOverridenProperty(DOCKER_TRACE_FLUSH_INTERVAL, "1000"));
+    }
+
+    private String getOverridenProperty(String key, String defaultValue) {
+        if (System.getProperty(key) != null) {
+            return System.getProperty(key);
+        } else {
+            return properties.getProperty(key, defaultValue);
+        }
+    }
+
+    public static TracePropertyLoader getInstance() {
+        return TracePropertyLoaderHolder.INSTANCE;
+    }
+
+    /**
+     * TracePropertyLoaderHolder is loaded on the first execution of TracePropertyLoader.getInstance().
+     **/
+    private static class TracePropertyLoaderHolder {
+        private static final TracePropertyLoader INSTANCE = new TracePropertyLoader();
+
+        private TracePropertyLoaderHolder() {
+        }
+    }
+}
@@ -51,6 +51,26 @@ public class DockerComposePropertyLoader {
 
     public static final String DOCKER_FILE_KEEP = "docker.file.keep";
 
+    public static final String DOCKER_FILE_SYNC = "docker.compose.file.sync";
+
+    public static final String DOCKER_COMPOSE_USE_STDIN = "docker.compose.use.stdin";
+
+    public static final String DOCKER_COMPOSE_SCRATCH_ROOT = "docker.compose.scratch.root";
+
+    public static final String DOCKER_COMPOSE_USE_ENV_FILE = "docker.compose.use.env.file";
+
+    public static final String DOCKER_COMPOSE_DOCKER_COMMAND = "docker.compose.docker.command";
+
+    public static final String DOCKER_COMPOSE_PREFETCH_IMAGES = "docker.compose.prefetch.images";
+
+    public static final String DOCKER_COMPOSE_PULL_POLICY = "docker.compose.pull.policy";
+
+    public static final String DOCKER_COMPOSE_DETACHED = "docker.compose.detached";
+
+    public static final String DOCKER_COMPOSE_READY_TIMEOUT = "docker.compose.ready.timeout";
+
+    public static final String DOCKER_COMPOSE_STOP_TIMEOUT = "docker.compose.stop.timeout";
+
     @Getter
     @Setter
     private String dockerHost;
@@ -71,6 +91,51 @@ public class DockerComposePropertyLoader {
     @Setter
     private boolean keepDockerFile;
 
+    @Getter
+    @Setter
+    private boolean syncDockerFile;
+
+    @Getter
+    @Setter
+    private boolean useStdin;
+
+    @Getter
+    @Setter
+    private String scratchRoot;
+
+    @Getter
+    @Setter
+    private boolean useEnvironmentFile;
+
+    // Docker client used to prefetch the images of the services
+    @Getter
+    @Setter
+    private String dockerCommand;
+
+    @Getter
+    @Setter
+    private boolean prefetchImages;
+
+    // Name of a PullPolicy
+    @Getter
+    @Setter
+    private String pullPolicy;
+
+    // Start the services with up -d, wait until they are ready and leave them running
+    @Getter
+    @Setter
+    private boolean detached;
+
+    // Maximum time detached services take to be ready, in seconds
+    @Getter
+    @Setter
+    private long readyTimeout;
+
+    // Seconds down waits before killing the containers, negative for the docker compose default
+    @Getter
+    @Setter
+    private int stopTimeout;
+
     private Properties properties;
 
     private DockerComposePropertyLoader() {
@@ -106,6 +171,17 @@ public class DockerComposePropertyLoader {
         this.useSudo = Boolean.parseBoolean(getOverridenProperty(DOCKER_COMPOSE_USE_SUDO, "false"));
         this.dockerHost = getOverridenProperty(DOCKER_HOST, "");
         this.keepDockerFile = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_KEEP, "true"));
+        this.syncDockerFile = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_SYNC, "false"));
+        this.useStdin = Boolean.parseBoolean(getOverridenProperty(DOCKER_COMPOSE_USE_STDIN, "false"));
+        // Empty means the system temporary directory
+        this.scratchRoot = getOverridenProperty(DOCKER_COMPOSE_SCRATCH_ROOT, "");
+        this.useEnvironmentFile = Boolean.parseBoolean(getOverridenProperty(DOCKER_COMPOSE_USE_ENV_FILE, "false"));
+        this.dockerCommand = getOverridenProperty(DOCKER_COMPOSE_DOCKER_COMMAND, "docker");
+        this.prefetchImages = Boolean.parseBoolean(getOverridenProperty(DOCKER_COMPOSE_PREFETCH_IMAGES, "true"));
+        this.pullPolicy = getOverridenProperty(DOCKER_COMPOSE_PULL_POLICY, "missing");
+        this.detached = Boolean.parseBoolean(getOverridenProperty(DOCKER_COMPOSE_DETACHED, "false"));
+        this.readyTimeout = Long.parseLong(getOverridenProperty(DOCKER_COMPOSE_READY_TIMEOUT, "300"));
+        this.stopTimeout = Integer.parseInt(getOverridenProperty(DOCKER_COMPOSE_STOP_TIMEOUT, "-1"));
     }
 
     private String getOverridenProperty(String key, String defaultValue) {
@@ -0,0 +1,306 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Hands out private working directories below a configurable root (e.g. a tmpfs mount) and removes them
+ * when an evaluation is finished.
+ * <p>
+ * Every directory has a sibling lock file which is locked by the owning JVM while the directory is in use.
+ * Directories left behind by a JVM which was killed are recognized by a lock which can be acquired again
+ * and are swept the first time a root is used by a JVM. A directory which is kept instead of removed gets a
+ * sibling marker file instead of its lock file, and is never swept.
+ */
+@Log4j
+public class ScratchDirectoryManager {
+
+    public static final String DIRECTORY_PREFIX = "jsr223-docker-";
+
+    public static final String LOCK_FILE_SUFFIX = ".lock";
+
+    public static final String KEPT_MARKER_SUFFIX = ".kept";
+
+    /**
+     * Directories without lock file are only considered stale after this delay, so a directory
+     * which is just being created by another JVM is not removed.
+     */
+    private static final long UNLOCKED_DIRECTORY_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Set<Path> SWEPT_ROOTS = ConcurrentHashMap.newKeySet();
+
+    private static final String OWNER_ONLY_PERMISSIONS = "rwx------";
+
+    @Getter
+    private final Path root;
+
+    /**
+     * @param root Directory under which scratch directories are created. If null or empty the
+     *             system temporary directory is used.
+     */
+    public ScratchDirectoryManager(String root) {
+        String rootOrDefault = (root == null || root.trim().isEmpty()) ? System.getProperty("java.io.tmpdir")
+                                                                       : root.trim();
+        this.root = Paths.get(rootOrDefault).toAbsolutePath();
+    }
+
+    /**
+     * Creates a new private directory, locked by this JVM until the returned handle is closed.
+     *
+     * @return Handle to the new directory.
+     * @throws IOException If the root or the directory could not be created.
+     */
+    public ScratchDirectory createDirectory() throws IOException {
+        return createDirectory(new FileAttribute<?>[0]);
+    }
+
+    /**
+     * Same as {@link #createDirectory()}, but on POSIX filesystems the directory is only accessible by its
+     * owner, e.g. for a file holding job variables. Not suited to working directories, since their content
+     * may be bind mounted into containers running as another user.
+     *
+     * @return Handle to the new directory.
+     * @throws IOException If the root or the directory could not be created.
+     */
+    public ScratchDirectory createOwnerOnlyDirectory() throws IOException {
+        return createDirectory(ownerOnlyAttributes());
+    }
+
+    private ScratchDirectory createDirectory(FileAttribute<?>[] attributes) throws IOException {
+        Files.createDirectories(root);
+        String name = DIRECTORY_PREFIX + UUID.randomUUID();
+        Path lockFile = root.resolve(name + LOCK_FILE_SUFFIX);
+
+        // Lock first, then create the directory: a directory never exists unlocked while it is in use
+        FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = lockChannel.lock();
+            Path directory = Files.createDirectory(root.resolve(name), attributes);
+            return new ScratchDirectory(directory.toFile(), lockFile, lockChannel, lock);
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            Files.deleteIfExists(lockFile);
+            throw e;
+        }
+    }
+
+    private FileAttribute<?>[] ownerOnlyAttributes() {
+        if (root.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Set<PosixFilePermission> permissions = PosixFilePermissions.fromString(OWNER_ONLY_PERMISSIONS);
+            return new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(permissions) };
+        }
+        return new FileAttribute<?>[0];
+    }
+
+    /**
+     * Starts a background sweep of stale directories, once per root and JVM.
+     */
+    public void sweepStaleDirectoriesOnce() {
+        if (!SWEPT_ROOTS.add(root)) {
+            return;
+        }
+        Thread sweeper = new Thread("jsr223-docker-scratch-sweeper") {
+            @Override
+            public void run() {
+                int removed = sweepStaleDirectories();
+                if (removed > 0) {
+                    log.info("Removed " + removed + " stale scratch directories from " + root);
+                }
+            }
+        };
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /**
+     * Removes all directories under the root which were created by a scratch directory manager and
+     * whose owner is gone.
+     *
+     * @return Number of removed directories.
+     */
+    public int sweepStaleDirectories() {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(root, DIRECTORY_PREFIX + "*")) {
+            for (Path directory : directories) {
+                if (Files.isDirectory(directory) && isStale(directory)) {
+                    Path lockFile = root.resolve(directory.getFileName() + LOCK_FILE_SUFFIX);
+                    if (deleteRecursively(directory)) {
+                        removed++;
+                    }
+                    Files.deleteIfExists(lockFile);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to sweep stale scratch directories in " + root, e);
+        }
+        return removed;
+    }
+
+    private boolean isStale(Path directory) throws IOException {
+        if (Files.exists(root.resolve(directory.getFileName() + KEPT_MARKER_SUFFIX))) {
+            return false;
+        }
+        Path lockFile = root.resolve(directory.getFileName() + LOCK_FILE_SUFFIX);
+        if (!Files.exists(lockFile)) {
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(directory).toMillis();
+            return age > UNLOCKED_DIRECTORY_GRACE_MILLIS;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            // Acquiring the lock means that the owning JVM does not exist anymore
+            return lock != null;
+        } catch (OverlappingFileLockException e) {
+            // Locked by this JVM
+            return false;
+        }
+    }
+
+    /**
+     * Deletes a directory and its content. Symbolic links are removed, not followed.
+     *
+     * @param directory Directory to delete.
+     * @return True if the directory does not exist anymore.
+     */
+    static boolean deleteRecursively(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return true;
+        } catch (IOException e) {
+            log.warn("Scratch directory " + directory + " could not be deleted completely: " + e.getMessage());
+            log.debug("Scratch directory " + directory + " could not be deleted completely.", e);
+            return !Files.exists(directory);
+        }
+    }
+
+    /**
+     * A directory created by {@link ScratchDirectoryManager}. Closing it removes the directory with all its
+     * content, keeping it leaves it in place for good. Only the first close or keep has an effect.
+     */
+    public static class ScratchDirectory implements Closeable {
+
+        @Getter
+        private final File directory;
+
+        private final Path lockFile;
+
+        private final FileChannel lockChannel;
+
+        private final FileLock lock;
+
+        private boolean closed = false;
+
+        private ScratchDirectory(File directory, Path lockFile, FileChannel lockChannel, FileLock lock) {
+            this.directory = directory;
+            this.lockFile = lockFile;
+            this.lockChannel = lockChannel;
+            this.lock = lock;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            deleteRecursively(directory.toPath());
+            try {
+                lock.release();
+                lockChannel.close();
+                Files.deleteIfExists(lockFile);
+            } catch (IOException e) {
+                log.debug("Lock file " + lockFile + " could not be removed.", e);
+            }
+        }
+
+        /**
+         * Releases the directory without removing it, e.g. for files the user wants to keep. The lock file
+         * becomes the marker of a kept directory while it is still locked, so no sweep sees the directory
+         * unlocked.
+         */
+        public synchronized void keep() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Path keptMarker = lockFile.resolveSibling(directory.getName() + KEPT_MARKER_SUFFIX);
+            try {
+                Files.move(lockFile, keptMarker, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Kept directory " + directory + " could not be marked, it may be swept: " + e.getMessage());
+            }
+            try {
+                lock.release();
+                lockChannel.close();
+            } catch (IOException e) {
+                log.debug("Lock of " + directory + " could not be released.", e);
+            }
+        }
+    }
+}
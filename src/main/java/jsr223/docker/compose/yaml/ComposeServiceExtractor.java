@@ -0,0 +1,152 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.yaml;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Extracts the services of a docker compose file and their images, e.g. to pull the images before docker
+ * compose up. Only the block style compose files use is supported, the file is not fully parsed.
+ */
+public class ComposeServiceExtractor {
+
+    public static final String SERVICES_KEY = "services";
+
+    public static final String IMAGE_KEY = "image";
+
+    public static final String BUILD_KEY = "build";
+
+    private static final Pattern KEY_VALUE = Pattern.compile("^([\\w.-]+|\"[^\"]*\"|'[^']*')\\s*:(?:\\s+(.*))?$");
+
+    private static final Pattern SERVICES_LINE = Pattern.compile("(?m)^" + SERVICES_KEY + "\\s*:\\s*(#.*)?$");
+
+    /**
+     * @return The names of the services, in file order.
+     */
+    public List<String> getServiceNames(String composeFile) {
+        List<String> names = new ArrayList<>();
+        for (Service service : getServices(composeFile)) {
+            names.add(service.name);
+        }
+        return names;
+    }
+
+    /**
+     * @return The images of the services, without duplicates. Images of services which are built, and
+     * images depending on compose variables are left out.
+     */
+    public List<String> getImages(String composeFile) {
+        Set<String> images = new LinkedHashSet<>();
+        for (Service service : getServices(composeFile)) {
+            if (service.image != null && !service.image.isEmpty() && !service.built && !service.image.contains("$")) {
+                images.add(service.image);
+            }
+        }
+        return new ArrayList<>(images);
+    }
+
+    private static List<Service> getServices(String composeFile) {
+        List<Service> services = new ArrayList<>();
+        // Version 1 files have no services key, the services are the top level keys
+        boolean topLevelServices = !SERVICES_LINE.matcher(composeFile).find();
+        boolean inServices = topLevelServices;
+        int serviceIndent = topLevelServices ? 0 : -1;
+        int propertyIndent = -1;
+        Service service = null;
+        for (String line : composeFile.split("\\r?\\n")) {
+            String content = line.trim();
+            if (content.isEmpty() || content.startsWith("#") || content.equals("---")) {
+                continue;
+            }
+            int indent = line.indexOf(content.charAt(0));
+            Matcher keyValue = KEY_VALUE.matcher(content);
+            if (indent == 0 && !topLevelServices) {
+                service = null;
+                inServices = keyValue.matches() && keyValue.group(1).equals(SERVICES_KEY);
+                serviceIndent = -1;
+                continue;
+            }
+            if (!inServices) {
+                continue;
+            }
+            if (serviceIndent == -1) {
+                serviceIndent = indent;
+            }
+            if (indent <= serviceIndent) {
+                // Next service
+                service = keyValue.matches() ? new Service(unquote(keyValue.group(1))) : null;
+                if (service != null) {
+                    services.add(service);
+                }
+                propertyIndent = -1;
+                continue;
+            }
+            if (propertyIndent == -1) {
+                propertyIndent = indent;
+            }
+            if (service != null && indent == propertyIndent && keyValue.matches()) {
+                if (keyValue.group(1).equals(IMAGE_KEY) && keyValue.group(2) != null) {
+                    service.image = unquote(stripComment(keyValue.group(2)));
+                } else if (keyValue.group(1).equals(BUILD_KEY)) {
+                    service.built = true;
+                }
+            }
+        }
+        return services;
+    }
+
+    private static String stripComment(String value) {
+        int comment = value.indexOf(" #");
+        return (comment == -1 ? value : value.substring(0, comment)).trim();
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"") ||
+                                    value.startsWith("'") && value.endsWith("'"))) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static class Service {
+
+        private final String name;
+
+        private String image;
+
+        private boolean built;
+
+        private Service(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.NoArgsConstructor;
+
+
+/**
+ * Extracts the images a Dockerfile is built from, so that they can be pulled before the build.
+ */
+@NoArgsConstructor
+public class BaseImageExtractor {
+
+    public static final String FROM_INSTRUCTION = "FROM";
+
+    public static final String SCRATCH_IMAGE = "scratch";
+
+    /**
+     * @return The images of the FROM instructions, without duplicates. The scratch image, images
+     * depending on build arguments and earlier build stages are left out since they cannot be pulled.
+     */
+    public List<String> getBaseImages(String dockerfile) {
+        Set<String> images = new LinkedHashSet<>();
+        Set<String> stageNames = new HashSet<>();
+        for (String instruction : joinContinuationLines(dockerfile)) {
+            String[] tokens = instruction.trim().split("\\s+");
+            if (tokens.length < 2 || !tokens[0].equalsIgnoreCase(FROM_INSTRUCTION)) {
+                continue;
+            }
+            int index = 1;
+            // Skip flags, e.g. --platform=linux/amd64
+            while (index < tokens.length && tokens[index].startsWith("--")) {
+                index++;
+            }
+            if (index >= tokens.length) {
+                continue;
+            }
+            String image = tokens[index];
+            // Only stages defined before this instruction can be referenced
+            if (!image.equalsIgnoreCase(SCRATCH_IMAGE) && !image.contains("$") &&
+                !stageNames.contains(image.toLowerCase())) {
+                images.add(image);
+            }
+            if (index + 2 < tokens.length && tokens[index + 1].equalsIgnoreCase("AS")) {
+                stageNames.add(tokens[index + 2].toLowerCase());
+            }
+        }
+        return new ArrayList<>(images);
+    }
+
+    private static List<String> joinContinuationLines(String dockerfile) {
+        List<String> instructions = new ArrayList<>();
+        StringBuilder instruction = new StringBuilder();
+        for (String line : dockerfile.split("\\r?\\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#") && instruction.length() == 0) {
+                continue;
+            }
+            if (trimmed.endsWith("\\")) {
+                instruction.append(trimmed, 0, trimmed.length() - 1).append(' ');
+            } else {
+                instructions.add(instruction.append(trimmed).toString());
+                instruction.setLength(0);
+            }
+        }
+        if (instruction.length() > 0) {
+            instructions.add(instruction.toString());
+        }
+        return instructions;
+    }
+}
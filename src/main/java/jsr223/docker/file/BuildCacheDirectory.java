@@ -0,0 +1,151 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Local BuildKit layer cache shared by the builds of the node, or of all nodes on a shared file system.
+ * <p>
+ * The local cache exporter of buildx does not support several builds exporting to the same directory at the
+ * same time. Each build therefore exports to a directory of its own, which is merged into the shared cache
+ * once the build succeeded, under a lock of the cache: the blobs, named after their digest, are moved in
+ * when missing, then index.json is replaced. Every file appears atomically, so builds importing the cache
+ * at the same time read either the previous or the new index, whose blobs are all present.
+ */
+@Log4j
+public class BuildCacheDirectory {
+
+    public static final String INDEX_FILENAME = "index.json";
+
+    // Exports in progress, ignored by the cache importer
+    static final String EXPORTS_DIRECTORY = ".exports";
+
+    static final String LOCK_FILENAME = ".lock";
+
+    // A file lock is held by the JVM, the merges of its own builds are serialized by this monitor
+    private static final Object MERGE_MONITOR = new Object();
+
+    @Getter
+    private final File directory;
+
+    public BuildCacheDirectory(File directory) {
+        this.directory = directory.getAbsoluteFile();
+    }
+
+    /**
+     * @return A new directory a build exports its cache to, created by the build itself.
+     */
+    public File createExportDirectory() {
+        return new File(new File(directory, EXPORTS_DIRECTORY), UUID.randomUUID().toString());
+    }
+
+    /**
+     * Merges the cache exported by a build into the shared cache, then deletes the export.
+     */
+    public void merge(File exportDirectory) throws IOException {
+        final Path export = exportDirectory.toPath();
+        final Path cache = directory.toPath();
+        if (!Files.isRegularFile(export.resolve(INDEX_FILENAME))) {
+            throw new IOException("No cache exported to " + export);
+        }
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(export, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!file.getFileName().toString().equals(INDEX_FILENAME) || !file.getParent().equals(export)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        synchronized (MERGE_MONITOR) {
+            try (FileChannel lockChannel = FileChannel.open(cache.resolve(LOCK_FILENAME),
+                                                            StandardOpenOption.CREATE,
+                                                            StandardOpenOption.WRITE);
+                    FileLock lock = lockChannel.lock()) {
+                for (Path file : files) {
+                    Path target = cache.resolve(export.relativize(file).toString());
+                    // Blobs are named after their content, an existing one is the same
+                    if (!Files.exists(target)) {
+                        Files.createDirectories(target.getParent());
+                        Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+                // Last, so that the blobs of the new index are all present
+                Files.move(export.resolve(INDEX_FILENAME),
+                           cache.resolve(INDEX_FILENAME),
+                           StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        delete(exportDirectory);
+        log.debug("Merged the build cache exported to " + export + " into " + cache);
+    }
+
+    /**
+     * Deletes the export of a build, e.g. of a failed build.
+     */
+    public static void delete(File exportDirectory) {
+        if (!exportDirectory.exists()) {
+            return;
+        }
+        try {
+            Files.walkFileTree(exportDirectory.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to delete the build cache export " + exportDirectory, e);
+        }
+    }
+}
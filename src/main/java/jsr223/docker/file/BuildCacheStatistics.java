@@ -0,0 +1,121 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Counts the build steps of a BuildKit build, and the steps served from the cache, from its
+ * --progress=plain output, e.g.
+ * <pre>
+ * #5 [2/3] RUN apt-get update
+ * #5 CACHED
+ * </pre>
+ * Internal steps ("#1 [internal] load build definition") are not counted.
+ */
+public class BuildCacheStatistics {
+
+    private static final Pattern STEP = Pattern.compile("^#(\\d+) \\[(?:\\S+ )?\\d+/\\d+\\] .*");
+
+    private static final Pattern CACHED = Pattern.compile("^#(\\d+) CACHED\\s*$");
+
+    private final Set<String> steps = new HashSet<>();
+
+    private final Set<String> cachedSteps = new HashSet<>();
+
+    /**
+     * Parses one line of the build output.
+     */
+    public synchronized void parseLine(String line) {
+        Matcher step = STEP.matcher(line);
+        if (step.matches()) {
+            steps.add(step.group(1));
+            return;
+        }
+        Matcher cached = CACHED.matcher(line);
+        if (cached.matches() && steps.contains(cached.group(1))) {
+            cachedSteps.add(cached.group(1));
+        }
+    }
+
+    public synchronized int getSteps() {
+        return steps.size();
+    }
+
+    public synchronized int getCachedSteps() {
+        return cachedSteps.size();
+    }
+
+    /**
+     * @return Writer which writes to output and parses every line written, e.g. the error output of docker
+     * build, which receives the progress.
+     */
+    public Writer parsing(Writer output) {
+        return new ParsingWriter(output);
+    }
+
+    private class ParsingWriter extends Writer {
+
+        private final Writer output;
+
+        private final StringBuilder line = new StringBuilder();
+
+        private ParsingWriter(Writer output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            output.write(buffer, offset, length);
+            synchronized (lock) {
+                for (int i = offset; i < offset + length; i++) {
+                    if (buffer[i] == '\n') {
+                        parseLine(line.toString());
+                        line.setLength(0);
+                    } else if (buffer[i] != '\r') {
+                        line.append(buffer[i]);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.script.Bindings;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+
+/**
+ * Collapses docker actions into fewer docker invocations:
+ * <ul>
+ * <li>a foreground run followed by stop and rm is started with --rm, docker removes the container when it
+ * exits, so neither stop nor rm is needed;</li>
+ * <li>otherwise stop and rm are replaced by a single rm -f, unless stop options or a positive stop timeout
+ * are configured since rm -f kills the container without grace period.</li>
+ * </ul>
+ */
+@AllArgsConstructor
+public class DockerActionPlanner {
+
+    private static final String RUN_OPTIONS_KEY = DockerFileCommandCreator.DOCKER_RUN_COMMANDLINE_OPTIONS_KEY;
+
+    private static final String STOP_OPTIONS_KEY = DockerFileCommandCreator.DOCKER_STOP_COMMANDLINE_OPTIONS_KEY;
+
+    /**
+     * Short options of docker run which take a value.
+     */
+    private static final String RUN_VALUE_SHORT_OPTIONS = "acehlmpuvw";
+
+    /**
+     * Long options of docker run which take no value.
+     */
+    private static final Set<String> RUN_FLAG_OPTIONS = new HashSet<>(Arrays.asList("--detach",
+                                                                                    "--disable-content-trust",
+                                                                                    "--help",
+                                                                                    "--init",
+                                                                                    "--interactive",
+                                                                                    "--no-healthcheck",
+                                                                                    "--oom-kill-disable",
+                                                                                    "--privileged",
+                                                                                    "--publish-all",
+                                                                                    "--quiet",
+                                                                                    "--read-only",
+                                                                                    "--rm",
+                                                                                    "--sig-proxy",
+                                                                                    "--tty"));
+
+    @NonNull
+    private DockerFileCommandCreator dockerFileCommandCreator;
+
+    public Plan plan(Set<String> dockerActions, Bindings bindings) {
+        if (!DockerFilePropertyLoader.getInstance().isFuseActions() ||
+            !dockerActions.contains(DockerFileCommandCreator.STOP_ARGUMENT)) {
+            return new Plan(false, false);
+        }
+        List<String> runOptions = dockerFileCommandCreator.getDockerCommandOptions(bindings, RUN_OPTIONS_KEY);
+        boolean foregroundRun = dockerActions.contains(DockerFileCommandCreator.RUN_ARGUMENT) &&
+                                !dockerActions.contains(DockerFileCommandCreator.EXEC_ARGUMENT) &&
+                                !isDetached(runOptions);
+        boolean gracefulStop = dockerFileCommandCreator.hasOption(bindings, STOP_OPTIONS_KEY) ||
+                               dockerFileCommandCreator.getStopTimeout(bindings) > 0;
+        return new Plan(foregroundRun, !gracefulStop);
+    }
+
+    /**
+     * @return Whether the options run the container in the background (-d, --detach or combined short
+     * options such as -dit). Values of options, such as the argument of -e or --name, are skipped.
+     */
+    static boolean isDetached(List<String> runOptions) {
+        for (int i = 0; i < runOptions.size(); i++) {
+            String option = runOptions.get(i).trim();
+            if (option.equals("--")) {
+                return false;
+            } else if (option.startsWith("--")) {
+                if (option.equals("--detach") || option.equals("--detach=true")) {
+                    return true;
+                }
+                if (option.indexOf('=') == -1 && !RUN_FLAG_OPTIONS.contains(option)) {
+                    // The next option is the value
+                    i++;
+                }
+            } else if (option.startsWith("-")) {
+                for (int j = 1; j < option.length(); j++) {
+                    char letter = option.charAt(j);
+                    if (letter == 'd') {
+                        return true;
+                    }
+                    if (RUN_VALUE_SHORT_OPTIONS.indexOf(letter) != -1) {
+                        // The rest of the group, or else the next option, is the value
+                        if (j == option.length() - 1) {
+                            i++;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Docker invocations of an evaluation after fusion.
+     */
+    @AllArgsConstructor
+    public static class Plan {
+
+        // The container is started with --rm, stop and rm are not needed once run completed
+        @Getter
+        private final boolean autoRemoveRun;
+
+        // Stop and rm are replaced by rm -f
+        @Getter
+        private final boolean forceRemove;
+    }
+}
@@ -25,6 +25,7 @@
  */
 package jsr223.docker.file;
 
+import java.io.File;
 import java.util.*;
 
 import javax.script.Bindings;
@@ -34,6 +35,7 @@ import org.ow2.proactive.scheduler.common.SchedulerConstants;
 import com.google.common.collect.ImmutableList;
 
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.extern.log4j.Log4j;
 
 
@@ -48,8 +50,51 @@ public class DockerFileCommandCreator {
 
     public static final String CONTAINER_NAME_OPTION_ARGUMENT = "--name";
 
+    public static final String ENV_FILE_OPTION_ARGUMENT = "--env-file";
+
+    public static final String IMAGE_ID_FILE_OPTION_ARGUMENT = "--iidfile";
+
+    public static final String AUTO_REMOVE_OPTION_ARGUMENT = "--rm";
+
+    public static final String ENV_OPTION_ARGUMENT = "-e";
+
+    public static final String LABEL_OPTION_ARGUMENT = "--label";
+
+    public static final String ENV_LONG_OPTION_ARGUMENT = "--env";
+
+    public static final String BUILD_ARG_OPTION_ARGUMENT = "--build-arg";
+
+    // Environment variables of the replica containers
+    public static final String REPLICA_INDEX_VARIABLE = "REPLICA_INDEX";
+
+    public static final String REPLICA_COUNT_VARIABLE = "REPLICA_COUNT";
+
+    public static final String FORCE_OPTION_ARGUMENT = "-f";
+
+    public static final String STOP_TIMEOUT_OPTION_ARGUMENT = "-t";
+
+    // Constants for building with BuildKit and a local layer cache
+    public static final String BUILDX_ARGUMENT = "buildx";
+
+    public static final String PROGRESS_PLAIN_OPTION_ARGUMENT = "--progress=plain";
+
+    public static final String CACHE_FROM_OPTION_ARGUMENT = "--cache-from";
+
+    public static final String CACHE_TO_OPTION_ARGUMENT = "--cache-to";
+
+    public static final String LOAD_OPTION_ARGUMENT = "--load";
+
+    public static final String NO_PULL_OPTION_ARGUMENT = "--pull=false";
+
     public static final String FILENAME = "Dockerfile";
 
+    // Constants for pulling the base images
+    public static final String PULL_ARGUMENT = "pull";
+
+    public static final String IMAGE_ARGUMENT = "image";
+
+    public static final String INSPECT_ARGUMENT = "inspect";
+
     // Constants for running the container
     public static final String RUN_ARGUMENT = "run";
 
@@ -58,6 +103,8 @@ public class DockerFileCommandCreator {
     // Constants for stopping the container
     public static final String STOP_ARGUMENT = "stop";
 
+    public static final String KILL_ARGUMENT = "kill";
+
     // Constants for deleting the container
     public static final String RM_ARGUMENT = "rm";
 
@@ -68,24 +115,78 @@ public class DockerFileCommandCreator {
 
     public final static String DOCKER_FILE_COMMANDLINE_OPTIONS_SPLIT_REGEX_DEFAULT = " ";
 
+    public final static String DOCKER_PULL_COMMANDLINE_OPTIONS_KEY = "docker-pull-options";
+
+    public final static String DOCKER_PULL_POLICY_KEY = "docker-pull-policy";
+
     public final static String DOCKER_BUILD_COMMANDLINE_OPTIONS_KEY = "docker-build-options";
 
     public final static String DOCKER_RUN_COMMANDLINE_OPTIONS_KEY = "docker-run-options";
 
+    public final static String DOCKER_RUN_REPLICAS_KEY = "docker-run-replicas";
+
+    // Arguments of one replica: docker-run-replica-arguments-1, docker-run-replica-arguments-2, ...
+    public final static String DOCKER_RUN_REPLICA_ARGUMENTS_KEY_PREFIX = "docker-run-replica-arguments-";
+
     public final static String DOCKER_EXEC_COMMANDLINE_OPTIONS_KEY = "docker-exec-options";
 
     public final static String DOCKER_EXEC_COMMANDLINE_DEFAULT_OPTIONS = "-t";
 
     public final static String DOCKER_EXEC_COMMAND_KEY = "docker-exec-command";
 
+    // Several commands executed concurrently: docker-exec-command-1, docker-exec-command-2, ...
+    public final static String DOCKER_EXEC_COMMANDS_KEY_PREFIX = "docker-exec-command-";
+
+    public final static String DOCKER_EXEC_PARALLELISM_KEY = "docker-exec-parallelism";
+
     public final static String DOCKER_STOP_COMMANDLINE_OPTIONS_KEY = "docker-stop-options";
 
+    // Seconds docker stop waits before killing the container
+    public final static String DOCKER_STOP_TIMEOUT_KEY = "docker-stop-timeout";
+
     public final static String DOCKER_RM_COMMANDLINE_OPTIONS_KEY = "docker-rm-options";
 
     public final static String DOCKER_RMI_COMMANDLINE_OPTIONS_KEY = "docker-rmi-options";
 
     public final static String DOCKER_FILE_COMMANDLINE_OPTIONS_SPLIT_REGEX_KEY = "docker-file-options-split-regex";
 
+    // Labels of the built images and of the containers
+    @Setter
+    private Map<String, String> labels = Collections.emptyMap();
+
+    // Directory the build exports the BuildKit cache to, merged into the cache directory afterwards. The
+    // cache directory itself if null.
+    @Setter
+    private File cacheExportDirectory = null;
+
+    public String[] createDockerPullExecutionCommand(String imageName, Bindings bindings) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerFileCommand(command);
+
+        // Add the pull command
+        command.add(PULL_ARGUMENT);
+
+        // Add custom options
+        command.addAll(getDockerCommandOptions(bindings, DOCKER_PULL_COMMANDLINE_OPTIONS_KEY));
+
+        // Add the image name
+        command.add(imageName);
+
+        return command.toArray(new String[command.size()]);
+    }
+
+    /**
+     * @return A docker command which exits with 0 if the image is present.
+     */
+    public String[] createDockerImageInspectCommand(String imageName) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerFileCommand(command);
+        command.add(IMAGE_ARGUMENT);
+        command.add(INSPECT_ARGUMENT);
+        command.add(imageName);
+        return command.toArray(new String[command.size()]);
+    }
+
     /**
      * This method creates a bash command which build an image based on a given dockerfile.
      *
@@ -93,14 +194,69 @@ public class DockerFileCommandCreator {
      * argument as a separate String.
      */
     public String[] createDockerBuildExecutionCommand(String imageTagName, Bindings bindings) {
+        return createDockerBuildExecutionCommand(imageTagName, bindings, null);
+    }
+
+    /**
+     * Creates a docker build command. With BuildKit the progress is plain text, and with a build cache directory
+     * the command is a docker buildx build which imports and exports the layer cache from that directory, and
+     * loads the image into docker.
+     *
+     * @param imageIdFile File docker writes the id of the built image to (--iidfile), not used if null.
+     */
+    public String[] createDockerBuildExecutionCommand(String imageTagName, Bindings bindings, File imageIdFile) {
+        return createDockerBuildExecutionCommand(imageTagName, bindings, imageIdFile, false);
+    }
+
+    /**
+     * Creates a docker build command.
+     *
+     * @param imageIdFile File docker writes the id of the built image to (--iidfile), not used if null.
+     * @param noPull      Whether the build must not look for newer base images in a registry (--pull=false).
+     */
+    public String[] createDockerBuildExecutionCommand(String imageTagName, Bindings bindings, File imageIdFile,
+            boolean noPull) {
         List<String> command = new ArrayList<>();
         addSudoAndDockerFileCommand(command);
 
+        boolean buildKit = DockerFilePropertyLoader.getInstance().isBuildKit();
+        String cacheDirectory = DockerFilePropertyLoader.getInstance().getBuildCacheDirectory();
+        boolean exportCache = buildKit && cacheDirectory != null && !cacheDirectory.isEmpty();
+
         // Add the build command
+        if (exportCache) {
+            command.add(BUILDX_ARGUMENT);
+        }
         command.add(BUILD_ARGUMENT);
 
         // Add custom options
-        command.addAll(getDockerCommandOptions(bindings, DOCKER_BUILD_COMMANDLINE_OPTIONS_KEY));
+        List<String> options = getDockerCommandOptions(bindings, DOCKER_BUILD_COMMANDLINE_OPTIONS_KEY);
+        command.addAll(options);
+
+        if (noPull && !hasOption(options, "--pull")) {
+            command.add(NO_PULL_OPTION_ARGUMENT);
+        }
+
+        if (buildKit && !hasOption(options, "--progress")) {
+            command.add(PROGRESS_PLAIN_OPTION_ARGUMENT);
+        }
+
+        if (exportCache) {
+            String cachePath = new File(cacheDirectory).getAbsolutePath();
+            command.add(CACHE_FROM_OPTION_ARGUMENT);
+            command.add("type=local,src=" + cachePath);
+            command.add(CACHE_TO_OPTION_ARGUMENT);
+            String exportPath = cacheExportDirectory != null ? cacheExportDirectory.getAbsolutePath() : cachePath;
+            command.add("type=local,dest=" + exportPath + ",mode=max");
+            command.add(LOAD_OPTION_ARGUMENT);
+        }
+
+        addLabels(command);
+
+        if (imageIdFile != null) {
+            command.add(IMAGE_ID_FILE_OPTION_ARGUMENT);
+            command.add(imageIdFile.getAbsolutePath());
+        }
 
         // Add the tag option
         command.add(IMAGE_TAG_OPTION_ARGUMENT);
@@ -115,6 +271,66 @@ public class DockerFileCommandCreator {
     }
 
     public String[] createDockerRunExecutionCommand(String containerTagName, String imageTagName, Bindings bindings) {
+        return createDockerRunExecutionCommand(containerTagName, imageTagName, bindings, null);
+    }
+
+    /**
+     * Creates a docker run command.
+     *
+     * @param environmentFile File passed with --env-file, no environment file is used if null.
+     */
+    public String[] createDockerRunExecutionCommand(String containerTagName, String imageTagName, Bindings bindings,
+            File environmentFile) {
+        return createDockerRunExecutionCommand(containerTagName, imageTagName, bindings, environmentFile, false);
+    }
+
+    /**
+     * Creates a docker run command.
+     *
+     * @param environmentFile File passed with --env-file, no environment file is used if null.
+     * @param autoRemove      Whether docker removes the container when it exits (--rm).
+     */
+    public String[] createDockerRunExecutionCommand(String containerTagName, String imageTagName, Bindings bindings,
+            File environmentFile, boolean autoRemove) {
+        return createDockerRunExecutionCommand(containerTagName,
+                                               imageTagName,
+                                               bindings,
+                                               environmentFile,
+                                               autoRemove,
+                                               Collections.<String> emptyList(),
+                                               Collections.<String> emptyList());
+    }
+
+    /**
+     * Creates the docker run command of one of several replicas of the image. The container is named
+     * [containerTagName]_[replicaIndex], gets the REPLICA_INDEX and REPLICA_COUNT environment variables and
+     * the arguments of the docker-run-replica-arguments-[replicaIndex] generic information.
+     *
+     * @param replicaIndex From 1 to replicaCount.
+     */
+    public String[] createDockerRunReplicaExecutionCommand(String containerTagName, String imageTagName,
+            Bindings bindings, File environmentFile, boolean autoRemove, int replicaIndex, int replicaCount) {
+        List<String> replicaOptions = Arrays.asList(ENV_OPTION_ARGUMENT,
+                                                    REPLICA_INDEX_VARIABLE + "=" + replicaIndex,
+                                                    ENV_OPTION_ARGUMENT,
+                                                    REPLICA_COUNT_VARIABLE + "=" + replicaCount);
+        return createDockerRunExecutionCommand(getReplicaContainerName(containerTagName, replicaIndex),
+                                               imageTagName,
+                                               bindings,
+                                               environmentFile,
+                                               autoRemove,
+                                               replicaOptions,
+                                               getDockerCommandOptions(bindings,
+                                                                       DOCKER_RUN_REPLICA_ARGUMENTS_KEY_PREFIX +
+                                                                                 replicaIndex));
+    }
+
+    public static String getReplicaContainerName(String containerTagName, int replicaIndex) {
+        return containerTagName + "_" + replicaIndex;
+    }
+
+    private String[] createDockerRunExecutionCommand(String containerTagName, String imageTagName, Bindings bindings,
+            File environmentFile, boolean autoRemove, List<String> additionalOptions, List<String> arguments) {
         List<String> command = new ArrayList<>();
         addSudoAndDockerFileCommand(command);
 
@@ -122,7 +338,18 @@ public class DockerFileCommandCreator {
         command.add(RUN_ARGUMENT);
 
         // Add custom options
-        command.addAll(getDockerCommandOptions(bindings, DOCKER_RUN_COMMANDLINE_OPTIONS_KEY));
+        List<String> options = getDockerCommandOptions(bindings, DOCKER_RUN_COMMANDLINE_OPTIONS_KEY);
+        command.addAll(options);
+
+        if (autoRemove && !options.contains(AUTO_REMOVE_OPTION_ARGUMENT)) {
+            command.add(AUTO_REMOVE_OPTION_ARGUMENT);
+        }
+
+        command.addAll(additionalOptions);
+
+        addLabels(command);
+
+        addEnvironmentFile(command, environmentFile);
 
         // Add container tag option
         command.add(CONTAINER_NAME_OPTION_ARGUMENT);
@@ -133,10 +360,71 @@ public class DockerFileCommandCreator {
         // Add image
         command.add(imageTagName);
 
+        // Add the arguments of the image command
+        command.addAll(arguments);
+
         return command.toArray(new String[command.size()]);
     }
 
+    private void addLabels(List<String> command) {
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            command.add(LABEL_OPTION_ARGUMENT);
+            command.add(label.getKey() + "=" + label.getValue());
+        }
+    }
+
     public String[] createDockerExecExecutionCommand(String containerTagName, Bindings bindings) {
+        return createDockerExecExecutionCommand(containerTagName, bindings, null);
+    }
+
+    /**
+     * Creates a docker exec command.
+     *
+     * @param environmentFile File passed with --env-file, no environment file is used if null.
+     */
+    public String[] createDockerExecExecutionCommand(String containerTagName, Bindings bindings,
+            File environmentFile) {
+        List<String> commandToExecute = getDockerCommandOptions(bindings, DOCKER_EXEC_COMMAND_KEY);
+        if (commandToExecute.isEmpty()) {
+            commandToExecute = ImmutableList.of("/bin/sh", "-c", "echo 'no-command'");
+        }
+        return createDockerExecExecutionCommand(containerTagName, bindings, environmentFile, commandToExecute);
+    }
+
+    /**
+     * Creates the docker exec commands of the docker-exec-command-[index] generic information, in index
+     * order. When there is none, the single command of {@link #createDockerExecExecutionCommand} is returned.
+     *
+     * @param environmentFile File passed with --env-file, no environment file is used if null.
+     */
+    public List<String[]> createDockerExecExecutionCommands(String containerTagName, Bindings bindings,
+            File environmentFile) {
+        Map<String, String> genericInformationMap = extractGenericInfo(bindings);
+        SortedMap<Integer, String> indexedKeys = new TreeMap<>();
+        for (String key : genericInformationMap.keySet()) {
+            if (key.startsWith(DOCKER_EXEC_COMMANDS_KEY_PREFIX)) {
+                try {
+                    indexedKeys.put(Integer.parseInt(key.substring(DOCKER_EXEC_COMMANDS_KEY_PREFIX.length())), key);
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring generic information " + key + ", the exec command index is not a number.");
+                }
+            }
+        }
+        List<String[]> commands = new ArrayList<>();
+        if (indexedKeys.isEmpty()) {
+            commands.add(createDockerExecExecutionCommand(containerTagName, bindings, environmentFile));
+        }
+        for (String key : indexedKeys.values()) {
+            commands.add(createDockerExecExecutionCommand(containerTagName,
+                                                          bindings,
+                                                          environmentFile,
+                                                          getDockerCommandOptions(bindings, key)));
+        }
+        return commands;
+    }
+
+    private String[] createDockerExecExecutionCommand(String containerTagName, Bindings bindings,
+            File environmentFile, List<String> commandToExecute) {
         List<String> command = new ArrayList<>();
         addSudoAndDockerFileCommand(command);
 
@@ -150,14 +438,11 @@ public class DockerFileCommandCreator {
             command.addAll(getExecDefaultOptions());
         }
 
+        addEnvironmentFile(command, environmentFile);
+
         // Add container tag name
         command.add(containerTagName);
 
-        List<String> commandToExecute = getDockerCommandOptions(bindings, DOCKER_EXEC_COMMAND_KEY);
-        if (commandToExecute.isEmpty()) {
-            commandToExecute = ImmutableList.of("/bin/sh", "-c", "echo 'no-command'");
-        }
-
         // Add command to run
         command.addAll(commandToExecute);
 
@@ -172,7 +457,15 @@ public class DockerFileCommandCreator {
         command.add(STOP_ARGUMENT);
 
         // Add custom options
-        command.addAll(getDockerCommandOptions(bindings, DOCKER_STOP_COMMANDLINE_OPTIONS_KEY));
+        List<String> options = getDockerCommandOptions(bindings, DOCKER_STOP_COMMANDLINE_OPTIONS_KEY);
+        command.addAll(options);
+
+        int stopTimeout = getStopTimeout(bindings);
+        if (stopTimeout >= 0 && !options.contains(STOP_TIMEOUT_OPTION_ARGUMENT) && !hasOption(options, "--time") &&
+            !hasOption(options, "--timeout")) {
+            command.add(STOP_TIMEOUT_OPTION_ARGUMENT);
+            command.add(Integer.toString(stopTimeout));
+        }
 
         // Add the tag name
         command.add(containerTagName);
@@ -181,6 +474,15 @@ public class DockerFileCommandCreator {
     }
 
     public String[] createDockerRemoveExecutionCommand(String containerTagName, Bindings bindings) {
+        return createDockerRemoveExecutionCommand(containerTagName, bindings, false);
+    }
+
+    /**
+     * Creates a docker rm command.
+     *
+     * @param force Whether a running container is killed and removed (-f).
+     */
+    public String[] createDockerRemoveExecutionCommand(String containerTagName, Bindings bindings, boolean force) {
         List<String> command = new ArrayList<>();
         addSudoAndDockerFileCommand(command);
 
@@ -188,7 +490,12 @@ public class DockerFileCommandCreator {
         command.add(RM_ARGUMENT);
 
         // Add custom options
-        command.addAll(getDockerCommandOptions(bindings, DOCKER_RM_COMMANDLINE_OPTIONS_KEY));
+        List<String> options = getDockerCommandOptions(bindings, DOCKER_RM_COMMANDLINE_OPTIONS_KEY);
+        command.addAll(options);
+
+        if (force && !options.contains(FORCE_OPTION_ARGUMENT) && !options.contains("--force")) {
+            command.add(FORCE_OPTION_ARGUMENT);
+        }
 
         // Add the tag name
         command.add(containerTagName);
@@ -196,6 +503,20 @@ public class DockerFileCommandCreator {
         return command.toArray(new String[command.size()]);
     }
 
+    /**
+     * Construct docker kill command, used when an evaluation is cancelled: the container is killed at once and
+     * removed later.
+     */
+    public String[] createDockerKillCommand(String containerTagName) {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerFileCommand(command);
+
+        command.add(KILL_ARGUMENT);
+        command.add(containerTagName);
+
+        return command.toArray(new String[command.size()]);
+    }
+
     public String[] createDockerRemoveImage(String imageTagName, Bindings bindings) {
         List<String> command = new ArrayList<>();
         addSudoAndDockerFileCommand(command);
@@ -212,6 +533,15 @@ public class DockerFileCommandCreator {
         return command.toArray(new String[command.size()]);
     }
 
+    /**
+     * @return The docker client, with sudo if it is configured.
+     */
+    public List<String> getDockerCommand() {
+        List<String> command = new ArrayList<>();
+        addSudoAndDockerFileCommand(command);
+        return command;
+    }
+
     /**
      * Adds sudo and docker file command to the given list. Sudo is only added when
      * it is configured to do that.
@@ -228,6 +558,58 @@ public class DockerFileCommandCreator {
         command.add(DockerFilePropertyLoader.getInstance().getDockerFileCommand());
     }
 
+    /**
+     * @return Variables which docker build, run or exec read from the environment of the docker client:
+     * "--build-arg NAME", "-e NAME" and "--env NAME" options without value.
+     */
+    public Set<String> getEnvironmentReferences(Bindings bindings) {
+        Set<String> names = new HashSet<>();
+        addEnvironmentReferences(getDockerCommandOptions(bindings, DOCKER_BUILD_COMMANDLINE_OPTIONS_KEY),
+                                 Collections.singletonList(BUILD_ARG_OPTION_ARGUMENT),
+                                 names);
+        for (String key : Arrays.asList(DOCKER_RUN_COMMANDLINE_OPTIONS_KEY, DOCKER_EXEC_COMMANDLINE_OPTIONS_KEY)) {
+            addEnvironmentReferences(getDockerCommandOptions(bindings, key),
+                                     Arrays.asList(ENV_OPTION_ARGUMENT, ENV_LONG_OPTION_ARGUMENT),
+                                     names);
+        }
+        return names;
+    }
+
+    private static void addEnvironmentReferences(List<String> options, List<String> optionNames,
+            Set<String> names) {
+        for (int i = 0; i < options.size(); i++) {
+            String option = options.get(i).trim();
+            String value = null;
+            for (String optionName : optionNames) {
+                if (option.equals(optionName) && i + 1 < options.size()) {
+                    value = options.get(i + 1).trim();
+                } else if (option.startsWith(optionName + "=")) {
+                    value = option.substring(optionName.length() + 1);
+                }
+            }
+            // NAME=value does not need the environment
+            if (value != null && !value.isEmpty() && value.indexOf('=') == -1) {
+                names.add(value);
+            }
+        }
+    }
+
+    private static boolean hasOption(List<String> options, String option) {
+        for (String value : options) {
+            if (value.equals(option) || value.startsWith(option + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addEnvironmentFile(List<String> command, File environmentFile) {
+        if (environmentFile != null) {
+            command.add(ENV_FILE_OPTION_ARGUMENT);
+            command.add(environmentFile.getAbsolutePath());
+        }
+    }
+
     private Map<String, String> extractGenericInfo(Bindings bindings) {
         Object bindingsObject;
         if (bindings.containsKey(GENERIC_INFORMATION_KEY) && (bindings.get(GENERIC_INFORMATION_KEY) instanceof Map)) {
@@ -239,6 +621,22 @@ public class DockerFileCommandCreator {
         return (Map<String, String>) bindingsObject;
     }
 
+    /**
+     * @return Seconds docker stop waits before killing the container, from the generic information or the
+     * configuration, negative for the daemon default.
+     */
+    public int getStopTimeout(Bindings bindings) {
+        String stopTimeout = extractGenericInfo(bindings).get(DOCKER_STOP_TIMEOUT_KEY);
+        if (stopTimeout != null) {
+            try {
+                return Integer.parseInt(stopTimeout.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + DOCKER_STOP_TIMEOUT_KEY + ": " + stopTimeout);
+            }
+        }
+        return DockerFilePropertyLoader.getInstance().getStopTimeout();
+    }
+
     public boolean hasOption(Bindings bindings, String keyName) {
         Map<String, String> genericInformationMap = extractGenericInfo(bindings);
         return genericInformationMap.containsKey(keyName);
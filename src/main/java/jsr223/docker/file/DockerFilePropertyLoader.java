@@ -49,6 +49,28 @@ public class DockerFilePropertyLoader {
 
     public static final String DOCKER_FILE_KEEP = "docker.file.keepimage";
 
+    public static final String DOCKER_FILE_SYNC = "docker.file.sync";
+
+    public static final String DOCKER_FILE_SCRATCH_ROOT = "docker.file.scratch.root";
+
+    public static final String DOCKER_FILE_USE_ENV_FILE = "docker.file.use.env.file";
+
+    public static final String DOCKER_FILE_ACTIONS_PARALLELISM = "docker.file.actions.parallelism";
+
+    public static final String DOCKER_FILE_ASYNC_RMI = "docker.file.async.rmi";
+
+    public static final String DOCKER_FILE_FUSE_ACTIONS = "docker.file.fuse.actions";
+
+    public static final String DOCKER_FILE_BUILDKIT = "docker.file.buildkit";
+
+    public static final String DOCKER_FILE_PREFETCH_IMAGES = "docker.file.prefetch.images";
+
+    public static final String DOCKER_FILE_PULL_POLICY = "docker.file.pull.policy";
+
+    public static final String DOCKER_FILE_BUILD_CACHE_DIR = "docker.file.build.cache.dir";
+
+    public static final String DOCKER_FILE_STOP_TIMEOUT = "docker.file.stop.timeout";
+
     @Getter
     @Setter
     private String dockerHost;
@@ -69,6 +91,57 @@ public class DockerFilePropertyLoader {
     @Setter
     private boolean keepDockerFile = false;
 
+    @Getter
+    @Setter
+    private boolean syncDockerFile = false;
+
+    @Getter
+    @Setter
+    private String scratchRoot;
+
+    @Getter
+    @Setter
+    private boolean useEnvironmentFile;
+
+    // Maximum number of docker actions of an evaluation running at the same time
+    @Getter
+    @Setter
+    private int actionsParallelism;
+
+    @Getter
+    @Setter
+    private boolean asyncRmi;
+
+    // Collapse docker actions into fewer invocations, see DockerActionPlanner
+    @Getter
+    @Setter
+    private boolean fuseActions;
+
+    // Build with BuildKit (DOCKER_BUILDKIT=1, plain progress)
+    @Getter
+    @Setter
+    private boolean buildKit;
+
+    // Local directory the BuildKit layer cache is imported from and exported to, empty for no cache export
+    @Getter
+    @Setter
+    private String buildCacheDirectory;
+
+    // Pull the base images in the background, see ImagePrefetcher
+    @Getter
+    @Setter
+    private boolean prefetchImages;
+
+    // Name of a PullPolicy
+    @Getter
+    @Setter
+    private String pullPolicy;
+
+    // Seconds docker stop waits before killing a container, negative for the daemon default
+    @Getter
+    @Setter
+    private int stopTimeout;
+
     private Properties properties;
 
     private DockerFilePropertyLoader() {
@@ -98,6 +171,18 @@ public class DockerFilePropertyLoader {
         this.useSudo = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_USE_SUDO, "false"));
         this.dockerHost = getOverridenProperty(DOCKER_HOST, "");
         this.keepDockerFile = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_KEEP, "false"));
+        this.syncDockerFile = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_SYNC, "false"));
+        // Empty means the system temporary directory
+        this.scratchRoot = getOverridenProperty(DOCKER_FILE_SCRATCH_ROOT, "");
+        this.useEnvironmentFile = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_USE_ENV_FILE, "false"));
+        this.actionsParallelism = Integer.parseInt(getOverridenProperty(DOCKER_FILE_ACTIONS_PARALLELISM, "4"));
+        this.asyncRmi = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_ASYNC_RMI, "false"));
+        this.fuseActions = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_FUSE_ACTIONS, "true"));
+        this.buildKit = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_BUILDKIT, "false"));
+        this.buildCacheDirectory = getOverridenProperty(DOCKER_FILE_BUILD_CACHE_DIR, "");
+        this.prefetchImages = Boolean.parseBoolean(getOverridenProperty(DOCKER_FILE_PREFETCH_IMAGES, "true"));
+        this.pullPolicy = getOverridenProperty(DOCKER_FILE_PULL_POLICY, "missing");
+        this.stopTimeout = Integer.parseInt(getOverridenProperty(DOCKER_FILE_STOP_TIMEOUT, "-1"));
     }
 
     private String getOverridenProperty(String key, String defaultValue) {
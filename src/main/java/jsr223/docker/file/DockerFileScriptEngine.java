@@ -26,10 +26,23 @@
 package jsr223.docker.file;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.*;
 
@@ -40,17 +53,40 @@ import org.apache.log4j.WriterAppender;
 import org.ow2.proactive.scheduler.common.SchedulerConstants;
 import org.ow2.proactive.scheduler.task.SchedulerVars;
 
-import com.google.common.io.Files;
-
 import jsr223.docker.compose.DockerComposeScriptEngine;
+import jsr223.docker.compose.actions.Action;
+import jsr223.docker.compose.actions.ActionGraph;
+import jsr223.docker.compose.actions.ActionState;
+import jsr223.docker.compose.bindings.EnvironmentAssembler;
+import jsr223.docker.compose.bindings.EnvironmentAssembler.Environment;
 import jsr223.docker.compose.bindings.MapBindingsAdder;
 import jsr223.docker.compose.bindings.StringBindingsAdder;
+import jsr223.docker.compose.cleanup.CleanupJournal;
+import jsr223.docker.compose.cleanup.CleanupPropertyLoader;
+import jsr223.docker.compose.cleanup.DeferredCleanupQueue;
+import jsr223.docker.compose.cleanup.OrphanReaper;
+import jsr223.docker.compose.cleanup.ResourceRegistry;
+import jsr223.docker.compose.cleanup.ResourceRegistry.Registration;
 import jsr223.docker.compose.file.write.ConfigurationFileWriter;
+import jsr223.docker.compose.file.write.EnvironmentFileFormat;
+import jsr223.docker.compose.file.write.EnvironmentFileWriter;
+import jsr223.docker.compose.file.write.EnvironmentFileWriter.EnvironmentFile;
+import jsr223.docker.compose.images.ImagePrefetcher;
+import jsr223.docker.compose.images.ImagePrefetcher.ImagePull;
+import jsr223.docker.compose.images.LocalImageIndex;
+import jsr223.docker.compose.images.PullPolicy;
+import jsr223.docker.compose.metrics.Phase;
+import jsr223.docker.compose.metrics.PhaseExecution;
+import jsr223.docker.compose.result.DockerEvalResult;
 import jsr223.docker.compose.utils.Log4jConfigurationLoader;
+import jsr223.docker.compose.utils.ScratchDirectoryManager;
+import jsr223.docker.compose.utils.ScratchDirectoryManager.ScratchDirectory;
 import jsr223.docker.compose.yaml.VariablesReplacer;
 import lombok.extern.log4j.Log4j;
 import processbuilder.SingletonProcessBuilderFactory;
+import processbuilder.utils.LinePrefixWriter;
 import processbuilder.utils.ProcessBuilderUtilities;
+import processbuilder.utils.ProcessTreeKiller;
 
 
 @Log4j
@@ -58,6 +94,8 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
 
     private static final String DOCKER_HOST_PROPERTY_NAME = "DOCKER_HOST";
 
+    private static final String DOCKER_BUILDKIT_PROPERTY_NAME = "DOCKER_BUILDKIT";
+
     // generic information used to define actions to execute
     public final static String DOCKER_ACTIONS_GI = "docker-actions";
 
@@ -67,23 +105,47 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
 
     public final static String DOCKER_ACTIONS_DEFAULT = "build,run,stop,rmi";
 
+    // generic information overriding docker.file.actions.parallelism, 1 runs the actions one after another
+    public final static String DOCKER_ACTIONS_PARALLELISM_GI = "docker-actions-parallelism";
+
+    private static final String WRITE_FILE_ACTION = "write-file";
+
+    private static final String CHECK_IMAGES_ACTION = "check-images";
+
+    private static final String DELETE_FILES_ACTION = "delete-files";
+
+    // Time eval waits for the output of the exited containers before the teardown is deferred
+    private static final long OUTPUT_DRAIN_TIMEOUT_MILLIS = 10000;
+
     private ProcessBuilderUtilities processBuilderUtilities = new ProcessBuilderUtilities();
 
     private VariablesReplacer variablesReplacer = new VariablesReplacer();
 
-    private ConfigurationFileWriter configurationFileWriter = new ConfigurationFileWriter();
+    private ConfigurationFileWriter configurationFileWriter = new ConfigurationFileWriter(DockerFilePropertyLoader.getInstance()
+                                                                                                                  .isSyncDockerFile());
+
+    private EnvironmentFileWriter environmentFileWriter = new EnvironmentFileWriter(configurationFileWriter);
 
     private StringBindingsAdder stringBindingsAdder = new StringBindingsAdder(new MapBindingsAdder());
 
+    private EnvironmentAssembler environmentAssembler = new EnvironmentAssembler(stringBindingsAdder);
+
     private DockerFileCommandCreator dockerFileCommandCreator = new DockerFileCommandCreator();
 
+    private BaseImageExtractor baseImageExtractor = new BaseImageExtractor();
+
+    private DockerActionPlanner dockerActionPlanner = new DockerActionPlanner(dockerFileCommandCreator);
+
     private Log4jConfigurationLoader log4jConfigurationLoader = new Log4jConfigurationLoader();
 
-    private Process processRun = null;
+    private ScratchDirectoryManager scratchDirectoryManager = new ScratchDirectoryManager(DockerFilePropertyLoader.getInstance()
+                                                                                                               .getScratchRoot());
 
-    private Process processBuild = null;
+    // Read by the resource registry at shutdown, and written by the actions which may run in other threads
+    private volatile Process processBuild = null;
 
-    private Process processExec = null;
+    // Run and exec processes, several of them may run at the same time
+    private final Set<Process> concurrentProcesses = ConcurrentHashMap.newKeySet();
 
     public static final String DEFAULT_IMAGE_NAME = "image";
 
@@ -97,7 +159,7 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
 
     private String[] dockerRunCommand = null;
 
-    private String[] dockerExecCommand = null;
+    private List<String[]> dockerExecCommands = null;
 
     private String[] dockerStopCommand = null;
 
@@ -105,16 +167,61 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
 
     private String[] dockerRMICommand = null;
 
-    private boolean imageCreated = false;
+    private volatile boolean imageCreated = false;
+
+    // Shared BuildKit cache and the directory this build exports to, null without cache export
+    private BuildCacheDirectory buildCache = null;
+
+    private File cacheExportDirectory = null;
+
+    private volatile boolean containerStarted = false;
+
+    // Set when the evaluation is interrupted or the JVM shuts down, containers are then killed
+    private volatile boolean cancelled = false;
+
+    // Measures the time from the cancellation until the containers are killed, null if not cancelled
+    private volatile PhaseExecution cancelExecution = null;
 
-    private boolean containerStarted = false;
+    // Containers whose docker run returned, they are removed by docker if they were started with --rm
+    private final Set<String> completedRuns = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    private File dockerfile = null;
+    // Containers of the evaluation: the container, or one container per replica
+    private List<String> containerNames = Collections.emptyList();
+
+    private int runReplicas = 1;
+
+    private DockerActionPlanner.Plan actionPlan = null;
+
+    // Resources cleaned up by the resource registry if the JVM exits during the evaluation
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    // Registrations of the containers and of the image, handed over with a deferred teardown
+    private final List<Registration> containerRegistrations = new CopyOnWriteArrayList<>();
+
+    private volatile Registration imageRegistration = null;
+
+    private volatile File dockerfile = null;
+
+    public static final String IMAGE_ID_FILENAME = "image.id";
+
+    private File imageIdFile = null;
+
+    // Result of the current evaluation, published in the bindings when it ends
+    private DockerEvalResult evalResult = null;
 
     private File directory = null;
 
+    // Private working directory, only used when there is no scratch space
+    private ScratchDirectory scratchDirectory = null;
+
+    // Environment file handed to docker run and exec, only used when enabled
+    private EnvironmentFile environmentFile = null;
+
     private Bindings bindings = null;
 
+    // Environment shared by all docker processes of an evaluation
+    private Environment environment = null;
+
     private static long loggerId = 0;
 
     private Logger engineLogger;
@@ -123,9 +230,17 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
 
     private Set<String> dockerActions = new HashSet<>();
 
+    private int actionsParallelism = 1;
+
+    private int execParallelism = 1;
+
+    private PullPolicy pullPolicy = PullPolicy.MISSING;
+
     public DockerFileScriptEngine() {
         // This is the entry-point of the script engine
         log4jConfigurationLoader.loadLog4jConfiguration();
+        scratchDirectoryManager.sweepStaleDirectoriesOnce();
+        OrphanReaper.reapOnce();
     }
 
     private void initLogger(ScriptContext context) {
@@ -146,187 +261,617 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
     @Override
     public Object eval(String script, ScriptContext context) throws ScriptException {
         initLogger(context);
+        // New evaluations wait while the deferred cleanups fall behind
+        long cleanupWait = DeferredCleanupQueue.getInstance().awaitCapacity();
+        if (cleanupWait > 0) {
+            engineLogger.info("Waited " + cleanupWait + " ms for the deferred cleanups.");
+        }
         updateDockerActions(context);
         updateImageTagName(context);
         updateContainerTagName(context);
 
         bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
 
-        // Create docker file command - a simple docker build command 
-        dockerFileCommand = dockerFileCommandCreator.createDockerBuildExecutionCommand(imageTagName, bindings);
+        if (runReplicas > 1 && dockerActions.contains(DockerFileCommandCreator.EXEC_ARGUMENT)) {
+            cleanLogger();
+            throw new ScriptException(DockerFileCommandCreator.DOCKER_RUN_REPLICAS_KEY +
+                                      " cannot be combined with the exec action");
+        }
 
-        // Create docker run command - a simple docker run command 
-        dockerRunCommand = dockerFileCommandCreator.createDockerRunExecutionCommand(containerTagName,
-                                                                                    imageTagName,
-                                                                                    bindings);
+        completedRuns.clear();
+        cancelled = false;
+        cancelExecution = null;
+        actionPlan = dockerActionPlanner.plan(dockerActions, bindings);
 
-        // Create docker run command - a simple docker run command
-        dockerExecCommand = dockerFileCommandCreator.createDockerExecExecutionCommand(containerTagName, bindings);
+        containerNames = new ArrayList<>(runReplicas);
+        if (runReplicas > 1) {
+            for (int replicaIndex = 1; replicaIndex <= runReplicas; replicaIndex++) {
+                containerNames.add(DockerFileCommandCreator.getReplicaContainerName(containerTagName, replicaIndex));
+            }
+        } else {
+            containerNames.add(containerTagName);
+        }
 
-        // Create a process builder for building image
-        ProcessBuilder processBuilderBuild = SingletonProcessBuilderFactory.getInstance()
-                                                                           .getProcessBuilder(dockerFileCommand);
+        evalResult = new DockerEvalResult(DockerFileScriptEngineFactory.NAME, bindings);
+        evalResult.setImageTag(imageTagName);
+
+        // The labels let the orphan reaper find the image and containers if the JVM is killed
+        CleanupJournal journal = CleanupJournal.getInstance();
+        dockerFileCommandCreator.setLabels(journal == null ? Collections.<String, String> emptyMap()
+                                                           : journal.createLabels(DockerFileScriptEngineFactory.NAME,
+                                                                                  evalResult.getJobId(),
+                                                                                  evalResult.getTaskId()));
+        if (dockerActions.contains(DockerFileCommandCreator.RUN_ARGUMENT) ||
+            dockerActions.contains(DockerFileCommandCreator.EXEC_ARGUMENT)) {
+            for (String containerName : containerNames) {
+                evalResult.addContainerName(containerName);
+            }
+        }
 
-        // Create a process builder for running image
-        ProcessBuilder processBuilderRun = SingletonProcessBuilderFactory.getInstance()
-                                                                         .getProcessBuilder(dockerRunCommand);
+        // When enabled, bindings are handed to docker run and exec in an environment file
+        EnvironmentFileFormat environmentFileFormat = null;
+        if (DockerFilePropertyLoader.getInstance().isUseEnvironmentFile()) {
+            environmentFileFormat = EnvironmentFileFormat.DOCKER;
+        }
 
-        // Create a process builder for running image
-        ProcessBuilder processBuilderExec = SingletonProcessBuilderFactory.getInstance()
-                                                                          .getProcessBuilder(dockerExecCommand);
+        // Add string bindings and the DOCKER_HOST and DOCKER_BUILDKIT variables to the execution environment
+        Map<String, String> engineVariables = new HashMap<>();
+        engineVariables.put(DOCKER_HOST_PROPERTY_NAME, DockerFilePropertyLoader.getInstance().getDockerHost());
+        if (DockerFilePropertyLoader.getInstance().isBuildKit()) {
+            engineVariables.put(DOCKER_BUILDKIT_PROPERTY_NAME, "1");
+        }
+        // Variables read by the docker client for "--build-arg NAME" or "-e NAME" stay in its environment
+        environment = environmentAssembler.assemble(bindings,
+                                                    engineVariables,
+                                                    environmentFileFormat,
+                                                    dockerFileCommandCreator.getEnvironmentReferences(bindings));
+
+        environmentFile = null;
+        if (!environment.getFileVariables().isEmpty()) {
+            try {
+                environmentFile = environmentFileWriter.write(environment.getFileVariables(),
+                                                              EnvironmentFileFormat.DOCKER,
+                                                              scratchDirectoryManager);
+            } catch (IOException e) {
+                cleanLogger();
+                ScriptException exception = new ScriptException("Failed to write the environment file.");
+                exception.initCause(e);
+                throw exception;
+            }
+            engineLogger.info("Environment file " + environmentFile.getFile() + " created: " +
+                              environmentFile.getVariableCount() + " variables, " + environmentFile.getSizeInBytes() +
+                              " bytes, written in " +
+                              TimeUnit.NANOSECONDS.toMillis(environmentFile.getWriteTimeNanos()) + " ms.");
+        }
+        File environmentFileReference = environmentFile != null ? environmentFile.getFile() : null;
+
+        // Create docker run commands - a simple docker run command, or one per replica
+        final List<ProcessBuilder> processBuildersRun = new ArrayList<>(runReplicas);
+        for (int replicaIndex = 1; replicaIndex <= runReplicas; replicaIndex++) {
+            if (runReplicas > 1) {
+                dockerRunCommand = dockerFileCommandCreator.createDockerRunReplicaExecutionCommand(containerTagName,
+                                                                                                   imageTagName,
+                                                                                                   bindings,
+                                                                                                   environmentFileReference,
+                                                                                                   actionPlan.isAutoRemoveRun(),
+                                                                                                   replicaIndex,
+                                                                                                   runReplicas);
+            } else {
+                dockerRunCommand = dockerFileCommandCreator.createDockerRunExecutionCommand(containerTagName,
+                                                                                            imageTagName,
+                                                                                            bindings,
+                                                                                            environmentFileReference,
+                                                                                            actionPlan.isAutoRemoveRun());
+            }
+            processBuildersRun.add(environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                     .getProcessBuilder(dockerRunCommand)));
+        }
 
-        // Use process builder environment and fill it with environment variables
-        Map<String, String> variablesMap = processBuilderBuild.environment();
+        // Create docker exec commands - one or several commands executed in the container
+        dockerExecCommands = dockerFileCommandCreator.createDockerExecExecutionCommands(containerTagName,
+                                                                                        bindings,
+                                                                                        environmentFileReference);
 
-        // Add string bindings as environment variables
-        stringBindingsAdder.addBindingToStringMap(bindings, variablesMap);
+        // Create the process builders for executing commands in the container
+        final List<ProcessBuilder> processBuildersExec = new ArrayList<>(dockerExecCommands.size());
+        for (String[] dockerExecCommand : dockerExecCommands) {
+            processBuildersExec.add(environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                      .getProcessBuilder(dockerExecCommand)));
+        }
 
         String localSpace = null;
         if (bindings.containsKey(SchedulerConstants.DS_SCRATCH_BINDING_NAME)) {
             localSpace = (String) bindings.get(SchedulerConstants.DS_SCRATCH_BINDING_NAME);
         }
 
+        scratchDirectory = null;
         if (localSpace != null) {
             directory = new File(localSpace);
         } else {
-            directory = Files.createTempDir();
+            try {
+                scratchDirectory = scratchDirectoryManager.createDirectory();
+            } catch (IOException e) {
+                if (environmentFile != null) {
+                    environmentFile.close();
+                }
+                cleanLogger();
+                ScriptException exception = new ScriptException("Failed to create a working directory in " +
+                                                                scratchDirectoryManager.getRoot());
+                exception.initCause(e);
+                throw exception;
+            }
+            directory = scratchDirectory.getDirectory();
         }
-        processBuilderBuild.directory(directory);
 
-        // Add DOCKER_HOST variable to execution environment
-        variablesMap.put(DOCKER_HOST_PROPERTY_NAME, DockerFilePropertyLoader.getInstance().getDockerHost());
+        // Docker writes the id of the built image to this file
+        imageIdFile = new File(directory, IMAGE_ID_FILENAME);
 
-        // Replace variables in configuration file
-        String scriptReplacedVariables = variablesReplacer.replaceVariables(script, variablesMap);
+        // Concurrent builds export the BuildKit cache to directories of their own, merged after the build
+        String buildCacheDirectory = DockerFilePropertyLoader.getInstance().getBuildCacheDirectory();
+        buildCache = null;
+        cacheExportDirectory = null;
+        if (DockerFilePropertyLoader.getInstance().isBuildKit() && !buildCacheDirectory.isEmpty()) {
+            buildCache = new BuildCacheDirectory(new File(buildCacheDirectory));
+            cacheExportDirectory = buildCache.createExportDirectory();
+        }
+        dockerFileCommandCreator.setCacheExportDirectory(cacheExportDirectory);
 
-        Thread shutdownHook = null;
+        // Create docker file command - a simple docker build command 
+        boolean noPull = pullPolicy == PullPolicy.NEVER || pullPolicy == PullPolicy.OFFLINE;
+        dockerFileCommand = dockerFileCommandCreator.createDockerBuildExecutionCommand(imageTagName,
+                                                                                      bindings,
+                                                                                      imageIdFile,
+                                                                                      noPull);
+
+        // The BuildKit layer cache is shared by the builds of this node, or of all nodes on a shared file system
+        if (buildCache != null) {
+            File exportsDirectory = cacheExportDirectory.getParentFile();
+            if (!exportsDirectory.isDirectory() && !exportsDirectory.mkdirs()) {
+                engineLogger.warn("Failed to create the build cache directory " + exportsDirectory);
+            }
+        }
 
-        try {
+        // Create a process builder for building image
+        ProcessBuilder processBuilderBuild = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                               .getProcessBuilder(dockerFileCommand));
+        processBuilderBuild.directory(directory);
 
-            dockerfile = configurationFileWriter.forceFileToDisk(scriptReplacedVariables,
-                                                                 (new File(directory,
-                                                                           dockerFileCommandCreator.FILENAME)).getAbsolutePath());
-            engineLogger.info("Docker file " + dockerfile + " created.");
-
-            shutdownHook = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        handleShutdown(context);
-                    } catch (ScriptException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            });
-            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        // Replace variables in configuration file
+        final String scriptReplacedVariables = variablesReplacer.replaceVariables(script, environment.getVariables());
+
+        // Base images are prefetched as soon as the Dockerfile is known, the build waits for them
+        final Map<String, CompletableFuture<ImagePull>> imagePulls = prefetchBaseImages(scriptReplacedVariables);
 
-            int exitValue = 0;
+        try {
+            registerResources();
+
+            final AtomicInteger exitValue = new AtomicInteger(0);
+
+            // The build waits for the Dockerfile and the base images
+            ActionGraph actions = new ActionGraph();
+            actions.add(WRITE_FILE_ACTION, () -> writeDockerfile(scriptReplacedVariables));
+            List<String> buildDependencies = new ArrayList<>();
+            buildDependencies.add(WRITE_FILE_ACTION);
+            if (pullPolicy == PullPolicy.OFFLINE && dockerActions.contains(DockerFileCommandCreator.BUILD_ARGUMENT)) {
+                actions.add(CHECK_IMAGES_ACTION,
+                            () -> checkImagesPresent(baseImageExtractor.getBaseImages(scriptReplacedVariables)));
+                buildDependencies.add(CHECK_IMAGES_ACTION);
+            }
+            for (final Map.Entry<String, CompletableFuture<ImagePull>> imagePull : imagePulls.entrySet()) {
+                String pullAction = DockerFileCommandCreator.PULL_ARGUMENT + " " + imagePull.getKey();
+                actions.add(pullAction, () -> awaitImagePull(imagePull.getKey(), imagePull.getValue()));
+                buildDependencies.add(pullAction);
+            }
 
             if (dockerActions.contains(DockerFileCommandCreator.BUILD_ARGUMENT)) {
-                exitValue = runDockerBuildCommand(context, processBuilderBuild);
+                actions.add(DockerFileCommandCreator.BUILD_ARGUMENT,
+                            () -> exitValue.set(runDockerBuildCommand(context, processBuilderBuild)),
+                            buildDependencies.toArray(new String[buildDependencies.size()]));
             } else {
                 // assume that image is already built on this machine
                 imageCreated = true;
             }
 
             if (dockerActions.contains(DockerFileCommandCreator.RUN_ARGUMENT)) {
-                exitValue = runDockerRunCommand(context, processBuilderRun);
+                actions.add(DockerFileCommandCreator.RUN_ARGUMENT,
+                            () -> exitValue.set(runDockerRunCommands(context, processBuildersRun)),
+                            WRITE_FILE_ACTION,
+                            DockerFileCommandCreator.BUILD_ARGUMENT);
             } else {
                 // assume that conatiner is already started on this machine
                 containerStarted = true;
             }
 
             if (dockerActions.contains(DockerFileCommandCreator.EXEC_ARGUMENT)) {
-                exitValue = runDockerExecCommand(context, processBuilderExec);
+                actions.add(DockerFileCommandCreator.EXEC_ARGUMENT,
+                            () -> exitValue.set(runDockerExecCommands(context, processBuildersExec)),
+                            WRITE_FILE_ACTION,
+                            DockerFileCommandCreator.BUILD_ARGUMENT,
+                            DockerFileCommandCreator.RUN_ARGUMENT);
             }
 
-            return exitValue;
+            actions.execute(actionsParallelism);
+
+            evalResult.setExitCode(exitValue.get());
+            return exitValue.get();
         } catch (IOException e) {
             engineLogger.warn("Failed to execute Docker File.", e);
         } catch (InterruptedException e) {
+            cancel();
             engineLogger.info("Container execution interrupted. " + e.getMessage());
+        } catch (ScriptException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw asScriptException("Failed to execute Docker File.", e);
         } finally {
-
-            handleShutdown(context);
-            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            try {
+                handleShutdown(context);
+            } finally {
+                unregisterResources();
+                evalResult.publishTo(bindings);
+            }
         }
 
         return null;
     }
 
-    private int runDockerRunCommand(ScriptContext context, ProcessBuilder processBuilderRun)
-            throws IOException, InterruptedException, ScriptException {
+    /**
+     * Hands the teardown steps over to the deferred cleanup queue, with the registrations of the resources
+     * they remove.
+     *
+     * @param containers Whether the steps remove the containers, otherwise they only remove the image.
+     */
+    private void deferTeardown(List<ResourceRegistry.Cleanup> steps, boolean containers) {
+        List<Registration> handedOver = new ArrayList<>();
+        if (containers) {
+            handedOver.addAll(containerRegistrations);
+            containerRegistrations.clear();
+        }
+        if (imageRegistration != null) {
+            handedOver.add(imageRegistration);
+            imageRegistration = null;
+        }
+        boolean queued = DeferredCleanupQueue.getInstance().submit(getResourceName(), steps, handedOver);
+        engineLogger.info((queued ? "Deferred " : "Executed ") + steps.size() + " teardown steps" +
+                          (queued ? "." : ", the deferred cleanup queue is full."));
+    }
+
+    private void writeDockerfile(String content) throws IOException {
+        PhaseExecution writeExecution = evalResult.startAction(Phase.WRITE_FILE);
+        try {
+            dockerfile = configurationFileWriter.forceFileToDisk(content,
+                                                                 (new File(directory,
+                                                                           dockerFileCommandCreator.FILENAME)).getAbsolutePath());
+            writeExecution.finish(0);
+        } finally {
+            writeExecution.finish(null);
+        }
+        engineLogger.info("Docker file " + dockerfile + " created.");
+    }
+
+    /**
+     * Starts to prefetch the base images of the Dockerfile, when the image is built and the pull policy allows
+     * it.
+     *
+     * @return The pulls by image, in Dockerfile order.
+     */
+    private Map<String, CompletableFuture<ImagePull>> prefetchBaseImages(String dockerfileContent) {
+        Map<String, CompletableFuture<ImagePull>> imagePulls = new LinkedHashMap<>();
+        boolean prefetch = DockerFilePropertyLoader.getInstance().isPrefetchImages() ||
+                           dockerActions.contains(DockerFileCommandCreator.PULL_ARGUMENT);
+        if (!prefetch || pullPolicy == PullPolicy.NEVER || pullPolicy == PullPolicy.OFFLINE ||
+            !dockerActions.contains(DockerFileCommandCreator.BUILD_ARGUMENT)) {
+            return imagePulls;
+        }
+        String dockerHost = DockerFilePropertyLoader.getInstance().getDockerHost();
+        for (String baseImage : baseImageExtractor.getBaseImages(dockerfileContent)) {
+            String[] inspectCommand = dockerFileCommandCreator.createDockerImageInspectCommand(baseImage);
+            String[] pullCommand = dockerFileCommandCreator.createDockerPullExecutionCommand(baseImage, bindings);
+            imagePulls.put(baseImage,
+                           ImagePrefetcher.getInstance()
+                                          .prefetch(dockerHost,
+                                                    baseImage,
+                                                    pullPolicy,
+                                                    environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                                      .getProcessBuilder(inspectCommand)),
+                                                    environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                                      .getProcessBuilder(pullCommand))));
+        }
+        return imagePulls;
+    }
+
+    /**
+     * Waits for the prefetch of a base image. A failure is only logged, the build then pulls the image
+     * itself or uses a local image.
+     */
+    private void awaitImagePull(String baseImage, CompletableFuture<ImagePull> imagePull)
+            throws InterruptedException {
+        PhaseExecution execution = evalResult.startAction(Phase.PULL,
+                                                          Arrays.asList(dockerFileCommandCreator.createDockerPullExecutionCommand(baseImage,
+                                                                                                                                  bindings)));
+        try {
+            ImagePull result = imagePull.get();
+            execution.finish(result.getExitCode());
+            if (result.getOutcome() == ImagePull.Outcome.FAILED) {
+                engineLogger.warn("Docker pull of " + baseImage + " failed with exit code " + result.getExitCode());
+            } else {
+                engineLogger.info("Base image " + baseImage + ": " + result.getOutcome());
+            }
+        } catch (ExecutionException e) {
+            engineLogger.warn("Failed to pull " + baseImage + ": " + e.getMessage());
+        } finally {
+            // Only taken into account if the pull did not complete
+            execution.finish(null);
+        }
+    }
+
+    /**
+     * Fails if base images are not present, before docker build tries to pull them. If the image index
+     * cannot be loaded, the build is attempted anyway.
+     */
+    private void checkImagesPresent(List<String> baseImages) throws ScriptException, InterruptedException {
+        List<String> missingImages;
+        try {
+            missingImages = LocalImageIndex.getInstance(dockerFileCommandCreator.getDockerCommand(),
+                                                        DockerFilePropertyLoader.getInstance().getDockerHost())
+                                           .getMissingImages(baseImages);
+        } catch (IOException e) {
+            engineLogger.warn("Failed to check the local images: " + e.getMessage());
+            return;
+        }
+        if (!missingImages.isEmpty()) {
+            throw new ScriptException("Images " + missingImages + " are not present on this node and the pull " +
+                                      "policy is " + PullPolicy.OFFLINE.name().toLowerCase());
+        }
+    }
+
+    private static ScriptException asScriptException(String message, Exception cause) {
+        ScriptException exception = new ScriptException(message);
+        exception.initCause(cause);
+        return exception;
+    }
+
+    /**
+     * Runs the container, or all replicas at the same time. The output of each replica is prefixed by
+     * [replica index].
+     */
+    private int runDockerRunCommands(final ScriptContext context, List<ProcessBuilder> processBuildersRun)
+            throws Exception {
+        if (processBuildersRun.size() == 1) {
+            return runDockerRunCommand(context, processBuildersRun.get(0), containerNames.get(0), null);
+        }
+        List<Action> replicas = new ArrayList<>(processBuildersRun.size());
+        for (int index = 0; index < processBuildersRun.size(); index++) {
+            final ProcessBuilder processBuilderRun = processBuildersRun.get(index);
+            final String containerName = containerNames.get(index);
+            final String outputPrefix = "[replica " + (index + 1) + "] ";
+            replicas.add(() -> runDockerRunCommand(context, processBuilderRun, containerName, outputPrefix));
+        }
+        runConcurrently("replica", replicas, replicas.size());
+        return 0;
+    }
+
+    /**
+     * @param outputPrefix Prefix of each output line, null when the container is the only one. The task input
+     *                     is only attached to a single container.
+     */
+    private int runDockerRunCommand(ScriptContext context, ProcessBuilder processBuilderRun, String containerName,
+            String outputPrefix) throws IOException, InterruptedException, ScriptException {
         engineLogger.info("Running command: " + processBuilderRun.command());
+        PhaseExecution execution = evalResult.startAction(Phase.RUN, processBuilderRun.command());
+        Process processRun = null;
+        try {
+            if (dockerActions.contains(DockerFileCommandCreator.STOP_ARGUMENT)) {
+                registerContainer(containerName);
+            }
 
-        // Start process run
-        processRun = processBuilderRun.start();
+            // Start process run
+            processRun = processBuilderRun.start();
+            concurrentProcesses.add(processRun);
 
-        containerStarted = true;
+            containerStarted = true;
 
-        // Attach streams
-        processBuilderUtilities.attachStreamsToProcess(processRun,
-                                                       context.getWriter(),
-                                                       context.getErrorWriter(),
-                                                       context.getReader());
+            // Attach streams
+            attachStreams(processRun, execution, context, outputPrefix);
 
-        // Wait for process to exit
-        int exitValueRun = processRun.waitFor();
+            // Wait for process to exit
+            int exitValueRun = processRun.waitFor();
+            execution.finish(exitValueRun);
+            completedRuns.add(containerName);
 
-        processRun = null;
+            if (exitValueRun != 0) {
+                throw new ScriptException("Docker Run failed with exit code " + exitValueRun);
+            }
+            return exitValueRun;
+        } finally {
+            // Only taken into account if the process did not complete
+            execution.finish(null);
+            if (processRun != null) {
+                concurrentProcesses.remove(processRun);
+            }
+        }
+    }
 
-        if (exitValueRun != 0) {
-            throw new ScriptException("Docker Run failed with exit code " + exitValueRun);
+    /**
+     * Attaches the task output to a process, counted as output of the execution. When the output is prefixed,
+     * the process runs concurrently with others and the task input is not attached.
+     */
+    private void attachStreams(Process process, PhaseExecution execution, ScriptContext context,
+            String outputPrefix) {
+        if (outputPrefix == null) {
+            processBuilderUtilities.attachStreamsToProcess(process,
+                                                           execution.countOutput(context.getWriter()),
+                                                           execution.countOutput(context.getErrorWriter()),
+                                                           context.getReader());
+        } else {
+            processBuilderUtilities.attachStreamsToProcess(process,
+                                                           execution.countOutput(new LinePrefixWriter(context.getWriter(),
+                                                                                                      outputPrefix)),
+                                                           execution.countOutput(new LinePrefixWriter(context.getErrorWriter(),
+                                                                                                      outputPrefix)),
+                                                           null);
         }
-        return exitValueRun;
     }
 
-    private int runDockerExecCommand(ScriptContext context, ProcessBuilder processBuilderExec)
+    /**
+     * Executes independent actions, at most parallelism at the same time. They are all executed even if some
+     * of them fail.
+     *
+     * @param actionName Name of the actions in the logs and error message, e.g. exec.
+     */
+    private void runConcurrently(String actionName, List<Action> actions, int parallelism) throws Exception {
+        ActionGraph graph = new ActionGraph();
+        for (int index = 0; index < actions.size(); index++) {
+            graph.add(actionName + " " + (index + 1), actions.get(index));
+        }
+        try {
+            graph.execute(parallelism);
+        } catch (ScriptException e) {
+            int failed = 0;
+            for (String name : graph.getActionNames()) {
+                failed += graph.getState(name) == ActionState.FAILED ? 1 : 0;
+            }
+            throw new ScriptException(failed + " of " + actions.size() + " " + actionName +
+                                      " actions failed, first failure: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes the commands in the container, at most execParallelism at the same time. The output of each
+     * command is prefixed by [exec index] when there are several commands.
+     */
+    private int runDockerExecCommands(final ScriptContext context, List<ProcessBuilder> processBuildersExec)
+            throws Exception {
+        if (processBuildersExec.size() == 1) {
+            return runDockerExecCommand(context, processBuildersExec.get(0), null);
+        }
+        List<Action> execs = new ArrayList<>(processBuildersExec.size());
+        for (int index = 0; index < processBuildersExec.size(); index++) {
+            final ProcessBuilder processBuilderExec = processBuildersExec.get(index);
+            final String outputPrefix = "[" + DockerFileCommandCreator.EXEC_ARGUMENT + " " + (index + 1) + "] ";
+            execs.add(() -> runDockerExecCommand(context, processBuilderExec, outputPrefix));
+        }
+        runConcurrently(DockerFileCommandCreator.EXEC_ARGUMENT, execs, execParallelism);
+        return 0;
+    }
+
+    /**
+     * @param outputPrefix Prefix of each output line, null when the command is the only one. The task input
+     *                     is only attached to a single command.
+     */
+    private int runDockerExecCommand(ScriptContext context, ProcessBuilder processBuilderExec, String outputPrefix)
             throws IOException, InterruptedException, ScriptException {
         engineLogger.info("Running command: " + processBuilderExec.command());
+        PhaseExecution execution = evalResult.startAction(Phase.EXEC, processBuilderExec.command());
+        Process processExec = null;
+        try {
+            // Start process run
+            processExec = processBuilderExec.start();
+            concurrentProcesses.add(processExec);
 
-        // Start process run
-        processExec = processBuilderExec.start();
-
-        // Attach streams
-        processBuilderUtilities.attachStreamsToProcess(processExec,
-                                                       context.getWriter(),
-                                                       context.getErrorWriter(),
-                                                       context.getReader());
+            // Attach streams
+            attachStreams(processExec, execution, context, outputPrefix);
 
-        // Wait for process to exit
-        int exitValueExec = processExec.waitFor();
+            // Wait for process to exit
+            int exitValueExec = processExec.waitFor();
+            execution.finish(exitValueExec);
 
-        processExec = null;
+            if (exitValueExec != 0) {
+                throw new ScriptException("Docker Exec failed with exit code " + exitValueExec);
+            }
+            return exitValueExec;
+        } finally {
+            // Only taken into account if the process did not complete
+            execution.finish(null);
+            if (processExec != null) {
+                concurrentProcesses.remove(processExec);
+            }
+        }
+    }
 
-        if (exitValueExec != 0) {
-            throw new ScriptException("Docker Exec failed with exit code " + exitValueExec);
+    private void readImageId() {
+        if (!imageIdFile.isFile()) {
+            return;
+        }
+        try {
+            evalResult.setImageId(new String(Files.readAllBytes(imageIdFile.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            engineLogger.warn("Could not read the image id from " + imageIdFile + ": " + e.getMessage());
         }
-        return exitValueExec;
     }
 
     private int runDockerBuildCommand(ScriptContext context, ProcessBuilder processBuilderBuild)
             throws IOException, InterruptedException, ScriptException {
         engineLogger.info("Running command: " + processBuilderBuild.command());
-        // Start process build
-        processBuild = processBuilderBuild.start();
+        PhaseExecution execution = evalResult.startAction(Phase.BUILD, processBuilderBuild.command());
+        // The plain BuildKit progress tells which steps were cached
+        BuildCacheStatistics cacheStatistics = null;
+        try {
+            if (dockerActions.contains(DockerFileCommandCreator.RMI_ARGUMENT)) {
+                String dockerHost = DockerFilePropertyLoader.getInstance().getDockerHost();
+                imageRegistration = ResourceRegistry.getInstance()
+                                                    .registerImage(dockerFileCommandCreator.getDockerCommand(),
+                                                                   dockerHost,
+                                                                   imageTagName);
+            }
+
+            // Start process build
+            processBuild = processBuilderBuild.start();
 
-        imageCreated = true;
+            imageCreated = true;
 
-        // Attach streams
-        processBuilderUtilities.attachStreamsToProcess(processBuild,
-                                                       context.getWriter(),
-                                                       context.getErrorWriter(),
-                                                       context.getReader());
+            // Attach streams
+            Writer output = execution.countOutput(context.getWriter());
+            Writer errorOutput = execution.countOutput(context.getErrorWriter());
+            if (DockerFilePropertyLoader.getInstance().isBuildKit()) {
+                cacheStatistics = new BuildCacheStatistics();
+                output = cacheStatistics.parsing(output);
+                errorOutput = cacheStatistics.parsing(errorOutput);
+            }
+            processBuilderUtilities.attachStreamsToProcess(processBuild, output, errorOutput, context.getReader());
+
+            // Wait for process build to exit
+            int exitValueBuild = processBuild.waitFor();
+            execution.finish(exitValueBuild);
+
+            if (cacheStatistics != null) {
+                evalResult.setBuildSteps(cacheStatistics.getSteps());
+                evalResult.setBuildCachedSteps(cacheStatistics.getCachedSteps());
+                engineLogger.info("Build cache: " + cacheStatistics.getCachedSteps() + " of " +
+                                  cacheStatistics.getSteps() + " steps cached.");
+            }
 
-        // Wait for process build to exit
-        int exitValueBuild = processBuild.waitFor();
+            if (exitValueBuild != 0) {
+                throw new ScriptException("Docker File Build failed with exit code " + exitValueBuild);
+            }
+            readImageId();
+            mergeBuildCache();
 
-        if (exitValueBuild != 0) {
-            throw new ScriptException("Docker File Build failed with exit code " + exitValueBuild);
+            processBuild = null;
+            return exitValueBuild;
+        } finally {
+            // Only taken into account if the process did not complete
+            execution.finish(null);
+            if (cacheExportDirectory != null) {
+                BuildCacheDirectory.delete(cacheExportDirectory);
+            }
         }
+    }
 
-        processBuild = null;
-        return exitValueBuild;
+    private void mergeBuildCache() {
+        if (buildCache == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            buildCache.merge(cacheExportDirectory);
+            engineLogger.info("Build cache merged into " + buildCache.getDirectory() + " in " +
+                              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+        } catch (IOException e) {
+            // The image is built, only the next builds miss the cache
+            engineLogger.warn("Failed to merge the build cache into " + buildCache.getDirectory() + ": " +
+                              e.getMessage());
+        }
     }
 
     private void updateImageTagName(ScriptContext context) {
@@ -350,12 +895,54 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
 
     private void updateDockerActions(ScriptContext context) {
         dockerActions = new HashSet<>(Arrays.asList(DOCKER_ACTIONS_DEFAULT.split("\\s*,\\s*")));
+        actionsParallelism = DockerFilePropertyLoader.getInstance().getActionsParallelism();
         if (context.getBindings(ScriptContext.ENGINE_SCOPE).containsKey(SchedulerConstants.GENERIC_INFO_BINDING_NAME)) {
             Map<String, String> genericInfo = (Map<String, String>) context.getBindings(ScriptContext.ENGINE_SCOPE)
                                                                            .get(SchedulerConstants.GENERIC_INFO_BINDING_NAME);
             if (genericInfo.containsKey(DOCKER_ACTIONS_GI)) {
                 dockerActions = new HashSet<>(Arrays.asList(genericInfo.get(DOCKER_ACTIONS_GI).split("\\s*,\\s*")));
             }
+            actionsParallelism = getInteger(genericInfo, DOCKER_ACTIONS_PARALLELISM_GI, actionsParallelism);
+            execParallelism = getInteger(genericInfo,
+                                         DockerFileCommandCreator.DOCKER_EXEC_PARALLELISM_KEY,
+                                         actionsParallelism);
+            runReplicas = Math.max(1, getInteger(genericInfo, DockerFileCommandCreator.DOCKER_RUN_REPLICAS_KEY, 1));
+            pullPolicy = getPullPolicy(genericInfo);
+        } else {
+            execParallelism = actionsParallelism;
+            runReplicas = 1;
+            pullPolicy = getPullPolicy(Collections.<String, String> emptyMap());
+        }
+    }
+
+    /**
+     * The pull action always pulls the base images, unless a pull policy is given.
+     */
+    private PullPolicy getPullPolicy(Map<String, String> genericInfo) {
+        String name = genericInfo.get(DockerFileCommandCreator.DOCKER_PULL_POLICY_KEY);
+        if (name == null && dockerActions.contains(DockerFileCommandCreator.PULL_ARGUMENT)) {
+            return PullPolicy.ALWAYS;
+        }
+        if (name == null) {
+            name = DockerFilePropertyLoader.getInstance().getPullPolicy();
+        }
+        try {
+            return PullPolicy.fromName(name);
+        } catch (IllegalArgumentException e) {
+            engineLogger.warn("Invalid pull policy: " + name);
+            return PullPolicy.MISSING;
+        }
+    }
+
+    private int getInteger(Map<String, String> genericInfo, String key, int defaultValue) {
+        if (!genericInfo.containsKey(key)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(genericInfo.get(key).trim());
+        } catch (NumberFormatException e) {
+            engineLogger.warn("Invalid " + key + ": " + genericInfo.get(key));
+            return defaultValue;
         }
     }
 
@@ -404,36 +991,32 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
         return new DockerFileScriptEngineFactory();
     }
 
-    private void stopAndRemoveContainer(String containerTagName, ScriptContext context) throws ScriptException {
+    private void stopContainer(String containerTagName, ScriptContext context) throws ScriptException {
 
         // Create docker stop container command - a simple docker stop command 
         dockerStopCommand = dockerFileCommandCreator.createDockerStopExecutionCommand(containerTagName, bindings);
 
-        // Create docker remove container command - a simple docker rm command 
-        dockerRMCommand = dockerFileCommandCreator.createDockerRemoveExecutionCommand(containerTagName, bindings);
-
         // Create a process builder for stopping container
-        ProcessBuilder processBuilderStop = SingletonProcessBuilderFactory.getInstance()
-                                                                          .getProcessBuilder(dockerStopCommand);
-
-        // Create a process builder for removing container
-        ProcessBuilder processBuilderRM = SingletonProcessBuilderFactory.getInstance()
-                                                                        .getProcessBuilder(dockerRMCommand);
+        ProcessBuilder processBuilderStop = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                              .getProcessBuilder(dockerStopCommand));
 
         //build processStop
         int exitValue = 0;
         Process processStop;
+        PhaseExecution stopExecution = evalResult.startAction(Phase.STOP, processBuilderStop.command());
         try {
             engineLogger.info("Running command: " + processBuilderStop.command());
             processStop = processBuilderStop.start();
 
             processBuilderUtilities.attachStreamsToProcess(processStop,
-                                                           context.getWriter(),
-                                                           context.getErrorWriter(),
+                                                           stopExecution.countOutput(context.getWriter()),
+                                                           stopExecution.countOutput(context.getErrorWriter()),
                                                            context.getReader());
             exitValue = processStop.waitFor();
+            stopExecution.finish(exitValue);
 
         } catch (IOException | InterruptedException e) {
+            stopExecution.finish(null);
             e.printStackTrace(new PrintWriter(context.getErrorWriter()));
             ScriptException exception = new ScriptException("Error when running docker stop");
             exception.initCause(e);
@@ -443,20 +1026,64 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
         if (exitValue != 0) {
             throw new ScriptException("Docker stop failed with exit code " + exitValue);
         }
+    }
+
+    /**
+     * Kills a container of a cancelled evaluation, its removal is deferred. The container may have exited
+     * already, so a failure is only logged.
+     */
+    private void killContainer(String containerTagName, ScriptContext context) throws InterruptedException {
+        String[] dockerKillCommand = dockerFileCommandCreator.createDockerKillCommand(containerTagName);
+        ProcessBuilder processBuilderKill = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                              .getProcessBuilder(dockerKillCommand));
+        try {
+            engineLogger.info("Running command: " + processBuilderKill.command());
+            Process processKill = processBuilderKill.start();
+            processBuilderUtilities.attachStreamsToProcess(processKill,
+                                                           context.getWriter(),
+                                                           context.getErrorWriter(),
+                                                           context.getReader());
+            int exitValue = processKill.waitFor();
+            if (exitValue != 0) {
+                engineLogger.info("Docker kill of " + containerTagName + " exited with code " + exitValue);
+            }
+        } catch (IOException e) {
+            engineLogger.warn("Failed to kill container " + containerTagName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param force Whether the container is killed if it is running (rm -f), instead of being stopped first.
+     */
+    private void removeContainer(String containerTagName, ScriptContext context, boolean force)
+            throws ScriptException {
+
+        // Create docker remove container command - a simple docker rm command 
+        dockerRMCommand = dockerFileCommandCreator.createDockerRemoveExecutionCommand(containerTagName,
+                                                                                      bindings,
+                                                                                      force);
+
+        // Create a process builder for removing container
+        ProcessBuilder processBuilderRM = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                            .getProcessBuilder(dockerRMCommand));
 
         //build processRM
+        int exitValue = 0;
         Process processRM;
+        PhaseExecution rmExecution = evalResult.startAction(Phase.RM, processBuilderRM.command());
         try {
             engineLogger.info("Running command: " + processBuilderRM.command());
             processRM = processBuilderRM.start();
 
             processBuilderUtilities.attachStreamsToProcess(processRM,
-                                                           context.getWriter(),
-                                                           context.getErrorWriter(),
+                                                           rmExecution.countOutput(context.getWriter()),
+                                                           rmExecution.countOutput(context.getErrorWriter()),
                                                            context.getReader());
             exitValue = processRM.waitFor();
+            rmExecution.finish(exitValue);
 
         } catch (IOException | InterruptedException e) {
+            rmExecution.finish(null);
             e.printStackTrace(new PrintWriter(context.getErrorWriter()));
             ScriptException exception = new ScriptException("Error when running docker rm");
             exception.initCause(e);
@@ -474,21 +1101,24 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
         dockerRMICommand = dockerFileCommandCreator.createDockerRemoveImage(imageTagName, bindings);
 
         // Create a process builder for removing image
-        ProcessBuilder processBuilderRMI = SingletonProcessBuilderFactory.getInstance()
-                                                                         .getProcessBuilder(dockerRMICommand);
+        ProcessBuilder processBuilderRMI = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                             .getProcessBuilder(dockerRMICommand));
 
         Process processRMI;
         int exitValue = 0;
+        PhaseExecution rmiExecution = evalResult.startAction(Phase.RMI, processBuilderRMI.command());
         try {
             processRMI = processBuilderRMI.start();
 
             processBuilderUtilities.attachStreamsToProcess(processRMI,
-                                                           context.getWriter(),
-                                                           context.getErrorWriter(),
+                                                           rmiExecution.countOutput(context.getWriter()),
+                                                           rmiExecution.countOutput(context.getErrorWriter()),
                                                            context.getReader());
             exitValue = processRMI.waitFor();
+            rmiExecution.finish(exitValue);
 
         } catch (IOException | InterruptedException e) {
+            rmiExecution.finish(null);
             e.printStackTrace(new PrintWriter(context.getErrorWriter()));
             ScriptException exception = new ScriptException("Error when running docker rmi");
             exception.initCause(e);
@@ -500,12 +1130,35 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
         }
     }
 
-    private void handleShutdown(ScriptContext context) throws ScriptException {
-        // unfortunately shutdown hooks are not run on windows when the process is terminated using
-        // process.destroy(). At the moment, this issue cannot be solved and docker file tasks cannot
-        // be killed properly on windows in ProActive Scheduler task fork mode (which uses process.destroy()).
-        // see https://bugs.openjdk.java.net/browse/JDK-8056139
+    /**
+     * Creates a teardown step executed by the {@link DeferredCleanupQueue} once the evaluation is over. Its
+     * output is logged, the task output may already be closed when it runs.
+     */
+    private ResourceRegistry.Cleanup createDeferredStep(Phase phase, String[] command) {
+        ProcessBuilder processBuilder = environment.applyTo(SingletonProcessBuilderFactory.getInstance()
+                                                                                          .getProcessBuilder(command));
+        return DeferredCleanupQueue.dockerCommand(phase,
+                                                  processBuilder,
+                                                  null,
+                                                  evalResult.getJobId(),
+                                                  evalResult.getTaskId());
+    }
+
+    /**
+     * Removes the working directory, or keeps it with the Dockerfile if configured.
+     */
+    private void releaseScratchDirectory() {
+        if (scratchDirectory == null) {
+            return;
+        }
+        if (DockerFilePropertyLoader.getInstance().isKeepDockerFile()) {
+            scratchDirectory.keep();
+        } else {
+            scratchDirectory.close();
+        }
+    }
 
+    private void deleteFiles() {
         // Delete configuration file
         if (dockerfile != null && !DockerFilePropertyLoader.getInstance().isKeepDockerFile()) {
             boolean deleted = dockerfile.delete();
@@ -516,26 +1169,222 @@ public class DockerFileScriptEngine extends AbstractScriptEngine {
             }
         }
 
-        if (processBuild != null) {
-            processBuild.destroy();
+        if (imageIdFile != null && imageIdFile.exists() && !imageIdFile.delete()) {
+            engineLogger.warn("File: " + imageIdFile.getAbsolutePath() + " was not deleted.");
+        }
+    }
+
+    private void handleShutdown(ScriptContext context) throws ScriptException {
+        // unfortunately shutdown hooks are not run on windows when the process is terminated using
+        // process.destroy(). At the moment, this issue cannot be solved and docker file tasks cannot
+        // be killed properly on windows in ProActive Scheduler task fork mode (which uses process.destroy()).
+        // see https://bugs.openjdk.java.net/browse/JDK-8056139
+
+        destroyProcesses();
+
+        // Files are deleted while the container is stopped, the image is removed after the container. With
+        // deferred cleanups the evaluation waits neither for the containers nor for the image, and a cancelled
+        // evaluation only waits until its containers are killed.
+        boolean removeImage = imageCreated && dockerActions.contains(DockerFileCommandCreator.RMI_ARGUMENT);
+        boolean deferred = CleanupPropertyLoader.getInstance().isDeferred() || cancelled;
+        boolean asyncRmi = removeImage && (deferred || DockerFilePropertyLoader.getInstance().isAsyncRmi());
+        ActionGraph teardown = new ActionGraph();
+        teardown.add(DELETE_FILES_ACTION, this::deleteFiles);
+        List<ResourceRegistry.Cleanup> deferredSteps = new ArrayList<>();
+        // Containers are removed in parallel, the image once all of them are removed
+        int savedInvocations = 0;
+        List<String> removeActions = new ArrayList<>();
+        if (containerStarted && dockerActions.contains(DockerFileCommandCreator.STOP_ARGUMENT)) {
+            for (final String containerName : containerNames) {
+                String suffix = containerNames.size() > 1 ? " " + containerName : "";
+                String stopAction = DockerFileCommandCreator.STOP_ARGUMENT + suffix;
+                String removeAction = DockerFileCommandCreator.RM_ARGUMENT + suffix;
+                String killAction = DockerFileCommandCreator.KILL_ARGUMENT + suffix;
+                if (actionPlan != null && actionPlan.isAutoRemoveRun() && completedRuns.contains(containerName)) {
+                    // Started with --rm, docker removed the container when it exited
+                    savedInvocations += 2;
+                    continue;
+                }
+                // No grace period is needed when the container exited or the evaluation is cancelled, rm -f
+                // kills the container if it still runs
+                final boolean force = (actionPlan != null &&
+                                       (actionPlan.isAutoRemoveRun() || actionPlan.isForceRemove())) ||
+                                      cancelled || hasExited(containerName);
+                if (force) {
+                    savedInvocations += 1;
+                }
+                if (deferred) {
+                    if (cancelled) {
+                        teardown.add(killAction, () -> killContainer(containerName, context));
+                    } else if (!force) {
+                        String[] stopCommand = dockerFileCommandCreator.createDockerStopExecutionCommand(containerName,
+                                                                                                         bindings);
+                        deferredSteps.add(createDeferredStep(Phase.STOP, stopCommand));
+                    }
+                    String[] removeCommand = dockerFileCommandCreator.createDockerRemoveExecutionCommand(containerName,
+                                                                                                         bindings,
+                                                                                                         force);
+                    deferredSteps.add(createDeferredStep(Phase.RM, removeCommand));
+                } else if (force) {
+                    teardown.add(removeAction, () -> removeContainer(containerName, context, true));
+                } else {
+                    teardown.add(stopAction, () -> stopContainer(containerName, context));
+                    teardown.add(removeAction, () -> removeContainer(containerName, context, false), stopAction);
+                }
+                removeActions.add(removeAction);
+            }
+        }
+        if (evalResult != null) {
+            evalResult.setSavedInvocations(savedInvocations);
+        }
+        if (savedInvocations > 0) {
+            engineLogger.info("Fused docker actions, " + savedInvocations + " docker invocations saved.");
+        }
+        if (asyncRmi) {
+            deferredSteps.add(createDeferredStep(Phase.RMI,
+                                                 dockerFileCommandCreator.createDockerRemoveImage(imageTagName,
+                                                                                                  bindings)));
+        } else if (removeImage) {
+            teardown.add(DockerFileCommandCreator.RMI_ARGUMENT,
+                         () -> removeImage(imageTagName, context),
+                         removeActions.toArray(new String[removeActions.size()]));
+        }
+
+        PhaseExecution teardownExecution = evalResult.startAction(Phase.TEARDOWN);
+        try {
+            teardown.execute(actionsParallelism);
+            teardownExecution.finish(0);
+            engineLogger.info("Teardown completed in " +
+                              TimeUnit.NANOSECONDS.toMillis(teardownExecution.getDurationNanos()) + " ms.");
+            PhaseExecution cancellation = cancelExecution;
+            if (cancellation != null) {
+                cancellation.finish(0);
+                engineLogger.info("Containers killed " +
+                                  TimeUnit.NANOSECONDS.toMillis(cancellation.getDurationNanos()) +
+                                  " ms after the cancellation.");
+            }
+
+            if (!deferredSteps.isEmpty()) {
+                // The task output may be closed once eval returns, a cancelled evaluation abandons it
+                if (!cancelled && !processBuilderUtilities.awaitOutputDrained(OUTPUT_DRAIN_TIMEOUT_MILLIS)) {
+                    engineLogger.warn("Container output not drained after " + OUTPUT_DRAIN_TIMEOUT_MILLIS + " ms.");
+                }
+                flushSilently(context.getWriter());
+                flushSilently(context.getErrorWriter());
+                deferTeardown(deferredSteps, deferred);
+            }
+        } catch (ScriptException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw asScriptException("Error when removing the container and the image", e);
+        } finally {
+            // Only taken into account if the teardown failed
+            teardownExecution.finish(null);
+            if (cancelExecution != null) {
+                cancelExecution.finish(null);
+            }
+
+            if (environmentFile != null) {
+                environmentFile.close();
+            }
+
+            releaseScratchDirectory();
+
+            cleanLogger();
         }
+    }
 
-        if (processRun != null) {
-            processRun.destroy();
+    /**
+     * Registers the evaluation, its files and the containers it does not start itself. The containers and the
+     * image are registered before they are created.
+     */
+    private void registerResources() {
+        ResourceRegistry registry = ResourceRegistry.getInstance();
+        String name = getResourceName();
+        registrations.add(registry.register(ResourceRegistry.Kind.EVALUATION, name, this::cancel));
+        registrations.add(registry.register(ResourceRegistry.Kind.FILE, name, () -> {
+            deleteFiles();
+            if (environmentFile != null) {
+                environmentFile.close();
+            }
+            releaseScratchDirectory();
+        }));
+        if (!dockerActions.contains(DockerFileCommandCreator.RUN_ARGUMENT) &&
+            dockerActions.contains(DockerFileCommandCreator.STOP_ARGUMENT)) {
+            for (String containerName : containerNames) {
+                registerContainer(containerName);
+            }
         }
+    }
+
+    private void registerContainer(String containerName) {
+        containerRegistrations.add(ResourceRegistry.getInstance()
+                                                   .registerContainer(dockerFileCommandCreator.getDockerCommand(),
+                                                                      DockerFilePropertyLoader.getInstance()
+                                                                                              .getDockerHost(),
+                                                                      containerName));
+    }
 
-        if (processExec != null) {
-            processExec.destroy();
+    private void unregisterResources() {
+        for (Registration registration : registrations) {
+            registration.close();
         }
+        registrations.clear();
+        for (Registration registration : containerRegistrations) {
+            registration.close();
+        }
+        containerRegistrations.clear();
+        if (imageRegistration != null) {
+            imageRegistration.close();
+            imageRegistration = null;
+        }
+    }
 
-        if (containerStarted && dockerActions.contains(DockerFileCommandCreator.STOP_ARGUMENT)) {
-            stopAndRemoveContainer(containerTagName, context);
+    private String getResourceName() {
+        return evalResult.getJobId() + "/" + evalResult.getTaskId() + " " + imageTagName;
+    }
+
+    /**
+     * Marks the evaluation as cancelled and kills its docker clients with their descendants. The containers
+     * are then killed by the teardown, without grace period.
+     */
+    private synchronized void cancel() {
+        if (cancelled) {
+            return;
         }
+        cancelled = true;
+        cancelExecution = evalResult.startAction(Phase.CANCEL);
+        destroyProcesses();
+    }
 
-        if (imageCreated && dockerActions.contains(DockerFileCommandCreator.RMI_ARGUMENT)) {
-            removeImage(imageTagName, context);
+    private void destroyProcesses() {
+        Process build = processBuild;
+        if (build != null) {
+            ProcessTreeKiller.destroyTree(build);
+        }
+        for (Process concurrentProcess : concurrentProcesses) {
+            ProcessTreeKiller.destroyTree(concurrentProcess);
         }
+    }
+
+    /**
+     * @return Whether the container exited: it was started in the foreground and its docker run returned.
+     */
+    private boolean hasExited(String containerName) {
+        String runOptionsKey = DockerFileCommandCreator.DOCKER_RUN_COMMANDLINE_OPTIONS_KEY;
+        List<String> runOptions = dockerFileCommandCreator.getDockerCommandOptions(bindings, runOptionsKey);
+        return completedRuns.contains(containerName) &&
+               !dockerActions.contains(DockerFileCommandCreator.EXEC_ARGUMENT) &&
+               !DockerActionPlanner.isDetached(runOptions);
+    }
 
-        cleanLogger();
+    private static void flushSilently(Writer writer) {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // the task output is closed, nothing left to flush
+        }
     }
 }
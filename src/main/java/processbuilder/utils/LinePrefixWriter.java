@@ -0,0 +1,93 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package processbuilder.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * Writes each line prefixed to a writer shared with other processes, e.g. "[exec 2] ". Complete lines
+ * are written at once so that the lines of concurrent processes do not mix. The writer it forwards to is
+ * not closed.
+ */
+public class LinePrefixWriter extends Writer {
+
+    private final Writer output;
+
+    private final String prefix;
+
+    private final StringBuilder line = new StringBuilder();
+
+    // Whether the next character written to the output starts a line
+    private boolean atLineStart = true;
+
+    public LinePrefixWriter(Writer output, String prefix) {
+        this.output = output;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        synchronized (lock) {
+            for (int i = offset; i < offset + length; i++) {
+                line.append(buffer[i]);
+                if (buffer[i] == '\n') {
+                    writeLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending part of the current line, the rest of the line is written without prefix.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            if (line.length() > 0) {
+                writeLine();
+            }
+            output.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void writeLine() throws IOException {
+        synchronized (output) {
+            if (atLineStart) {
+                output.write(prefix);
+            }
+            output.write(line.toString());
+        }
+        atLineStart = line.charAt(line.length() - 1) == '\n';
+        line.setLength(0);
+    }
+}
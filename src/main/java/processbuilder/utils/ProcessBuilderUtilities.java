@@ -29,8 +29,14 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import jsr223.docker.compose.events.EngineEvents;
 import lombok.NoArgsConstructor;
 import lombok.extern.log4j.Log4j;
 
@@ -39,23 +45,63 @@ import lombok.extern.log4j.Log4j;
 @Log4j
 public class ProcessBuilderUtilities {
 
+    // Threads piping the output of the processes, until the processes close their output
+    private final Set<Thread> outputThreads = ConcurrentHashMap.newKeySet();
+
     /**
-     * Creates a thread which will constantly pipe data, only active when new data is available, from a source to an attached sink. After
-     * reaching the end of the source stream the @Thread will silently be destroyed.
+     * Creates a thread which will constantly pipe data, only active when new data is available, from a source
+     * to an attached sink. After reaching the end of the source stream the @Thread will silently be destroyed.
      *
      * @param source       Data source.
      * @param attachedSink Data sink.
      */
     private void attachToInputStream(final Reader source, final Writer attachedSink) {
-        new Thread() {
+        attachToInputStream(source, attachedSink, false);
+    }
+
+    /**
+     * Same as {@link #attachToInputStream(Reader, Writer)}, but closes the sink after the source is
+     * exhausted when closeSink is true.
+     *
+     * @param source       Data source.
+     * @param attachedSink Data sink.
+     * @param closeSink    Whether the sink is closed once all data is piped.
+     */
+    private void attachToInputStream(final Reader source, final Writer attachedSink, final boolean closeSink) {
+        attachToInputStream(source, attachedSink, closeSink, false);
+    }
+
+    /**
+     * @param output Whether the source is the output of a process, see {@link #awaitOutputDrained(long)}.
+     */
+    private void attachToInputStream(final Reader source, final Writer attachedSink, final boolean closeSink,
+            boolean output) {
+        Thread thread = new Thread() {
             public void run() {
                 try {
                     pipe(source, attachedSink);
                 } catch (IOException e) {
                     // silently terminate
+                } finally {
+                    if (closeSink) {
+                        closeSilently(attachedSink);
+                    }
+                    outputThreads.remove(this);
                 }
             }
-        }.start();
+        };
+        if (output) {
+            outputThreads.add(thread);
+        }
+        thread.start();
+    }
+
+    private static void closeSilently(Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // nothing to do, the process has already exited
+        }
     }
 
     /**
@@ -70,8 +116,10 @@ public class ProcessBuilderUtilities {
         char[] buff = new char[1024];
         int n = from.read(buff);
         while (n != -1) {
+            Object event = EngineEvents.beginPipeFlush();
             to.write(buff, 0, n);
             to.flush();
+            EngineEvents.commitPipeFlush(event, n);
             n = from.read(buff);
         }
         from.close();
@@ -89,12 +137,12 @@ public class ProcessBuilderUtilities {
             Reader processInput) {
         if (processOutput != null) {
             // Attach to std output
-            attachToInputStream(new InputStreamReader(process.getInputStream()), processOutput);
+            attachToInputStream(new InputStreamReader(process.getInputStream()), processOutput, false, true);
         }
 
         if (processError != null) {
             // Attach error output
-            attachToInputStream(new InputStreamReader(process.getErrorStream()), processError);
+            attachToInputStream(new InputStreamReader(process.getErrorStream()), processError, false, true);
         }
 
         if (processInput != null) {
@@ -102,4 +150,41 @@ public class ProcessBuilderUtilities {
             attachToInputStream(processInput, new OutputStreamWriter(process.getOutputStream()));
         }
     }
+
+    /**
+     * Waits until the output of the processes attached so far is piped to their sinks, e.g. before the
+     * evaluation returns while its processes have exited.
+     *
+     * @param timeoutMillis Maximum time to wait.
+     * @return Whether all output was piped.
+     */
+    public boolean awaitOutputDrained(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Thread outputThread : outputThreads) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            outputThread.join(remainingMillis);
+        }
+        return outputThreads.isEmpty();
+    }
+
+    /**
+     * Attaches standard and error writer to a process and streams the given content to the process input.
+     * The process input is closed after the content is written, which makes the process see the end of its
+     * input (e.g. docker-compose reading its configuration with "-f -").
+     *
+     * @param process       Process which to attach Output, Error and Input to.
+     * @param processOutput A data sink for the process standard output. If null nothing will ne attached.
+     * @param processError  A data sink for the process' error output. If null nothing will be attached.
+     * @param inputContent  Content written to the process input. Must not be null.
+     */
+    public void attachStreamsToProcessWithInputContent(Process process, Writer processOutput, Writer processError,
+            String inputContent) {
+        attachStreamsToProcess(process, processOutput, processError, null);
+        attachToInputStream(new StringReader(inputContent),
+                            new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8),
+                            true);
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package processbuilder.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.extern.log4j.Log4j;
+
+
+/**
+ * Kills a process together with its descendants, e.g. sudo and the docker client it started. Descendants are
+ * found with ProcessHandle, which is looked up by reflection since the engines also run on Java 8: there only
+ * the process itself is killed.
+ */
+@Log4j
+public class ProcessTreeKiller {
+
+    private static final Method TO_HANDLE;
+
+    private static final Method DESCENDANTS;
+
+    private static final Method DESTROY_FORCIBLY;
+
+    static {
+        Method toHandle = null;
+        Method descendants = null;
+        Method destroyForcibly = null;
+        try {
+            Class<?> processHandle = Class.forName("java.lang.ProcessHandle");
+            toHandle = Process.class.getMethod("toHandle");
+            descendants = processHandle.getMethod("descendants");
+            destroyForcibly = processHandle.getMethod("destroyForcibly");
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            log.debug("ProcessHandle is not available, only direct child processes are killed.");
+        }
+        TO_HANDLE = toHandle;
+        DESCENDANTS = descendants;
+        DESTROY_FORCIBLY = destroyForcibly;
+    }
+
+    private ProcessTreeKiller() {
+    }
+
+    public static boolean isTreeSupported() {
+        return TO_HANDLE != null;
+    }
+
+    /**
+     * Forcibly kills the descendants of a process, then the process. Descendants owned by another user (e.g.
+     * started by sudo) cannot be killed and are left to exit with their parent.
+     *
+     * @return The number of processes which were alive and asked to terminate.
+     */
+    public static int destroyTree(Process process) {
+        int destroyed = 0;
+        if (isTreeSupported()) {
+            try {
+                // Listed before the process is killed, its children are then reparented
+                Stream<?> descendantStream = (Stream<?>) DESCENDANTS.invoke(TO_HANDLE.invoke(process));
+                List<?> descendants = descendantStream.collect(Collectors.toList());
+                for (Object descendant : descendants) {
+                    if ((Boolean) DESTROY_FORCIBLY.invoke(descendant)) {
+                        destroyed++;
+                    }
+                }
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                log.debug("Failed to kill the descendants of a process: " + e.getMessage());
+            }
+        }
+        if (process.isAlive()) {
+            process.destroyForcibly();
+            destroyed++;
+        }
+        return destroyed;
+    }
+}
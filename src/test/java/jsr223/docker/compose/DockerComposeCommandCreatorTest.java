@@ -27,6 +27,7 @@ package jsr223.docker.compose;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.Collections;
@@ -146,6 +147,83 @@ public class DockerComposeCommandCreatorTest {
                             command[index++]);
     }
 
+    @Test
+    public void testDockerComposeCommandsReadFileFromStdin() {
+        List<String> upCommand = Arrays.asList(dockerCommandCreator.createDockerComposeExecutionCommand(getOptions(null,
+                                                                                                                    null),
+                                                                                                         true));
+        int indexOfFileOption = upCommand.indexOf(DockerComposeCommandCreator.FILENAME_ARGUMENT);
+        Assert.assertEquals(DockerComposeCommandCreator.STDIN_FILENAME, upCommand.get(indexOfFileOption + 1));
+        Assert.assertFalse(upCommand.contains(DockerComposeCommandCreator.YAML_FILE_NAME));
+
+        List<String> downCommand = Arrays.asList(dockerCommandCreator.createDockerComposeDownCommand(Collections.<String> emptyList(),
+                                                                                                     true));
+        indexOfFileOption = downCommand.indexOf(DockerComposeCommandCreator.FILENAME_ARGUMENT);
+        int indexOfDownArgument = downCommand.indexOf(DockerComposeCommandCreator.STOP_AND_REMOVE_CONTAINER_ARGUMENT);
+        assertTrue(indexOfFileOption < indexOfDownArgument);
+        Assert.assertEquals(DockerComposeCommandCreator.STDIN_FILENAME, downCommand.get(indexOfFileOption + 1));
+    }
+
+    @Test
+    public void testDockerComposeDownCommandWithStopTimeout() {
+        List<String> cmd = Arrays.asList(dockerCommandCreator.createDockerComposeDownCommand(Collections.<String> emptyList(),
+                                                                                             false,
+                                                                                             0));
+
+        int indexOfTimeout = cmd.indexOf(DockerComposeCommandCreator.TIMEOUT_OPTION);
+        assertTrue(indexOfTimeout > cmd.indexOf(DockerComposeCommandCreator.STOP_AND_REMOVE_CONTAINER_ARGUMENT));
+        Assert.assertEquals("0", cmd.get(indexOfTimeout + 1));
+    }
+
+    @Test
+    public void testDockerComposeKillCommand() {
+        List<String> generalOptions = Arrays.asList(DockerComposeCommandCreator.ENV_FILE_OPTION, "variables.env");
+        List<String> cmd = Arrays.asList(dockerCommandCreator.createDockerComposeKillCommand(generalOptions, true));
+
+        int indexOfKill = cmd.indexOf(DockerComposeCommandCreator.KILL_ARGUMENT);
+        Assert.assertEquals(cmd.size() - 1, indexOfKill);
+        assertTrue(cmd.indexOf(DockerComposeCommandCreator.ENV_FILE_OPTION) < indexOfKill);
+        assertTrue(cmd.indexOf(DockerComposeCommandCreator.FILENAME_ARGUMENT) < indexOfKill);
+        Assert.assertFalse(cmd.contains(DockerComposeCommandCreator.STOP_AND_REMOVE_CONTAINER_ARGUMENT));
+    }
+
+    @Test
+    public void testThatGeneralOptionsArePlacedBeforeDown() {
+        List<String> cmd = Arrays.asList(dockerCommandCreator.createDockerComposeDownCommand(Arrays.asList(DockerComposeCommandCreator.ENV_FILE_OPTION,
+                                                                                                           "variables.env"),
+                                                                                             false));
+
+        int indexOfDown = cmd.indexOf(DockerComposeCommandCreator.STOP_AND_REMOVE_CONTAINER_ARGUMENT);
+        int indexOfEnvFile = cmd.indexOf(DockerComposeCommandCreator.ENV_FILE_OPTION);
+
+        assertTrue(indexOfEnvFile >= 0 && indexOfEnvFile < indexOfDown);
+        Assert.assertEquals("variables.env", cmd.get(indexOfEnvFile + 1));
+    }
+
+    @Test
+    public void testProjectName() {
+        File workingDirectory = new File("/tmp/Jsr223-Docker.Scratch");
+        Map<String, String> environment = Collections.singletonMap(DockerComposeCommandCreator.PROJECT_NAME_ENVIRONMENT_VARIABLE,
+                                                                   "from-environment");
+
+        Assert.assertEquals("jsr223-dockerscratch",
+                            dockerCommandCreator.getProjectName(Collections.<String> emptyList(),
+                                                                Collections.<String, String> emptyMap(),
+                                                                workingDirectory));
+        Assert.assertEquals("from-environment",
+                            dockerCommandCreator.getProjectName(Collections.<String> emptyList(),
+                                                                environment,
+                                                                workingDirectory));
+        Assert.assertEquals("myproject",
+                            dockerCommandCreator.getProjectName(Arrays.asList("-p", "MyProject"),
+                                                                environment,
+                                                                workingDirectory));
+        Assert.assertEquals("other",
+                            dockerCommandCreator.getProjectName(Arrays.asList("--project-name=other"),
+                                                                environment,
+                                                                workingDirectory));
+    }
+
     private int checkSudoAndComposeCommand(String[] command, int index) {
         // Check for sudo command
         if (DockerComposePropertyLoader.getInstance().isUseSudo()) {
@@ -161,6 +239,23 @@ public class DockerComposeCommandCreatorTest {
         return index;
     }
 
+    @Test
+    public void testPullOptionIsOnlySupportedFromDockerCompose2() {
+        assertTrue(DockerComposeCommandCreator.supportsPullOption("Docker Compose version v2.24.6"));
+        String composeV1Version = "docker-compose version 1.29.2, build 5becea4c";
+        Assert.assertFalse(DockerComposeCommandCreator.supportsPullOption(composeV1Version));
+        Assert.assertFalse(DockerComposeCommandCreator.supportsPullOption(""));
+    }
+
+    @Test
+    public void testExitOptions() {
+        Assert.assertEquals(Arrays.asList(DockerComposeCommandCreator.EXIT_CODE_FROM_OPTION, "app"),
+                            DockerComposeCommandCreator.createExitOptions("app", true));
+        Assert.assertEquals(Collections.singletonList(DockerComposeCommandCreator.ABORT_ON_CONTAINER_EXIT_OPTION),
+                            DockerComposeCommandCreator.createExitOptions(null, true));
+        assertTrue(DockerComposeCommandCreator.createExitOptions(null, false).isEmpty());
+    }
+
     private Map<OptionType, List<String>> getOptions(List<String> generalOptions, List<String> upOptions) {
         Map<OptionType, List<String>> options = new EnumMap<OptionType, List<String>>(OptionType.class);
         if (generalOptions != null) {
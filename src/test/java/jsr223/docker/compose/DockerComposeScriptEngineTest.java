@@ -31,8 +31,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
@@ -49,6 +60,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 
 import jsr223.docker.compose.utils.DockerComposePropertyLoader;
+import jsr223.docker.compose.utils.ScratchDirectoryManager;
 
 
 public class DockerComposeScriptEngineTest {
@@ -134,4 +146,53 @@ public class DockerComposeScriptEngineTest {
 
         Assert.assertTrue("Captured output should appear", output.toString().contains(capturedOutput));
     }
+
+    @Test
+    public void testFilesOfServicesLeftRunningAreKept() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        File root = Files.createTempDir();
+        // Succeeds for up -d and lists no container, so the services are ready at once
+        File composeCommand = new File(root, "fake-compose");
+        Files.write("#!/bin/sh\nexit 0\n", composeCommand, StandardCharsets.UTF_8);
+        composeCommand.setExecutable(true);
+        File scratchRoot = new File(root, "scratch");
+
+        DockerComposePropertyLoader properties = DockerComposePropertyLoader.getInstance();
+        String previousScratchRoot = properties.getScratchRoot();
+        boolean previousUseStdin = properties.isUseStdin();
+        boolean previousPrefetchImages = properties.isPrefetchImages();
+        properties.setDockerComposeCommand(composeCommand.getAbsolutePath());
+        properties.setScratchRoot(scratchRoot.getAbsolutePath());
+        properties.setUseStdin(false);
+        properties.setPrefetchImages(false);
+        properties.setDetached(true);
+        properties.setKeepDockerFile(false);
+        try {
+            ScriptContext context = new SimpleScriptContext();
+            Bindings bindings = new SimpleBindings();
+            bindings.put(SchedulerConstants.GENERIC_INFO_BINDING_NAME, Collections.emptyMap());
+            context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+            context.setReader(new StringReader(""));
+            context.setWriter(new StringWriter());
+            context.setErrorWriter(new StringWriter());
+
+            new DockerComposeScriptEngine().eval("helloworld:\n    image: busybox\n", context);
+
+            // The working directory holds the yaml file and the relative bind mount sources
+            File[] directories = scratchRoot.listFiles(File::isDirectory);
+            Assert.assertEquals(1, directories.length);
+            Assert.assertTrue(new File(directories[0], DockerComposeCommandCreator.YAML_FILE_NAME).exists());
+            ScratchDirectoryManager manager = new ScratchDirectoryManager(scratchRoot.getAbsolutePath());
+            Assert.assertEquals(0, manager.sweepStaleDirectories());
+        } finally {
+            properties.setDockerComposeCommand("docker-compose");
+            properties.setScratchRoot(previousScratchRoot);
+            properties.setUseStdin(previousUseStdin);
+            properties.setPrefetchImages(previousPrefetchImages);
+            properties.setDetached(false);
+            try (Stream<Path> paths = java.nio.file.Files.walk(root.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
 }
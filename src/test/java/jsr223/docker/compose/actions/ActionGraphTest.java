@@ -0,0 +1,115 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.actions;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class ActionGraphTest {
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+    private Action record(final String name) {
+        return () -> executed.add(name);
+    }
+
+    @Test
+    public void testActionsRunInDependencyOrderInTheCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        ActionGraph graph = new ActionGraph();
+        graph.add("build", record("build"));
+        graph.add("run", () -> {
+            assertThat(Thread.currentThread(), is(caller));
+            executed.add("run");
+        }, "build");
+        graph.add("exec", record("exec"), "run", "absent");
+
+        graph.execute(1);
+
+        assertThat(executed, is(Arrays.asList("build", "run", "exec")));
+        assertThat(graph.getState("exec"), is(ActionState.SUCCEEDED));
+    }
+
+    @Test
+    public void testIndependentActionsOverlap() throws Exception {
+        // Each action waits for the other one, which only completes if they run at the same time
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        Action waitForOther = () -> {
+            bothStarted.countDown();
+            if (!bothStarted.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Actions did not overlap");
+            }
+        };
+        ActionGraph graph = new ActionGraph();
+        graph.add("delete-files", waitForOther);
+        graph.add("stop", waitForOther);
+        graph.add("rm", record("rm"), "stop");
+
+        graph.execute(2);
+
+        assertThat(executed, is(Collections.singletonList("rm")));
+    }
+
+    @Test
+    public void testDependentsOfAFailedActionAreSkipped() throws Exception {
+        ActionGraph graph = new ActionGraph();
+        graph.add("stop", () -> {
+            throw new IOException("stop failed");
+        });
+        graph.add("delete-files", record("delete-files"));
+        graph.add("rm", record("rm"), "stop");
+        graph.add("rmi", record("rmi"), "rm");
+
+        try {
+            graph.execute(4);
+            Assert.fail("The failure of stop should be thrown");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("stop failed"));
+        }
+
+        assertThat(executed, is(Collections.singletonList("delete-files")));
+        assertThat(graph.getState("stop"), is(ActionState.FAILED));
+        assertThat(graph.getState("rm"), is(ActionState.SKIPPED));
+        assertThat(graph.getState("rmi"), is(ActionState.SKIPPED));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testActionNamesAreUnique() {
+        new ActionGraph().add("build", record("build")).add("build", record("build"));
+    }
+}
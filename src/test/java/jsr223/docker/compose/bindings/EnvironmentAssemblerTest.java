@@ -0,0 +1,178 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.bindings;
+
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import jsr223.docker.compose.bindings.EnvironmentAssembler.Environment;
+import jsr223.docker.compose.file.write.EnvironmentFileFormat;
+import jsr223.docker.compose.yaml.VariablesReplacer;
+
+
+public class EnvironmentAssemblerTest {
+
+    private final StringBindingsAdder stringBindingsAdder = new StringBindingsAdder(new MapBindingsAdder());
+
+    private final EnvironmentAssembler environmentAssembler = new EnvironmentAssembler(stringBindingsAdder);
+
+    @BeforeClass
+    public static void before() {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.INFO);
+    }
+
+    @Test
+    public void testDeltaContainsBindingsAndEngineVariables() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("name", "EchoUbuntu");
+        Map<String, String> variables = new HashMap<>();
+        variables.put("greetings", "Hello World");
+        bindings.put("variables", variables);
+
+        Environment environment = environmentAssembler.assemble(bindings,
+                                                                Collections.singletonMap("DOCKER_HOST",
+                                                                                         "tcp://localhost:2375"));
+
+        assertThat(environment.getDelta().size(), is(3));
+        assertThat(environment.getDelta(), hasEntry("name", "EchoUbuntu"));
+        assertThat(environment.getDelta(), hasEntry("greetings", "Hello World"));
+        assertThat(environment.getDelta(), hasEntry("DOCKER_HOST", "tcp://localhost:2375"));
+    }
+
+    @Test
+    public void testEngineVariablesOverrideBindings() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("DOCKER_HOST", "from-binding");
+
+        Environment environment = environmentAssembler.assemble(bindings,
+                                                                Collections.singletonMap("DOCKER_HOST", "from-engine"));
+
+        assertThat(environment.getDelta(), hasEntry("DOCKER_HOST", "from-engine"));
+    }
+
+    @Test
+    public void testVariablesUnchangedFromBaseEnvironmentAreNotInDelta() {
+        Map<String, String> base = EnvironmentAssembler.getBaseEnvironment();
+        Bindings bindings = new SimpleBindings();
+        bindings.putAll(base);
+
+        Environment environment = environmentAssembler.assemble(bindings, null);
+
+        assertThat(environment.getDelta().isEmpty(), is(true));
+        assertThat(environment.getVariables(), is((Map<String, String>) new HashMap<>(base)));
+    }
+
+    @Test
+    public void testEmptyVariablesAreSetInTheProcesses() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("UNSET_AND_EMPTY_VARIABLE", "");
+
+        Environment environment = environmentAssembler.assemble(bindings, null);
+
+        assertThat(environment.getDelta(), hasEntry("UNSET_AND_EMPTY_VARIABLE", ""));
+        assertThat(environment.applyTo(new ProcessBuilder("docker")).environment(),
+                   hasEntry("UNSET_AND_EMPTY_VARIABLE", ""));
+    }
+
+    @Test
+    public void testEmptyVariablesAreStillSubstituted() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("EMPTY_BINDING_VARIABLE", "");
+
+        Environment environment = environmentAssembler.assemble(bindings,
+                                                                Collections.singletonMap("EMPTY_ENGINE_VARIABLE",
+                                                                                         ""));
+
+        assertThat(new VariablesReplacer().replaceVariables("a$EMPTY_BINDING_VARIABLE-$EMPTY_ENGINE_VARIABLE",
+                                                            environment.getVariables()),
+                   is("a-"));
+    }
+
+    @Test
+    public void testDeltaIsAppliedToProcessBuilder() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("name", "EchoUbuntu");
+        Environment environment = environmentAssembler.assemble(bindings, null);
+
+        ProcessBuilder processBuilder = environment.applyTo(new ProcessBuilder("docker"));
+
+        assertThat(processBuilder.environment(), hasEntry("name", "EchoUbuntu"));
+        assertThat(environment.getVariables(), hasEntry("name", "EchoUbuntu"));
+        assertThat(environment.getVariables().size(), is(EnvironmentAssembler.getBaseEnvironment().size() + 1));
+    }
+
+    @Test
+    public void testRepresentableBindingsAreMovedToTheEnvironmentFile() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("name", "EchoUbuntu");
+        bindings.put("multiline", "two\nlines");
+        bindings.put("DOCKER_HOST", "from-binding");
+
+        Environment environment = environmentAssembler.assemble(bindings,
+                                                                Collections.singletonMap("DOCKER_HOST",
+                                                                                         "tcp://localhost:2375"),
+                                                                EnvironmentFileFormat.DOCKER);
+
+        assertThat(environment.getFileVariables().size(), is(1));
+        assertThat(environment.getFileVariables(), hasEntry("name", "EchoUbuntu"));
+        assertThat(environment.getDelta().size(), is(2));
+        assertThat(environment.getDelta(), hasEntry("multiline", "two\nlines"));
+        assertThat(environment.getDelta(), hasEntry("DOCKER_HOST", "tcp://localhost:2375"));
+        assertThat(environment.getVariables(), hasEntry("name", "EchoUbuntu"));
+    }
+
+    @Test
+    public void testProcessVariablesAreNotMovedToTheEnvironmentFile() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put("name", "EchoUbuntu");
+        bindings.put("VERSION", "1.0");
+
+        Environment environment = environmentAssembler.assemble(bindings,
+                                                                null,
+                                                                EnvironmentFileFormat.DOCKER,
+                                                                Collections.singleton("VERSION"));
+
+        assertThat(environment.getFileVariables().size(), is(1));
+        assertThat(environment.getFileVariables(), hasEntry("name", "EchoUbuntu"));
+        assertThat(environment.getDelta(), hasEntry("VERSION", "1.0"));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class CleanupJournalTest {
+
+    private Path directory;
+
+    private CleanupJournal journal;
+
+    @Before
+    public void createJournal() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        journal = new CleanupJournal(directory, "owner");
+    }
+
+    @After
+    public void deleteJournal() throws IOException {
+        journal.delete();
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testReleasedResourcesAreNotPending() throws IOException {
+        journal.created(1, new CleanupJournal.Record(ResourceRegistry.Kind.CONTAINER,
+                                                     "",
+                                                     "container",
+                                                     Arrays.asList("sudo", "docker")));
+        journal.created(2, new CleanupJournal.Record(ResourceRegistry.Kind.IMAGE,
+                                                     "tcp://host:2375",
+                                                     "image",
+                                                     Collections.singletonList("docker")));
+        journal.released(1);
+
+        List<CleanupJournal.Record> pending = CleanupJournal.readPending(journal.getFile());
+
+        assertThat(pending.size(), is(1));
+        assertThat(pending.get(0).getKind(), is(ResourceRegistry.Kind.IMAGE));
+        assertThat(pending.get(0).getDockerHost(), is("tcp://host:2375"));
+        assertThat(pending.get(0).getName(), is("image"));
+        assertThat(pending.get(0).getDockerCommand(), is(Collections.singletonList("docker")));
+    }
+
+    private static CleanupJournal.Record container(String name) {
+        return new CleanupJournal.Record(ResourceRegistry.Kind.CONTAINER,
+                                         "",
+                                         name,
+                                         Collections.singletonList("docker"));
+    }
+
+    @Test
+    public void testJournalIsEmptiedOnceAllResourcesAreReleased() throws IOException {
+        journal.created(1, container("first"));
+        journal.created(2, container("second"));
+        journal.released(2);
+        journal.released(1);
+
+        assertThat(Files.size(journal.getFile()), is(0L));
+
+        journal.created(3, container("third"));
+
+        assertThat(CleanupJournal.readPending(journal.getFile()).get(0).getName(), is("third"));
+    }
+
+    @Test
+    public void testJournalIsCompactedAndStaysLocked() throws IOException {
+        journal.created(0, container("long-running"));
+        for (int id = 1; id <= 1000; id++) {
+            journal.created(id, container("container-" + id));
+            journal.released(id);
+        }
+
+        List<String> lines = Files.readAllLines(journal.getFile(), StandardCharsets.UTF_8);
+        assertThat(lines.size() < 1000, is(true));
+        List<CleanupJournal.Record> pending = CleanupJournal.readPending(journal.getFile());
+        assertThat(pending.size(), is(1));
+        assertThat(pending.get(0).getName(), is("long-running"));
+        assertThat(directory.toFile().list().length, is(1));
+
+        // The orphan reaper of another JVM must still see the owner alive
+        try (FileChannel channel = FileChannel.open(journal.getFile(), StandardOpenOption.WRITE)) {
+            channel.tryLock();
+            throw new AssertionError("The compacted journal should be locked");
+        } catch (OverlappingFileLockException e) {
+            // Locked by this JVM
+        }
+    }
+
+    @Test
+    public void testJournalIsLockedWhenItAppears() throws IOException {
+        journal.created(1, container("container"));
+
+        assertThat(directory.toFile().list(), is(new String[] { "owner" + CleanupJournal.JOURNAL_SUFFIX }));
+        try (FileChannel channel = FileChannel.open(journal.getFile(), StandardOpenOption.WRITE)) {
+            channel.tryLock();
+            throw new AssertionError("The created journal should be locked");
+        } catch (OverlappingFileLockException e) {
+            // Locked by this JVM
+        }
+        assertThat(CleanupJournal.readPending(journal.getFile()).get(0).getName(), is("container"));
+    }
+
+    @Test
+    public void testTruncatedLineIsIgnored() throws IOException {
+        Path file = directory.resolve("killed" + CleanupJournal.JOURNAL_SUFFIX);
+        Files.write(file,
+                    "+\t1\tCONTAINER\t\tcontainer\tdocker\n+\t2\tIMA".getBytes(StandardCharsets.UTF_8));
+
+        List<CleanupJournal.Record> pending = CleanupJournal.readPending(file);
+
+        assertThat(pending.size(), is(1));
+        assertThat(pending.get(0).getName(), is("container"));
+        assertThat(CleanupJournal.getOwner(file), is("killed"));
+    }
+
+    @Test
+    public void testOwnJournalIsNotListed() throws IOException {
+        journal.created(1, container("container"));
+        Files.createFile(directory.resolve("killed" + CleanupJournal.JOURNAL_SUFFIX));
+
+        assertThat(journal.listOtherJournals(),
+                   is(Collections.singletonList(directory.resolve("killed" + CleanupJournal.JOURNAL_SUFFIX))));
+    }
+
+    @Test
+    public void testLabelsOmitUnknownIds() {
+        assertThat(journal.createLabels("dockerfile", "7", null).keySet(),
+                   is(new LinkedHashSet<>(Arrays.asList(CleanupJournal.OWNER_LABEL,
+                                                                  CleanupJournal.ENGINE_LABEL,
+                                                                  CleanupJournal.JOB_LABEL))));
+    }
+}
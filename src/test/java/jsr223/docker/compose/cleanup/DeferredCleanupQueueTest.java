@@ -0,0 +1,175 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jsr223.docker.compose.metrics.Phase;
+import org.junit.Test;
+
+
+public class DeferredCleanupQueueTest {
+
+    @Test
+    public void testTeardownIsExecutedByAWorker() throws Exception {
+        DeferredCleanupQueue queue = new DeferredCleanupQueue(1, 2, 10000);
+        final CountDownLatch executed = new CountDownLatch(1);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+
+        boolean deferred = queue.submit("teardown",
+                                        Collections.<ResourceRegistry.Cleanup> singletonList(() -> {
+                                            threads.add(Thread.currentThread().getName());
+                                            executed.countDown();
+                                        }),
+                                        Collections.<ResourceRegistry.Registration> emptyList());
+
+        assertThat(deferred, is(true));
+        assertThat(executed.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(threads.get(0).startsWith("jsr223-docker-deferred-cleanup-"), is(true));
+    }
+
+    @Test
+    public void testFullQueueExecutesTheTeardownInTheCaller() throws Exception {
+        DeferredCleanupQueue queue = new DeferredCleanupQueue(1, 1, 10000);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.submit("blocking",
+                     Collections.<ResourceRegistry.Cleanup> singletonList(release::await),
+                     Collections.<ResourceRegistry.Registration> emptyList());
+        final List<String> threads = new ArrayList<>();
+
+        ResourceRegistry.Cleanup recordThread = () -> threads.add(Thread.currentThread().getName());
+
+        boolean deferred = queue.submit("teardown",
+                                        Collections.singletonList(recordThread),
+                                        Collections.<ResourceRegistry.Registration> emptyList());
+
+        assertThat(deferred, is(false));
+        assertThat(threads, is(Collections.singletonList(Thread.currentThread().getName())));
+        assertThat(queue.getPending(), is(1));
+        release.countDown();
+    }
+
+    @Test
+    public void testEvaluationWaitsForCapacity() throws Exception {
+        DeferredCleanupQueue queue = new DeferredCleanupQueue(1, 1, 10000);
+        queue.submit("slow",
+                     Collections.<ResourceRegistry.Cleanup> singletonList(() -> Thread.sleep(300)),
+                     Collections.<ResourceRegistry.Registration> emptyList());
+
+        long waited = queue.awaitCapacity();
+
+        assertThat(waited >= 200, is(true));
+        assertThat(queue.awaitCapacity() < 200, is(true));
+    }
+
+    @Test
+    public void testEvaluationWaitIsBoundedByTheTimeout() throws Exception {
+        DeferredCleanupQueue queue = new DeferredCleanupQueue(1, 1, 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.submit("blocking",
+                     Collections.<ResourceRegistry.Cleanup> singletonList(release::await),
+                     Collections.<ResourceRegistry.Registration> emptyList());
+
+        long waited = queue.awaitCapacity();
+
+        assertThat(waited >= 100 && waited < 5000, is(true));
+        release.countDown();
+    }
+
+    @Test
+    public void testRegistrationsAreKeptUntilTheTeardownSucceeded() throws Exception {
+        ResourceRegistry registry = new ResourceRegistry(1, 50, null);
+        ResourceRegistry.Registration failed = registry.register(ResourceRegistry.Kind.EVALUATION, "failed", () -> {
+        });
+        ResourceRegistry.Registration succeeded = registry.register(ResourceRegistry.Kind.EVALUATION,
+                                                                    "succeeded",
+                                                                    () -> {
+                                                                    });
+
+        assertThat(DeferredCleanupQueue.execute("failed",
+                                                Arrays.<ResourceRegistry.Cleanup> asList(() -> {
+                                                    throw new IOException("failed");
+                                                }, () -> {
+                                                }),
+                                                Collections.singletonList(failed)),
+                   is(false));
+        assertThat(registry.size(), is(2));
+
+        assertThat(DeferredCleanupQueue.execute("succeeded",
+                                                Collections.<ResourceRegistry.Cleanup> singletonList(() -> {
+                                                }),
+                                                Collections.singletonList(succeeded)),
+                   is(true));
+        assertThat(registry.size(), is(1));
+    }
+
+    @Test
+    public void testAllStepsAreExecutedWhenOneFails() throws Exception {
+        final List<String> steps = new ArrayList<>();
+
+        DeferredCleanupQueue.execute("teardown", Arrays.<ResourceRegistry.Cleanup> asList(() -> {
+            steps.add("stop");
+            throw new IOException("failed");
+        }, () -> steps.add("rm")), Collections.<ResourceRegistry.Registration> emptyList());
+
+        assertThat(steps, is(Arrays.asList("stop", "rm")));
+    }
+
+    @Test
+    public void testDockerCommandFailsWithTheExitCode() throws Exception {
+        ResourceRegistry.Cleanup succeeding = DeferredCleanupQueue.dockerCommand(Phase.DOWN,
+                                                                                 new ProcessBuilder("sh",
+                                                                                                    "-c",
+                                                                                                    "cat"),
+                                                                                 "services: {}",
+                                                                                 "1",
+                                                                                 "2");
+        ResourceRegistry.Cleanup failing = DeferredCleanupQueue.dockerCommand(Phase.RM,
+                                                                              new ProcessBuilder("sh",
+                                                                                                 "-c",
+                                                                                                 "echo gone; exit 3"),
+                                                                              null,
+                                                                              "1",
+                                                                              "2");
+
+        succeeding.cleanUp();
+        try {
+            failing.cleanUp();
+            throw new AssertionError("The command should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage().contains("exit code 3: gone"), is(true));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class OrphanReaperTest {
+
+    private Path directory;
+
+    private File log;
+
+    private File docker;
+
+    private CleanupJournal aliveJournal;
+
+    @Before
+    public void createDocker() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        log = File.createTempFile("docker", ".log");
+        docker = File.createTempFile("docker", ".sh");
+        // Lists the journaled container and image of the killed owner, another container and image it kept,
+        // and a container and a network of the project
+        String script = "echo \"$*\" >> " + log.getAbsolutePath() + "\n" +
+                        "case \"$*\" in\n" +
+                        "  *'ps -a'*owner=killed*'name=^/?container_7t1$'*) echo c1;;\n" +
+                        "  *'ps -a'*owner=killed*) echo kept_container;;\n" +
+                        "  *'ps -a'*project=project*) echo p1;;\n" +
+                        "  images*owner=killed*reference=image_7t1*) echo i1; echo i1;;\n" +
+                        "  images*owner=killed*) echo kept_image;;\n" +
+                        "  'network ls'*) echo n1;;\n" +
+                        "  'container inspect'*) shift 5; for id in \"$@\"; do echo 10; done;;\n" +
+                        "  'image inspect'*) shift 4; for id in \"$@\"; do echo 100; done;;\n" +
+                        "esac\n";
+        Files.write(docker.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        aliveJournal = new CleanupJournal(directory, "alive");
+    }
+
+    @After
+    public void deleteDocker() {
+        aliveJournal.delete();
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        directory.toFile().delete();
+        log.delete();
+        docker.delete();
+    }
+
+    private String record(long id, ResourceRegistry.Kind kind, String name) {
+        return "+\t" + id + "\t" + kind + "\t\t" + name + "\tsh\t" + docker.getAbsolutePath() + "\n";
+    }
+
+    @Test
+    public void testResourcesOfKilledOwnerAreRemoved() throws IOException {
+        Path killedJournal = directory.resolve("killed" + CleanupJournal.JOURNAL_SUFFIX);
+        Files.write(killedJournal,
+                    (record(1, ResourceRegistry.Kind.IMAGE, "image_7t1") +
+                     record(2, ResourceRegistry.Kind.CONTAINER, "container_7t1") +
+                     record(3, ResourceRegistry.Kind.COMPOSE_PROJECT, "project")).getBytes(StandardCharsets.UTF_8));
+        aliveJournal.created(1, new CleanupJournal.Record(ResourceRegistry.Kind.CONTAINER,
+                                                          "",
+                                                          "running",
+                                                          Arrays.asList("sh", docker.getAbsolutePath())));
+
+        OrphanReaper.Result result = new OrphanReaper(new CleanupJournal(directory, "self"), 2, 50, 10000).reap();
+
+        assertThat(result.getJournals(), is(1));
+        assertThat(result.getFound(), is(4));
+        assertThat(result.getRemoved(), is(4));
+        assertThat(result.getBytes(), is(120L));
+        assertThat(Files.exists(killedJournal), is(false));
+        assertThat(Files.exists(aliveJournal.getFile()), is(true));
+
+        List<String> commands = Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+        // Containers are removed in one batch, before the image and the network
+        assertThat(commands.contains("rm -f p1 c1"), is(true));
+        assertThat(commands.indexOf("rm -f p1 c1") < commands.indexOf("rmi i1"), is(true));
+        assertThat(commands.contains("network rm n1"), is(true));
+        // Resources of the owner which were not journaled are kept
+        for (String command : commands) {
+            assertThat(command, command.contains("kept"), is(false));
+        }
+    }
+
+    @Test
+    public void testOwnedFiltersMatchTheJournaledNamesExactly() {
+        assertThat(OrphanReaper.createOwnedFilters(ResourceRegistry.Kind.CONTAINER,
+                                                   "killed",
+                                                   Arrays.asList("container_7t1", "web.1")),
+                   is(Arrays.asList("label=" + CleanupJournal.OWNER_LABEL + "=killed",
+                                    "name=^/?container_7t1$",
+                                    "name=^/?web\\.1$")));
+        assertThat(OrphanReaper.createOwnedFilters(ResourceRegistry.Kind.IMAGE,
+                                                   "killed",
+                                                   Collections.singletonList("image_7t1")),
+                   is(Arrays.asList("label=" + CleanupJournal.OWNER_LABEL + "=killed", "reference=image_7t1")));
+    }
+
+    @Test
+    public void testReleasedJournalIsDeletedWithoutDockerCommands() throws IOException {
+        Path killedJournal = directory.resolve("killed" + CleanupJournal.JOURNAL_SUFFIX);
+        String content = record(1, ResourceRegistry.Kind.CONTAINER, "container_7t1") + "-\t1\n";
+        Files.write(killedJournal, content.getBytes(StandardCharsets.UTF_8));
+
+        OrphanReaper.Result result = new OrphanReaper(new CleanupJournal(directory, "self"), 2, 50, 10000).reap();
+
+        assertThat(result.getFound(), is(0));
+        assertThat(Files.exists(killedJournal), is(false));
+        assertThat(Files.readAllLines(log.toPath(), StandardCharsets.UTF_8), is(Collections.<String> emptyList()));
+    }
+
+    @Test
+    public void testJournalReplacedByCompactionIsNotTheLockedFile() throws IOException {
+        Path killedJournal = directory.resolve("killed" + CleanupJournal.JOURNAL_SUFFIX);
+        String oldContent = record(1, ResourceRegistry.Kind.CONTAINER, "old");
+        Files.write(killedJournal, oldContent.getBytes(StandardCharsets.UTF_8));
+        Object lockedKey = Files.readAttributes(killedJournal, BasicFileAttributes.class).fileKey();
+        Path compacted = killedJournal.resolveSibling(killedJournal.getFileName() + CleanupJournal.COMPACTION_SUFFIX);
+        String newContent = record(2, ResourceRegistry.Kind.CONTAINER, "new");
+        Files.write(compacted, newContent.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(OrphanReaper.isLockedJournal(killedJournal, lockedKey), is(true));
+
+        Files.move(compacted, killedJournal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(OrphanReaper.isLockedJournal(killedJournal, lockedKey), is(lockedKey == null));
+        Files.delete(killedJournal);
+        assertThat(OrphanReaper.isLockedJournal(killedJournal, lockedKey), is(false));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.cleanup;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class ResourceRegistryTest {
+
+    private File log;
+
+    // Docker client appending its arguments to the log
+    private List<String> dockerCommand;
+
+    @Before
+    public void createLog() throws IOException {
+        log = File.createTempFile("docker", ".log");
+        dockerCommand = Arrays.asList("sh", "-c", "echo \"$@\" >> " + log.getAbsolutePath(), "docker");
+    }
+
+    @After
+    public void deleteLog() {
+        log.delete();
+    }
+
+    private List<String> readLog() throws IOException {
+        return Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testContainersAreRemovedInBatches() throws Exception {
+        ResourceRegistry registry = new ResourceRegistry(2, 2, null);
+        registry.registerContainer(dockerCommand, "", "a");
+        registry.registerContainer(dockerCommand, "", "b");
+        registry.registerContainer(dockerCommand, "", "c");
+        registry.registerImage(dockerCommand, "", "image");
+
+        assertThat(registry.cleanUp(10000), is(4));
+
+        List<String> commands = readLog();
+        assertThat(commands.size(), is(3));
+        // Containers are removed before the image
+        assertThat(commands.get(2), is("rmi image"));
+        List<String> containerCommands = new ArrayList<>(commands.subList(0, 2));
+        Collections.sort(containerCommands);
+        assertThat(containerCommands, is(Arrays.asList("rm -f a b", "rm -f c")));
+        assertThat(registry.size(), is(0));
+    }
+
+    @Test
+    public void testStagesAreCleanedUpInOrder() throws Exception {
+        ResourceRegistry registry = new ResourceRegistry(4, 50, null);
+        final List<String> cleanups = Collections.synchronizedList(new ArrayList<String>());
+        registry.register(ResourceRegistry.Kind.FILE, "file", () -> cleanups.add("file"));
+        registry.register(ResourceRegistry.Kind.COMPOSE_PROJECT, "project", () -> cleanups.add("project"));
+        registry.register(ResourceRegistry.Kind.EVALUATION, "evaluation", () -> cleanups.add("evaluation"));
+
+        assertThat(registry.cleanUp(10000), is(3));
+
+        assertThat(cleanups, is(Arrays.asList("evaluation", "project", "file")));
+    }
+
+    @Test
+    public void testClosedRegistrationIsNotCleanedUp() throws Exception {
+        ResourceRegistry registry = new ResourceRegistry(1, 50, null);
+        registry.registerContainer(dockerCommand, "", "removed").close();
+        registry.registerContainer(dockerCommand, "", "running");
+
+        assertThat(registry.size(), is(1));
+        assertThat(registry.cleanUp(10000), is(1));
+
+        assertThat(readLog(), is(Collections.singletonList("rm -f running")));
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedOneResourceAtATime() throws Exception {
+        ResourceRegistry registry = new ResourceRegistry(1, 50, null);
+        String script = "echo \"$@\" >> " + log.getAbsolutePath() + "; " +
+                        "case \"$*\" in *missing*) echo \"Error: No such image: missing\"; exit 1;; " +
+                        "*broken*) echo \"Error: conflict\"; exit 1;; esac";
+        List<String> dockerCommand = Arrays.asList("sh", "-c", script, "docker");
+        registry.registerImage(dockerCommand, "", "image");
+        registry.registerImage(dockerCommand, "", "missing");
+        registry.registerImage(dockerCommand, "", "broken");
+
+        // The image which is already gone counts as cleaned up, the one which failed does not
+        assertThat(registry.cleanUp(10000), is(2));
+
+        assertThat(readLog(),
+                   is(Arrays.asList("rmi image missing broken", "rmi image", "rmi missing", "rmi broken")));
+    }
+
+    @Test
+    public void testFailedCleanupIsNotCounted() throws Exception {
+        ResourceRegistry registry = new ResourceRegistry(1, 50, null);
+        registry.register(ResourceRegistry.Kind.FILE, "file", () -> {
+            throw new IOException("failed");
+        });
+        registry.registerContainer(Arrays.asList("sh", "-c", "exit 1", "docker"), "", "container");
+
+        assertThat(registry.cleanUp(10000), is(0));
+    }
+
+    @Test
+    public void testCleanupIsBoundedByTheDeadline() throws Exception {
+        ResourceRegistry registry = new ResourceRegistry(1, 50, null);
+        registry.register(ResourceRegistry.Kind.EVALUATION, "evaluation", () -> Thread.sleep(10000));
+        registry.registerContainer(dockerCommand, "", "container");
+
+        long start = System.nanoTime();
+        assertThat(registry.cleanUp(200), is(0));
+
+        assertThat((System.nanoTime() - start) < 5000000000L, is(true));
+        // Later stages are abandoned
+        assertThat(log.length(), is(0L));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import jsr223.docker.compose.file.write.ConfigurationFileWriter;
+import jsr223.docker.compose.metrics.Phase;
+import jsr223.docker.compose.metrics.PhaseExecution;
+import jsr223.docker.compose.metrics.PhaseMetrics;
+
+
+public class EngineEventsTest {
+
+    @Test
+    public void testPhaseAndFileWriteEventsAreRecorded() throws IOException {
+        assumeTrue(EngineEvents.isEnabled());
+        Path directory = Files.createTempDirectory("jsr223-docker-events");
+        Path recordingFile = directory.resolve("recording.jfr");
+        File composeFile = directory.resolve("docker-compose.yml").toFile();
+
+        try (Recording recording = new Recording()) {
+            recording.enable("jsr223.docker.DockerBuild");
+            recording.enable("jsr223.docker.FileWrite");
+            recording.start();
+
+            PhaseExecution execution = PhaseMetrics.getInstance().start(Phase.BUILD);
+            execution.setJobId("12");
+            execution.setTaskId("3");
+            execution.setCommand(Arrays.asList("docker", "build", "-t", "image_12t3", "."));
+            execution.finish(0);
+            new ConfigurationFileWriter().forceFileToDisk("version: '2'", composeFile.getAbsolutePath());
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        Map<String, RecordedEvent> events = new HashMap<>();
+        List<RecordedEvent> recordedEvents = RecordingFile.readAllEvents(recordingFile);
+        for (RecordedEvent event : recordedEvents) {
+            events.put(event.getEventType().getName(), event);
+        }
+        RecordedEvent build = events.get("jsr223.docker.DockerBuild");
+        assertThat(build.getString("jobId"), is("12"));
+        assertThat(build.getString("taskId"), is("3"));
+        assertThat(build.getString("command"), is("docker build -t image_12t3 ."));
+        assertThat(build.getInt("exitCode"), is(0));
+        assertThat(build.getBoolean("completed"), is(true));
+        RecordedEvent fileWrite = events.get("jsr223.docker.FileWrite");
+        assertThat(fileWrite.getString("path"), is(composeFile.getAbsolutePath()));
+        assertThat(fileWrite.getLong("bytes"), is(12L));
+
+        composeFile.delete();
+        Files.delete(recordingFile);
+        Files.delete(directory);
+    }
+}
@@ -32,6 +32,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 
 import org.junit.Test;
 
@@ -65,4 +66,35 @@ public class ConfigurationFileWriterTest {
         assertThat(new File(fileOnDisk.getAbsolutePath()).exists(), is(true));
         assertThat(Files.readAllBytes(Paths.get(fileOnDisk.getAbsolutePath())), is(fileContent.getBytes()));
     }
+
+    @Test
+    public void testUnchangedComposeFileIsNotRewritten() throws IOException {
+        ConfigurationFileWriter configurationFileWriter = new ConfigurationFileWriter();
+
+        File fileOnDisk = configurationFileWriter.forceFileToDisk(fileContent, fileName);
+        fileOnDisk.deleteOnExit();
+        FileTime past = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(fileOnDisk.toPath(), past);
+
+        configurationFileWriter.forceFileToDisk(fileContent, fileName);
+
+        assertThat(Files.getLastModifiedTime(fileOnDisk.toPath()), is(past));
+        assertThat(Files.readAllBytes(fileOnDisk.toPath()), is(fileContent.getBytes()));
+    }
+
+    @Test
+    public void testChangedComposeFileIsRewrittenWithoutLeftovers() throws IOException {
+        ConfigurationFileWriter configurationFileWriter = new ConfigurationFileWriter(true);
+        File directory = com.google.common.io.Files.createTempDir();
+        String path = new File(directory, fileName).getAbsolutePath();
+
+        configurationFileWriter.forceFileToDisk(fileContent, path);
+        File fileOnDisk = configurationFileWriter.forceFileToDisk(fileContent + " changed \u00e9", path);
+
+        assertThat(new String(Files.readAllBytes(fileOnDisk.toPath()), "UTF-8"), is(fileContent + " changed \u00e9"));
+        assertThat(directory.list().length, is(1));
+
+        fileOnDisk.delete();
+        directory.delete();
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.file.write;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import jsr223.docker.compose.file.write.EnvironmentFileWriter.EnvironmentFile;
+import jsr223.docker.compose.utils.ScratchDirectoryManager;
+
+
+public class EnvironmentFileWriterTest {
+
+    @Test
+    public void testDockerFormatKeepsValuesLiterally() {
+        assertThat(EnvironmentFileFormat.DOCKER.formatLine("NAME", "it's \"quoted\" $HOME"),
+                   is("NAME=it's \"quoted\" $HOME"));
+        assertThat(EnvironmentFileFormat.DOCKER.canRepresent("NAME", "two\nlines"), is(false));
+        assertThat(EnvironmentFileFormat.DOCKER.canRepresent("WITH SPACE", "value"), is(false));
+        assertThat(EnvironmentFileFormat.DOCKER.canRepresent("#COMMENT", "value"), is(false));
+    }
+
+    @Test
+    public void testComposeFormatQuotesValues() {
+        assertThat(EnvironmentFileFormat.COMPOSE.formatLine("NAME", "a #b ${HOME}"), is("NAME='a #b ${HOME}'"));
+        assertThat(EnvironmentFileFormat.COMPOSE.canRepresent("NAME", "it's"), is(false));
+        assertThat(EnvironmentFileFormat.COMPOSE.canRepresent("1NAME", "value"), is(false));
+        assertThat(EnvironmentFileFormat.COMPOSE.canRepresent("PA_JOB_ID", "1"), is(true));
+    }
+
+    @Test
+    public void testEnvironmentFileIsWrittenAndRemovedOnClose() throws IOException {
+        File root = com.google.common.io.Files.createTempDir();
+        EnvironmentFileWriter environmentFileWriter = new EnvironmentFileWriter(new ConfigurationFileWriter());
+        Map<String, String> variables = new LinkedHashMap<>();
+        variables.put("PA_JOB_ID", "1");
+        variables.put("greetings", "Hello World");
+
+        EnvironmentFile environmentFile = environmentFileWriter.write(variables,
+                                                                      EnvironmentFileFormat.DOCKER,
+                                                                      new ScratchDirectoryManager(root.getAbsolutePath()));
+
+        String expectedContent = "PA_JOB_ID=1\ngreetings=Hello World\n";
+        assertThat(new String(Files.readAllBytes(environmentFile.getFile().toPath()), StandardCharsets.UTF_8),
+                   is(expectedContent));
+        assertThat(environmentFile.getVariableCount(), is(2));
+        assertThat(environmentFile.getSizeInBytes(), is((long) expectedContent.length()));
+
+        environmentFile.close();
+
+        assertThat(environmentFile.getFile().exists(), is(false));
+        assertThat(root.list().length, is(0));
+        root.delete();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.images;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jsr223.docker.compose.images.ImagePrefetcher.ImagePull;
+
+
+public class ImagePrefetcherTest {
+
+    private final ImagePrefetcher imagePrefetcher = new ImagePrefetcher(4);
+
+    // Each pull appends a line to this file
+    private File pulls;
+
+    @Before
+    public void createPullsFile() throws IOException {
+        pulls = Files.createTempFile("jsr223-docker-pulls", ".log").toFile();
+    }
+
+    @After
+    public void deletePullsFile() {
+        pulls.delete();
+    }
+
+    private static ProcessBuilder shell(String command) {
+        return new ProcessBuilder("sh", "-c", command);
+    }
+
+    @Test
+    public void testConcurrentPrefetchesOfAnImageShareOnePull() throws Exception {
+        ProcessBuilder pull = shell("echo pull >> " + pulls.getAbsolutePath() + "; sleep 0.5");
+
+        ProcessBuilder inspect = shell("exit 1");
+        CompletableFuture<ImagePull> first = imagePrefetcher.prefetch("", "alpine", PullPolicy.ALWAYS, inspect, pull);
+        CompletableFuture<ImagePull> second = imagePrefetcher.prefetch("", "alpine", PullPolicy.ALWAYS, inspect, pull);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(first.get().getOutcome(), is(ImagePull.Outcome.PULLED));
+        assertThat(countPulls(), is(1));
+    }
+
+    @Test
+    public void testPullsBeyondTheConcurrencyAreQueued() throws Exception {
+        ImagePrefetcher sequentialPrefetcher = new ImagePrefetcher(1);
+        String log = pulls.getAbsolutePath();
+
+        CompletableFuture<ImagePull> first = sequentialPrefetcher.prefetch("",
+                                                                           "alpine",
+                                                                           PullPolicy.ALWAYS,
+                                                                           shell("exit 1"),
+                                                                           shell("echo start >> " + log +
+                                                                                 "; sleep 0.3; echo end >> " + log));
+        CompletableFuture<ImagePull> second = sequentialPrefetcher.prefetch("",
+                                                                            "busybox",
+                                                                            PullPolicy.ALWAYS,
+                                                                            shell("exit 1"),
+                                                                            shell("echo start >> " + log +
+                                                                                  "; echo end >> " + log));
+
+        assertThat(first.get().getOutcome(), is(ImagePull.Outcome.PULLED));
+        assertThat(second.get().getOutcome(), is(ImagePull.Outcome.PULLED));
+        assertThat(Files.readAllLines(pulls.toPath()), is(Arrays.asList("start", "end", "start", "end")));
+    }
+
+    @Test
+    public void testPresentImageIsNotPulledWithMissingPolicy() throws Exception {
+
+        ImagePull imagePull = imagePrefetcher.prefetch("",
+                                                       "alpine",
+                                                       PullPolicy.MISSING,
+                                                       shell("exit 0"),
+                                                       shell("echo pull >> " + pulls.getAbsolutePath()))
+                                             .get();
+
+        assertThat(imagePull.getOutcome(), is(ImagePull.Outcome.PRESENT));
+        assertThat(countPulls(), is(0));
+    }
+
+    @Test
+    public void testMissingImageIsPulledAgainOnceThePreviousPullCompleted() throws Exception {
+        ProcessBuilder pull = shell("echo pull >> " + pulls.getAbsolutePath());
+
+        imagePrefetcher.prefetch("", "alpine", PullPolicy.MISSING, shell("exit 1"), pull).get();
+        // The pull is removed from the pulls in progress right after its completion
+        Thread.sleep(100);
+        imagePrefetcher.prefetch("", "alpine", PullPolicy.MISSING, shell("exit 1"), pull).get();
+
+        assertThat(countPulls(), is(2));
+    }
+
+    @Test
+    public void testNothingIsExecutedWithNeverPolicy() throws Exception {
+        ImagePull imagePull = imagePrefetcher.prefetch("",
+                                                       "alpine",
+                                                       PullPolicy.NEVER,
+                                                       new ProcessBuilder("does-not-exist"),
+                                                       new ProcessBuilder("does-not-exist"))
+                                             .get();
+
+        assertThat(imagePull.getOutcome(), is(ImagePull.Outcome.SKIPPED));
+    }
+
+    @Test
+    public void testFailedPullReportsItsExitCode() throws Exception {
+        ImagePull imagePull = imagePrefetcher.prefetch("",
+                                                       "alpine",
+                                                       PullPolicy.MISSING,
+                                                       shell("exit 1"),
+                                                       shell("exit 3"))
+                                             .get();
+
+        assertThat(imagePull.getOutcome(), is(ImagePull.Outcome.FAILED));
+        assertThat(imagePull.getExitCode(), is(3));
+    }
+
+    private int countPulls() throws IOException {
+        return Files.readAllLines(pulls.toPath()).size();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.images;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class LocalImageIndexTest {
+
+    // Fake docker client: images prints the content of the images file, events waits
+    private File docker;
+
+    private File imagesFile;
+
+    private LocalImageIndex localImageIndex;
+
+    @Before
+    public void createFakeDocker() throws IOException {
+        imagesFile = Files.createTempFile("jsr223-docker-images", ".txt").toFile();
+        docker = Files.createTempFile("jsr223-docker", ".sh").toFile();
+        String script = "#!/bin/sh\n" + "if [ \"$1\" = images ]; then cat " + imagesFile.getAbsolutePath() +
+                        "; else sleep 5; fi\n";
+        Files.write(docker.toPath(), script.getBytes(StandardCharsets.UTF_8));
+        localImageIndex = new LocalImageIndex(Arrays.asList("sh", docker.getAbsolutePath()), "");
+    }
+
+    @After
+    public void deleteFakeDocker() {
+        docker.delete();
+        imagesFile.delete();
+    }
+
+    private void writeImages(String images) throws IOException {
+        Files.write(imagesFile.toPath(), images.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNormalize() {
+        assertThat(LocalImageIndex.normalize("nginx"), is("nginx:latest"));
+        assertThat(LocalImageIndex.normalize("docker.io/library/nginx:1.25"), is("nginx:1.25"));
+        assertThat(LocalImageIndex.normalize("library/nginx"), is("nginx:latest"));
+        assertThat(LocalImageIndex.normalize("registry:5000/team/app"), is("registry:5000/team/app:latest"));
+        assertThat(LocalImageIndex.normalize("alpine@sha256:abc"), is("alpine@sha256:abc"));
+    }
+
+    @Test
+    public void testParseImagesSkipsUntaggedImages() {
+        String output = "nginx:latest nginx@sha256:abc\n" + "<none>:<none> <none>@<none>\n" +
+                        "team/app:1 team/app@<none>\n";
+
+        assertThat(LocalImageIndex.parseImages(output),
+                   is(new HashSet<>(Arrays.asList("nginx:latest", "nginx@sha256:abc", "team/app:1"))));
+    }
+
+    @Test
+    public void testMissingImages() throws Exception {
+        writeImages("nginx:latest nginx@<none>\n");
+
+        assertThat(localImageIndex.getMissingImages(Arrays.asList("docker.io/library/nginx", "redis:7")),
+                   is(Collections.singletonList("redis:7")));
+    }
+
+    @Test
+    public void testImageAddedWithoutEventIsFoundByReloading() throws Exception {
+        writeImages("nginx:latest nginx@<none>\n");
+        localImageIndex.getMissingImages(Collections.singletonList("nginx"));
+
+        writeImages("nginx:latest nginx@<none>\n" + "redis:7 redis@<none>\n");
+
+        assertThat(localImageIndex.getMissingImages(Collections.singletonList("redis:7")),
+                   is(Collections.<String> emptyList()));
+    }
+
+    @Test
+    public void testPullEventAddsTheImage() throws Exception {
+        writeImages("nginx:latest nginx@<none>\n");
+        localImageIndex.getMissingImages(Collections.singletonList("nginx"));
+        // Without reload, the image is only known through the event
+        writeImages("");
+
+        localImageIndex.onEvent("pull redis:7");
+
+        assertThat(localImageIndex.getMissingImages(Arrays.asList("nginx", "redis:7")),
+                   is(Collections.<String> emptyList()));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.metrics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+
+public class PhaseStatisticsTest {
+
+    @Test
+    public void testBucketUpperBoundContainsTheRecordedValue() {
+        for (long nanos : new long[] { 0, 1, 7, 8, 15, 16, 1000, 123456789, Long.MAX_VALUE }) {
+            int index = PhaseStatistics.bucketIndex(nanos);
+            assertThat(PhaseStatistics.bucketUpperBound(index), greaterThanOrEqualTo(nanos));
+            assertThat(PhaseStatistics.bucketUpperBound(index) - nanos, lessThanOrEqualTo(nanos / 8));
+        }
+    }
+
+    @Test
+    public void testPercentilesCountsAndFailures() {
+        PhaseStatistics statistics = new PhaseStatistics();
+        for (int i = 1; i <= 100; i++) {
+            statistics.record(TimeUnit.MILLISECONDS.toNanos(i), i % 10 != 0);
+        }
+
+        assertThat(statistics.getCount(), is(100L));
+        assertThat(statistics.getFailures(), is(10L));
+        assertThat(statistics.getMaxMillis(), is(100.0));
+        assertThat(statistics.getP50Millis(), greaterThanOrEqualTo(50.0));
+        assertThat(statistics.getP50Millis(), lessThanOrEqualTo(50.0 * 9 / 8));
+        assertThat(statistics.getP99Millis(), greaterThanOrEqualTo(99.0));
+        assertThat(statistics.getP99Millis(), lessThanOrEqualTo(100.0));
+
+        statistics.reset();
+
+        assertThat(statistics.getCount(), is(0L));
+        assertThat(statistics.getP99Millis(), is(0.0));
+    }
+
+    @Test
+    public void testExecutionIsRecordedOnceWithItsOutput() throws IOException {
+        PhaseMetrics phaseMetrics = new PhaseMetrics();
+        StringWriter output = new StringWriter();
+
+        PhaseExecution execution = phaseMetrics.start(Phase.BUILD);
+        Writer countingWriter = execution.countOutput(output);
+        countingWriter.write("Step 1/2 : FROM ubuntu");
+        countingWriter.write('\n');
+        execution.finish(1);
+        execution.finish(null);
+
+        assertThat(output.toString(), is("Step 1/2 : FROM ubuntu\n"));
+        assertThat(execution.getExitCode(), is(1));
+        assertThat(execution.getOutputCharacters(), is(23L));
+        assertThat(phaseMetrics.getStatistics(Phase.BUILD).getOutputCharacters(), is(23L));
+        assertThat(phaseMetrics.getStatistics(Phase.BUILD).getCount(), is(1L));
+        assertThat(phaseMetrics.getStatistics(Phase.BUILD).getFailures(), is(1L));
+        assertThat(phaseMetrics.getStatistics(Phase.RUN).getCount(), is(0L));
+    }
+
+    @Test
+    public void testEveryPhaseIsRegisteredAsMBean() throws Exception {
+        PhaseMetrics.getInstance();
+
+        for (Phase phase : Phase.values()) {
+            ObjectName name = new ObjectName(PhaseMetrics.OBJECT_NAME_PREFIX + phase.getDisplayName());
+            assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(true));
+        }
+    }
+}
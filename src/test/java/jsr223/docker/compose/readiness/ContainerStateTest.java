@@ -0,0 +1,97 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.readiness;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jsr223.docker.compose.readiness.ContainerState.PortProbe;
+import jsr223.docker.compose.readiness.ContainerState.Readiness;
+
+
+public class ContainerStateTest {
+
+    private static final PortProbe OPEN_PORTS = new PortProbe() {
+        @Override
+        public boolean isOpen(int port) {
+            return true;
+        }
+    };
+
+    private static final PortProbe CLOSED_PORTS = new PortProbe() {
+        @Override
+        public boolean isOpen(int port) {
+            return false;
+        }
+    };
+
+    @Test
+    public void testParseInspectLine() {
+        ContainerState state = ContainerState.parse("/project_web_1|web|running|0|healthy|8080,8443,\n");
+
+        assertThat(state.getName(), is("project_web_1"));
+        assertThat(state.getService(), is("web"));
+        assertThat(state.getStatus(), is("running"));
+        assertThat(state.getExitCode(), is(0));
+        assertThat(state.getHealth(), is("healthy"));
+        assertThat(state.getHostPorts(), is(Arrays.asList(8080, 8443)));
+    }
+
+    @Test
+    public void testParseInvalidLine() {
+        assertThat(ContainerState.parse("Error: No such object: abc"), is(nullValue()));
+    }
+
+    @Test
+    public void testHealthCheckDecidesReadiness() {
+        assertThat(ContainerState.parse("/a|a|running|0|starting|").getReadiness(OPEN_PORTS),
+                   is(Readiness.STARTING));
+        assertThat(ContainerState.parse("/a|a|running|0|healthy|80,").getReadiness(CLOSED_PORTS),
+                   is(Readiness.READY));
+        assertThat(ContainerState.parse("/a|a|running|0|unhealthy|").getReadiness(OPEN_PORTS),
+                   is(Readiness.FAILED));
+    }
+
+    @Test
+    public void testContainerWithoutHealthCheckIsReadyWhenItsPortsAreOpen() {
+        ContainerState state = ContainerState.parse("/a|a|running|0||80,");
+
+        assertThat(state.getReadiness(CLOSED_PORTS), is(Readiness.STARTING));
+        assertThat(state.getReadiness(OPEN_PORTS), is(Readiness.READY));
+    }
+
+    @Test
+    public void testExitedContainers() {
+        assertThat(ContainerState.parse("/a|a|exited|0||").getReadiness(OPEN_PORTS), is(Readiness.READY));
+        assertThat(ContainerState.parse("/a|a|exited|1||").getReadiness(OPEN_PORTS), is(Readiness.FAILED));
+        assertThat(ContainerState.parse("/a|a|created|0||").getReadiness(OPEN_PORTS), is(Readiness.STARTING));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.readiness;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptException;
+
+import org.junit.Test;
+
+import jsr223.docker.compose.readiness.ContainerState.PortProbe;
+import jsr223.docker.compose.readiness.ReadinessWaiter.ContainerInspector;
+
+
+public class ReadinessWaiterTest {
+
+    private final ReadinessWaiter readinessWaiter = new ReadinessWaiter(1, 10, new PortProbe() {
+        @Override
+        public boolean isOpen(int port) {
+            return true;
+        }
+    });
+
+    /**
+     * Returns the given lines, one per inspection, and then the last one.
+     */
+    private static class SequenceInspector implements ContainerInspector {
+
+        private final List<String> lines;
+
+        private final AtomicInteger inspections = new AtomicInteger();
+
+        SequenceInspector(String... lines) {
+            this.lines = Arrays.asList(lines);
+        }
+
+        @Override
+        public List<ContainerState> inspect() {
+            int index = Math.min(inspections.getAndIncrement(), lines.size() - 1);
+            return Collections.singletonList(ContainerState.parse(lines.get(index)));
+        }
+    }
+
+    @Test
+    public void testWaitsUntilContainersAreHealthy() throws Exception {
+        SequenceInspector inspector = new SequenceInspector("/db|db|created|0||",
+                                                            "/db|db|running|0|starting|",
+                                                            "/db|db|running|0|healthy|");
+
+        List<ContainerState> containers = readinessWaiter.waitUntilReady(inspector, 10000);
+
+        assertThat(containers.get(0).getHealth(), is("healthy"));
+        assertThat(inspector.inspections.get(), is(3));
+    }
+
+    @Test
+    public void testFailsWhenAContainerIsUnhealthy() throws Exception {
+        try {
+            readinessWaiter.waitUntilReady(new SequenceInspector("/db|db|running|0|starting|",
+                                                                 "/db|db|running|0|unhealthy|"),
+                                           10000);
+            fail("An unhealthy container must fail the wait");
+        } catch (ScriptException e) {
+            assertThat(e.getMessage(), containsString("db[status=running, health=unhealthy]"));
+        }
+    }
+
+    @Test
+    public void testFailsAfterTimeout() throws Exception {
+        try {
+            readinessWaiter.waitUntilReady(new SequenceInspector("/db|db|running|0|starting|"), 50);
+            fail("A starting container must fail the wait after the timeout");
+        } catch (ScriptException e) {
+            assertThat(e.getMessage(), containsString("not ready after 50 ms"));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.result;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import org.junit.Test;
+import org.ow2.proactive.scheduler.common.SchedulerConstants;
+
+import jsr223.docker.compose.metrics.Phase;
+import jsr223.docker.compose.tracing.Span;
+
+
+public class DockerEvalResultTest {
+
+    @Test
+    public void testActionsAreRecordedAndPublished() {
+        DockerEvalResult evalResult = new DockerEvalResult("dockerfile");
+        evalResult.setImageTag("image_1t0");
+        evalResult.setImageId("sha256:1234");
+        evalResult.addContainerName("container_1t0");
+        evalResult.startAction(Phase.BUILD).finish(0);
+        evalResult.startAction(Phase.RUN).finish(3);
+        // Still running when the evaluation ends
+        evalResult.startAction(Phase.STOP);
+
+        Map<String, Serializable> variables = new HashMap<>();
+        Bindings bindings = new SimpleBindings();
+        bindings.put(SchedulerConstants.VARIABLES_BINDING_NAME, variables);
+        evalResult.publishTo(bindings);
+
+        assertThat(bindings.get(DockerEvalResult.BINDING_NAME), is((Object) evalResult));
+        assertThat(evalResult.getActions().size(), is(3));
+        assertThat(evalResult.getActions().get(0).getAction(), is("build"));
+        assertThat(evalResult.getActions().get(0).getExitCode(), is(0));
+        assertThat(evalResult.getActions().get(1).getExitCode(), is(3));
+        assertThat(evalResult.getActions().get(2).getExitCode(), is(nullValue()));
+        assertThat(variables.get(DockerEvalResult.IMAGE_ID_VARIABLE), is((Serializable) "sha256:1234"));
+        assertThat(variables.get(DockerEvalResult.IMAGE_TAG_VARIABLE), is((Serializable) "image_1t0"));
+        assertThat(variables.get(DockerEvalResult.CONTAINER_NAMES_VARIABLE), is((Serializable) "container_1t0"));
+        assertThat(variables.containsKey(DockerEvalResult.EXIT_CODE_VARIABLE), is(false));
+    }
+
+    @Test
+    public void testServiceKeepsTheFirstFailedExitCode() {
+        DockerEvalResult evalResult = new DockerEvalResult("docker-compose");
+        evalResult.addServiceExitCode("app", 3);
+        evalResult.addServiceExitCode("worker", 0);
+        evalResult.addServiceExitCode("worker", 137);
+        evalResult.addServiceExitCode("worker", 0);
+
+        assertThat(evalResult.getServiceExitCodes().get("worker"), is(137));
+        assertThat(evalResult.toVariables().get(DockerEvalResult.SERVICE_EXIT_CODES_VARIABLE), is("app=3,worker=137"));
+    }
+
+    @Test
+    public void testSpansHaveTheEvaluationAsRoot() {
+        DockerEvalResult evalResult = new DockerEvalResult("docker-compose");
+        evalResult.setExitCode(0);
+        evalResult.startAction(Phase.WRITE_FILE).finish(0);
+        evalResult.startAction(Phase.UP, Arrays.asList("docker-compose", "up")).finish(0);
+        evalResult.complete();
+
+        List<Span> spans = evalResult.toSpans();
+
+        assertThat(spans.size(), is(3));
+        Span root = spans.get(0);
+        assertThat(root.getName(), is("eval docker-compose"));
+        assertThat(root.getParentSpanId(), is(nullValue()));
+        assertThat(root.getStatus(), is(Span.STATUS_OK));
+        assertThat(spans.get(1).getKind(), is(Span.KIND_INTERNAL));
+        Span up = spans.get(2);
+        assertThat(up.getName(), is("up"));
+        assertThat(up.getKind(), is(Span.KIND_CLIENT));
+        assertThat(up.getTraceId(), is(evalResult.getTraceId()));
+        assertThat(up.getParentSpanId(), is(root.getSpanId()));
+        assertThat(up.getAttributes().get("process.command_args"),
+                   is((Object) Arrays.asList("docker-compose", "up")));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.tracing;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TraceExporterTest {
+
+    private File directory;
+
+    private File traceFile;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("jsr223-docker-traces").toFile();
+        traceFile = new File(directory, "traces.jsonl");
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSpansAreWrittenAsOneLinePerBatch() throws IOException {
+        TraceExporter exporter = new TraceExporter(traceFile, 1024 * 1024, 2, 10, 2, 1000);
+        Span root = new Span(Span.newTraceId(), null, "eval dockerfile", Span.KIND_INTERNAL, 1000, 5000);
+        Span child = new Span(root.getTraceId(), root.getSpanId(), "build", Span.KIND_CLIENT, 2000, 3000);
+        child.setAttribute("process.command_args", Arrays.asList("docker", "build", "-t", "a\"b"));
+        child.setAttribute("process.exit_code", 0);
+        child.setStatus(Span.STATUS_OK);
+        Span other = new Span(Span.newTraceId(), null, "eval docker-compose", Span.KIND_INTERNAL, 1000, 2000);
+
+        exporter.export(Arrays.asList(root, child, other));
+        exporter.flush();
+
+        List<String> lines = Files.readAllLines(traceFile.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(2));
+        assertThat(lines.get(0), containsString("\"scope\":{\"name\":\"jsr223.docker\"}"));
+        assertThat(lines.get(0), containsString("\"parentSpanId\":\"" + root.getSpanId() + "\""));
+        assertThat(lines.get(0),
+                   containsString("{\"key\":\"process.command_args\",\"value\":{\"arrayValue\":{\"values\":[" +
+                                  "{\"stringValue\":\"docker\"},{\"stringValue\":\"build\"}," +
+                                  "{\"stringValue\":\"-t\"},{\"stringValue\":\"a\\\"b\"}]}}}"));
+        assertThat(lines.get(0), containsString("{\"key\":\"process.exit_code\",\"value\":{\"intValue\":\"0\"}}"));
+        assertThat(lines.get(0), containsString("\"startTimeUnixNano\":\"2000\",\"endTimeUnixNano\":\"3000\""));
+        assertThat(lines.get(1), containsString(other.getTraceId()));
+        assertThat(exporter.getExportedSpans(), is(3L));
+    }
+
+    @Test
+    public void testSpansAreDroppedWhenTheQueueIsFull() {
+        TraceExporter exporter = new TraceExporter(traceFile, 1024 * 1024, 2, 1, 1, 1000);
+        Span span = new Span(Span.newTraceId(), null, "eval dockerfile", Span.KIND_INTERNAL, 1000, 2000);
+
+        assertThat(exporter.export(Arrays.asList(span, span)), is(false));
+        assertThat(exporter.getDroppedSpans(), is(1L));
+    }
+
+    @Test
+    public void testFileIsRotatedWhenFull() throws IOException {
+        TraceExporter exporter = new TraceExporter(traceFile, 100, 3, 10, 1, 1000);
+        for (int i = 0; i < 4; i++) {
+            exporter.export(Collections.singletonList(new Span(Span.newTraceId(),
+                                                               null,
+                                                               "eval " + i,
+                                                               Span.KIND_INTERNAL,
+                                                               1000,
+                                                               2000)));
+            exporter.flush();
+        }
+
+        assertThat(new String(Files.readAllBytes(traceFile.toPath()), StandardCharsets.UTF_8),
+                   containsString("eval 3"));
+        assertThat(new String(Files.readAllBytes(exporter.rotatedFile(1).toPath()), StandardCharsets.UTF_8),
+                   containsString("eval 2"));
+        assertThat(new String(Files.readAllBytes(exporter.rotatedFile(2).toPath()), StandardCharsets.UTF_8),
+                   containsString("eval 1"));
+        assertThat(exporter.rotatedFile(3).exists(), is(false));
+    }
+}
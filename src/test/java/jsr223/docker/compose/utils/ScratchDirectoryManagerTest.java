@@ -0,0 +1,155 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.utils;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import jsr223.docker.compose.utils.ScratchDirectoryManager.ScratchDirectory;
+
+
+public class ScratchDirectoryManagerTest {
+
+    private File root;
+
+    private ScratchDirectoryManager scratchDirectoryManager;
+
+    @BeforeClass
+    public static void before() {
+        BasicConfigurator.resetConfiguration();
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.INFO);
+    }
+
+    @Before
+    public void createRoot() {
+        root = com.google.common.io.Files.createTempDir();
+        scratchDirectoryManager = new ScratchDirectoryManager(root.getAbsolutePath());
+    }
+
+    @After
+    public void deleteRoot() {
+        ScratchDirectoryManager.deleteRecursively(root.toPath());
+    }
+
+    @Test
+    public void testDirectoryIsRemovedWithContentOnClose() throws IOException {
+        ScratchDirectory scratchDirectory = scratchDirectoryManager.createDirectory();
+        File directory = scratchDirectory.getDirectory();
+        assertThat(directory.isDirectory(), is(true));
+        assertThat(directory.getParentFile(), is(root.getAbsoluteFile()));
+
+        new File(directory, "sub").mkdir();
+        new File(new File(directory, "sub"), "Dockerfile").createNewFile();
+
+        scratchDirectory.close();
+        scratchDirectory.close();
+
+        assertThat(directory.exists(), is(false));
+        assertThat(root.list().length, is(0));
+    }
+
+    @Test
+    public void testKeptDirectoryIsNeverSwept() throws IOException {
+        ScratchDirectory scratchDirectory = scratchDirectoryManager.createDirectory();
+        File directory = scratchDirectory.getDirectory();
+        new File(directory, "docker-compose.yml").createNewFile();
+
+        scratchDirectory.keep();
+        scratchDirectory.close();
+        Files.setLastModifiedTime(directory.toPath(), FileTime.fromMillis(0));
+
+        assertThat(scratchDirectoryManager.sweepStaleDirectories(), is(0));
+        assertThat(new File(directory, "docker-compose.yml").exists(), is(true));
+        assertThat(new File(root, directory.getName() + ScratchDirectoryManager.LOCK_FILE_SUFFIX).exists(),
+                   is(false));
+        assertThat(new File(root, directory.getName() + ScratchDirectoryManager.KEPT_MARKER_SUFFIX).exists(),
+                   is(true));
+    }
+
+    @Test
+    public void testOnlyOwnerOnlyDirectoriesAreRestricted() throws IOException {
+        Assume.assumeTrue(root.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        ScratchDirectory workingDirectory = scratchDirectoryManager.createDirectory();
+        ScratchDirectory privateDirectory = scratchDirectoryManager.createOwnerOnlyDirectory();
+
+        // Bind mounts of the working directory stay readable for containers running as another user
+        File plainDirectory = new File(root, "plain");
+        plainDirectory.mkdir();
+        assertThat(Files.getPosixFilePermissions(workingDirectory.getDirectory().toPath()),
+                   is(Files.getPosixFilePermissions(plainDirectory.toPath())));
+        assertThat(Files.getPosixFilePermissions(privateDirectory.getDirectory().toPath()),
+                   is(PosixFilePermissions.fromString("rwx------")));
+
+        workingDirectory.close();
+        privateDirectory.close();
+    }
+
+    @Test
+    public void testSweepRemovesOnlyStaleDirectories() throws IOException {
+        ScratchDirectory inUse = scratchDirectoryManager.createDirectory();
+
+        // Left behind by a killed JVM before its lock file was created
+        File orphan = new File(root, ScratchDirectoryManager.DIRECTORY_PREFIX + "orphan");
+        orphan.mkdir();
+        Files.setLastModifiedTime(orphan.toPath(), FileTime.fromMillis(0));
+
+        // Left behind by a killed JVM, lock is not held anymore
+        File unlocked = new File(root, ScratchDirectoryManager.DIRECTORY_PREFIX + "unlocked");
+        unlocked.mkdir();
+        new File(root, unlocked.getName() + ScratchDirectoryManager.LOCK_FILE_SUFFIX).createNewFile();
+
+        // Not created by the manager
+        File foreign = new File(root, "foreign");
+        foreign.mkdir();
+
+        assertThat(scratchDirectoryManager.sweepStaleDirectories(), is(2));
+
+        assertThat(inUse.getDirectory().exists(), is(true));
+        assertThat(foreign.exists(), is(true));
+        assertThat(orphan.exists(), is(false));
+        assertThat(unlocked.exists(), is(false));
+        assertThat(new File(root, unlocked.getName() + ScratchDirectoryManager.LOCK_FILE_SUFFIX).exists(),
+                   is(false));
+
+        inUse.close();
+    }
+}
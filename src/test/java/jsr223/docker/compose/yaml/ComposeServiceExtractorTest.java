@@ -0,0 +1,74 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.compose.yaml;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+
+public class ComposeServiceExtractorTest {
+
+    private final ComposeServiceExtractor composeServiceExtractor = new ComposeServiceExtractor();
+
+    @Test
+    public void testImagesOfServices() {
+        String composeFile = "version: '2'\n" + "services:\n" + "  web:\n" + "    image: \"nginx:1.25\" # front\n" +
+                             "    ports:\n" + "      - \"80:80\"\n" + "  db:\n" + "    environment:\n" +
+                             "      image: not-an-image\n" + "    image: 'postgres:16'\n" + "  cache:\n" +
+                             "    image: nginx:1.25\n" + "volumes:\n" + "  data:\n" + "    image: not-a-service\n";
+
+        assertThat(composeServiceExtractor.getImages(composeFile), is(Arrays.asList("nginx:1.25", "postgres:16")));
+    }
+
+    @Test
+    public void testBuiltServicesAndVariablesAreLeftOut() {
+        String composeFile = "services:\n" + "  app:\n" + "    build: .\n" + "    image: my-app\n" + "  worker:\n" +
+                             "    image: ${WORKER_IMAGE}\n";
+
+        assertThat(composeServiceExtractor.getImages(composeFile), is(Collections.<String> emptyList()));
+    }
+
+    @Test
+    public void testVersionOneFileWithoutServicesKey() {
+        String composeFile = "web:\n" + "  image: busybox\n" + "  command: sleep 10\n" + "other:\n" +
+                             "  image: alpine\n";
+
+        assertThat(composeServiceExtractor.getImages(composeFile), is(Arrays.asList("busybox", "alpine")));
+    }
+
+    @Test
+    public void testServiceNames() {
+        String composeFile = "services:\n" + "  web:\n" + "    image: nginx\n" + "  \"db\":\n" + "    build: .\n" +
+                             "networks:\n" + "  backend:\n";
+
+        assertThat(composeServiceExtractor.getServiceNames(composeFile), is(Arrays.asList("web", "db")));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+
+public class BaseImageExtractorTest {
+
+    private final BaseImageExtractor baseImageExtractor = new BaseImageExtractor();
+
+    @Test
+    public void testSingleStage() {
+        assertThat(baseImageExtractor.getBaseImages("# base image\nFROM ubuntu:18.04\nRUN echo \"Hello\""),
+                   is(Collections.singletonList("ubuntu:18.04")));
+    }
+
+    @Test
+    public void testMultiStageSkipsStagesScratchAndArguments() {
+        String dockerfile = "ARG VERSION=3.9\n" + "FROM --platform=linux/amd64 golang:1.11 AS builder\n" +
+                            "RUN go build\n" + "from alpine:$VERSION\n" + "FROM builder AS test\n" +
+                            "FROM \\\n    debian:stretch\n" + "FROM scratch\n" + "COPY --from=builder /app /app\n" +
+                            "FROM golang:1.11";
+
+        assertThat(baseImageExtractor.getBaseImages(dockerfile), is(Arrays.asList("golang:1.11", "debian:stretch")));
+    }
+}
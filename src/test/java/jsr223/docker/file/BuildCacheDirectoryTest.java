@@ -0,0 +1,98 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class BuildCacheDirectoryTest {
+
+    private Path root;
+
+    private BuildCacheDirectory buildCache;
+
+    @Before
+    public void createCache() throws IOException {
+        root = Files.createTempDirectory("buildcache");
+        buildCache = new BuildCacheDirectory(root.toFile());
+    }
+
+    @After
+    public void deleteCache() {
+        BuildCacheDirectory.delete(root.toFile());
+    }
+
+    private File export(String index, String... blobs) throws IOException {
+        File exportDirectory = buildCache.createExportDirectory();
+        Path blobDirectory = exportDirectory.toPath().resolve("blobs/sha256");
+        Files.createDirectories(blobDirectory);
+        for (String blob : blobs) {
+            Files.write(blobDirectory.resolve(blob), blob.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(exportDirectory.toPath().resolve(BuildCacheDirectory.INDEX_FILENAME),
+                    index.getBytes(StandardCharsets.UTF_8));
+        return exportDirectory;
+    }
+
+    private String read(String path) throws IOException {
+        return new String(Files.readAllBytes(root.resolve(path)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testExportsAreMergedIntoTheCache() throws IOException {
+        File first = export("first", "a", "b");
+        File second = export("second", "b", "c");
+
+        buildCache.merge(first);
+        buildCache.merge(second);
+
+        assertThat(read(BuildCacheDirectory.INDEX_FILENAME), is("second"));
+        // Blobs of the previous index stay, a build importing it at the same time still finds them
+        assertThat(read("blobs/sha256/a"), is("a"));
+        assertThat(read("blobs/sha256/c"), is("c"));
+        assertThat(first.exists(), is(false));
+        assertThat(second.exists(), is(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void testExportWithoutIndexIsNotMerged() throws IOException {
+        File exportDirectory = export("index", "a");
+        Files.delete(exportDirectory.toPath().resolve(BuildCacheDirectory.INDEX_FILENAME));
+
+        buildCache.merge(exportDirectory);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.junit.Test;
+
+
+public class BuildCacheStatisticsTest {
+
+    private static final String PROGRESS = "#1 [internal] load build definition from Dockerfile\n" +
+                                           "#1 DONE 0.0s\n" + "#4 [1/3] FROM docker.io/library/alpine\n" +
+                                           "#4 CACHED\n" + "#5 [2/3] RUN apk add curl\n" + "#5 CACHED\n" +
+                                           "#6 [3/3] COPY . /app\n" + "#6 DONE 0.2s\n";
+
+    @Test
+    public void testCountsStepsAndCachedSteps() {
+        BuildCacheStatistics statistics = new BuildCacheStatistics();
+        for (String line : PROGRESS.split("\n")) {
+            statistics.parseLine(line);
+        }
+
+        assertThat(statistics.getSteps(), is(3));
+        assertThat(statistics.getCachedSteps(), is(2));
+    }
+
+    @Test
+    public void testCountsStepsOfNamedStages() {
+        BuildCacheStatistics statistics = new BuildCacheStatistics();
+        statistics.parseLine("#7 [builder 2/4] RUN make");
+        statistics.parseLine("#7 CACHED");
+
+        assertThat(statistics.getSteps(), is(1));
+        assertThat(statistics.getCachedSteps(), is(1));
+    }
+
+    @Test
+    public void testParsingWriterForwardsOutputAndParsesLinesSplitAcrossWrites() throws IOException {
+        BuildCacheStatistics statistics = new BuildCacheStatistics();
+        StringWriter output = new StringWriter();
+        Writer writer = statistics.parsing(output);
+
+        writer.write(PROGRESS.substring(0, 100));
+        writer.write(PROGRESS.substring(100));
+
+        assertThat(output.toString(), is(PROGRESS));
+        assertThat(statistics.getSteps(), is(3));
+        assertThat(statistics.getCachedSteps(), is(2));
+    }
+}
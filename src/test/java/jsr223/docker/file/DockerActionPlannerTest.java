@@ -0,0 +1,125 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import org.junit.Test;
+import org.ow2.proactive.scheduler.common.SchedulerConstants;
+
+
+public class DockerActionPlannerTest {
+
+    private final DockerActionPlanner dockerActionPlanner = new DockerActionPlanner(new DockerFileCommandCreator());
+
+    private final Map<String, String> genericInformation = new HashMap<>();
+
+    private Bindings createBindings() {
+        Bindings bindings = new SimpleBindings();
+        bindings.put(SchedulerConstants.GENERIC_INFO_BINDING_NAME, genericInformation);
+        return bindings;
+    }
+
+    private static Set<String> actions(String... actions) {
+        return new HashSet<>(Arrays.asList(actions));
+    }
+
+    @Test
+    public void testForegroundRunIsStartedWithAutoRemove() {
+        DockerActionPlanner.Plan plan = dockerActionPlanner.plan(actions("build", "run", "stop", "rmi"),
+                                                                 createBindings());
+
+        assertThat(plan.isAutoRemoveRun(), is(true));
+        assertThat(plan.isForceRemove(), is(true));
+    }
+
+    @Test
+    public void testDetachedRunIsForceRemoved() {
+        genericInformation.put(DockerFileCommandCreator.DOCKER_RUN_COMMANDLINE_OPTIONS_KEY, "-t -d");
+
+        DockerActionPlanner.Plan plan = dockerActionPlanner.plan(actions("build", "run", "stop"), createBindings());
+
+        assertThat(plan.isAutoRemoveRun(), is(false));
+        assertThat(plan.isForceRemove(), is(true));
+    }
+
+    @Test
+    public void testStopOptionsKeepTheGracefulStop() {
+        genericInformation.put(DockerFileCommandCreator.DOCKER_STOP_COMMANDLINE_OPTIONS_KEY, "-t 30");
+
+        DockerActionPlanner.Plan plan = dockerActionPlanner.plan(actions("exec", "stop"), createBindings());
+
+        assertThat(plan.isAutoRemoveRun(), is(false));
+        assertThat(plan.isForceRemove(), is(false));
+    }
+
+    @Test
+    public void testStopTimeoutKeepsTheGracefulStop() {
+        genericInformation.put(DockerFileCommandCreator.DOCKER_STOP_TIMEOUT_KEY, "5");
+
+        DockerActionPlanner.Plan plan = dockerActionPlanner.plan(actions("exec", "stop"), createBindings());
+
+        assertThat(plan.isForceRemove(), is(false));
+    }
+
+    @Test
+    public void testNothingIsFusedWithoutStop() {
+        DockerActionPlanner.Plan plan = dockerActionPlanner.plan(actions("build", "run"), createBindings());
+
+        assertThat(plan.isAutoRemoveRun(), is(false));
+        assertThat(plan.isForceRemove(), is(false));
+    }
+
+    @Test
+    public void testDetachedOptions() {
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("-dit", "-e", "d")), is(true));
+        assertThat(DockerActionPlanner.isDetached(Collections.singletonList("--detach")), is(true));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("-it", "--name=detached")), is(false));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("-itd", "--detach=false")), is(true));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("--rm", "--detach=true")), is(true));
+    }
+
+    @Test
+    public void testOptionValuesAreNotDetachFlags() {
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("-e", "-d")), is(false));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("-w", "-d", "-it")), is(false));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("-ie", "-d")), is(false));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("-edebug=1", "-d")), is(true));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("--name", "-d")), is(false));
+        assertThat(DockerActionPlanner.isDetached(Arrays.asList("--rm", "-d")), is(true));
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package jsr223.docker.file;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import org.junit.Test;
+import org.ow2.proactive.scheduler.common.SchedulerConstants;
+
+
+public class DockerFileCommandCreatorTest {
+
+    private final DockerFileCommandCreator dockerFileCommandCreator = new DockerFileCommandCreator();
+
+    private Bindings createBindings(Map<String, String> genericInformation) {
+        Bindings bindings = new SimpleBindings();
+        bindings.put(SchedulerConstants.GENERIC_INFO_BINDING_NAME, genericInformation);
+        return bindings;
+    }
+
+    @Test
+    public void testSingleExecCommand() {
+        Map<String, String> genericInformation = new HashMap<>();
+        genericInformation.put(DockerFileCommandCreator.DOCKER_EXEC_COMMAND_KEY, "ls -l");
+
+        List<String[]> commands = dockerFileCommandCreator.createDockerExecExecutionCommands("container",
+                                                                                             createBindings(genericInformation),
+                                                                                             null);
+
+        assertThat(commands.size(), is(1));
+        assertThat(Arrays.asList(commands.get(0)).subList(1, 6),
+                   is(Arrays.asList("exec", "-t", "container", "ls", "-l")));
+    }
+
+    @Test
+    public void testIndexedExecCommandsAreInIndexOrder() {
+        Map<String, String> genericInformation = new HashMap<>();
+        genericInformation.put(DockerFileCommandCreator.DOCKER_EXEC_COMMANDS_KEY_PREFIX + "10", "echo ten");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_EXEC_COMMANDS_KEY_PREFIX + "2", "echo two");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_EXEC_COMMANDS_KEY_PREFIX + "1", "echo one");
+
+        List<String[]> commands = dockerFileCommandCreator.createDockerExecExecutionCommands("container",
+                                                                                             createBindings(genericInformation),
+                                                                                             null);
+
+        assertThat(commands.size(), is(3));
+        assertThat(commands.get(0)[commands.get(0).length - 1], is("one"));
+        assertThat(commands.get(1)[commands.get(1).length - 1], is("two"));
+        assertThat(commands.get(2)[commands.get(2).length - 1], is("ten"));
+    }
+
+    @Test
+    public void testReplicaRunCommandHasIndexedNameEnvironmentAndArguments() {
+        Map<String, String> genericInformation = new HashMap<>();
+        genericInformation.put(DockerFileCommandCreator.DOCKER_RUN_REPLICA_ARGUMENTS_KEY_PREFIX + "2", "--shard 2");
+
+        List<String> command = Arrays.asList(dockerFileCommandCreator.createDockerRunReplicaExecutionCommand("container",
+                                                                                                             "image",
+                                                                                                             createBindings(genericInformation),
+                                                                                                             null,
+                                                                                                             false,
+                                                                                                             2,
+                                                                                                             3));
+
+        assertThat(command.subList(1, command.size()),
+                   is(Arrays.asList("run",
+                                    "-e",
+                                    "REPLICA_INDEX=2",
+                                    "-e",
+                                    "REPLICA_COUNT=3",
+                                    "--name",
+                                    "container_2",
+                                    "image",
+                                    "--shard",
+                                    "2")));
+    }
+
+    @Test
+    public void testBuildKitBuildWithCacheDirectoryUsesBuildxWithLocalCache() {
+        DockerFilePropertyLoader propertyLoader = DockerFilePropertyLoader.getInstance();
+        propertyLoader.setBuildKit(true);
+        propertyLoader.setBuildCacheDirectory("/var/cache/buildkit");
+        try {
+            List<String> command = Arrays.asList(dockerFileCommandCreator.createDockerBuildExecutionCommand("image",
+                                                                                                            createBindings(new HashMap<String, String>())));
+
+            assertThat(command.subList(1, command.size()),
+                       is(Arrays.asList("buildx",
+                                        "build",
+                                        "--progress=plain",
+                                        "--cache-from",
+                                        "type=local,src=/var/cache/buildkit",
+                                        "--cache-to",
+                                        "type=local,dest=/var/cache/buildkit,mode=max",
+                                        "--load",
+                                        "-t",
+                                        "image",
+                                        ".")));
+        } finally {
+            propertyLoader.reload();
+        }
+    }
+
+    @Test
+    public void testBuildCacheIsExportedToTheExportDirectory() {
+        DockerFilePropertyLoader propertyLoader = DockerFilePropertyLoader.getInstance();
+        propertyLoader.setBuildKit(true);
+        propertyLoader.setBuildCacheDirectory("/var/cache/buildkit");
+        DockerFileCommandCreator exportingCreator = new DockerFileCommandCreator();
+        exportingCreator.setCacheExportDirectory(new File("/var/cache/buildkit/.exports/build"));
+        try {
+            List<String> command = Arrays.asList(exportingCreator.createDockerBuildExecutionCommand("image",
+                                                                                                    createBindings(new HashMap<String, String>())));
+
+            assertThat(command.contains("type=local,src=/var/cache/buildkit"), is(true));
+            assertThat(command.contains("type=local,dest=/var/cache/buildkit/.exports/build,mode=max"), is(true));
+        } finally {
+            propertyLoader.reload();
+        }
+    }
+
+    @Test
+    public void testBuildWithoutPullAddsPullFalse() {
+        List<String> command = Arrays.asList(dockerFileCommandCreator.createDockerBuildExecutionCommand("image",
+                                                                                                        createBindings(new HashMap<String, String>()),
+                                                                                                        null,
+                                                                                                        true));
+
+        assertThat(command.subList(1, command.size()),
+                   is(Arrays.asList("build", "--pull=false", "-t", "image", ".")));
+    }
+
+    @Test
+    public void testLabelsAreAddedToBuildAndRun() {
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put("jsr223.docker.owner", "owner");
+        labels.put("jsr223.docker.job", "7");
+        DockerFileCommandCreator labellingCreator = new DockerFileCommandCreator();
+        labellingCreator.setLabels(labels);
+
+        List<String> build = Arrays.asList(labellingCreator.createDockerBuildExecutionCommand("image",
+                                                                                             createBindings(new HashMap<String, String>())));
+        List<String> run = Arrays.asList(labellingCreator.createDockerRunExecutionCommand("container",
+                                                                                         "image",
+                                                                                         createBindings(new HashMap<String, String>())));
+
+        assertThat(build.subList(1, build.size()),
+                   is(Arrays.asList("build",
+                                    "--label",
+                                    "jsr223.docker.owner=owner",
+                                    "--label",
+                                    "jsr223.docker.job=7",
+                                    "-t",
+                                    "image",
+                                    ".")));
+        assertThat(run.subList(1, run.size()),
+                   is(Arrays.asList("run",
+                                    "--label",
+                                    "jsr223.docker.owner=owner",
+                                    "--label",
+                                    "jsr223.docker.job=7",
+                                    "--name",
+                                    "container",
+                                    "image")));
+    }
+
+    @Test
+    public void testStopTimeoutIsAddedUnlessGivenInTheStopOptions() {
+        Map<String, String> genericInformation = new HashMap<>();
+        genericInformation.put(DockerFileCommandCreator.DOCKER_STOP_TIMEOUT_KEY, "2");
+        List<String> command = Arrays.asList(dockerFileCommandCreator.createDockerStopExecutionCommand("container",
+                                                                                                       createBindings(genericInformation)));
+
+        assertThat(command.subList(1, command.size()), is(Arrays.asList("stop", "-t", "2", "container")));
+
+        genericInformation.put(DockerFileCommandCreator.DOCKER_STOP_COMMANDLINE_OPTIONS_KEY, "--time=30");
+        command = Arrays.asList(dockerFileCommandCreator.createDockerStopExecutionCommand("container",
+                                                                                          createBindings(genericInformation)));
+
+        assertThat(command.subList(1, command.size()), is(Arrays.asList("stop", "--time=30", "container")));
+    }
+
+    @Test
+    public void testKillCommand() {
+        List<String> command = Arrays.asList(dockerFileCommandCreator.createDockerKillCommand("container"));
+
+        assertThat(command.subList(1, command.size()), is(Arrays.asList("kill", "container")));
+    }
+
+    @Test
+    public void testEnvironmentReferencesAreOptionsWithoutValue() {
+        Map<String, String> genericInformation = new HashMap<>();
+        genericInformation.put(DockerFileCommandCreator.DOCKER_BUILD_COMMANDLINE_OPTIONS_KEY,
+                               "--build-arg VERSION --build-arg MODE=fast --no-cache");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_RUN_COMMANDLINE_OPTIONS_KEY,
+                               "-e TOKEN --env=USER -e LEVEL=3");
+        genericInformation.put(DockerFileCommandCreator.DOCKER_EXEC_COMMANDLINE_OPTIONS_KEY, "--env HOME");
+
+        Set<String> references = dockerFileCommandCreator.getEnvironmentReferences(createBindings(genericInformation));
+
+        assertThat(references, is((Set<String>) new HashSet<>(Arrays.asList("VERSION", "TOKEN", "USER", "HOME"))));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package processbuilder.utils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+
+public class LinePrefixWriterTest {
+
+    @Test
+    public void testLinesOfTwoWritersAreNotMixed() throws IOException {
+        StringWriter output = new StringWriter();
+        LinePrefixWriter first = new LinePrefixWriter(output, "[exec 1] ");
+        LinePrefixWriter second = new LinePrefixWriter(output, "[exec 2] ");
+
+        first.write("hello ");
+        second.write("bonjour\n");
+        first.write("world\nagain\n");
+
+        assertThat(output.toString(), is("[exec 2] bonjour\n[exec 1] hello world\n[exec 1] again\n"));
+    }
+
+    @Test
+    public void testFlushWritesThePendingPartOfALine() throws IOException {
+        StringWriter output = new StringWriter();
+        LinePrefixWriter writer = new LinePrefixWriter(output, "> ");
+
+        writer.write("no new line");
+        writer.flush();
+        writer.write(" yet\nnext");
+        writer.close();
+
+        assertThat(output.toString(), is("> no new line yet\n> next"));
+    }
+}
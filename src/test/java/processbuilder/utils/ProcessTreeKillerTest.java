@@ -0,0 +1,82 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package processbuilder.utils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+
+public class ProcessTreeKillerTest {
+
+    /**
+     * @return Whether the process runs, a zombie left by a killed parent does not count.
+     */
+    private static boolean isRunning(String pid) throws IOException {
+        File stat = new File("/proc/" + pid + "/stat");
+        if (!stat.exists()) {
+            return false;
+        }
+        String content = new String(Files.readAllBytes(stat.toPath()), StandardCharsets.UTF_8);
+        // pid (command) state ...
+        return !content.substring(content.lastIndexOf(')') + 2).startsWith("Z");
+    }
+
+    @Test
+    public void testDescendantsAreKilled() throws Exception {
+        assumeTrue(ProcessTreeKiller.isTreeSupported() && new File("/proc/self").exists());
+        Process process = new ProcessBuilder("sh", "-c", "sleep 30 & echo $!; wait").start();
+        String childPid = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                                                                   StandardCharsets.UTF_8)).readLine();
+        assertThat(isRunning(childPid), is(true));
+
+        ProcessTreeKiller.destroyTree(process);
+
+        // The shell may exit by itself once its child is killed
+        process.waitFor();
+        for (int attempt = 0; attempt < 50 && isRunning(childPid); attempt++) {
+            Thread.sleep(20);
+        }
+        assertThat(isRunning(childPid), is(false));
+    }
+
+    @Test
+    public void testExitedProcessIsNotCounted() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "exit 0").start();
+        process.waitFor();
+
+        assertThat(ProcessTreeKiller.destroyTree(process), is(0));
+    }
+}